@@ -3,10 +3,13 @@ package com.mxgraph.examples.swing;
 import com.mxgraph.examples.config.SCXMLConstraints;
 import com.mxgraph.examples.swing.editor.fileimportexport.IImportExport;
 import com.mxgraph.examples.swing.editor.fileimportexport.ImportExportPicker;
+import com.mxgraph.examples.swing.editor.fileimportexport.SCXMLFragmentCache;
+import com.mxgraph.examples.swing.editor.fileimportexport.SCXMLFragmentLoader;
 import com.mxgraph.examples.swing.editor.fileimportexport.SCXMLImportExport;
 import com.mxgraph.examples.swing.editor.fileimportexport.SCXMLNode;
 import com.mxgraph.examples.swing.editor.scxml.*;
 import com.mxgraph.examples.swing.editor.scxml.SCXMLEditorActions.OpenAction;
+import com.mxgraph.examples.swing.editor.scxml.SCXMLEditorActions.SetLevelOfDetailThreshold;
 import com.mxgraph.examples.swing.editor.scxml.SCXMLEditorActions.ToggleIgnoreStoredLayout;
 import com.mxgraph.examples.swing.editor.scxml.eleditor.SCXMLEdgeEditor;
 import com.mxgraph.examples.swing.editor.scxml.eleditor.SCXMLElementEditor.Type;
@@ -153,7 +156,10 @@ public String docutext ;
 
 	private EditorStatus status=EditorStatus.STARTUP;
 	public void setStatus(EditorStatus status) {
+		EditorStatus oldStatus=this.status;
 		this.status=status;
+		// changes done while not editing are not validated.
+		if ((status==EditorStatus.EDITING) && (oldStatus!=EditorStatus.EDITING) && (graphComponent!=null)) graphComponent.validateGraph();
 	}
 	public EditorStatus getStatus() {
 		return status;
@@ -275,9 +281,49 @@ public String docutext ;
 	
 	private HashMap<String,SCXMLGraph> file2graph=new HashMap<String, SCXMLGraph>();
 	private HashMap<String,SCXMLImportExport> file2importer=new HashMap<String, SCXMLImportExport>();
+	// files selected by the user in place of outsourced files that were not found.
+	private HashMap<String,File> missingFile2replacement=new HashMap<String, File>();
+	// parsed outsourced files, kept across sessions.
+	private SCXMLFragmentCache fragmentCache=new SCXMLFragmentCache();
+	public SCXMLFragmentCache getFragmentCache() {
+		return fragmentCache;
+	}
 	public void clearDisplayOutsourcedContentStatus() {
 		file2graph.clear();
 		file2importer.clear();
+		missingFile2replacement.clear();
+	}
+	// normalize the file name in the SRC field of ond to the system absolute path of that file
+	private File getOutsourcedFile(mxCell ond) throws Exception {
+		SCXMLNode v=(SCXMLNode) ond.getValue();
+		File f=getThisFileInCurrentDirectory(v.getOutsourcedLocation());
+		String fileName=f.getAbsolutePath();
+		File replacement=missingFile2replacement.get(fileName);
+		if (replacement!=null) return replacement;
+		while (!f.exists()) {
+			JFileChooser fc = new JFileChooser(f.getParent());
+			final String inputFileName=fileName;
+			fc.setFileFilter(new FileFilter() {
+				@Override
+				public String getDescription() {
+					return "Find '"+inputFileName+"' file.";
+				}
+				@Override
+				public boolean accept(File f) {
+					return f.getName().equals(inputFileName) || f.isDirectory();
+				}
+			});
+			fc.setAcceptAllFileFilterUsed(false);
+			int rc = fc.showDialog(this, mxResources.get("findFile")+" '"+fileName+"'");
+			if (rc == JFileChooser.APPROVE_OPTION) {
+				System.out.println("trying this file: '"+fc.getSelectedFile()+"'");
+				f=fc.getSelectedFile();
+			} else {
+				throw new Exception("Aborted by the user.");
+			}
+		}
+		if (!f.getAbsolutePath().equals(fileName)) missingFile2replacement.put(fileName, f);
+		return f;
 	}
 	public SCXMLGraph attachOutsourcedContentToThisNode(mxCell ond,SCXMLGraph g,boolean display, boolean refresh) throws Exception {
 		SCXMLGraph rootg=getGraphComponent().getGraph();
@@ -305,32 +351,7 @@ public String docutext ;
 		}
 		if ((namespace!=null) && (node==null)) throw new Exception("node name not given but namespace given in: '"+src+"'");
 		String SCXMLnodename=(node!=null)?(((namespace!=null)?namespace+":":"")+node):v.getID();
-		// normalize the file name to the system absolute path of that file
-		File f=getThisFileInCurrentDirectory(src);
-		String fileName=f.getAbsolutePath();
-		while (!f.exists()) {
-			JFileChooser fc = new JFileChooser(f.getParent());
-			final String inputFileName=fileName;
-			fc.setFileFilter(new FileFilter() {
-				@Override
-				public String getDescription() {
-					return "Find '"+inputFileName+"' file.";
-				}
-				@Override
-				public boolean accept(File f) {
-					return f.getName().equals(inputFileName) || f.isDirectory();
-				}
-			});
-			fc.setAcceptAllFileFilterUsed(false);
-			int rc = fc.showDialog(this, mxResources.get("findFile")+" '"+fileName+"'");
-			if (rc == JFileChooser.APPROVE_OPTION) {
-				System.out.println("trying this file: '"+fc.getSelectedFile()+"'");
-				f=fc.getSelectedFile();
-			} else {
-				throw new Exception("Aborted by the user.");
-			}
-		}
-		fileName=f.getAbsolutePath();
+		String fileName=getOutsourcedFile(ond).getAbsolutePath();
 		// check to see if the required file has already been read
 		SCXMLImportExport ie = file2importer.get(fileName);
 		SCXMLGraph ig = file2graph.get(fileName);
@@ -338,6 +359,8 @@ public String docutext ;
 			// load the required graph
 			assert(!file2importer.containsKey(fileName) || refresh);
 			file2importer.put(fileName, ie=new SCXMLImportExport());								
+			ie.setUseStreamingReader(preferences.getBoolean(SCXMLFileChoser.FileChoserCustomControls.PREFERENCE_USE_STREAMING_READER, false));
+			ie.setFragmentCache(fragmentCache);
 			// read the graph, this will throw an exception if something goes wrong
 			System.out.println("reading "+fileName);
             ie.readInGraph(ig=new SCXMLGraph(),fileName,preferences.getBoolean(SCXMLFileChoser.FileChoserCustomControls.PREFERENCE_IGNORE_STORED_LAYOUT, true), getRestrictedStatesConfig());
@@ -429,33 +452,93 @@ public String docutext ;
 	}
 	HashSet<mxCell> alreadyDone=new HashSet<mxCell>();
 	public void displayOutsourcedContent(SCXMLGraph g,boolean display,boolean isRoot) throws Exception {
-		if (isRoot) alreadyDone.clear();
-		// get the nodes that are outsourced
-		HashSet<mxCell> onds = g.getOutsourcedNodes();
-		for(mxCell ond:onds) {
-			// ig contains the graph from which the content of ond (or all its clones) is imported
-			SCXMLGraph ig=null;
+		if (isRoot) {
+			alreadyDone.clear();
+			// (re)read in parallel all files reachable from g, then attach them using the copies just read.
+			loadOutsourcedContent(g);
+		}
+		displayOutsourcedContent(g, display, isRoot, new LinkedHashSet<String>());
+	}
+	// inclusionPath: the files whose content is being attached, used to stop cyclic inclusions.
+	private void displayOutsourcedContent(SCXMLGraph g,boolean display,boolean isRoot,LinkedHashSet<String> inclusionPath) throws Exception {
+		// get the nodes that are outsourced, in a deterministic order
+		for(mxCell ond:sortById(g.getOutsourcedNodes())) {
 			// if isRoot is true, use the original node.
 			// else: check if there are clones for this original node and use those clones			
+			List<mxCell> todo=new ArrayList<mxCell>();
 			if (isRoot) {
-				if (!alreadyDone.contains(ond)) {
-					ig=attachOutsourcedContentToThisNode(ond, g, display,true);
-					alreadyDone.add(ond);
-				}
+				todo.add(ond);
 			} else {
 				HashSet<mxCell> clones4Ond=g.getOriginal2Clones().get(ond);
-				if (clones4Ond!=null)
-					for (mxCell clonedOnd:clones4Ond) {
-						if (!alreadyDone.contains(clonedOnd)) {
-							ig=attachOutsourcedContentToThisNode(clonedOnd, g, display,true);
-							alreadyDone.add(clonedOnd);
-						}
+				if (clones4Ond!=null) todo.addAll(sortById(clones4Ond));
+			}
+			for (mxCell n:todo) {
+				if (!alreadyDone.contains(n)) {
+					String fileName=getOutsourcedFile(n).getAbsolutePath();
+					if (inclusionPath.contains(fileName)) {
+						System.out.println("WARNING: cyclic inclusion of '"+fileName+"' through: "+inclusionPath+". Not attaching it to "+n.getValue()+".");
+						continue;
+					}
+					// ig contains the graph from which the content of n is imported
+					SCXMLGraph ig=attachOutsourcedContentToThisNode(n, g, display,!file2graph.containsKey(fileName));
+					alreadyDone.add(n);
+					// recursively call this function on the graph just created
+					if (ig!=null) {
+						inclusionPath.add(fileName);
+						displayOutsourcedContent(ig,display,false,inclusionPath);
+						inclusionPath.remove(fileName);
 					}
+				}
 			}
-			// recursively call this function on the graph just created
-			if (ig!=null) displayOutsourcedContent(ig,display,false);
 		}
 	}
+	/**
+	 * reads concurrently all outsourced files reachable from g (each file once) and stores them
+	 * so that attachOutsourcedContentToThisNode uses them instead of reading the files again.
+	 * Files are found level by level as the files that include them are read.
+	 */
+	private void loadOutsourcedContent(SCXMLGraph g) throws Exception {
+		SCXMLFragmentLoader loader=new SCXMLFragmentLoader(
+				preferences.getBoolean(SCXMLFileChoser.FileChoserCustomControls.PREFERENCE_IGNORE_STORED_LAYOUT, true),
+				preferences.getBoolean(SCXMLFileChoser.FileChoserCustomControls.PREFERENCE_USE_STREAMING_READER, false),
+				getRestrictedStatesConfig());
+		loader.setFragmentCache(fragmentCache);
+		file2graph.clear();
+		file2importer.clear();
+		HashSet<String> seen=new HashSet<String>();
+		List<mxCell> frontier=sortById(g.getOutsourcedNodes());
+		while (!frontier.isEmpty()) {
+			List<String> files=new ArrayList<String>();
+			for (mxCell ond:frontier) {
+				String fileName=getOutsourcedFile(ond).getAbsolutePath();
+				if (seen.add(fileName)) files.add(fileName);
+			}
+			frontier=new ArrayList<mxCell>();
+			for (SCXMLFragmentLoader.Fragment f:loader.load(files).values()) {
+				f.showWarnings(this);
+				SCXMLGraph ig=f.getGraph();
+				ig.setEditor(this);
+				file2importer.put(f.getFileName(), f.getImporter());
+				file2graph.put(f.getFileName(), ig);
+				frontier.addAll(sortById(ig.getOutsourcedNodes()));
+			}
+		}
+	}
+	private static List<mxCell> sortById(Collection<mxCell> cells) {
+		List<mxCell> ret=new ArrayList<mxCell>(cells);
+		Collections.sort(ret, new Comparator<mxCell>() {
+			@Override
+			public int compare(mxCell o1, mxCell o2) {
+				String id1=o1.getId(),id2=o2.getId();
+				if (id1==null) return (id2==null)?0:1;
+				if (id2==null) return -1;
+				// ids are numbers assigned in creation order
+				if (id1.length()!=id2.length()) return id1.length()-id2.length();
+				return id1.compareTo(id2);
+			}
+		});
+		return ret;
+	}
 	private boolean doDisplayOfOutsourcedContent=false;
 	private JCheckBoxMenuItem displayOutsourcedContentMenuItem;
 	public void setDisplayOutsourcedContentMenuItem(JCheckBoxMenuItem mi) {
@@ -542,6 +625,7 @@ public String docutext ;
 		graph.setMultiplicities(m);
 		
 		preferences = Preferences.userRoot();
+		SetLevelOfDetailThreshold.applyPreferences(this);
 		
 		/*
 		 * Parse restricted states configuration file
@@ -604,7 +688,7 @@ public String docutext ;
 				{
 					public void invoke(Object source, mxEventObject evt)
 					{
-						String buffer = (graphComponent.getTripleBuffer() != null) ? ""
+						String buffer = (graphComponent.getTileCache() != null) ? ""
 								: " (unbuffered)";
 						mxRectangle dirty = (mxRectangle) evt
 								.getProperty("region");
@@ -1367,7 +1451,7 @@ public String docutext ;
 		{
 			public void invoke(Object sender, mxEventObject evt)
 			{
-				if (getStatus()==EditorStatus.EDITING) graphComponent.validateGraph();
+				if (getStatus()==EditorStatus.EDITING) graphComponent.getValidator().validateChanges((List<?>) evt.getProperty("changes"));
 			}
 		});
 		
@@ -1469,6 +1553,10 @@ public String docutext ;
 			{
 				layout = new mxFastOrganicLayout(graph);
 			}
+			else if (ident.equals("multilevelLayout"))
+			{
+				layout = new mxMultilevelLayout(graph);
+			}
 			if (ident.equals("verticalPartition"))
 			{
 				layout = new mxPartitionLayout(graph, false)
@@ -0,0 +1,242 @@
+package com.mxgraph.examples.swing.editor.fileimportexport;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.RandomAccessFile;
+import java.io.Serializable;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * On disk cache of parsed SCXML files. There is one entry per file, named after the hash of
+ * the file's absolute path. An entry starts with the path, modification time, length and
+ * SHA-1 of the content of the file it was built from, followed by the deflated Java
+ * serialization of the parsed content. An entry is used if the file has the same length and
+ * either the same modification time or the same content hash. In the latter case the
+ * modification time stored in the entry is updated, so the content is hashed only once.
+ * The total size of the entries is bounded, the least recently used entries (by
+ * modification time of the entry file, updated on every hit) are deleted first.
+ */
+public class SCXMLFragmentCache {
+
+	private static final int VERSION=1;
+	private static final String EXTENSION=".bin";
+	public static final long DEFAULT_MAX_SIZE=256*1024*1024;
+
+	private final File directory;
+	private final long maxSize;
+
+	public SCXMLFragmentCache(File directory,long maxSize) {
+		this.directory=directory;
+		this.maxSize=maxSize;
+	}
+	public SCXMLFragmentCache() {
+		this(new File(System.getProperty("user.home"),".scxmlgui"+File.separator+"fragment-cache"),DEFAULT_MAX_SIZE);
+	}
+
+	public File getDirectory() {
+		return directory;
+	}
+
+	/**
+	 * @return the content stored for file, null if there is none or if file has changed since it was stored.
+	 */
+	public Object get(File file) {
+		File entry=getEntryFile(file);
+		if (!entry.exists()) return null;
+		Object ret;
+		boolean touched;
+		try {
+			DataInputStream in=new DataInputStream(new BufferedInputStream(new FileInputStream(entry)));
+			try {
+				if (in.readInt()!=VERSION) return invalid(entry);
+				String path=in.readUTF();
+				long lastModified=in.readLong();
+				long length=in.readLong();
+				String hash=in.readUTF();
+				if (!path.equals(file.getAbsolutePath()) || (length!=file.length())) return invalid(entry);
+				touched=(lastModified!=file.lastModified());
+				if (touched && !hash.equals(getContentHash(file))) return invalid(entry);
+				ret=new ObjectInputStream(new InflaterInputStream(in)).readObject();
+			} finally {
+				in.close();
+			}
+		} catch (Exception e) {
+			System.out.println("Discarding unreadable cache entry for '"+file+"': "+e);
+			return invalid(entry);
+		}
+		if (touched) setLastModified(entry, file.lastModified());
+		entry.setLastModified(System.currentTimeMillis());
+		return ret;
+	}
+
+	/**
+	 * Modification time, length and content hash of a file, taken by {@link #getStamp(File)}
+	 * before the file is parsed.
+	 */
+	public static class Stamp {
+		private final long lastModified,length;
+		private final String hash;
+
+		private Stamp(long lastModified,long length,String hash) {
+			this.lastModified=lastModified;
+			this.length=length;
+			this.hash=hash;
+		}
+		// true if file still has the modification time and length of this stamp.
+		private boolean isStampOf(File file) {
+			return (lastModified==file.lastModified()) && (length==file.length());
+		}
+	}
+
+	/**
+	 * @return the stamp to be passed to {@link #put(File, Stamp, Serializable)} once file has
+	 * been parsed, null if file can not be read.
+	 */
+	public Stamp getStamp(File file) {
+		try {
+			long lastModified=file.lastModified(),length=file.length();
+			String hash=getContentHash(file);
+			Stamp ret=new Stamp(lastModified, length, hash);
+			// the hash is only valid if the file has not been changed while it was read
+			return ret.isStampOf(file)?ret:null;
+		} catch (Exception e) {
+			System.out.println("Unable to read '"+file+"' for the cache: "+e);
+			return null;
+		}
+	}
+
+	/**
+	 * stores content as the parsed content of file. stamp must have been taken before file
+	 * was parsed, nothing is stored if stamp is null or if file has changed since then.
+	 * Errors are reported but not thrown, the cache is just not updated.
+	 */
+	public void put(File file,Stamp stamp,Serializable content) {
+		if ((stamp==null) || !stamp.isStampOf(file)) return;
+		File entry=getEntryFile(file);
+		File tmp=null;
+		try {
+			if (!directory.exists() && !directory.mkdirs()) throw new IOException("Unable to create directory: "+directory);
+			long lastModified=stamp.lastModified,length=stamp.length;
+			String hash=stamp.hash;
+			tmp=File.createTempFile("entry", ".tmp", directory);
+			DataOutputStream out=new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)));
+			try {
+				out.writeInt(VERSION);
+				out.writeUTF(file.getAbsolutePath());
+				out.writeLong(lastModified);
+				out.writeLong(length);
+				out.writeUTF(hash);
+				DeflaterOutputStream zout=new DeflaterOutputStream(out);
+				ObjectOutputStream oout=new ObjectOutputStream(zout);
+				oout.writeObject(content);
+				oout.flush();
+				zout.finish();
+			} finally {
+				out.close();
+			}
+			if (entry.exists()) entry.delete();
+			if (!tmp.renameTo(entry)) throw new IOException("Unable to rename "+tmp+" to "+entry);
+			tmp=null;
+			evict();
+		} catch (Exception e) {
+			System.out.println("Unable to cache the content of '"+file+"': "+e);
+		} finally {
+			if (tmp!=null) tmp.delete();
+		}
+	}
+
+	public void invalidate(File file) {
+		getEntryFile(file).delete();
+	}
+	public synchronized void clear() {
+		for (File entry:getEntries()) entry.delete();
+	}
+
+	// deletes the least recently used entries until the total size is within maxSize.
+	private synchronized void evict() {
+		File[] entries=getEntries();
+		long total=0;
+		for (File entry:entries) total+=entry.length();
+		if (total<=maxSize) return;
+		Arrays.sort(entries, new Comparator<File>() {
+			@Override
+			public int compare(File o1, File o2) {
+				long m1=o1.lastModified(),m2=o2.lastModified();
+				return (m1<m2)?-1:((m1==m2)?0:1);
+			}
+		});
+		for (File entry:entries) {
+			if (total<=maxSize) break;
+			long size=entry.length();
+			if (entry.delete()) total-=size;
+		}
+	}
+
+	private File[] getEntries() {
+		File[] ret=directory.listFiles(new FilenameFilter() {
+			@Override
+			public boolean accept(File dir, String name) {
+				return name.endsWith(EXTENSION);
+			}
+		});
+		return (ret==null)?new File[0]:ret;
+	}
+	// rewrites the modification time stored in the header of entry.
+	private void setLastModified(File entry,long lastModified) {
+		try {
+			RandomAccessFile out=new RandomAccessFile(entry, "rw");
+			try {
+				out.readInt();
+				out.readUTF();
+				out.writeLong(lastModified);
+			} finally {
+				out.close();
+			}
+		} catch (IOException e) {
+			System.out.println("Unable to update the cache entry for '"+entry+"': "+e);
+		}
+	}
+	private Object invalid(File entry) {
+		entry.delete();
+		return null;
+	}
+	private File getEntryFile(File file) {
+		try {
+			return new File(directory,toHex(MessageDigest.getInstance("SHA-1").digest(file.getAbsolutePath().getBytes("UTF8")))+EXTENSION);
+		} catch (Exception e) {
+			throw new RuntimeException(e);
+		}
+	}
+	private static String getContentHash(File file) throws IOException, NoSuchAlgorithmException {
+		MessageDigest md=MessageDigest.getInstance("SHA-1");
+		InputStream in=new FileInputStream(file);
+		try {
+			byte[] buffer=new byte[64*1024];
+			int n;
+			while ((n=in.read(buffer))>0) md.update(buffer, 0, n);
+		} finally {
+			in.close();
+		}
+		return toHex(md.digest());
+	}
+	private static String toHex(byte[] bytes) {
+		StringBuilder ret=new StringBuilder(2*bytes.length);
+		for (byte b:bytes) ret.append(Character.forDigit((b>>4)&0xf, 16)).append(Character.forDigit(b&0xf, 16));
+		return ret.toString();
+	}
+}
@@ -0,0 +1,147 @@
+package com.mxgraph.examples.swing.editor.fileimportexport;
+
+import java.awt.Component;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.swing.JOptionPane;
+import javax.swing.SwingUtilities;
+
+import com.mxgraph.examples.config.SCXMLConstraints;
+import com.mxgraph.examples.swing.editor.scxml.SCXMLGraph;
+
+/**
+ * Reads outsourced SCXML fragments (src and xi:include targets) concurrently on a
+ * bounded pool of threads. Each file is read once per call to load, also when it is
+ * requested several times, and into its own importer and graph, so no state is shared
+ * between the threads. Attaching the fragments to the including graph is left to the
+ * caller, which does it on its own thread in a deterministic order. The warnings raised
+ * while reading a fragment are collected in it, see Fragment.showWarnings.
+ */
+public class SCXMLFragmentLoader {
+
+	public static class Fragment {
+		private final String fileName;
+		private final SCXMLImportExport importer;
+		private final SCXMLGraph graph;
+
+		private Fragment(String fileName,SCXMLImportExport importer,SCXMLGraph graph) {
+			this.fileName=fileName;
+			this.importer=importer;
+			this.graph=graph;
+		}
+		public String getFileName() {
+			return fileName;
+		}
+		public SCXMLImportExport getImporter() {
+			return importer;
+		}
+		public SCXMLGraph getGraph() {
+			return graph;
+		}
+		public List<String[]> getWarnings() {
+			return importer.getCollectedWarnings();
+		}
+		/**
+		 * shows the warnings raised while reading this fragment, on the EDT.
+		 */
+		public void showWarnings(final Component parent) {
+			final List<String[]> warnings=getWarnings();
+			if (warnings.isEmpty()) return;
+			Runnable show=new Runnable() {
+				@Override
+				public void run() {
+					for (String[] w:warnings) JOptionPane.showMessageDialog(parent, w[0], w[1], JOptionPane.WARNING_MESSAGE);
+				}
+			};
+			if (SwingUtilities.isEventDispatchThread()) show.run();
+			else SwingUtilities.invokeLater(show);
+		}
+	}
+
+	private final int maxThreads;
+	private final boolean ignoreStoredLayout,useStreamingReader;
+	private final SCXMLConstraints restrictedConstraints;
+	private SCXMLFragmentCache fragmentCache=null;
+
+	public SCXMLFragmentLoader(boolean ignoreStoredLayout, boolean useStreamingReader, SCXMLConstraints restrictedConstraints) {
+		this(Runtime.getRuntime().availableProcessors(), ignoreStoredLayout, useStreamingReader, restrictedConstraints);
+	}
+	public SCXMLFragmentLoader(int maxThreads, boolean ignoreStoredLayout, boolean useStreamingReader, SCXMLConstraints restrictedConstraints) {
+		this.maxThreads=Math.max(1, maxThreads);
+		this.ignoreStoredLayout=ignoreStoredLayout;
+		this.useStreamingReader=useStreamingReader;
+		this.restrictedConstraints=restrictedConstraints;
+	}
+
+	public void setFragmentCache(SCXMLFragmentCache fragmentCache) {
+		this.fragmentCache = fragmentCache;
+	}
+
+	/**
+	 * reads the given files (absolute paths) concurrently.
+	 * @return the fragments read, in the order in which their files were first given.
+	 * @throws Exception the first error (in the order of the files) encountered while reading.
+	 */
+	public LinkedHashMap<String,Fragment> load(Collection<String> fileNames) throws Exception {
+		LinkedHashSet<String> files=new LinkedHashSet<String>(fileNames);
+		LinkedHashMap<String,Fragment> ret=new LinkedHashMap<String, Fragment>();
+		if (files.isEmpty()) return ret;
+		ExecutorService pool=Executors.newFixedThreadPool(Math.min(maxThreads, files.size()), new LoaderThreadFactory());
+		try {
+			List<Future<Fragment>> results=new ArrayList<Future<Fragment>>();
+			for (final String fileName:files) {
+				results.add(pool.submit(new Callable<Fragment>() {
+					@Override
+					public Fragment call() throws Exception {
+						return read(fileName);
+					}
+				}));
+			}
+			for (Future<Fragment> result:results) {
+				try {
+					Fragment f=result.get();
+					ret.put(f.getFileName(), f);
+				} catch (ExecutionException e) {
+					Throwable cause=e.getCause();
+					if (cause instanceof Exception) throw (Exception)cause;
+					else throw e;
+				}
+			}
+		} finally {
+			pool.shutdownNow();
+		}
+		return ret;
+	}
+
+	private Fragment read(String fileName) throws Exception {
+		SCXMLImportExport ie=new SCXMLImportExport();
+		ie.setUseStreamingReader(useStreamingReader);
+		ie.setOpenSourceViewer(false);
+		ie.setFragmentCache(fragmentCache);
+		ie.setCollectWarnings(true);
+		SCXMLGraph g=new SCXMLGraph();
+		ie.readInGraph(g, fileName, ignoreStoredLayout, restrictedConstraints);
+		return new Fragment(fileName, ie, g);
+	}
+
+	private static class LoaderThreadFactory implements ThreadFactory {
+		private final AtomicInteger count=new AtomicInteger();
+		@Override
+		public Thread newThread(Runnable r) {
+			Thread t=new Thread(r,"SCXMLFragmentLoader-"+count.incrementAndGet());
+			t.setDaemon(true);
+			return t;
+		}
+	}
+}
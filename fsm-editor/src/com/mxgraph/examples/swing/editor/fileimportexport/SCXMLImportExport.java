@@ -29,8 +29,10 @@ import javax.swing.*;
 import javax.xml.parsers.DocumentBuilder;
 import javax.xml.parsers.DocumentBuilderFactory;
 import javax.xml.parsers.ParserConfigurationException;
+import java.awt.Component;
 import java.io.File;
 import java.io.IOException;
+import java.io.Serializable;
 import java.text.DecimalFormat;
 import java.util.*;
 import java.util.regex.Matcher;
@@ -44,6 +46,15 @@ public class SCXMLImportExport implements IImportExport {
 	private HashMap<String,SCXMLNode> scxmlID2nodes=new HashMap<String, SCXMLNode>();
 	private HashMap<String,HashMap<String,HashSet<SCXMLEdge>>> fromToEdges=new HashMap<String, HashMap<String,HashSet<SCXMLEdge>>>();
 	private int internalIDcounter=11;
+	// if true files are read with SCXMLStreamReader instead of building their DOM.
+	private boolean useStreamingReader=false;
+	// if false reading a file doesn't open the text editor with its source (used for outsourced fragments).
+	private boolean openSourceViewer=true;
+	private SCXMLFragmentCache fragmentCache=null;
+	// when not null, warnings are collected here ({message,title}) instead of being shown.
+	private List<String[]> collectedWarnings=null;
+	// set if the file being read contains restriction comments, their handling depends on the restriction configuration so that file is not cached.
+	private boolean restrictionCommentsFound=false;
 	public static final String RESTRICTEDSTATECOMMENT="restriction_type";
 
 	private HashSet<SCXMLEdge> getEdges(String SCXMLfromID,String SCXMLtoID) {
@@ -63,7 +74,7 @@ public class SCXMLImportExport implements IImportExport {
 			return tot;
 		}
 	}
-	private SCXMLEdge addEdge(HashMap<String,Object> ec) throws Exception {
+	SCXMLEdge addEdge(HashMap<String,Object> ec) throws Exception {
 		System.out.println("add edge: "+ec.get(SCXMLEdge.SOURCE)+"->"+ec.get(SCXMLEdge.TARGETS));
 		return addEdge((String)ec.get(SCXMLEdge.SOURCE),(List) ec.get(SCXMLEdge.TARGETS),(String)ec.get(SCXMLEdge.CONDITION),(String)ec.get(SCXMLEdge.EVENT),(String)ec.get(SCXMLEdge.EDGEEXE),(HashMap<String,String>)ec.get(SCXMLEdge.EDGEGEO));
 	}
@@ -123,6 +134,39 @@ public class SCXMLImportExport implements IImportExport {
 		return internalID2nodes.get(internalID);
 	}
 	
+	public boolean getUseStreamingReader() {
+		return useStreamingReader;
+	}
+	public void setUseStreamingReader(boolean useStreamingReader) {
+		this.useStreamingReader = useStreamingReader;
+	}
+
+	public void setOpenSourceViewer(boolean openSourceViewer) {
+		this.openSourceViewer = openSourceViewer;
+	}
+
+	public void setFragmentCache(SCXMLFragmentCache fragmentCache) {
+		this.fragmentCache = fragmentCache;
+	}
+
+	/**
+	 * if true, the warnings raised while reading are not shown but collected, so that a file can
+	 * be read on a thread other than the EDT. See getCollectedWarnings.
+	 */
+	public void setCollectWarnings(boolean collectWarnings) {
+		collectedWarnings=collectWarnings?new ArrayList<String[]>():null;
+	}
+	/**
+	 * @return the warnings collected so far as {message,title} pairs, empty if warnings are not collected.
+	 */
+	public List<String[]> getCollectedWarnings() {
+		return (collectedWarnings==null)?Collections.<String[]>emptyList():collectedWarnings;
+	}
+	private void showWarning(Component parent,String message,String title) {
+		if (collectedWarnings!=null) collectedWarnings.add(new String[]{message,title});
+		else JOptionPane.showMessageDialog(parent, message, title, JOptionPane.WARNING_MESSAGE);
+	}
+
 	public SCXMLNode getNodeFromSCXMLID(String scxmlID) {
 		assert(!StringUtils.isEmptyString(scxmlID));
 		return scxmlID2nodes.get(scxmlID);
@@ -159,23 +203,38 @@ public class SCXMLImportExport implements IImportExport {
 	}
 	
 	private SCXMLNode handleSCXMLNode(Node n, SCXMLNode pn, Boolean isParallel, Boolean isHistory) throws Exception {
+		return handleSCXMLNode(n.getNodeName(), getAttributes(n), pn, isParallel, isHistory);
+	}
+	// attributes of a DOM node sorted by name (the same order in which the DOM returns them)
+	private static TreeMap<String,String> getAttributes(Node n) {
+		TreeMap<String,String> ret=new TreeMap<String, String>();
 		NamedNodeMap att = n.getAttributes();
-		Node nodeID = att.getNamedItem("id");
+		if (att!=null) {
+			int na=att.getLength();
+			for(int i=0;i<na;i++) {
+				Node a=att.item(i);
+				ret.put(a.getNodeName(), a.getNodeValue());
+			}
+		}
+		return ret;
+	}
+	SCXMLNode handleSCXMLNode(String elementName, Map<String,String> att, SCXMLNode pn, Boolean isParallel, Boolean isHistory) throws Exception {
+		String nodeID = att.get("id");
 		String nodeIDString=null,nodeNameString=null;
 		if (nodeID==null) {
-			if (n.getNodeName().toLowerCase().equals(SCXMLNode.ROOTID.toLowerCase())) {
+			if (elementName.toLowerCase().equals(SCXMLNode.ROOTID.toLowerCase())) {
 				nodeIDString=SCXMLNode.ROOTID;
 			} else {
 				nodeIDString="";
 			}
 		} else {
-			nodeIDString=StringUtils.cleanupSpaces(nodeID.getNodeValue());
+			nodeIDString=StringUtils.cleanupSpaces(nodeID);
 		}
-		Node nodeName = att.getNamedItem("name");
-		nodeNameString=(nodeName==null)?null:StringUtils.cleanupSpaces(nodeName.getNodeValue());
+		String nodeName = att.get("name");
+		nodeNameString=(nodeName==null)?null:StringUtils.cleanupSpaces(nodeName);
 		
-		Node nodeHistoryType = att.getNamedItem("type");
-		String nodeHistoryTypeString=(nodeHistoryType==null)?"shallow":StringUtils.cleanupSpaces(nodeHistoryType.getNodeValue());
+		String nodeHistoryType = att.get("type");
+		String nodeHistoryTypeString=(nodeHistoryType==null)?"shallow":StringUtils.cleanupSpaces(nodeHistoryType);
 		SCXMLNode.HISTORYTYPE historyType=null;
 		try {
 			historyType=SCXMLNode.HISTORYTYPE.valueOf(nodeHistoryTypeString.toUpperCase());
@@ -185,15 +244,15 @@ public class SCXMLImportExport implements IImportExport {
 		SCXMLNode node=buildAndAddBasicNodeAsChildOf(nodeIDString,nodeNameString,pn,false);
 		if ((!isHistory) || (historyType==null)) {
 			node.setParallel(isParallel);
-			Node isInitial=null;
-			Node isFinal=null;
-			if (((isFinal=att.getNamedItem("final"))!=null) &&
-					(isFinal.getNodeValue().equals("true"))) {
+			String isInitial=null;
+			String isFinal=null;
+			if (((isFinal=att.get("final"))!=null) &&
+					(isFinal.equals("true"))) {
 				node.setFinal(true);
 			}
-			if (((isInitial=att.getNamedItem("initial"))!=null)||
-					((isInitial=att.getNamedItem("initialstate"))!=null)) {
-				String[] initialStates=StringUtils.cleanupSpaces(isInitial.getNodeValue()).split("[\\s]");
+			if (((isInitial=att.get("initial"))!=null)||
+					((isInitial=att.get("initialstate"))!=null)) {
+				String[] initialStates=StringUtils.cleanupSpaces(isInitial).split("[\\s]");
 				for (String initialStateID:initialStates) {
 					SCXMLNode in =getNodeFromSCXMLID(initialStateID);
 					if (in==null) in=new SCXMLNode();
@@ -203,15 +262,13 @@ public class SCXMLImportExport implements IImportExport {
 				}
 			}
 			// set namespace attribute
-			int na=att.getLength();
 			String namespace="";
-			for(int i=0;i<na;i++) {
-				Node a=att.item(i);
-				String name=a.getNodeName().toLowerCase();
+			for(Map.Entry<String, String> a:att.entrySet()) {
+				String name=a.getKey().toLowerCase();
 				if (name.startsWith("xmlns")) {
-					namespace+=a.getNodeName()+"=\""+a.getNodeValue()+"\"\n";
+					namespace+=a.getKey()+"=\""+a.getValue()+"\"\n";
 				} else if (name.equals("src")) {
-					setNodeAsOutsourcing(new OutSource(OUTSOURCETYPE.SRC,a.getNodeValue()), node);
+					setNodeAsOutsourcing(new OutSource(OUTSOURCETYPE.SRC,a.getValue()), node);
 				}
 			}
 			if (!StringUtils.isEmptyString(namespace)) node.setNamespace(namespace);
@@ -229,19 +286,20 @@ public class SCXMLImportExport implements IImportExport {
 			getNodeHier(editor, n, pn,pwd, restrictedConstraints);
 		}
 	}
-	private static String[] commentsCollector=new String[]{""};
-	private Object addCommentsAndResetCollectorTo(Object thing) throws Exception {
-		if (!StringUtils.isEmptyString(commentsCollector[0])) {
+	private final StringBuilder commentsCollector=new StringBuilder();
+	Object addCommentsAndResetCollectorTo(Object thing) throws Exception {
+		if (commentsCollector.length()>0) {
+			String comments=commentsCollector.toString();
 			if (thing instanceof SCXMLNode) {
-				((SCXMLNode)thing).setComments(commentsCollector[0]);
+				((SCXMLNode)thing).setComments(comments);
 			} else if (thing instanceof SCXMLEdge) {
-				((SCXMLEdge)thing).setComments(commentsCollector[0]);
+				((SCXMLEdge)thing).setComments(comments);
 			} else if (thing instanceof String) {
-				thing=((String)thing).concat("<!--"+commentsCollector[0]+"-->");
+				thing=((String)thing).concat("<!--"+comments+"-->");
 			} else {
 				throw new Exception("Tried to add comments to unexpected thing: "+thing);
 			}
-			commentsCollector[0]="";
+			commentsCollector.setLength(0);
 		}
 		return thing;
 	}
@@ -275,20 +333,7 @@ public class SCXMLImportExport implements IImportExport {
 					Node c = cs.item(i);
 					if ((c.getNodeType()==Node.ELEMENT_NODE) &&
 							c.getNodeName().toLowerCase().equals("transition")) {
-						HashMap<String, Object> edgeContent = processEdge(pn,c);
-						//pn.setOnInitialEntry(edgeContent.get(SCXMLEdge.EDGEEXE));
-						ArrayList<String> inNames=(ArrayList<String>) edgeContent.get(SCXMLEdge.TARGETS);
-						if (inNames.size()>1) throw new Exception("Unhandled multiple initial states. Report test case.");
-						for(String inName:inNames) {
-							if (inName!=null) {
-								SCXMLNode in =getNodeFromSCXMLID(inName);
-								if (in==null) in=new SCXMLNode();
-								in.setID(inName);
-								in.setInitial(true);
-								addSCXMLNode(in);
-								in.setOnInitialEntry((String) edgeContent.get(SCXMLEdge.EDGEEXE));
-							}
-						}
+						handleInitialTransition(processEdge(pn,c));
 						break;
 					}
 				}
@@ -320,37 +365,56 @@ public class SCXMLImportExport implements IImportExport {
 			}
 			break;
 		case Node.COMMENT_NODE:
-			String nodeValueString=n.getNodeValue();
-			if ((!readNodeGeometry(pn,nodeValueString)) && (!(nodeValueString.contains(RESTRICTEDSTATECOMMENT)))) {
-				commentsCollector[0]+=nodeValueString;
-			}
-			if ((nodeValueString.contains(RESTRICTEDSTATECOMMENT)) && (restrictedConstraints != null)) {
-				System.out.println("Contains restriction comment...");
-				if (pn.isFinal()) {
-					JOptionPane.showMessageDialog(editor, mxResources.get("finalNodeCanNotBeToggledWithRestriction") + " [node id: " + pn.getID() + "]", mxResources.get("restrictionOnFinalNode"), JOptionPane.WARNING_MESSAGE);
-				} else {
-					String[] restrictionTypes = nodeValueString.split(":")[1].replace(" ", "").split(";");
-					boolean isValidRestriction = false;
-					for (int i = 0; i < restrictionTypes.length; i++) {
-						String restrictionType = restrictionTypes[i];
-						for(RestrictedState restrictedState: restrictedConstraints.getRestrictedState()){
-							if (restrictedState.getName().equals(restrictionType)) {
-								pn.setRestricted(true, restrictedState);
-								isValidRestriction = true;
-							}
-						}
-						if (!isValidRestriction) {
-							JOptionPane.showMessageDialog(editor, mxResources.get("invalidRestrictionTypeMessage") + " [" + restrictionType + "]", mxResources.get("invalidRestrictionTypeTitle"), JOptionPane.WARNING_MESSAGE);
+			handleComment(editor, n.getNodeValue(), pn, restrictedConstraints);
+			break;
+		}
+		return root;
+	}
+	void handleInitialTransition(HashMap<String, Object> edgeContent) throws Exception {
+		//pn.setOnInitialEntry(edgeContent.get(SCXMLEdge.EDGEEXE));
+		ArrayList<String> inNames=(ArrayList<String>) edgeContent.get(SCXMLEdge.TARGETS);
+		if (inNames.size()>1) throw new Exception("Unhandled multiple initial states. Report test case.");
+		for(String inName:inNames) {
+			if (inName!=null) {
+				SCXMLNode in =getNodeFromSCXMLID(inName);
+				if (in==null) in=new SCXMLNode();
+				in.setID(inName);
+				in.setInitial(true);
+				addSCXMLNode(in);
+				in.setOnInitialEntry((String) edgeContent.get(SCXMLEdge.EDGEEXE));
+			}
+		}
+	}
+	// a comment is either the geometry of pn, a restriction on pn or a plain comment that is attached to the next node/edge.
+	void handleComment(SCXMLGraphEditor editor, String nodeValueString, SCXMLNode pn, SCXMLConstraints restrictedConstraints) {
+		if (nodeValueString.contains(RESTRICTEDSTATECOMMENT)) restrictionCommentsFound=true;
+		if ((!readNodeGeometry(pn,nodeValueString)) && (!(nodeValueString.contains(RESTRICTEDSTATECOMMENT)))) {
+			commentsCollector.append(nodeValueString);
+		}
+		if ((nodeValueString.contains(RESTRICTEDSTATECOMMENT)) && (restrictedConstraints != null)) {
+			System.out.println("Contains restriction comment...");
+			if (pn.isFinal()) {
+				showWarning(editor, mxResources.get("finalNodeCanNotBeToggledWithRestriction") + " [node id: " + pn.getID() + "]", mxResources.get("restrictionOnFinalNode"));
+			} else {
+				String[] restrictionTypes = nodeValueString.split(":")[1].replace(" ", "").split(";");
+				boolean isValidRestriction = false;
+				for (int i = 0; i < restrictionTypes.length; i++) {
+					String restrictionType = restrictionTypes[i];
+					for(RestrictedState restrictedState: restrictedConstraints.getRestrictedState()){
+						if (restrictedState.getName().equals(restrictionType)) {
+							pn.setRestricted(true, restrictedState);
+							isValidRestriction = true;
 						}
 					}
+					if (!isValidRestriction) {
+						showWarning(editor, mxResources.get("invalidRestrictionTypeMessage") + " [" + restrictionType + "]", mxResources.get("invalidRestrictionTypeTitle"));
+					}
 				}
 			}
-			break;
 		}
-		return root;
 	}
 	
-	private SCXMLNode setNodeAsOutsourcing(OutSource source,SCXMLNode parent) {
+	SCXMLNode setNodeAsOutsourcing(OutSource source,SCXMLNode parent) {
 		String nodeName=(source.getType()==OUTSOURCETYPE.XINC)?source.getLocation():parent.getID();
 		SCXMLNode child=buildAndAddBasicNodeAsChildOf(nodeName, null,parent, source.getType()==OUTSOURCETYPE.XINC);
 		child.setSRC(source);
@@ -359,7 +423,7 @@ public class SCXMLImportExport implements IImportExport {
 
 	// identifies that the outsourcing is done in a way for which we can support saving to file
 	// preserving the outsourcing to other files.
-	private void processOutsourcingChildrenForNode(SCXMLNode node,File pwd) throws Exception {
+	void processOutsourcingChildrenForNode(SCXMLNode node,File pwd) throws Exception {
 		if (node!=null) {
 			HashSet<OutSource> outSources = node.getOutsourcingChildren();
 			if (outSources!=null) {
@@ -388,20 +452,22 @@ public class SCXMLImportExport implements IImportExport {
 	}
 	
 	private HashMap<String, Object> processEdge(SCXMLNode pn, Node n) throws Exception {
+		HashMap<String,String> edgeGeometry=readEdgeGeometry(n);
+		String exe=collectAllChildrenInString(n);
+		return processEdge(pn, getAttributes(n), edgeGeometry, exe);
+	}
+	HashMap<String, Object> processEdge(SCXMLNode pn, Map<String,String> att, HashMap<String,String> edgeGeometry, String exe) throws Exception {
 		HashMap<String,Object> ret=new HashMap<String, Object>();
 		//event, cond and target attributes
-		NamedNodeMap att = n.getAttributes();
-		Node condNode = att.getNamedItem("cond");
-		String cond=(condNode!=null)?StringUtils.removeLeadingAndTrailingSpaces(condNode.getNodeValue()):"";
-		Node eventNode = att.getNamedItem("event");
-		String event=(eventNode!=null)?StringUtils.removeLeadingAndTrailingSpaces(eventNode.getNodeValue()):"";
-		Node targetNode = att.getNamedItem("target");
+		String condNode = att.get("cond");
+		String cond=(condNode!=null)?StringUtils.removeLeadingAndTrailingSpaces(condNode):"";
+		String eventNode = att.get("event");
+		String event=(eventNode!=null)?StringUtils.removeLeadingAndTrailingSpaces(eventNode):"";
+		String targetNode = att.get("target");
 		ArrayList<String> targets=null;
 		if (targetNode!=null)
-			targets=new ArrayList<String>(Arrays.asList(StringUtils.cleanupSpaces(targetNode.getNodeValue()).split("[\\s]")));
+			targets=new ArrayList<String>(Arrays.asList(StringUtils.cleanupSpaces(targetNode).split("[\\s]")));
 		//if ((targets!=null) && (targets.size()>1)) throw new Exception("multiple targets not supported.");
-		HashMap<String,String> edgeGeometry=readEdgeGeometry(n);
-		String exe=collectAllChildrenInString(n);
 		ret.put(SCXMLEdge.CONDITION,cond);
 		ret.put(SCXMLEdge.EVENT,event);
 		ret.put(SCXMLEdge.TARGETS,targets);
@@ -421,21 +487,72 @@ public class SCXMLImportExport implements IImportExport {
 	}
 	public SCXMLNode readSCXMLFileContentAndAttachAsChildrenOf(SCXMLGraphEditor editor, String filename,SCXMLNode parent, SCXMLConstraints restrictedConstraints) throws Exception {
 		System.out.println("Parsing file: "+filename);
-		SCXMLGraphEditor scxmlGraphEditor = new SCXMLGraphEditor();
-		String out = scxmlGraphEditor.appendfile(filename);
-		String text = "Test please if ";
+		if (openSourceViewer) {
+			SCXMLGraphEditor scxmlGraphEditor = new SCXMLGraphEditor();
+			String out = scxmlGraphEditor.appendfile(filename);
+			String text = "Test please if ";
 
-		SCXMLGraphEditor.EditorPane validationWarningStatusPane ;
-		validationWarningStatusPane = new SCXMLGraphEditor.EditorPane();
-		validationWarningStatusPane.buildGUI(text,filename);
+			SCXMLGraphEditor.EditorPane validationWarningStatusPane ;
+			validationWarningStatusPane = new SCXMLGraphEditor.EditorPane();
+			validationWarningStatusPane.buildGUI(text,filename);
+		}
 
 		File file=new File(filename);
-		Document doc = mxUtils.parseXMLFile(file,false,false);
-		doc.getDocumentElement().normalize();
+		SCXMLNode rootNode;
+		if (useStreamingReader) {
+			rootNode=new SCXMLStreamReader(this, editor, restrictedConstraints).read(file, parent);
+		} else {
+			Document doc = mxUtils.parseXMLFile(file,false,false);
+			doc.getDocumentElement().normalize();
 
-		SCXMLNode rootNode=getNodeHier(editor, doc.getDocumentElement(),parent,file.getParentFile(), restrictedConstraints);
+			rootNode=getNodeHier(editor, doc.getDocumentElement(),parent,file.getParentFile(), restrictedConstraints);
+		}
 		return rootNode;
 	}
+	// the parse data structures are replaced with the cached ones if the file has not changed since it was cached.
+	private SCXMLNode readSCXMLFileContentOrGetCached(SCXMLGraphEditor editor, String filename, SCXMLConstraints restrictedConstraints) throws Exception {
+		File file=new File(filename);
+		if (fragmentCache!=null) {
+			Object cached=fragmentCache.get(file);
+			if (cached instanceof ParsedFile) {
+				return ((ParsedFile)cached).restoreInto(this);
+			}
+		}
+		// taken before parsing so that changes made to the file meanwhile are not cached
+		SCXMLFragmentCache.Stamp stamp=(fragmentCache!=null)?fragmentCache.getStamp(file):null;
+		restrictionCommentsFound=false;
+		SCXMLNode ret=readSCXMLFileContentAndAttachAsChildrenOf(editor, filename, null, restrictedConstraints);
+		if ((stamp!=null) && (ret!=null) && !restrictionCommentsFound) fragmentCache.put(file, stamp, new ParsedFile(this,ret));
+		return ret;
+	}
+	// what is stored in the fragment cache: the result of reading a file before it is turned into a graph.
+	private static class ParsedFile implements Serializable {
+		private static final long serialVersionUID = 1L;
+
+		private final SCXMLNode root;
+		private final HashMap<String,SCXMLNode> internalID2nodes;
+		private final HashMap<String,ArrayList<SCXMLNode>> internalID2clusters;
+		private final HashMap<String,SCXMLNode> scxmlID2nodes;
+		private final HashMap<String,HashMap<String,HashSet<SCXMLEdge>>> fromToEdges;
+		private final int internalIDcounter;
+
+		public ParsedFile(SCXMLImportExport ie,SCXMLNode root) {
+			this.root=root;
+			this.internalID2nodes=ie.internalID2nodes;
+			this.internalID2clusters=ie.internalID2clusters;
+			this.scxmlID2nodes=ie.scxmlID2nodes;
+			this.fromToEdges=ie.fromToEdges;
+			this.internalIDcounter=ie.internalIDcounter;
+		}
+		public SCXMLNode restoreInto(SCXMLImportExport ie) {
+			ie.internalID2nodes=internalID2nodes;
+			ie.internalID2clusters=internalID2clusters;
+			ie.scxmlID2nodes=scxmlID2nodes;
+			ie.fromToEdges=fromToEdges;
+			ie.internalIDcounter=internalIDcounter;
+			return root;
+		}
+	}
 	public void readInGraph(SCXMLGraph graph, String filename, boolean ignoreStoredLayout, SCXMLConstraints restrictedConstraints) throws Exception {
 		// clean importer data-structures
 		internalID2cell.clear();
@@ -445,7 +562,7 @@ public class SCXMLImportExport implements IImportExport {
 		scxmlID2nodes.clear();
 		internalIDcounter=11;
 
-		root=readSCXMLFileContentAndAttachAsChildrenOf(graph.getEditor(), filename, null, restrictedConstraints);
+		root=readSCXMLFileContentOrGetCached(graph.getEditor(), filename, restrictedConstraints);
 		if (root!=scxmlID2nodes.get(SCXMLNode.ROOTID)) {
 			SCXMLNode firstChild=root;
 			mxGeometry geometry = root.getGeometry();
@@ -503,6 +620,7 @@ public class SCXMLImportExport implements IImportExport {
 		SCXMLGraphEditor editor = gc.getGraph().getEditor();
 		saveProblematicNodes.clear();
 		SCXMLGraph graph = (SCXMLGraph) gc.getGraph();
+		setUseStreamingReader(((SCXMLFileChoser)fc).useStreamingReader());
 		readInGraph(graph,from,((SCXMLFileChoser)fc).ignoreStoredLayout(), restrictedConstraints);
 		if (hasUnhandledXIncludeUsage()) displayWarningAboutUnhandledXIncludeUsage(editor,false);
 		gc.validateGraph();
@@ -868,17 +986,23 @@ public class SCXMLImportExport implements IImportExport {
 			Node n = states.item(s);
 			switch (n.getNodeType()) {
 			case Node.COMMENT_NODE:
-				String comment=n.getNodeValue();
-				Matcher m = edgepathPattern.matcher(comment);
-				if (m.matches()) {
-					ret.put(m.group(1),m.group(2));
+				if (readEdgeGeometry(n.getNodeValue(),ret)) {
 					root.removeChild(n); // remove the used comment node
+					s--; // the next sibling is now at position s
 				}
 				break;
 			}
 		}
 		return (ret.isEmpty())?null:ret;
 	}
+	static boolean readEdgeGeometry(String comment,HashMap<String,String> geometries) {
+		Matcher m = edgepathPattern.matcher(comment);
+		if (m.matches()) {
+			geometries.put(m.group(1),m.group(2));
+			return true;
+		}
+		return false;
+	}
 	private SCXMLNode getInitialChildOfmxCell(mxCell n) {
 		int nc=n.getChildCount();
 		for(int i=0;i<nc;i++) {
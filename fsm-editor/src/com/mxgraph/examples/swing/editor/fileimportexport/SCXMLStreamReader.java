@@ -0,0 +1,206 @@
+package com.mxgraph.examples.swing.editor.fileimportexport;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.InputStreamReader;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeMap;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+import com.mxgraph.examples.config.SCXMLConstraints;
+import com.mxgraph.examples.swing.SCXMLGraphEditor;
+import com.mxgraph.examples.swing.editor.fileimportexport.OutSource.OUTSOURCETYPE;
+import com.mxgraph.examples.swing.editor.utils.XMLUtils;
+import com.mxgraph.util.StringUtils;
+
+/**
+ * Single pass StAX alternative to the DOM walk done by SCXMLImportExport.getNodeHier.
+ * Nodes and edges are built through the same SCXMLImportExport methods used by the
+ * DOM reader, so the two produce the same SCXMLNode/SCXMLEdge structures
+ * (geometry comments, restriction comments, src and xi:include outsourcing included)
+ * but no DOM of the whole file is ever kept in memory.
+ */
+public class SCXMLStreamReader {
+
+	// factories are not guaranteed to be thread safe and fragments may be read concurrently (see SCXMLFragmentLoader).
+	private static final ThreadLocal<XMLInputFactory> factory=new ThreadLocal<XMLInputFactory>() {
+		@Override
+		protected XMLInputFactory initialValue() {
+			XMLInputFactory f=XMLInputFactory.newInstance();
+			// like the DOM reader: element and attribute names are kept as written (e.g. xi:include, xmlns:xi)
+			f.setProperty(XMLInputFactory.IS_NAMESPACE_AWARE, false);
+			f.setProperty(XMLInputFactory.IS_COALESCING, true);
+			return f;
+		}
+	};
+
+	private final SCXMLImportExport importer;
+	private final SCXMLGraphEditor editor;
+	private final SCXMLConstraints restrictedConstraints;
+
+	public SCXMLStreamReader(SCXMLImportExport importer, SCXMLGraphEditor editor, SCXMLConstraints restrictedConstraints) {
+		this.importer=importer;
+		this.editor=editor;
+		this.restrictedConstraints=restrictedConstraints;
+	}
+
+	/**
+	 * reads the given file and attaches its content as children of parent.
+	 * @return the node built for the document element, null if the document element is not a state.
+	 */
+	public SCXMLNode read(File file, SCXMLNode parent) throws Exception {
+		InputStreamReader in=new InputStreamReader(new BufferedInputStream(new FileInputStream(file)),"UTF8");
+		XMLStreamReader r=null;
+		try {
+			r=factory.get().createXMLStreamReader(file.toURI().toURL().toExternalForm(), in);
+			while (r.hasNext()) {
+				if (r.next()==XMLStreamConstants.START_ELEMENT) {
+					return readElement(r, parent, file.getParentFile());
+				}
+			}
+			return null;
+		} finally {
+			if (r!=null) r.close();
+			in.close();
+		}
+	}
+
+	// r is positioned on a START_ELEMENT, on return it is positioned on the matching END_ELEMENT.
+	private SCXMLNode readElement(XMLStreamReader r, SCXMLNode pn, File pwd) throws Exception {
+		SCXMLNode root=null;
+		String elementName=r.getLocalName();
+		String name=elementName.toLowerCase();
+		// STATE: normal or parallel
+		Boolean isParallel=false;
+		boolean isHistory=false;
+		if (name.equals(SCXMLNode.ROOTID.toLowerCase())||name.equals("state")||(isParallel=name.equals("parallel"))||(isHistory=name.equals("history"))) {
+			root = importer.handleSCXMLNode(elementName,getAttributes(r),pn,isParallel,isHistory);
+			importer.addCommentsAndResetCollectorTo(root);
+			readChildren(r, root, pwd);
+			importer.processOutsourcingChildrenForNode(root, pwd);
+		} else if (name.equals("transition")) {
+			SCXMLEdge edge = importer.addEdge(readTransition(r, pn));
+			importer.addCommentsAndResetCollectorTo(edge);
+		} else if (name.equals("final")) {
+			SCXMLNode node = importer.handleSCXMLNode(elementName,getAttributes(r),pn,isParallel,false);
+			importer.addCommentsAndResetCollectorTo(node);
+			node.setFinal(true);
+			readChildren(r, node, pwd);
+		} else if (name.equals("initial")) {
+			// only one child that is a transition
+			boolean found=false;
+			while (r.next()!=XMLStreamConstants.END_ELEMENT) {
+				if (r.getEventType()==XMLStreamConstants.START_ELEMENT) {
+					if (!found && r.getLocalName().toLowerCase().equals("transition")) {
+						importer.handleInitialTransition(readTransition(r, pn));
+						found=true;
+					} else skipElement(r);
+				}
+			}
+		} else if (name.equals("onentry")) {
+			pn.setOnEntry(collectAllChildrenInString(r));
+		} else if (name.equals("onexit")) {
+			pn.setOnExit(collectAllChildrenInString(r));
+		} else if (name.equals("donedata")) {
+			pn.setDoneData(collectAllChildrenInString(r));
+		} else if (name.equals("datamodel")) {
+			pn.addToDataModel(collectAllChildrenInString(r));
+		} else if (name.equals("xi:include")) {
+			String location=getAttributes(r).get("href");
+			location=(location==null)?"":StringUtils.cleanupSpaces(location);
+			if (!StringUtils.isEmptyString(location)) {
+				SCXMLNode child = importer.setNodeAsOutsourcing(new OutSource(OUTSOURCETYPE.XINC,location), pn);
+				readChildren(r, child, pwd);
+			} else skipElement(r);
+		} else {
+			StringBuilder content=new StringBuilder();
+			appendElement(r, content);
+			pn.appendToScript(XMLUtils.prettyPrintXMLString(content.toString()," ",true));
+		}
+		return root;
+	}
+
+	private void readChildren(XMLStreamReader r, SCXMLNode pn, File pwd) throws Exception {
+		while (r.next()!=XMLStreamConstants.END_ELEMENT) {
+			switch (r.getEventType()) {
+			case XMLStreamConstants.START_ELEMENT:
+				readElement(r, pn, pwd);
+				break;
+			case XMLStreamConstants.COMMENT:
+				importer.handleComment(editor, r.getText(), pn, restrictedConstraints);
+				break;
+			}
+		}
+	}
+
+	// the edge geometry comments that are direct children of the transition are consumed, everything else is executable content.
+	private HashMap<String, Object> readTransition(XMLStreamReader r, SCXMLNode pn) throws Exception {
+		TreeMap<String, String> att=getAttributes(r);
+		HashMap<String,String> edgeGeometry=new HashMap<String, String>();
+		StringBuilder exe=new StringBuilder();
+		while (r.next()!=XMLStreamConstants.END_ELEMENT) {
+			if ((r.getEventType()!=XMLStreamConstants.COMMENT) || !SCXMLImportExport.readEdgeGeometry(r.getText(), edgeGeometry))
+				appendCurrent(r, exe);
+		}
+		return importer.processEdge(pn, att, (edgeGeometry.isEmpty())?null:edgeGeometry, StringUtils.removeLeadingAndTrailingSpaces(exe.toString()));
+	}
+
+	private String collectAllChildrenInString(XMLStreamReader r) throws XMLStreamException {
+		StringBuilder content=new StringBuilder();
+		while (r.next()!=XMLStreamConstants.END_ELEMENT) appendCurrent(r, content);
+		return StringUtils.removeLeadingAndTrailingSpaces(content.toString());
+	}
+
+	// same serialization as XMLUtils.domNode2String(node,true)
+	private void appendCurrent(XMLStreamReader r, StringBuilder into) throws XMLStreamException {
+		switch (r.getEventType()) {
+		case XMLStreamConstants.START_ELEMENT:
+			appendElement(r, into);
+			break;
+		case XMLStreamConstants.CHARACTERS:
+		case XMLStreamConstants.CDATA:
+		case XMLStreamConstants.SPACE:
+			into.append(XMLUtils.escapeStringForXML(r.getText()));
+			break;
+		case XMLStreamConstants.COMMENT:
+			into.append("<!--").append(r.getText()).append("-->");
+			break;
+		}
+	}
+	private void appendElement(XMLStreamReader r, StringBuilder into) throws XMLStreamException {
+		String name=r.getLocalName();
+		into.append('<').append(name);
+		for (Map.Entry<String, String> a:getAttributes(r).entrySet()) {
+			into.append(' ').append(a.getKey()).append("=\"").append(XMLUtils.escapeStringForXML(a.getValue())).append('"');
+		}
+		into.append('>');
+		while (r.next()!=XMLStreamConstants.END_ELEMENT) appendCurrent(r, into);
+		into.append("</").append(name).append('>');
+	}
+	private void skipElement(XMLStreamReader r) throws XMLStreamException {
+		int depth=1;
+		while (depth>0) {
+			int e=r.next();
+			if (e==XMLStreamConstants.START_ELEMENT) depth++;
+			else if (e==XMLStreamConstants.END_ELEMENT) depth--;
+		}
+	}
+
+	// attributes sorted by name, that is the order in which the DOM reader sees them.
+	private static TreeMap<String,String> getAttributes(XMLStreamReader r) {
+		TreeMap<String,String> ret=new TreeMap<String, String>();
+		int na=r.getAttributeCount();
+		for(int i=0;i<na;i++) {
+			String prefix=r.getAttributePrefix(i);
+			String name=r.getAttributeLocalName(i);
+			ret.put(StringUtils.isEmptyString(prefix)?name:prefix+":"+name, r.getAttributeValue(i));
+		}
+		return ret;
+	}
+}
@@ -344,6 +344,66 @@ public class SCXMLEditorActions
 		}
 	}
 
+	public static class ToggleTiledRendering extends AbstractAction
+	{
+		public void actionPerformed(ActionEvent e)
+		{
+			SCXMLGraphComponent graphComponent = getEditor(e).getGraphComponent();
+			graphComponent.setTripleBuffered(!graphComponent.isTripleBuffered());
+			graphComponent.getGraphControl().repaint();
+		}
+	}
+
+	/**
+	 * asks for the zoom (in percent) below which one of the level of detail simplifications of the
+	 * graph component is used. The thresholds are stored in the preferences.
+	 */
+	public static class SetLevelOfDetailThreshold extends AbstractAction
+	{
+		public static final String HIDELABELS="hideLabelScale",GREEKLABELS="greekLabelScale",SIMPLESHAPES="simpleShapeScale",CLUSTERBOXES="clusterBoxScale";
+		private static final String PREFERENCE_PREFIX="LOD_";
+		private String threshold;
+
+		public SetLevelOfDetailThreshold(String threshold) {
+			this.threshold=threshold;
+		}
+
+		// all simplifications are off until a threshold is set by the user.
+		public static double getDefault(String threshold) {
+			return 0;
+		}
+		public static double get(SCXMLGraphEditor editor,String threshold) {
+			return editor.preferences.getDouble(PREFERENCE_PREFIX+threshold, getDefault(threshold));
+		}
+		public static void set(mxGraphComponent graphComponent,String threshold,double value) {
+			if (threshold.equals(HIDELABELS)) graphComponent.setHideLabelScale(value);
+			else if (threshold.equals(GREEKLABELS)) graphComponent.setGreekLabelScale(value);
+			else if (threshold.equals(SIMPLESHAPES)) graphComponent.setSimpleShapeScale(value);
+			else if (threshold.equals(CLUSTERBOXES)) graphComponent.setClusterBoxScale(value);
+		}
+		public static void applyPreferences(SCXMLGraphEditor editor) {
+			for(String threshold:new String[]{HIDELABELS,GREEKLABELS,SIMPLESHAPES,CLUSTERBOXES}) {
+				set(editor.getGraphComponent(), threshold, get(editor, threshold));
+			}
+		}
+
+		public void actionPerformed(ActionEvent e)
+		{
+			SCXMLGraphEditor editor = getEditor(e);
+			String value=JOptionPane.showInputDialog(editor, mxResources.get(threshold), Math.round(get(editor, threshold)*100));
+			if (value!=null) {
+				try {
+					double scale=Math.max(0, Double.parseDouble(value.trim())/100);
+					editor.preferences.putDouble(PREFERENCE_PREFIX+threshold, scale);
+					set(editor.getGraphComponent(), threshold, scale);
+					editor.getGraphComponent().getGraphControl().repaint();
+				} catch (NumberFormatException ex) {
+					JOptionPane.showMessageDialog(editor, mxResources.get("invalidNumber")+": "+value);
+				}
+			}
+		}
+	}
+
 	public static class SetNodeAsFinal extends AbstractAction
 	{
 		private mxCell cell;
@@ -734,7 +794,13 @@ public class SCXMLEditorActions
 		
 		public DoLayoutAction(mxGraph g, mxCell p,int depth) {
 			graph=g;
-			layout=new mxClusterLayout(g);
+			// the layout of the graph remembers which clusters are already laid out
+			if (g instanceof SCXMLGraph) {
+				layout=((SCXMLGraph)g).getClusterLayout();
+			} else {
+				layout=new mxClusterLayout(g);
+				layout.setParallel(true);
+			}
 			parentToLayout=p;
 			this.depth=depth;
 		}
@@ -831,7 +897,7 @@ public class SCXMLEditorActions
 
 					// apply layout to each cluster from the leaves up:
 					if (fc.ignoreStoredLayout() || SCXMLGraphEditor.isDoLayout()) {
-						mxClusterLayout clusterLayout=new mxClusterLayout(graph);
+						mxClusterLayout clusterLayout=graph.getClusterLayout();
 						clusterLayout.execute(graph.getDefaultParent());
 					}
 					
@@ -959,7 +1025,7 @@ public class SCXMLEditorActions
 				}
 				if (editor.preferences.getBoolean(SCXMLFileChoser.FileChoserCustomControls.PREFERENCE_IGNORE_STORED_LAYOUT, true)) {
 					// apply layout to each cluster from the leaves up:
-					mxClusterLayout clusterLayout=new mxClusterLayout(graph);
+					mxClusterLayout clusterLayout=graph.getClusterLayout();
 					clusterLayout.execute(graph.getDefaultParent());
 				}
 				editor.setDisplayOfOutsourcedContentSelected(false);
@@ -987,7 +1053,7 @@ public class SCXMLEditorActions
 				}
 				if (editor.preferences.getBoolean(SCXMLFileChoser.FileChoserCustomControls.PREFERENCE_IGNORE_STORED_LAYOUT, true)) {
 					// apply layout to each cluster from the leaves up:
-					mxClusterLayout clusterLayout=new mxClusterLayout(graph);
+					mxClusterLayout clusterLayout=graph.getClusterLayout();
 					clusterLayout.execute(graph.getDefaultParent());
 				}
 				editor.setDisplayOfOutsourcedContentSelected(!editor.isDisplayOfOutsourcedContentSelected());
@@ -998,6 +1064,14 @@ public class SCXMLEditorActions
 		}
 	}
 	
+	public static class ClearOutsourcedContentCache extends AbstractAction {
+		@Override
+		public void actionPerformed(ActionEvent e) {
+			SCXMLGraphEditor editor = getEditor(e);
+			editor.getFragmentCache().clear();
+		}
+	}
+
 	public static class ZoomIN extends AbstractAction
 	{
 		/**
@@ -1035,6 +1109,7 @@ public class SCXMLEditorActions
 
 		if (doLayout) {
 			mxClusterLayout layout = new mxClusterLayout(graph);
+			layout.setParallel(true);
 			layout.execute(graph.getDefaultParent());
 		}
 
@@ -28,10 +28,13 @@ import com.mxgraph.examples.swing.editor.scxml.SCXMLEditorActions.NewSCXMLAction
 import com.mxgraph.examples.swing.editor.scxml.SCXMLEditorActions.OpenAction;
 import com.mxgraph.examples.swing.editor.scxml.SCXMLEditorActions.SCXMLDelete;
 import com.mxgraph.examples.swing.editor.scxml.SCXMLEditorActions.SaveAction;
+import com.mxgraph.examples.swing.editor.scxml.SCXMLEditorActions.SetLevelOfDetailThreshold;
 import com.mxgraph.examples.swing.editor.scxml.SCXMLEditorActions.ShowSCXMLFindTool;
 import com.mxgraph.examples.swing.editor.scxml.SCXMLEditorActions.ShowSCXMLListener;
+import com.mxgraph.examples.swing.editor.scxml.SCXMLEditorActions.ClearOutsourcedContentCache;
 import com.mxgraph.examples.swing.editor.scxml.SCXMLEditorActions.ToggleDisplayOutsourcedContent;
 import com.mxgraph.examples.swing.editor.scxml.SCXMLEditorActions.ToggleIgnoreStoredLayout;
+import com.mxgraph.examples.swing.editor.scxml.SCXMLEditorActions.ToggleTiledRendering;
 import com.mxgraph.swing.mxGraphComponent;
 import com.mxgraph.swing.util.mxGraphActions;
 import com.mxgraph.util.mxResources;
@@ -147,6 +150,15 @@ public class SCXMLEditorMenuBar extends JMenuBar
 		menu.add(menuItem);
 		editor.setDisplayOutsourcedContentMenuItem(menuItem);
 		editor.setDisplayOfOutsourcedContentSelected(editor.isDisplayOfOutsourcedContentSelected());
+		menu.add(editor.bind(mxResources.get("clearOutsourcedContentCache"), new ClearOutsourcedContentCache()));
+		menu.addSeparator();
+		menuItem=new JCheckBoxMenuItem(editor.bind(mxResources.get("tiledRendering"), new ToggleTiledRendering()));
+		menuItem.setSelected(editor.getGraphComponent().isTripleBuffered());
+		menu.add(menuItem);
+		submenu=(JMenu) menu.add(new JMenu(mxResources.get("levelOfDetail")));
+		for(String threshold:new String[]{SetLevelOfDetailThreshold.GREEKLABELS,SetLevelOfDetailThreshold.HIDELABELS,SetLevelOfDetailThreshold.SIMPLESHAPES,SetLevelOfDetailThreshold.CLUSTERBOXES}) {
+			submenu.add(editor.bind(mxResources.get(threshold)+"...", new SetLevelOfDetailThreshold(threshold)));
+		}
 
 		add(Box.createHorizontalGlue());
 		
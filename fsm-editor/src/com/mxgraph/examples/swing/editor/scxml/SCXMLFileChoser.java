@@ -36,12 +36,16 @@ public class SCXMLFileChoser extends JFileChooser {
 	public boolean ignoreStoredLayout() {
 		return ac.ignoreStoredLayout();
 	}
+	public boolean useStreamingReader() {
+		return ac.useStreamingReader();
+	}
 	
 	public static class FileChoserCustomControls extends JPanel implements ItemListener {
 
 		private static final long serialVersionUID = 1L;
 		public static final String PREFERENCE_IGNORE_STORED_LAYOUT = "IGNORE_STORED_LAYOUT";
-		private JCheckBox ignoreSizes;
+		public static final String PREFERENCE_USE_STREAMING_READER = "USE_STREAMING_READER";
+		private JCheckBox ignoreSizes,streamingReader;
 		private SCXMLGraphEditor editor=null;
 
 		public FileChoserCustomControls(SCXMLGraphEditor editor) {
@@ -51,17 +55,28 @@ public class SCXMLFileChoser extends JFileChooser {
 			ignoreSizes.setSelected(ignoreStoredLayout);
 			ignoreSizes.addItemListener(this);
 			add(ignoreSizes);
+			streamingReader = new JCheckBox(mxResources.get("useStreamingReader"));
+			streamingReader.setSelected(editor.preferences.getBoolean(PREFERENCE_USE_STREAMING_READER, false));
+			streamingReader.addItemListener(this);
+			add(streamingReader);
 			setVisible(true);
 		}
 		
 		public boolean ignoreStoredLayout() {
 			return ignoreSizes.isSelected();
 		}
+		public boolean useStreamingReader() {
+			return streamingReader.isSelected();
+		}
 
 		@Override
 		public void itemStateChanged(ItemEvent e) {
-			editor.preferences.putBoolean(PREFERENCE_IGNORE_STORED_LAYOUT, e.getStateChange()==ItemEvent.SELECTED);
-			editor.updateIgnoreStoredLayoutMenuState();
+			if (e.getSource()==streamingReader) {
+				editor.preferences.putBoolean(PREFERENCE_USE_STREAMING_READER, e.getStateChange()==ItemEvent.SELECTED);
+			} else {
+				editor.preferences.putBoolean(PREFERENCE_IGNORE_STORED_LAYOUT, e.getStateChange()==ItemEvent.SELECTED);
+				editor.updateIgnoreStoredLayoutMenuState();
+			}
 		}
 	}
 }
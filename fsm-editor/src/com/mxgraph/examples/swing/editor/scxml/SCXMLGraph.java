@@ -25,6 +25,7 @@ import com.mxgraph.examples.swing.editor.fileimportexport.SCXMLEdge;
 import com.mxgraph.examples.swing.editor.fileimportexport.SCXMLImportExport;
 import com.mxgraph.examples.swing.editor.fileimportexport.SCXMLNode;
 import com.mxgraph.examples.swing.editor.utils.XMLUtils;
+import com.mxgraph.layout.mxClusterLayout;
 import com.mxgraph.model.mxCell;
 import com.mxgraph.model.mxGeometry;
 import com.mxgraph.model.mxICell;
@@ -54,6 +55,7 @@ public class SCXMLGraph extends mxGraph
 	private HashSet<Object> undeletable=new HashSet<Object>();
 	private HashSet<Object> uneditable=new HashSet<Object>();
 	private HashSet<mxCell> outsourced=new HashSet<mxCell>();
+	private mxClusterLayout clusterLayout;
 	private HashMap<mxCell,HashSet<mxCell>> original2clones=new HashMap<mxCell, HashSet<mxCell>>();
 	private HashMap<String,SCXMLImportExport> ourced=new HashMap<String, SCXMLImportExport>();
 
@@ -74,6 +76,18 @@ public class SCXMLGraph extends mxGraph
 		outsourced.clear();
 	}
 	
+	/**
+	 * Returns the cluster layout of this graph. The same instance is used for all
+	 * layouts of the graph so that unchanged clusters are not laid out again.
+	 */
+	public mxClusterLayout getClusterLayout() {
+		if (clusterLayout==null) {
+			clusterLayout=new mxClusterLayout(this);
+			clusterLayout.setParallel(true);
+		}
+		return clusterLayout;
+	}
+	
 	public void setCellAsMovable(Object cell,Boolean m) {
 		if (m) immovable.remove(cell);
 		else immovable.add(cell);
@@ -170,8 +184,8 @@ public class SCXMLGraph extends mxGraph
 				if (!StringUtils.isEmptyString(nodeValueID)) {
 					SCXMLNode parentValue=null;
 					if (parent==null || ((parentValue=(SCXMLNode)parent.getValue())==null) || !parentValue.getFake() || !nodeValueID.equals(SCXMLNode.ROOTID)) {
-						if (gc.isSCXMLNodeAlreadyThere(nodeValue)) warnings+="duplicated node name: "+nodeValueID+"\n";
-						else gc.addSCXMLNode(nodeValue,node);
+						// nodes are validated incrementally and concurrently: the registered node may be this one, or one removed or renamed since.
+						if (gc.addSCXMLNodeIfUnique(nodeValue,node)!=null) warnings+="duplicated node name: "+nodeValueID+"\n";
 					}
 				}
 				
@@ -183,28 +197,32 @@ public class SCXMLGraph extends mxGraph
 
 					if (e!=null && e.getValue()!=null && e.getValue() instanceof SCXMLEdge) {
 						SCXMLEdge v=(SCXMLEdge) e.getValue();
-						if (e.getSource()==node) {
-							//outgoing edge from node
-							if (!v.getSCXMLSource().equals(nodeValueID)) v.setSCXMLSource(nodeValueID);
-						} else if (e.getTarget()==node) {
-							//incoming edge into node
-							ArrayList<String> ts = v.getSCXMLTargets();
-							boolean updated=false,found=false;
-							if (ts!=null) {
-								Iterator<String> it=ts.iterator();
-								while(it.hasNext()) {
-									String tid = it.next();
-									if (gc.getSCXMLNodeForID(tid)==null) {
-										it.remove();
+						// the edges of a transition with several targets share the same value and
+						// the targets are validated concurrently
+						synchronized (v) {
+							if (e.getSource()==node) {
+								//outgoing edge from node
+								if (!v.getSCXMLSource().equals(nodeValueID)) v.setSCXMLSource(nodeValueID);
+							} else if (e.getTarget()==node) {
+								//incoming edge into node
+								ArrayList<String> ts = v.getSCXMLTargets();
+								boolean updated=false,found=false;
+								if (ts!=null) {
+									Iterator<String> it=ts.iterator();
+									while(it.hasNext()) {
+										String tid = it.next();
+										if (gc.getSCXMLNodeForID(tid)==null) {
+											it.remove();
+											updated=true;
+										}
+										if (!found && tid.equals(nodeValueID)) found=true;
+									}
+									if (!found) {
 										updated=true;
+										ts.add(nodeValueID);
 									}
-									if (!found && tid.equals(nodeValueID)) found=true;
-								}
-								if (!found) {
-									updated=true;
-									ts.add(nodeValueID);
+									if (updated) v.setSCXMLTargets(ts);
 								}
-								if (updated) v.setSCXMLTargets(ts);
 							}
 						}
 					}
@@ -26,6 +26,7 @@ import com.mxgraph.swing.handler.mxGraphHandler;
 import com.mxgraph.util.mxEvent;
 import com.mxgraph.util.mxEventObject;
 import com.mxgraph.util.mxUtils;
+import com.mxgraph.validation.Validator;
 import com.mxgraph.view.mxGraph;
 
 /**
@@ -130,18 +131,47 @@ public class SCXMLGraphComponent extends mxGraphComponent //implements Component
 		return super.importCells(cells, dx, dy, target, location);
 	}
 
-	private HashMap<String,mxCell> scxmlNodes=new HashMap<String, mxCell>();
+	// accessed by the EDT and by the validation threads.
+	private final HashMap<String,mxCell> scxmlNodes=new HashMap<String, mxCell>();
 	public void addSCXMLNode(SCXMLNode n, mxCell node) {
-		scxmlNodes.put(n.getID(), node);
+		synchronized (scxmlNodes) {
+			scxmlNodes.put(n.getID(), node);
+		}
+	}
+	/**
+	 * registers node for the ID of n, unless another node with that ID is registered and is still in the graph with that ID.
+	 * @return the node already registered for the ID of n, null if node has been registered.
+	 */
+	public mxCell addSCXMLNodeIfUnique(SCXMLNode n, mxCell node) {
+		String id=n.getID();
+		synchronized (scxmlNodes) {
+			mxCell registered=scxmlNodes.get(id);
+			if ((registered!=null) && (registered!=node) && graph.getModel().contains(registered) &&
+					(registered.getValue() instanceof SCXMLNode) && id.equals(((SCXMLNode)registered.getValue()).getID()))
+				return registered;
+			scxmlNodes.put(id, node);
+			return null;
+		}
 	}
 	public boolean isSCXMLNodeAlreadyThere(SCXMLNode n) {
-		return scxmlNodes.containsKey(n.getID());
+		synchronized (scxmlNodes) {
+			return scxmlNodes.containsKey(n.getID());
+		}
 	}
 	public mxCell getSCXMLNodeForID(String id) {
-		return scxmlNodes.get(id);
+		synchronized (scxmlNodes) {
+			return scxmlNodes.get(id);
+		}
+	}
+	public void removeSCXMLNode(String id, mxCell node) {
+		synchronized (scxmlNodes) {
+			if (scxmlNodes.get(id)==node) scxmlNodes.remove(id);
+		}
 	}
 	public void clearSCXMLNodes() {
-		scxmlNodes.clear();
+		synchronized (scxmlNodes) {
+			scxmlNodes.clear();
+		}
 	}
 	public void validateGraph()
 	{		
@@ -185,6 +215,11 @@ public class SCXMLGraphComponent extends mxGraphComponent //implements Component
 	protected mxGraphHandler createGraphHandler() {
 		return new SCXMLGraphHandler(this);
 	}
+
+	@Override
+	protected Validator createValidator() {
+		return new SCXMLValidator(this);
+	}
 	
 	/*
 	@Override
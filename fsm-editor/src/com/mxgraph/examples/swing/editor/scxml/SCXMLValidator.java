@@ -0,0 +1,90 @@
+package com.mxgraph.examples.swing.editor.scxml;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Hashtable;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import com.mxgraph.examples.swing.editor.fileimportexport.SCXMLNode;
+import com.mxgraph.model.mxCell;
+import com.mxgraph.model.mxGraphModel;
+import com.mxgraph.validation.Validator;
+
+/**
+ * Validator of SCXML graphs. Besides the dependencies checked by Validator, the duplicated ID
+ * warning of a node depends on all the nodes with the same ID, so they are validated together.
+ * The IDs of the nodes are indexed (in the thread that changes the model) to find them.
+ * In the validation thread it keeps the SCXML ID to node map of SCXMLGraphComponent free of
+ * removed and renamed nodes.
+ */
+public class SCXMLValidator extends Validator {
+
+	// used in the thread changing the model.
+	private final HashMap<Object,String> cell2id=new HashMap<Object, String>();
+	private final HashMap<String,HashSet<Object>> id2cells=new HashMap<String, HashSet<Object>>();
+	// used in the validation threads: the id with which each node has been validated.
+	private final Map<Object,String> validatedIDs=new ConcurrentHashMap<Object, String>();
+
+	public SCXMLValidator(SCXMLGraphComponent gc) {
+		super(gc);
+	}
+
+	@Override
+	public void requestFullValidation(Object root) {
+		cell2id.clear();
+		id2cells.clear();
+		for (Object c:mxGraphModel.getDescendants(model, root)) {
+			String id=getID(c);
+			if (id!=null) index(c,id);
+		}
+		super.requestFullValidation(root);
+	}
+
+	@Override
+	protected void addDependents(Object cell, Set<Object> cells) {
+		super.addDependents(cell, cells);
+		String oldID=cell2id.remove(cell);
+		if (oldID!=null) {
+			HashSet<Object> sameID=id2cells.get(oldID);
+			sameID.remove(cell);
+			if (sameID.isEmpty()) id2cells.remove(oldID);
+			else cells.addAll(sameID);
+		}
+		String id=model.contains(cell)?getID(cell):null;
+		if (id!=null) cells.addAll(index(cell, id));
+	}
+
+	@Override
+	protected String validateCell(Object cell, Hashtable<Object, Object> context) {
+		String id=getID(cell);
+		String oldID=(id!=null)?validatedIDs.put(cell, id):validatedIDs.remove(cell);
+		if ((oldID!=null) && !oldID.equals(id)) ((SCXMLGraphComponent)graphComponent).removeSCXMLNode(oldID, (mxCell) cell);
+		return super.validateCell(cell, context);
+	}
+
+	@Override
+	protected void cellRemoved(Object cell) {
+		String oldID=validatedIDs.remove(cell);
+		if (oldID!=null) ((SCXMLGraphComponent)graphComponent).removeSCXMLNode(oldID, (mxCell) cell);
+	}
+
+	private HashSet<Object> index(Object cell,String id) {
+		cell2id.put(cell, id);
+		HashSet<Object> sameID=id2cells.get(id);
+		if (sameID==null) id2cells.put(id, sameID=new HashSet<Object>());
+		sameID.add(cell);
+		return sameID;
+	}
+	private String getID(Object cell) {
+		if (model.isVertex(cell)) {
+			Object value=model.getValue(cell);
+			if (value instanceof SCXMLNode) {
+				String id=((SCXMLNode)value).getID();
+				if ((id!=null) && (id.length()>0)) return id;
+			}
+		}
+		return null;
+	}
+}
@@ -0,0 +1,106 @@
+package com.mxgraph.examples.swing.editor.scxml.listener;
+
+import java.util.Arrays;
+
+import javax.swing.AbstractListModel;
+
+/**
+ * List model for the events received by the SCXML listener.
+ * Events are appended with add, which does not notify the list: the events added since the
+ * last call to flush are published to the list by flush with a single interval added event, so
+ * that any number of events received between two repaints costs one update of the list.
+ * Events are stored in fixed size chunks, so appending never copies the events already stored.
+ * The list can also start with the events of a Source (e.g. a recorded trace), that are
+ * obtained from it only when requested.
+ */
+public class SCXMLEventListModel<E> extends AbstractListModel<E> {
+
+	private static final long serialVersionUID = 1L;
+
+	public interface Source<E> {
+		int size();
+		E get(int index);
+	}
+
+	private static final int CHUNKBITS = 12;
+	private static final int CHUNKSIZE = 1<<CHUNKBITS;
+
+	private Source<E> source=null;
+	// number of events of source.
+	private int sourceSize=0;
+	// events added after those of source, all of type E.
+	private Object[][] chunks=new Object[16][];
+	// number of events stored.
+	private int size=0;
+	// number of events visible to the list (the others are waiting for flush).
+	private int published=0;
+
+	public void add(E element) {
+		int i=size-sourceSize;
+		int chunk=i>>>CHUNKBITS;
+		if (chunk>=chunks.length) chunks=Arrays.copyOf(chunks, 2*chunks.length);
+		if (chunks[chunk]==null) chunks[chunk]=new Object[CHUNKSIZE];
+		chunks[chunk][i&(CHUNKSIZE-1)]=element;
+		size++;
+	}
+
+	/**
+	 * replaces the content of the list with the events of source, they are published immediately.
+	 */
+	public void setSource(Source<E> source) {
+		clear();
+		this.source=source;
+		size=sourceSize=source.size();
+		flush();
+	}
+	public Source<E> getSource() {
+		return source;
+	}
+
+	/**
+	 * publishes to the list the events added since the last call.
+	 * @return true if there were such events.
+	 */
+	public boolean flush() {
+		if (published<size) {
+			int first=published;
+			published=size;
+			fireIntervalAdded(this, first, size-1);
+			return true;
+		}
+		return false;
+	}
+
+	public void clear() {
+		int oldPublished=published;
+		chunks=new Object[16][];
+		source=null;
+		size=published=sourceSize=0;
+		if (oldPublished>0) fireIntervalRemoved(this, 0, oldPublished-1);
+	}
+
+	/**
+	 * @return the number of events stored, including those not yet published.
+	 */
+	public int size() {
+		return size;
+	}
+
+	@SuppressWarnings("unchecked")
+	public E get(int index) {
+		if ((index<0) || (index>=size)) throw new ArrayIndexOutOfBoundsException(index);
+		if (index<sourceSize) return source.get(index);
+		index-=sourceSize;
+		return (E) chunks[index>>>CHUNKBITS][index&(CHUNKSIZE-1)];
+	}
+
+	@Override
+	public int getSize() {
+		return published;
+	}
+
+	@Override
+	public E getElementAt(int index) {
+		return get(index);
+	}
+}
@@ -0,0 +1,295 @@
+package com.mxgraph.examples.swing.editor.scxml.listener;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.swing.SwingUtilities;
+
+/**
+ * Receives the events sent by SCXML runtimes, any number of them connected at the same time.
+ * The protocol is the one of the original socket listener: on connection the server sends one ACK
+ * byte, then the client sends one event per line and the server answers each line with one ACK
+ * byte. Clients that wait for each ACK before sending the next line keep working unchanged,
+ * clients may also send up to a window of lines before waiting for their ACKs.
+ * A single thread serves all clients through a Selector. The lines read in one round are passed to
+ * the EventSink on the EDT as one batch and the ACKs owed to a client are written together.
+ * Backpressure: lines are not read (and so not acknowledged) while the batches not yet consumed
+ * by the EDT exceed maxQueuedEvents or, if maxEventsPerSecond is positive, while that rate is exceeded.
+ */
+public class SCXMLEventServer extends Thread {
+
+	public interface EventSink {
+		/**
+		 * called on the EDT with the events received, in the order they were received from each client.
+		 */
+		void addEvents(List<String> events);
+		/**
+		 * called on the EDT when the server stops because of an error.
+		 */
+		void serverFailed(IOException e);
+	}
+
+	public static final byte ACK = 1;
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+	private static final int maxQueuedEvents = 10000;
+	private static final int initialLineBufferSize = 8*1024;
+
+	private final Selector selector;
+	private final ServerSocketChannel server;
+	private final EventSink sink;
+	private final int maxEventsPerSecond;
+	private volatile boolean running=true;
+	// events passed to the EDT and not yet consumed by the sink.
+	private final AtomicInteger queued=new AtomicInteger();
+	private final ArrayList<Client> clients=new ArrayList<Client>();
+	// token bucket used to limit the rate of events, at most one second of events can be accumulated.
+	private double tokens;
+	private long lastRefill;
+
+	private static class Client {
+		private final SocketChannel channel;
+		private final SelectionKey key;
+		// in write mode, contains the bytes received and not yet split in lines.
+		private ByteBuffer in=ByteBuffer.allocate(initialLineBufferSize);
+		// in read mode, contains the ACKs not yet written.
+		private ByteBuffer out=ByteBuffer.allocate(0);
+		private int acksOwed=0;
+		private boolean endOfStream=false;
+
+		public Client(SocketChannel channel,SelectionKey key) {
+			this.channel=channel;
+			this.key=key;
+		}
+	}
+
+	public SCXMLEventServer(int port,int maxEventsPerSecond,EventSink sink) throws IOException {
+		super("SCXMLEventServer-"+port);
+		setDaemon(true);
+		this.sink=sink;
+		this.maxEventsPerSecond=maxEventsPerSecond;
+		this.tokens=maxEventsPerSecond;
+		this.lastRefill=System.nanoTime();
+		selector=Selector.open();
+		server=ServerSocketChannel.open();
+		try {
+			server.socket().bind(new InetSocketAddress(port));
+			server.configureBlocking(false);
+			server.register(selector, SelectionKey.OP_ACCEPT);
+		} catch (IOException e) {
+			server.close();
+			selector.close();
+			throw e;
+		}
+	}
+
+	public void halt() {
+		running=false;
+		selector.wakeup();
+	}
+
+	public int getNumberOfClients() {
+		synchronized (clients) {
+			return clients.size();
+		}
+	}
+
+	@Override
+	public void run() {
+		try {
+			while (running) {
+				selector.select(processPendingLines());
+				if (!running) break;
+				Iterator<SelectionKey> keys=selector.selectedKeys().iterator();
+				while (keys.hasNext()) {
+					SelectionKey key=keys.next();
+					keys.remove();
+					if (!key.isValid()) continue;
+					if (key.isAcceptable()) accept();
+					else {
+						Client c=(Client) key.attachment();
+						try {
+							if (key.isReadable()) read(c);
+							if (key.isValid() && key.isWritable()) write(c);
+						} catch (IOException e) {
+							// only this client is lost.
+							close(c);
+						}
+					}
+				}
+			}
+		} catch (final IOException e) {
+			if (running) {
+				SwingUtilities.invokeLater(new Runnable() {
+					@Override
+					public void run() {
+						sink.serverFailed(e);
+					}
+				});
+			}
+		} finally {
+			synchronized (clients) {
+				for(Client c:new ArrayList<Client>(clients)) close(c);
+			}
+			try {
+				server.close();
+				selector.close();
+			} catch (IOException e) {
+				e.printStackTrace();
+			}
+		}
+	}
+
+	private void accept() throws IOException {
+		SocketChannel channel=server.accept();
+		if (channel!=null) {
+			channel.configureBlocking(false);
+			Client c=new Client(channel,channel.register(selector, SelectionKey.OP_READ));
+			c.key.attach(c);
+			synchronized (clients) {
+				clients.add(c);
+			}
+			// the first ACK tells the client that it can start sending events.
+			c.acksOwed++;
+			write(c);
+		}
+	}
+
+	private void read(Client c) throws IOException {
+		if (!c.in.hasRemaining()) {
+			// a line longer than the buffer.
+			ByteBuffer larger=ByteBuffer.allocate(2*c.in.capacity());
+			c.in.flip();
+			larger.put(c.in);
+			c.in=larger;
+		}
+		if (c.channel.read(c.in)<0) c.endOfStream=true;
+	}
+
+	/**
+	 * splits the bytes received from each client into lines, as many as allowed by the backpressure,
+	 * sends them as one batch to the EDT and the corresponding ACKs to the clients.
+	 * @return how long the next select can wait (0 for no limit).
+	 */
+	private long processPendingLines() throws IOException {
+		final ArrayList<String> batch=new ArrayList<String>();
+		int allowed=getAllowedEvents();
+		ArrayList<Client> toServe;
+		synchronized (clients) {
+			toServe=new ArrayList<Client>(clients);
+		}
+		for(Client c:toServe) {
+			int before=batch.size();
+			if (allowed>0) allowed-=readLines(c, allowed, batch);
+			c.acksOwed+=batch.size()-before;
+			try {
+				write(c);
+			} catch (IOException e) {
+				close(c);
+				continue;
+			}
+			if (c.endOfStream && (c.in.position()==0)) close(c);
+		}
+		if (!batch.isEmpty()) {
+			consumeTokens(batch.size());
+			queued.addAndGet(batch.size());
+			SwingUtilities.invokeLater(new Runnable() {
+				@Override
+				public void run() {
+					try {
+						sink.addEvents(batch);
+					} finally {
+						// reading may have been suspended because of the events just consumed.
+						if (queued.addAndGet(-batch.size())<maxQueuedEvents) selector.wakeup();
+					}
+				}
+			});
+		}
+		// reading is suspended while no event can be processed.
+		boolean canRead=getAllowedEvents()>0;
+		for(Client c:toServe) {
+			if (c.key.isValid()) {
+				int ops=(canRead && !c.endOfStream)?SelectionKey.OP_READ:0;
+				if (c.out.hasRemaining()) ops|=SelectionKey.OP_WRITE;
+				c.key.interestOps(ops);
+			}
+		}
+		if (!canRead && (queued.get()<maxQueuedEvents)) {
+			// waiting for the rate limit, wake up when the next event is allowed.
+			return Math.max(1, (long) Math.ceil(1000*(1-tokens)/maxEventsPerSecond));
+		}
+		return 0;
+	}
+
+	// reads at most max complete lines from c into batch, returns the number of lines read.
+	private int readLines(Client c,int max,ArrayList<String> batch) {
+		int n=0;
+		c.in.flip();
+		byte[] data=c.in.array();
+		int start=c.in.position(),end=c.in.limit();
+		for(int i=start;(i<end) && (n<max);i++) {
+			if (data[i]=='\n') {
+				int lineEnd=((i>start) && (data[i-1]=='\r'))?i-1:i;
+				batch.add(new String(data, start, lineEnd-start, UTF8));
+				n++;
+				start=i+1;
+			}
+		}
+		if (c.endOfStream && (n<max) && (start<end)) {
+			// last line without new line.
+			batch.add(new String(data, start, end-start, UTF8));
+			n++;
+			start=end;
+		}
+		c.in.position(start);
+		c.in.compact();
+		return n;
+	}
+
+	private void write(Client c) throws IOException {
+		if (c.acksOwed>0) {
+			ByteBuffer out=ByteBuffer.allocate(c.out.remaining()+c.acksOwed);
+			out.put(c.out);
+			for(int i=0;i<c.acksOwed;i++) out.put(ACK);
+			out.flip();
+			c.out=out;
+			c.acksOwed=0;
+		}
+		if (c.out.hasRemaining()) c.channel.write(c.out);
+	}
+
+	private void close(Client c) {
+		synchronized (clients) {
+			clients.remove(c);
+		}
+		c.key.cancel();
+		try {
+			c.channel.close();
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+	}
+
+	private int getAllowedEvents() {
+		int allowed=maxQueuedEvents-queued.get();
+		if (maxEventsPerSecond>0) {
+			long now=System.nanoTime();
+			tokens=Math.min(maxEventsPerSecond, tokens+(now-lastRefill)*maxEventsPerSecond/1e9);
+			lastRefill=now;
+			allowed=Math.min(allowed, (int) tokens);
+		}
+		return Math.max(0, allowed);
+	}
+	private void consumeTokens(int n) {
+		if (maxEventsPerSecond>0) tokens-=n;
+	}
+}
@@ -0,0 +1,119 @@
+package com.mxgraph.examples.swing.editor.scxml.listener;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+
+import com.mxgraph.model.mxCell;
+
+/**
+ * The cells highlighted after each event received by the SCXML listener.
+ * Cells are identified by a dense ordinal. For each event only the cells that it actually
+ * highlighted (entered) or un-highlighted (exited) are stored, packed in a single int array
+ * (ordinal for enter, ~ordinal for exit), and every SNAPSHOTINTERVAL events the complete state is
+ * stored as a BitSet. The state after any event is rebuilt from the preceding snapshot applying at
+ * most SNAPSHOTINTERVAL deltas.
+ */
+public class SCXMLHighlightHistory {
+
+	private static final int SNAPSHOTINTERVAL = 1024;
+
+	private final HashMap<mxCell,Integer> cell2ordinal=new HashMap<mxCell, Integer>();
+	private final ArrayList<mxCell> ordinal2cell=new ArrayList<mxCell>();
+
+	private int[] deltas=new int[1024];
+	private int numDeltas=0;
+	// the deltas of event i are deltas[eventStart[i]] to deltas[eventStart[i+1]-1].
+	private int[] eventStart=new int[1024];
+	private int numEvents=0;
+	// snapshots.get(j) is the state before event j*SNAPSHOTINTERVAL.
+	private final ArrayList<BitSet> snapshots=new ArrayList<BitSet>();
+	// state after the last event.
+	private final BitSet current=new BitSet();
+
+	public SCXMLHighlightHistory() {
+		clear();
+	}
+
+	public void clear() {
+		cell2ordinal.clear();
+		ordinal2cell.clear();
+		numDeltas=0;
+		numEvents=0;
+		eventStart[0]=0;
+		snapshots.clear();
+		current.clear();
+	}
+
+	public int size() {
+		return numEvents;
+	}
+
+	/**
+	 * starts recording a new event, its changes are given with enter and exit.
+	 */
+	public void beginEvent() {
+		if ((numEvents%SNAPSHOTINTERVAL)==0) snapshots.add((BitSet) current.clone());
+		numEvents++;
+		if (numEvents>=eventStart.length) eventStart=Arrays.copyOf(eventStart, 2*eventStart.length);
+		eventStart[numEvents]=numDeltas;
+	}
+	public void enter(mxCell c) {
+		if (c!=null) {
+			int o=getOrdinal(c);
+			if (!current.get(o)) {
+				current.set(o);
+				addDelta(o);
+			}
+		}
+	}
+	public void exit(mxCell c) {
+		if (c!=null) {
+			Integer o=cell2ordinal.get(c);
+			if ((o!=null) && current.get(o)) {
+				current.clear(o);
+				addDelta(~o);
+			}
+		}
+	}
+
+	/**
+	 * @return the cells highlighted after the event at index, null if there is no such event.
+	 */
+	public List<mxCell> getHighlightAt(int index) {
+		if ((index<0) || (index>=numEvents)) return null;
+		BitSet state;
+		if (index==numEvents-1) {
+			state=current;
+		} else {
+			int j=index/SNAPSHOTINTERVAL;
+			state=(BitSet) snapshots.get(j).clone();
+			for(int d=eventStart[j*SNAPSHOTINTERVAL];d<eventStart[index+1];d++) {
+				int o=deltas[d];
+				if (o>=0) state.set(o);
+				else state.clear(~o);
+			}
+		}
+		ArrayList<mxCell> ret=new ArrayList<mxCell>(state.cardinality());
+		for(int o=state.nextSetBit(0);o>=0;o=state.nextSetBit(o+1)) {
+			ret.add(ordinal2cell.get(o));
+		}
+		return ret;
+	}
+
+	private int getOrdinal(mxCell c) {
+		Integer o=cell2ordinal.get(c);
+		if (o==null) {
+			cell2ordinal.put(c, o=ordinal2cell.size());
+			ordinal2cell.add(c);
+		}
+		return o;
+	}
+	private void addDelta(int d) {
+		if (numDeltas>=deltas.length) deltas=Arrays.copyOf(deltas, 2*deltas.length);
+		deltas[numDeltas++]=d;
+		eventStart[numEvents]=numDeltas;
+	}
+}
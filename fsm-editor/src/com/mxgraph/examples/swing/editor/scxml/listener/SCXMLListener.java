@@ -2,6 +2,8 @@ package com.mxgraph.examples.swing.editor.scxml.listener;
 
 import java.awt.BorderLayout;
 import java.awt.Component;
+import java.awt.GraphicsEnvironment;
+import java.awt.HeadlessException;
 import java.awt.event.ActionEvent;
 import java.awt.event.ActionListener;
 import java.awt.event.WindowEvent;
@@ -9,20 +11,17 @@ import java.awt.event.WindowListener;
 import java.io.BufferedReader;
 import java.io.File;
 import java.io.IOException;
-import java.io.InputStreamReader;
-import java.io.OutputStream;
 import java.io.StringReader;
-import java.net.ServerSocket;
-import java.net.Socket;
 import java.util.ArrayList;
 import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
 import javax.swing.BorderFactory;
 import javax.swing.Box;
 import javax.swing.BoxLayout;
-import javax.swing.DefaultListModel;
 import javax.swing.JButton;
 import javax.swing.JDialog;
 import javax.swing.JFileChooser;
@@ -31,12 +30,11 @@ import javax.swing.JLabel;
 import javax.swing.JList;
 import javax.swing.JOptionPane;
 import javax.swing.JPanel;
-import javax.swing.JScrollBar;
 import javax.swing.JScrollPane;
 import javax.swing.JTextField;
 import javax.swing.ListCellRenderer;
 import javax.swing.ListSelectionModel;
-import javax.swing.SwingUtilities;
+import javax.swing.Timer;
 import javax.swing.event.DocumentEvent;
 import javax.swing.event.DocumentListener;
 import javax.swing.event.ListSelectionEvent;
@@ -54,26 +52,43 @@ import com.mxgraph.swing.util.CellSelector;
 import com.mxgraph.util.mxResources;
 import com.mxgraph.util.mxUtils;
 
-public class SCXMLListener extends JDialog implements ListSelectionListener, WindowListener, ActionListener, DocumentListener {
+public class SCXMLListener extends JDialog implements ListSelectionListener, WindowListener, ActionListener, DocumentListener, SCXMLEventServer.EventSink {
 	private int status;
 	private static final int STARTED = 0;
 	private static final int STOPPED = 1;
 	private static final int WAITING = 2;
 	private static final int PRESTARTING = 3;
 	private static final int LOADING = 4;
+	private static final int REPLAYING = 5;
+	// time between two events loaded from a text list (that have no time) when they are replayed.
+	private static final long TEXTEVENTINTERVAL = 100;
 
 	private JList list;
-	private DefaultListModel listModel;
+	private SCXMLEventListModel<SCXMLEvent> listModel;
+	private SCXMLEventRenderer listRenderer;
 	private JScrollPane listScrollPane;
-	private ArrayList<HashSet<mxCell>> highlightedCellsEachInstant;
-
-	private JButton saveButton,loadButton,reloadButton;
+	private SCXMLHighlightHistory highlightedCellsEachInstant;
+	// the trace file the events in the list come from, null if they have been received or loaded from a text list.
+	private SCXMLTraceReader trace;
+	// the event whose highlight is displayed and its highlighted cells.
+	private int displayedIndex=-1;
+	private List<mxCell> displayedCells=null;
+	// while listening, new events and highlight changes are shown at most once per frame.
+	private Timer frameTimer;
+
+	private static final Pattern nodeCommand = Pattern.compile("^[\\s]*([01])[\\s]+(.+)[\\s]*$");
+	private static final Pattern edgeCommand = Pattern.compile("^[\\s]*([23])[\\s]+(.+)[\\s]+->[\\s]+(.+)[\\s]*$");
+
+	private JButton saveButton,loadButton,reloadButton,replayButton;
 	private JButton startStopButton;
-	private JTextField port;
-
-	ServerSocket socket = null;
-	private Socket clientSocket;
-	private SCXMLSocketListener listener;
+	private JTextField port,maxRate,replaySpeed;
+	private Timer replayTimer;
+	private int replayIndex;
+	private long replayStartTime,replayStartWallTime;
+	private double replaySpeedValue;
+	private static final String PREFERENCE_MAX_EVENTS_PER_SECOND="SCXML_LISTENER_MAX_EVENTS_PER_SECOND";
+
+	private SCXMLEventServer server;
 	private SCXMLGraphComponent graphComponent;
 	private mxIGraphModel model;
 	private SCXMLGraphEditor editor;
@@ -82,7 +97,7 @@ public class SCXMLListener extends JDialog implements ListSelectionListener, Win
 
 	public SCXMLListener(JFrame parent, SCXMLGraphEditor editor) {
 		super(parent,"SCXML Listener");
-		highlightedCellsEachInstant=new ArrayList<HashSet<mxCell>>();
+		highlightedCellsEachInstant=new SCXMLHighlightHistory();
 		
 		graphComponent=editor.getGraphComponent();
 		model=graphComponent.getGraph().getModel();
@@ -90,6 +105,20 @@ public class SCXMLListener extends JDialog implements ListSelectionListener, Win
 
 		cellHighlighter=new CellSelector(graphComponent);
 
+		frameTimer=new Timer(getFramePeriod(), new ActionListener() {
+			@Override
+			public void actionPerformed(ActionEvent e) {
+				updateFrame();
+			}
+		});
+		frameTimer.setRepeats(false);
+		replayTimer=new Timer(getFramePeriod(), new ActionListener() {
+			@Override
+			public void actionPerformed(ActionEvent e) {
+				updateReplay();
+			}
+		});
+
 		addWindowListener(this);
 		JPanel contentPane = new JPanel(new BorderLayout());
 		populateGUI(contentPane);
@@ -111,6 +140,12 @@ public class SCXMLListener extends JDialog implements ListSelectionListener, Win
 		port = new JTextField(10);
 		port.addActionListener(this);
 		port.getDocument().addDocumentListener(this);
+
+		// 0 (or empty) for no limit on the events received per second (from all clients).
+		JLabel maxRateLabel = new JLabel("max events/s:");
+		maxRate = new JTextField(6);
+		int savedMaxRate=editor.preferences.getInt(PREFERENCE_MAX_EVENTS_PER_SECOND, 0);
+		if (savedMaxRate>0) maxRate.setText(""+savedMaxRate);
 		
 		startStopButton=new JButton(mxResources.get("startSCXMLListener"));
 		startStopButton.setActionCommand("start");
@@ -123,23 +158,39 @@ public class SCXMLListener extends JDialog implements ListSelectionListener, Win
 		JPanel reloadButtonPane = new JPanel();
 		reloadButtonPane.setLayout(new BoxLayout(reloadButtonPane,BoxLayout.LINE_AXIS));
 		reloadButtonPane.add(reloadButton);
+		reloadButtonPane.add(Box.createHorizontalStrut(5));
+		replayButton = new JButton(mxResources.get("replaySCXMLListener"));
+		replayButton.setActionCommand("replay");
+		replayButton.addActionListener(this);
+		reloadButtonPane.add(replayButton);
+		reloadButtonPane.add(new JLabel(" speed:"));
+		replaySpeed = new JTextField("1",4);
+		replaySpeed.setMaximumSize(replaySpeed.getPreferredSize());
+		reloadButtonPane.add(replaySpeed);
 		
 		JPanel startStopButtonPane = new JPanel();
 		startStopButtonPane.setLayout(new BoxLayout(startStopButtonPane,BoxLayout.LINE_AXIS));
 		startStopButtonPane.add(portLabel);
 		startStopButtonPane.add(port);
 		startStopButtonPane.add(Box.createHorizontalStrut(5));
+		startStopButtonPane.add(maxRateLabel);
+		startStopButtonPane.add(maxRate);
+		startStopButtonPane.add(Box.createHorizontalStrut(5));
 		startStopButtonPane.add(startStopButton);
 		startStopButtonPane.setBorder(BorderFactory.createEmptyBorder(5,5,5,5));
 
 		//Create the list and put it in a scroll pane.
-		listModel = new DefaultListModel();
+		listModel = new SCXMLEventListModel<SCXMLEvent>();
 		list = new JList(listModel);
 		list.setSelectionMode(ListSelectionModel.SINGLE_SELECTION);
 		list.setSelectedIndex(0);
 		list.addListSelectionListener(this);
 		list.setVisibleRowCount(10);
-		list.setCellRenderer((ListCellRenderer) new SCXMLEventRenderer());
+		listRenderer=new SCXMLEventRenderer();
+		list.setCellRenderer((ListCellRenderer) listRenderer);
+		// with a fixed cell size the list doesn't render every row to compute its size, only the visible ones.
+		list.setFixedCellHeight(listRenderer.getListCellRendererComponent(list, "", 0, false, false).getPreferredSize().height);
+		list.setFixedCellWidth(1);
 		listScrollPane = new JScrollPane(list);
 
 		saveButton = new JButton(mxResources.get("save"));
@@ -190,44 +241,67 @@ public class SCXMLListener extends JDialog implements ListSelectionListener, Win
 			return this;
 		}
 	}
-	private int prevSelectedIndex=-1;
 	//This method is required by ListSelectionListener.
 	public void valueChanged(ListSelectionEvent e) {
 		if (e.getValueIsAdjusting() == false) {
-			int lastIndex = listModel.size()-1;
-			int selectedIndex = list.getSelectedIndex();
-			if (lastIndex>0) reloadButton.setEnabled(true);
+			if (listModel.getSize()>1) reloadButton.setEnabled(true);
+			// while paused every selected event is highlighted, to allow stepping through them.
+			if ((status==STARTED) || (status==REPLAYING)) scheduleFrame();
+			else updateHighlight();
+		}
+	}
+
+	private void scheduleFrame() {
+		if (!frameTimer.isRunning()) frameTimer.start();
+	}
+	/**
+	 * publishes the events received since the last frame, follows the last event if it was
+	 * selected, and updates the highlight to the selected event.
+	 */
+	private void updateFrame() {
+		int lastIndex = listModel.getSize()-1;
+		int selectedIndex = list.getSelectedIndex();
+		if (listModel.flush()) {
+			int size=listModel.getSize();
+			int width=list.getFixedCellWidth();
+			for(int i=lastIndex+1;i<size;i++) {
+				width=Math.max(width, listRenderer.getListCellRendererComponent(list, listModel.getElementAt(i), i, false, false).getPreferredSize().width);
+			}
+			if (width!=list.getFixedCellWidth()) list.setFixedCellWidth(width);
 			if ((lastIndex<0) || (selectedIndex>=lastIndex)) {
-				SwingUtilities.invokeLater(new Runnable() {
-					@Override
-					public void run() {
-						JScrollBar vs = listScrollPane.getVerticalScrollBar();
-						if (vs!=null) vs.setValue(vs.getMaximum());
-					}
-				});
+				list.setSelectedIndex(size-1);
+				list.ensureIndexIsVisible(size-1);
 			}
-			if (selectedIndex>=0) {
-				resetAllSCXMLEventExecutions(prevSelectedIndex);
-				HashSet<mxCell> set = getHighlightAtIndex(selectedIndex);
-				if (set!=null) {
-					for(mxCell c:set) {
-						if (c!=null) {
-							if (c.isEdge()) doEdgeShow(model,c,true,null);
-							else doNodeShow(model,c,true,null);
-						}
-					}
+			if (size>1) reloadButton.setEnabled(true);
+		}
+		updateHighlight();
+	}
+	private static int getFramePeriod() {
+		int rate=0;
+		try {
+			rate=GraphicsEnvironment.getLocalGraphicsEnvironment().getDefaultScreenDevice().getDisplayMode().getRefreshRate();
+		} catch (HeadlessException e) {
+		}
+		// unknown refresh rate.
+		if (rate<=0) rate=60;
+		return Math.max(1, 1000/rate);
+	}
+
+	private List<mxCell> getHighlightAtIndex(int index) {
+		if ((trace!=null) && (index>=0) && (index<trace.size())) {
+			// the trace knows what is shown at its checkpoints, there is no need to execute all events before index.
+			LinkedHashSet<mxCell> cells=new LinkedHashSet<mxCell>();
+			for(SCXMLTraceReader.Record r:trace.getShownAt(index)) {
+				SCXMLEvent ev=new SCXMLEvent(r);
+				if (ev.command==SCXMLEvent.SHOWNODE) {
+					if (ev.arg1!=null) cells.add(ev.arg1);
+				} else {
+					for(Object edge:mxGraphModel.getEdgesBetween(model, ev.arg1, ev.arg2, true)) cells.add((mxCell) edge);
 				}
-				prevSelectedIndex=selectedIndex;
 			}
+			return new ArrayList<mxCell>(cells);
 		}
-	}
-
-	private void setHighlightAtIndex(int index,HashSet<mxCell> highlightedCells) {
-		highlightedCellsEachInstant.add(index, highlightedCells);
-	}
-	private HashSet<mxCell> getHighlightAtIndex(int index) {
-		if ((index>=0) && (highlightedCellsEachInstant.size()>index)) return highlightedCellsEachInstant.get(index);
-		else return null;
+		return highlightedCellsEachInstant.getHighlightAt(index);
 	}
 
 	public void showTool() {
@@ -253,7 +327,7 @@ public class SCXMLListener extends JDialog implements ListSelectionListener, Win
 	@Override
 	public void windowClosing(WindowEvent e) {
 		stopTool();
-		resetAllSCXMLEventExecutions(list.getSelectedIndex());
+		hideHighlight();
 		setVisible(false);
 	}
 
@@ -285,22 +359,11 @@ public class SCXMLListener extends JDialog implements ListSelectionListener, Win
 	@Override
 	public void actionPerformed(ActionEvent e) {
 		String cmd=e.getActionCommand();
-		Integer portValue;
-		if (cmd.equals("start") && ((portValue=validPort(port.getText()))!=null)) {
-			if (initiateListener(portValue)) {
-				setStatus(WAITING);
-				SwingUtilities.invokeLater(new Runnable() {
-					@Override
-					public void run() {
-						if ((clientSocket=waitForConnection(socket))!=null) {
-							setStatus(STARTED);
-							listener=new SCXMLSocketListener(SCXMLListener.this,clientSocket);
-							listener.start();
-						} else {
-							setStatus(STOPPED);
-						}
-					}
-				});
+		Integer portValue,maxRateValue;
+		if (cmd.equals("start") && ((portValue=validPort(port.getText()))!=null) && ((maxRateValue=validMaxRate(maxRate.getText()))!=null)) {
+			editor.preferences.putInt(PREFERENCE_MAX_EVENTS_PER_SECOND, maxRateValue);
+			if (initiateListener(portValue,maxRateValue)) {
+				setStatus(STARTED);
 			} else {
 				setStatus(STOPPED);
 			}
@@ -309,7 +372,7 @@ public class SCXMLListener extends JDialog implements ListSelectionListener, Win
 		} else if (cmd.equals("save")) {
 			String wd = (lastDir!=null)?lastDir:((editor.getCurrentFile()!=null)?editor.getCurrentFile().getParent():System.getProperty("user.dir"));
 			JFileChooser fc = new JFileChooser(wd);
-			fc.setFileFilter(new DefaultFileFilter(".txt","Event List"));
+			fc.setFileFilter(new DefaultFileFilter(SCXMLTraceWriter.EXTENSION,"Event trace"));
 			int rc = fc.showDialog(this, mxResources.get("save"));
 			if (rc == JFileChooser.APPROVE_OPTION) {
 				lastDir = fc.getSelectedFile().getParent();
@@ -324,7 +387,7 @@ public class SCXMLListener extends JDialog implements ListSelectionListener, Win
 				if ((!(new File(filename).exists())) || JOptionPane.showConfirmDialog(graphComponent,mxResources.get("overwriteExistingFile")) == JOptionPane.YES_OPTION)
 				{
 					try {
-						mxUtils.writeFile(getEventListToString(),filename);
+						writeTrace(new File(filename));
 					} catch (IOException ex) {
 						ex.printStackTrace();
 						JOptionPane.showMessageDialog(editor.getGraphComponent(),
@@ -336,14 +399,15 @@ public class SCXMLListener extends JDialog implements ListSelectionListener, Win
 		} else if (cmd.equals("load")) {
 			String wd = (lastDir!=null)?lastDir:((editor.getCurrentFile()!=null)?editor.getCurrentFile().getParent():System.getProperty("user.dir"));
 			JFileChooser fc = new JFileChooser(wd);
-			fc.setFileFilter(new FileNameExtensionFilter("Event List", "txt"));
+			fc.setFileFilter(new FileNameExtensionFilter("Event trace or list", SCXMLTraceWriter.EXTENSION.substring(1), "txt"));
 			int rc = fc.showDialog(this, mxResources.get("openFile"));
 			if (rc == JFileChooser.APPROVE_OPTION) {
 				lastDir = fc.getSelectedFile().getParent();
 				String filename = fc.getSelectedFile().getAbsolutePath();
 				try {
 					setStatus(LOADING);
-					setEventListFromString(mxUtils.readFile(filename));
+					if (filename.toLowerCase().endsWith(".txt")) setEventListFromString(mxUtils.readFile(filename));
+					else readTrace(new File(filename));
 				} catch (IOException ex) {
 					ex.printStackTrace();
 					JOptionPane.showMessageDialog(editor.getGraphComponent(),
@@ -354,10 +418,21 @@ public class SCXMLListener extends JDialog implements ListSelectionListener, Win
 				setStatus(STOPPED);
 			}
 		} else if (cmd.equals("refresh")) {
-			int size=listModel.size();
-			for (int i=0;i<size;i++) {
-				refreshEvent((SCXMLEvent)listModel.get(i),i);
+			// the history can only be appended to, so it is rebuilt from the first event.
+			hideHighlight();
+			if (trace==null) {
+				highlightedCellsEachInstant.clear();
+				int size=listModel.size();
+				for (int i=0;i<size;i++) {
+					refreshEvent(listModel.get(i));
+				}
 			}
+			updateHighlight();
+		} else if (cmd.equals("replay")) {
+			Double speed=validSpeed(replaySpeed.getText());
+			if (speed!=null) startReplay(speed);
+		} else if (cmd.equals("stopReplay")) {
+			setStatus(STOPPED);
 		}
 	}
 
@@ -371,6 +446,28 @@ public class SCXMLListener extends JDialog implements ListSelectionListener, Win
 		return port;
 	}
 
+	private Integer validMaxRate(String text) {
+		text=text.trim();
+		if (text.length()==0) return 0;
+		try {
+			int rate=Integer.parseInt(text);
+			if (rate>=0) return rate;
+		} catch (NumberFormatException e) {
+		}
+		JOptionPane.showMessageDialog(this, "'"+text+"' is an invalid number of events per second.", "Error", JOptionPane.ERROR_MESSAGE);
+		return null;
+	}
+
+	private Double validSpeed(String text) {
+		try {
+			double speed=Double.parseDouble(text.trim());
+			if (speed>0) return speed;
+		} catch (NumberFormatException e) {
+		}
+		JOptionPane.showMessageDialog(this, "'"+text+"' is an invalid replay speed.", "Error", JOptionPane.ERROR_MESSAGE);
+		return null;
+	}
+
 	@Override
 	public void changedUpdate(DocumentEvent e) {
 		handleIDField(e);
@@ -399,10 +496,11 @@ public class SCXMLListener extends JDialog implements ListSelectionListener, Win
         return false;
     }
 	
-	private boolean initiateListener(int port) {
-		if (socket==null) {
+	private boolean initiateListener(int port,int maxEventsPerSecond) {
+		if (server==null) {
 			try {
-				socket = new ServerSocket(port);
+				server = new SCXMLEventServer(port, maxEventsPerSecond, this);
+				server.start();
 				return true;
 			} catch (IOException e) {
 				JOptionPane.showMessageDialog(this, "impossible to listen to port '"+port+"': "+e.getMessage(), "Error", JOptionPane.ERROR_MESSAGE);
@@ -421,10 +519,12 @@ public class SCXMLListener extends JDialog implements ListSelectionListener, Win
 			startStopButton.setText(mxResources.get("startSCXMLListener"));
 			startStopButton.setEnabled(false);
 			port.setText("");
-			port.setEnabled(true);			
+			port.setEnabled(true);
+			maxRate.setEnabled(true);
 			list.setEnabled(false);
 			saveButton.setEnabled(false);
 			loadButton.setEnabled(false);
+			replayButton.setEnabled(false);
 			break;
 		case STARTED:
 			status=STARTED;
@@ -433,22 +533,45 @@ public class SCXMLListener extends JDialog implements ListSelectionListener, Win
 			startStopButton.setText(mxResources.get("stopSCXMLListener"));
 			startStopButton.setEnabled(true);
 			port.setEnabled(false);
+			maxRate.setEnabled(false);
 			list.setEnabled(true);
 			saveButton.setEnabled(false);
 			loadButton.setEnabled(false);
+			replayButton.setEnabled(false);
 			break;
 		case STOPPED:
 			status=STOPPED;
 			stopTool();
+			replayTimer.stop();
+			frameTimer.stop();
+			updateFrame();
 			startStopButton.setActionCommand("start");
 			startStopButton.setText(mxResources.get("startSCXMLListener"));
 			startStopButton.setEnabled(true);
 			port.setEnabled(true);
+			maxRate.setEnabled(true);
 			list.setEnabled(true);
 			if (listModel.size()>0) {
 				saveButton.setEnabled(true);
 			}
 			loadButton.setEnabled(true);
+			replayButton.setActionCommand("replay");
+			replayButton.setText(mxResources.get("replaySCXMLListener"));
+			replayButton.setEnabled(listModel.size()>0);
+			replaySpeed.setEnabled(true);
+			break;
+		case REPLAYING:
+			status=REPLAYING;
+			startStopButton.setEnabled(false);
+			port.setEnabled(false);
+			maxRate.setEnabled(false);
+			list.setEnabled(true);
+			saveButton.setEnabled(false);
+			loadButton.setEnabled(false);
+			replayButton.setActionCommand("stopReplay");
+			replayButton.setText(mxResources.get("stopReplaySCXMLListener"));
+			replayButton.setEnabled(true);
+			replaySpeed.setEnabled(false);
 			break;
 		case WAITING:
 			status=WAITING;
@@ -456,9 +579,11 @@ public class SCXMLListener extends JDialog implements ListSelectionListener, Win
 			startStopButton.setText(mxResources.get("waitForConnection"));
 			startStopButton.setEnabled(false);
 			port.setEnabled(false);
+			maxRate.setEnabled(false);
 			list.setEnabled(false);
 			saveButton.setEnabled(false);
 			loadButton.setEnabled(false);
+			replayButton.setEnabled(false);
 			break;
 		case LOADING:
 			status=LOADING;
@@ -469,24 +594,73 @@ public class SCXMLListener extends JDialog implements ListSelectionListener, Win
 	}
 	
 	private void resetEventList() {
-		resetAllSCXMLEventExecutions(list.getSelectedIndex());
+		hideHighlight();
 		listModel.clear();
 		highlightedCellsEachInstant.clear();
+		list.setFixedCellWidth(1);
+		closeTrace();
+	}
+	private void closeTrace() {
+		if (trace!=null) {
+			try {
+				trace.close();
+			} catch (IOException e) {
+				e.printStackTrace();
+			}
+			trace=null;
+		}
 	}
-	private String getEventListToString() {
-		String ret="";
-		for (Object o:listModel.toArray()) {
-			String es=((SCXMLEvent)o).write();
-			if (es!=null)
-				ret+=es+"\n";
+	private void writeTrace(File file) throws IOException {
+		int size=listModel.size();
+		SCXMLTraceWriter out=new SCXMLTraceWriter(file, (size>0)?listModel.get(0).time:System.currentTimeMillis());
+		boolean written=false;
+		try {
+			for(int i=0;i<size;i++) {
+				SCXMLEvent ev=listModel.get(i);
+				out.write(ev.command, ev.arg1n, ev.arg2n, ev.time);
+			}
+			out.close();
+			written=true;
+		} finally {
+			if (!written) out.abort();
+		}
+	}
+	/**
+	 * shows the events of the given trace file. Events are decoded only when displayed.
+	 */
+	private void readTrace(File file) throws IOException {
+		final SCXMLTraceReader reader=new SCXMLTraceReader(file);
+		if (reader.size()>Integer.MAX_VALUE) {
+			reader.close();
+			throw new IOException("Too many events in '"+file+"': "+reader.size());
+		}
+		trace=reader;
+		listModel.setSource(new SCXMLEventListModel.Source<SCXMLEvent>() {
+			@Override
+			public int size() {
+				return (int) reader.size();
+			}
+			@Override
+			public SCXMLEvent get(int index) {
+				return new SCXMLEvent(reader.get(index));
+			}
+		});
+		int size=listModel.getSize();
+		for(int i=0;i<Math.min(size, 1000);i++) {
+			list.setFixedCellWidth(Math.max(list.getFixedCellWidth(), listRenderer.getListCellRendererComponent(list, listModel.getElementAt(i), i, false, false).getPreferredSize().width));
+		}
+		if (size>0) {
+			list.setSelectedIndex(size-1);
+			list.ensureIndexIsVisible(size-1);
 		}
-		return ret;
 	}
 	private void setEventListFromString(String events) throws IOException {
 		BufferedReader in = new BufferedReader(new StringReader(events));
 		String line;
+		long time=0;
 		while((line=in.readLine())!=null) {
-			addEvent(line);
+			addEvent(line,time);
+			time+=TEXTEVENTINTERVAL;
 		}
 	}
 
@@ -495,127 +669,133 @@ public class SCXMLListener extends JDialog implements ListSelectionListener, Win
 	}
 
 	public void stopListener() {
-		try {
-			if (listener!=null) listener.halt();
-			if (socket!=null) socket.close();
-		} catch (IOException e) {
-			JOptionPane.showMessageDialog(this, "Error while terminating SCXML listener.", "Error", JOptionPane.ERROR_MESSAGE);
-		}
-		socket=null;
-		listener=null;
+		if (server!=null) server.halt();
+		server=null;
 	}
-	
-	private Socket waitForConnection(ServerSocket socket) {
-		if (socket!=null) {
-			try {
-				Socket clientSocket=socket.accept();
-				return clientSocket;
-			} catch (IOException e) {
-				JOptionPane.showMessageDialog(this, "Error while accepting connection.", "Error", JOptionPane.ERROR_MESSAGE);
-			}
-		} else {
-			JOptionPane.showMessageDialog(this, "The socket is NULL, impossible to wait for a connection.", "Warning", JOptionPane.WARNING_MESSAGE);
-		}
-		return null;
-	}
-	class SCXMLSocketListener extends Thread {
-		private SCXMLListener gui;
-		private Socket socket;
-		private BufferedReader in;
-		private OutputStream out;
-		private static final byte ACK = 1;
-
-		public SCXMLSocketListener(SCXMLListener l,Socket clientSocket) {
-			this.gui=l;
-			this.socket=clientSocket;
-		}
 
-		public void run() {
-	        try {
-				in = new BufferedReader(new InputStreamReader(socket.getInputStream()));
-				out=socket.getOutputStream();
-        		out.write(ACK);
-		        String inputLine;
-		        while (gui.getStatus()==STARTED) {
-		        	if (in.ready()) {
-		        		inputLine = in.readLine();
-		        		out.write(ACK);
-		        		if (inputLine!=null) gui.addEvent(inputLine);
-		        	}
-		        }
-			} catch (IOException e) {
-				gui.setStatus(STOPPED);
-			}
-        }
-		
-		public void halt() throws IOException {
-	        if (in!=null) in.close();
-	        if (socket!=null) socket.close();
+	@Override
+	public void addEvents(List<String> events) {
+		if (status==STARTED) {
+			for(String event:events) addEvent(event);
 		}
 	}
+	@Override
+	public void serverFailed(IOException e) {
+		JOptionPane.showMessageDialog(this, "Error in SCXML listener: "+e.getMessage(), "Error", JOptionPane.ERROR_MESSAGE);
+		setStatus(STOPPED);
+	}
 
-	public void refreshEvent(SCXMLEvent ev,int pos) {
+	// appends ev (after having resolved again its cells) to the highlight history.
+	public void refreshEvent(SCXMLEvent ev) {
 		ev.refreshEvent();
-		HashSet<mxCell> prevHighlightedCells = getHighlightAtIndex(pos-1);
-		HashSet<mxCell> newHighlightedCells = (prevHighlightedCells==null)? new HashSet<mxCell>():new HashSet<mxCell>(prevHighlightedCells);
-		// updates the highlight
-		ev.execute(model,false,newHighlightedCells);
-		// store the new highlight state (without changing the display
-		setHighlightAtIndex(pos,newHighlightedCells);
+		highlightedCellsEachInstant.beginEvent();
+		ev.execute(model,false,highlightedCellsEachInstant);
 	}
 	public void addEvent(String command) {
+		addEvent(command,System.currentTimeMillis());
+	}
+	public void addEvent(String command,long time) {
 		try {
-			SCXMLEvent event = new SCXMLEvent(command);
-			int lastIndex = listModel.size()-1;
-			int selectedIndex = list.getSelectedIndex();
-			listModel.addElement(event);
-
-			HashSet<mxCell> prevHighlightedCells = getHighlightAtIndex(lastIndex);
-			HashSet<mxCell> newHighlightedCells = (prevHighlightedCells==null)? new HashSet<mxCell>():new HashSet<mxCell>(prevHighlightedCells);
-			// updates the highlight
-			event.execute(model,false,newHighlightedCells);
-			// store the new highlight state (without changing the display
-			setHighlightAtIndex(lastIndex+1,newHighlightedCells);
+			SCXMLEvent event = new SCXMLEvent(command,time);
+			listModel.add(event);
 
-			if ((lastIndex<0) || (selectedIndex>=lastIndex)) {
-				resetAllSCXMLEventExecutions(selectedIndex);
-				list.setSelectedIndex(lastIndex+1);
-			}
+			// store the new highlight state (without changing the display)
+			highlightedCellsEachInstant.beginEvent();
+			event.execute(model,false,highlightedCellsEachInstant);
+
+			// the list and the display are updated by the next frame.
+			scheduleFrame();
 		} catch (Exception e) {
 			e.printStackTrace();
 			//JOptionPane.showMessageDialog(this, "Unknown command received", "Warning", JOptionPane.WARNING_MESSAGE);
 		}
 	}
 	
-	public void resetAllSCXMLEventExecutions(int i) {
-		if (i>=0) {
-			HashSet<mxCell> highlightedCells = getHighlightAtIndex(i);
-			if (highlightedCells!=null) {
-				for (mxCell c:highlightedCells) {
-					if (c!=null) {
-						if (c.isEdge()) doEdgeHide(model, c,true,null);
-						else doNodeHide(model, c,true,null);
-					}
+	/**
+	 * replays the events from the selected one (from the first if the last is selected) at speed
+	 * times the speed at which they have been received. The selection follows the replay, so the
+	 * highlight is updated as for events received live.
+	 */
+	private void startReplay(double speed) {
+		int size=listModel.size();
+		if (size<=0) return;
+		int start=list.getSelectedIndex();
+		if ((start<0) || (start>=size-1)) start=0;
+		replayIndex=start;
+		replaySpeedValue=speed;
+		replayStartTime=getEventTime(start);
+		replayStartWallTime=System.currentTimeMillis();
+		setStatus(REPLAYING);
+		list.setSelectedIndex(start);
+		list.ensureIndexIsVisible(start);
+		replayTimer.start();
+	}
+	private void updateReplay() {
+		long now=replayStartTime+(long) ((System.currentTimeMillis()-replayStartWallTime)*replaySpeedValue);
+		int size=listModel.size();
+		int index=replayIndex;
+		while ((index+1<size) && (getEventTime(index+1)<=now)) index++;
+		if (index!=replayIndex) {
+			replayIndex=index;
+			list.setSelectedIndex(index);
+			list.ensureIndexIsVisible(index);
+		}
+		if (index>=size-1) setStatus(STOPPED);
+	}
+	private long getEventTime(int index) {
+		return listModel.get(index).time;
+	}
+
+	/**
+	 * displays the highlight of the selected event, changing only the cells whose highlight differs
+	 * from the one currently displayed.
+	 */
+	private void updateHighlight() {
+		int selectedIndex=list.getSelectedIndex();
+		if ((selectedIndex<0) || (selectedIndex==displayedIndex)) return;
+		List<mxCell> cells=getHighlightAtIndex(selectedIndex);
+		HashSet<mxCell> shown=(cells!=null)?new HashSet<mxCell>(cells):new HashSet<mxCell>();
+		if (displayedCells!=null) {
+			for (mxCell c:displayedCells) {
+				if (!shown.remove(c)) {
+					if (c.isEdge()) doEdgeHide(model, c,true,null);
+					else doNodeHide(model, c,true,null);
 				}
 			}
 		}
+		for(mxCell c:shown) {
+			if (c.isEdge()) doEdgeShow(model,c,true,null);
+			else doNodeShow(model,c,true,null);
+		}
+		displayedIndex=selectedIndex;
+		displayedCells=cells;
+	}
+	private void hideHighlight() {
+		if (displayedCells!=null) {
+			for (mxCell c:displayedCells) {
+				if (c.isEdge()) doEdgeHide(model, c,true,null);
+				else doNodeHide(model, c,true,null);
+			}
+		}
+		displayedIndex=-1;
+		displayedCells=null;
 	}
 
-	private void doNodeShow(mxIGraphModel model,mxCell n,boolean show,HashSet<mxCell> highlightedCells) {
+	private void doNodeShow(mxIGraphModel model,mxCell n,boolean show,SCXMLHighlightHistory highlightedCells) {
 		if (show) cellHighlighter.selectCell(n);
-		if (highlightedCells!=null) highlightedCells.add(n);
+		if (highlightedCells!=null) highlightedCells.enter(n);
 	}
-	private void doEdgeShow(mxIGraphModel model,mxCell n,boolean show,HashSet<mxCell> highlightedCells) {
+	private void doEdgeShow(mxIGraphModel model,mxCell n,boolean show,SCXMLHighlightHistory highlightedCells) {
 		if (show) cellHighlighter.selectCell(n);
-		if (highlightedCells!=null) highlightedCells.add(n);
+		if (highlightedCells!=null) highlightedCells.enter(n);
 	}
-	private void doNodeHide(mxIGraphModel model,mxCell n,boolean show,HashSet<mxCell> highlightedCells) {
+	private void doNodeHide(mxIGraphModel model,mxCell n,boolean show,SCXMLHighlightHistory highlightedCells) {
 		if (show) cellHighlighter.unselectCell(n);
-		if (highlightedCells!=null) highlightedCells.remove(n);
+		if (highlightedCells!=null) highlightedCells.exit(n);
 	}
-	private void doEdgeHide(mxIGraphModel model,mxCell n,boolean show,HashSet<mxCell> highlightedCells) {
+	private void doEdgeHide(mxIGraphModel model,mxCell n,boolean show,SCXMLHighlightHistory highlightedCells) {
 		if (show) cellHighlighter.unselectCell(n);
-		if (highlightedCells!=null) highlightedCells.remove(n);
+		if (highlightedCells!=null) highlightedCells.exit(n);
 	}
 
 	public class SCXMLEvent {
@@ -627,17 +807,27 @@ public class SCXMLListener extends JDialog implements ListSelectionListener, Win
 		int command;
 		mxCell arg1,arg2;
 		String arg1n,arg2n;
+		// when the event has been received (in milliseconds).
+		long time;
+
+		public SCXMLEvent(SCXMLTraceReader.Record r) {
+			command=r.command;
+			arg1n=r.arg1;
+			arg2n=r.arg2;
+			time=r.time;
+			arg1=graphComponent.getSCXMLNodeForID(arg1n);
+			if (arg2n!=null) arg2=graphComponent.getSCXMLNodeForID(arg2n);
+		}
 
-		public SCXMLEvent(String command) throws Exception {
-			Pattern nodep = Pattern.compile("^[\\s]*([01])[\\s]+(.+)[\\s]*$");
-			Pattern edgep = Pattern.compile("^[\\s]*([23])[\\s]+(.+)[\\s]+->[\\s]+(.+)[\\s]*$");
-			Matcher m = nodep.matcher(command);
+		public SCXMLEvent(String command,long time) throws Exception {
+			this.time=time;
+			Matcher m = nodeCommand.matcher(command);
 			if (m.matches() && (m.groupCount()==2)) {
 				this.command=Integer.parseInt(m.group(1));
 				arg1n=m.group(2);
 				arg1 = graphComponent.getSCXMLNodeForID(arg1n);
 			} else {
-				m = edgep.matcher(command);
+				m = edgeCommand.matcher(command);
 				if (m.matches() && (m.groupCount()==3)) {
 					this.command=Integer.parseInt(m.group(1));
 					arg1n=m.group(2);
@@ -656,7 +846,7 @@ public class SCXMLListener extends JDialog implements ListSelectionListener, Win
 			if ((arg2==null) && (arg2n!=null)) arg2=graphComponent.getSCXMLNodeForID(arg2n);
 		}
 		
-		public void execute(mxIGraphModel model,boolean show,HashSet<mxCell> highlightedCells) {
+		public void execute(mxIGraphModel model,boolean show,SCXMLHighlightHistory highlightedCells) {
 			Object[] edges;
 			switch (command) {
 			case SHOWNODE:
@@ -680,20 +870,6 @@ public class SCXMLListener extends JDialog implements ListSelectionListener, Win
 			}
 		}
 		
-		public String write() {
-			switch (command) {
-			case SHOWNODE:
-				return "1 "+arg1n;
-			case SHOWEDGE:
-				return "3 "+arg1n+" -> "+arg2n;
-			case HIDENODE:
-				return "0 "+arg1n;
-			case HIDEEDGE:
-				return "2 "+arg1n+" -> "+arg2n;
-			}
-			return null;
-		}
-
 		@Override
 		public String toString() {
 			switch (command) {
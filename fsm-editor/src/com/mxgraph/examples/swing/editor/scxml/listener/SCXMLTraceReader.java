@@ -0,0 +1,197 @@
+package com.mxgraph.examples.swing.editor.scxml.listener;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashSet;
+import java.util.List;
+
+/**
+ * Reads a trace written by SCXMLTraceWriter. The file is memory mapped and only the footer is
+ * decoded when the trace is opened, events are decoded when they are requested starting from
+ * the nearest preceding checkpoint. Consecutive requests continue from the last decoded event.
+ * Not thread safe.
+ */
+public class SCXMLTraceReader {
+
+	// a mapped region never splits the records between two checkpoints.
+	private static final long MAXSEGMENTSIZE = 1L<<30;
+	private static final int CHECKPOINTINTERVAL = SCXMLTraceWriter.CHECKPOINTINTERVAL;
+
+	public static class Record {
+		public final int command;
+		public final String arg1,arg2;
+		public final long time;
+
+		public Record(int command,String arg1,String arg2,long time) {
+			this.command=command;
+			this.arg1=arg1;
+			this.arg2=arg2;
+			this.time=time;
+		}
+	}
+
+	private final RandomAccessFile file;
+	private final long startTime;
+	private final String[] strings;
+	private final long numEvents;
+	private final long[] checkpointOffset,checkpointTime;
+	private final long[][] checkpointShown;
+	private final MappedByteBuffer[] segments;
+	private final long[] segmentStart;
+	private final int[] checkpointSegment;
+
+	// the next record decoded is the one at cursorIndex, at the position of cursor.
+	private ByteBuffer cursor=null;
+	private long cursorIndex=-1,cursorTime;
+
+	public SCXMLTraceReader(File f) throws IOException {
+		file=new RandomAccessFile(f, "r");
+		try {
+			FileChannel channel=file.getChannel();
+			long length=channel.size();
+			byte[] magic=new byte[4];
+			if (length<25) throw new IOException("Not a trace file: "+f);
+			file.readFully(magic);
+			if (!Arrays.equals(magic, SCXMLTraceWriter.MAGIC)) throw new IOException("Not a trace file: "+f);
+			int version=file.read();
+			if (version!=SCXMLTraceWriter.VERSION) throw new IOException("Unsupported trace version "+version+": "+f);
+			startTime=file.readLong();
+			file.seek(length-12);
+			long footer=file.readLong();
+			file.readFully(magic);
+			if (!Arrays.equals(magic, SCXMLTraceWriter.MAGIC) || (footer<13) || (footer>length-12)) throw new IOException("Truncated trace file: "+f);
+
+			ByteBuffer in=channel.map(MapMode.READ_ONLY, footer, length-12-footer);
+			strings=new String[(int) readVarint(in)];
+			for(int i=0;i<strings.length;i++) {
+				byte[] b=new byte[(int) readVarint(in)];
+				in.get(b);
+				strings[i]=new String(b, SCXMLTraceWriter.UTF8);
+			}
+			numEvents=readVarint(in);
+			int numCheckpoints=(int) readVarint(in);
+			checkpointOffset=new long[numCheckpoints];
+			checkpointTime=new long[numCheckpoints];
+			checkpointShown=new long[numCheckpoints][];
+			for(int i=0;i<numCheckpoints;i++) {
+				checkpointOffset[i]=readVarint(in);
+				checkpointTime[i]=unzigzag(readVarint(in));
+				long[] s=checkpointShown[i]=new long[(int) readVarint(in)];
+				for(int j=0;j<s.length;j++) s[j]=(readVarint(in)<<32)|readVarint(in);
+			}
+
+			// maps the records in regions made of whole checkpoints.
+			ArrayList<MappedByteBuffer> mapped=new ArrayList<MappedByteBuffer>();
+			ArrayList<Long> starts=new ArrayList<Long>();
+			checkpointSegment=new int[numCheckpoints];
+			long start=(numCheckpoints>0)?checkpointOffset[0]:footer;
+			for(int i=0;i<numCheckpoints;i++) {
+				long end=(i+1<numCheckpoints)?checkpointOffset[i+1]:footer;
+				if ((end-start>MAXSEGMENTSIZE) && (checkpointOffset[i]>start)) {
+					mapped.add(channel.map(MapMode.READ_ONLY, start, checkpointOffset[i]-start));
+					starts.add(start);
+					start=checkpointOffset[i];
+				}
+				checkpointSegment[i]=mapped.size();
+			}
+			mapped.add(channel.map(MapMode.READ_ONLY, start, footer-start));
+			starts.add(start);
+			segments=mapped.toArray(new MappedByteBuffer[mapped.size()]);
+			segmentStart=new long[starts.size()];
+			for(int i=0;i<segmentStart.length;i++) segmentStart[i]=starts.get(i);
+		} catch (RuntimeException e) {
+			file.close();
+			throw new IOException("Corrupted trace file: "+f,e);
+		} catch (IOException e) {
+			file.close();
+			throw e;
+		}
+	}
+
+	public long size() {
+		return numEvents;
+	}
+	public long getStartTime() {
+		return startTime;
+	}
+
+	public Record get(long index) {
+		if ((index<0) || (index>=numEvents)) throw new IndexOutOfBoundsException(""+index);
+		if ((cursor==null) || (index<cursorIndex) || (index-cursorIndex>=CHECKPOINTINTERVAL)) seekCheckpoint((int) (index/CHECKPOINTINTERVAL));
+		Record ret;
+		do {
+			ret=next();
+		} while (cursorIndex<=index);
+		return ret;
+	}
+
+	/**
+	 * @return the nodes and edges shown after the event at index, as show records.
+	 */
+	public List<Record> getShownAt(long index) {
+		if ((index<0) || (index>=numEvents)) throw new IndexOutOfBoundsException(""+index);
+		int c=(int) (index/CHECKPOINTINTERVAL);
+		LinkedHashSet<Long> shown=new LinkedHashSet<Long>();
+		for(long k:checkpointShown[c]) shown.add(k);
+		seekCheckpoint(c);
+		while (cursorIndex<=index) {
+			int position=cursor.position();
+			int command=cursor.get();
+			long id1=readVarint(cursor);
+			long id2=SCXMLTraceWriter.isEdge(command)?readVarint(cursor):-1;
+			long k=SCXMLTraceWriter.key((int) id1, (int) id2);
+			if (SCXMLTraceWriter.isShow(command)) shown.add(k);
+			else shown.remove(k);
+			cursor.position(position);
+			next();
+		}
+		ArrayList<Record> ret=new ArrayList<Record>(shown.size());
+		for(long k:shown) {
+			int id2=(int) (k&0xffffffffL)-1;
+			ret.add(new Record((id2<0)?SCXMLListener.SCXMLEvent.SHOWNODE:SCXMLListener.SCXMLEvent.SHOWEDGE, strings[(int) (k>>>32)], (id2<0)?null:strings[id2], 0));
+		}
+		return ret;
+	}
+
+	public void close() throws IOException {
+		cursor=null;
+		file.close();
+	}
+
+	private void seekCheckpoint(int c) {
+		int s=checkpointSegment[c];
+		cursor=segments[s].duplicate();
+		cursor.position((int) (checkpointOffset[c]-segmentStart[s]));
+		cursorIndex=((long) c)*CHECKPOINTINTERVAL;
+		cursorTime=checkpointTime[c];
+	}
+	private Record next() {
+		// the records of a checkpoint may be in a different region.
+		if ((cursorIndex%CHECKPOINTINTERVAL)==0) seekCheckpoint((int) (cursorIndex/CHECKPOINTINTERVAL));
+		int command=cursor.get();
+		String arg1=strings[(int) readVarint(cursor)];
+		String arg2=SCXMLTraceWriter.isEdge(command)?strings[(int) readVarint(cursor)]:null;
+		cursorTime+=unzigzag(readVarint(cursor));
+		cursorIndex++;
+		return new Record(command, arg1, arg2, cursorTime);
+	}
+
+	private static long readVarint(ByteBuffer in) {
+		long ret=0;
+		for(int shift=0;;shift+=7) {
+			byte b=in.get();
+			ret|=((long)(b&0x7f))<<shift;
+			if (b>=0) return ret;
+		}
+	}
+	private static long unzigzag(long v) {
+		return (v>>>1)^-(v&1);
+	}
+}
@@ -0,0 +1,193 @@
+package com.mxgraph.examples.swing.editor.scxml.listener;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+
+/**
+ * Writes a binary trace of the events received by the SCXML listener, read back by SCXMLTraceReader.
+ * Layout of a trace file (all integers are unsigned LEB128 varints unless stated otherwise):
+ * <pre>
+ * header:  "SCXT", version byte, start time (8 bytes)
+ * records: command byte, id of arg1, [id of arg2, for edge commands], zigzag time delta from the previous record
+ * footer:  number of strings, each string as length and UTF-8 bytes (the id of a string is its position)
+ *          number of events
+ *          number of checkpoints, each as offset of its first record, time of the preceding record and
+ *          the shown nodes and edges before its first record (count, then id of arg1 and id of arg2+1, 0 for nodes)
+ * trailer: offset of the footer (8 bytes), "SCXT"
+ * </pre>
+ * There is one checkpoint every CHECKPOINTINTERVAL events, so any event and the highlight after
+ * it are obtained decoding at most CHECKPOINTINTERVAL records.
+ * The trace is written to a temporary file in the same directory that replaces the given file
+ * when closed. The given file is never truncated, as it may be mapped by a SCXMLTraceReader.
+ */
+public class SCXMLTraceWriter {
+
+	public static final byte[] MAGIC = {'S','C','X','T'};
+	public static final int VERSION = 1;
+	public static final int CHECKPOINTINTERVAL = 4096;
+	public static final String EXTENSION = ".scxmltrace";
+	static final Charset UTF8 = Charset.forName("UTF-8");
+
+	private final File file,tmp;
+	private final OutputStream out;
+	private long offset=0;
+	private long lastTime;
+	private long numEvents=0;
+	private final HashMap<String,Integer> string2id=new HashMap<String, Integer>();
+	private final ArrayList<String> strings=new ArrayList<String>();
+	// shown nodes and edges, as returned by key.
+	private final LinkedHashSet<Long> shown=new LinkedHashSet<Long>();
+	private final ArrayList<long[]> checkpoints=new ArrayList<long[]>();
+	private final ArrayList<long[]> checkpointShown=new ArrayList<long[]>();
+
+	public SCXMLTraceWriter(File file,long startTime) throws IOException {
+		this.file=file;
+		File dir=file.getAbsoluteFile().getParentFile();
+		tmp=File.createTempFile("."+file.getName()+".", ".tmp", dir);
+		try {
+			out=new BufferedOutputStream(new FileOutputStream(tmp),64*1024);
+		} catch (IOException e) {
+			tmp.delete();
+			throw e;
+		}
+		try {
+			write(MAGIC);
+			write(VERSION);
+			writeLong(startTime);
+		} catch (IOException e) {
+			abort();
+			throw e;
+		}
+		lastTime=startTime;
+	}
+
+	/**
+	 * @param command one of the commands of SCXMLListener.SCXMLEvent.
+	 * @param arg2 null for node commands.
+	 */
+	public void write(int command,String arg1,String arg2,long time) throws IOException {
+		if ((numEvents%CHECKPOINTINTERVAL)==0) {
+			checkpoints.add(new long[]{offset,lastTime});
+			long[] s=new long[shown.size()];
+			int i=0;
+			for(Long k:shown) s[i++]=k;
+			checkpointShown.add(s);
+		}
+		int id1=getID(arg1),id2=(arg2!=null)?getID(arg2):-1;
+		write(command);
+		writeVarint(id1);
+		if (isEdge(command)) writeVarint(id2);
+		writeVarint(zigzag(time-lastTime));
+		lastTime=time;
+		numEvents++;
+		long k=key(id1, id2);
+		if (isShow(command)) shown.add(k);
+		else shown.remove(k);
+	}
+
+	public long getNumberOfEvents() {
+		return numEvents;
+	}
+
+	/**
+	 * writes the footer and atomically replaces the file given to the constructor with the trace.
+	 */
+	public void close() throws IOException {
+		boolean written=false;
+		try {
+			long footer=offset;
+			writeVarint(strings.size());
+			for(String s:strings) {
+				byte[] b=s.getBytes(UTF8);
+				writeVarint(b.length);
+				write(b);
+			}
+			writeVarint(numEvents);
+			writeVarint(checkpoints.size());
+			for(int i=0;i<checkpoints.size();i++) {
+				long[] c=checkpoints.get(i);
+				writeVarint(c[0]);
+				writeVarint(zigzag(c[1]));
+				long[] s=checkpointShown.get(i);
+				writeVarint(s.length);
+				for(long k:s) {
+					writeVarint(k>>>32);
+					writeVarint(k&0xffffffffL);
+				}
+			}
+			writeLong(footer);
+			write(MAGIC);
+			out.close();
+			written=true;
+		} finally {
+			if (!written) abort();
+		}
+		try {
+			Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		} catch (IOException e) {
+			tmp.delete();
+			throw e;
+		}
+	}
+
+	/**
+	 * discards the trace, leaving the file given to the constructor untouched.
+	 */
+	public void abort() {
+		try {
+			out.close();
+		} catch (IOException e) {
+		}
+		tmp.delete();
+	}
+
+	static boolean isEdge(int command) {
+		return command>=2;
+	}
+	static boolean isShow(int command) {
+		return (command&1)!=0;
+	}
+	// id2 is -1 for nodes.
+	static long key(int id1,int id2) {
+		return (((long)id1)<<32)|((id2+1)&0xffffffffL);
+	}
+	static long zigzag(long v) {
+		return (v<<1)^(v>>63);
+	}
+
+	private int getID(String s) {
+		Integer id=string2id.get(s);
+		if (id==null) {
+			string2id.put(s, id=strings.size());
+			strings.add(s);
+		}
+		return id;
+	}
+	private void write(int b) throws IOException {
+		out.write(b);
+		offset++;
+	}
+	private void write(byte[] b) throws IOException {
+		out.write(b);
+		offset+=b.length;
+	}
+	private void writeLong(long v) throws IOException {
+		for(int i=56;i>=0;i-=8) write((int)(v>>>i)&0xff);
+	}
+	private void writeVarint(long v) throws IOException {
+		while ((v&~0x7fL)!=0) {
+			write((int)((v&0x7f)|0x80));
+			v>>>=7;
+		}
+		write((int)v);
+	}
+}
@@ -1,13 +1,22 @@
 package com.mxgraph.examples.swing.editor.scxml.search;
 
 import java.io.IOException;
-import java.io.StringReader;
 import java.lang.reflect.Constructor;
 import java.lang.reflect.InvocationTargetException;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.WeakHashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.swing.SwingUtilities;
 
 import org.apache.lucene.analysis.Analyzer;
 import org.apache.lucene.document.Document;
@@ -19,11 +28,13 @@ import org.apache.lucene.index.IndexWriterConfig;
 import org.apache.lucene.index.Term;
 import org.apache.lucene.queryParser.ParseException;
 import org.apache.lucene.queryParser.QueryParser;
+import org.apache.lucene.search.FieldCache;
 import org.apache.lucene.search.IndexSearcher;
 import org.apache.lucene.search.Query;
+import org.apache.lucene.search.SearcherFactory;
+import org.apache.lucene.search.SearcherManager;
 import org.apache.lucene.search.TermQuery;
 import org.apache.lucene.search.TopDocs;
-import org.apache.lucene.store.LockObtainFailedException;
 import org.apache.lucene.store.RAMDirectory;
 import org.apache.lucene.util.Version;
 
@@ -32,223 +43,498 @@ import com.mxgraph.examples.swing.editor.fileimportexport.SCXMLEdge;
 import com.mxgraph.examples.swing.editor.fileimportexport.SCXMLNode;
 import com.mxgraph.examples.swing.editor.scxml.SCXMLGraph;
 import com.mxgraph.model.mxCell;
+import com.mxgraph.model.mxGraphModel.mxChildChange;
+import com.mxgraph.model.mxGraphModel.mxRootChange;
+import com.mxgraph.model.mxGraphModel.mxValueChange;
 import com.mxgraph.model.mxIGraphModel;
 import com.mxgraph.util.mxEvent;
 import com.mxgraph.util.mxEventObject;
 import com.mxgraph.util.mxEventSource.mxIEventListener;
+import com.mxgraph.util.mxUndoableEdit.mxUndoableChange;
 
+/**
+ * Lucene index of the cells of the graph shown by the editor.
+ * The index is kept up to date incrementally: the text of the cells touched by each model
+ * transaction (one mxEvent.CHANGE per endUpdate) is copied on the EDT and queued; a single
+ * background thread turns the queued texts into documents, applies them with one long lived
+ * IndexWriter and refreshes the near real time searcher. Updates queued for the same cell before
+ * the thread gets to them are coalesced, only the last one is applied.
+ * When a new document is loaded (root change) the whole index is rebuilt on the same background
+ * thread from the texts of all cells, copied on the EDT. The background thread never reads the
+ * cells themselves, which are edited on the EDT. Until the build is done, find does a linear scan
+ * of the cells. Starting a new build cancels the one running.
+ */
 public class SCXMLSearch {
 
-	
+	public interface IndexBuildListener {
+		/**
+		 * called on the EDT while the index is built, done==total when the index is ready.
+		 */
+		void indexBuildProgress(int done,int total);
+	}
+
 	private static final String INDEXID = "LUCENECELLID";
 	private RAMDirectory idx=new RAMDirectory();
-	private IndexSearcher searcher;
+	private IndexWriter writer;
+	private SearcherManager searcherManager;
 	private int defaultNumResults;
-	private Class analyzer=null;
+	private final Analyzer analyzer;
+	// only used on the EDT.
+	private final QueryParser queryParser;
 	private SCXMLGraphEditor editor;
 
-	public SCXMLSearch(SCXMLGraphEditor editor,int numResults) {
+	// indexed fields of nodes and edges, in the order of the values returned by getFieldValues.
+	private static final String[] NODEFIELDS={"id","inc","dm","ns","entry","exit","init","dd","com"};
+	private static final String[] EDGEFIELDS={"source","target","eve","cnd","eexe","com"};
+
+	// an update of the index: the values of the fields of cell, null to remove cell from the index.
+	// id is the ID of cell when the update was created.
+	private static class Update {
+		private final String id;
+		private final mxCell cell;
+		private final String[] fields,values;
+		public Update(String id,mxCell cell,String[] fields,String[] values) {
+			this.id=id;
+			this.cell=cell;
+			this.fields=fields;
+			this.values=values;
+		}
+	}
+	// cell ID -> last update queued for it, in the order in which they were queued.
+	private final LinkedHashMap<String,Update> pending=new LinkedHashMap<String, Update>();
+	private boolean indexerScheduled=false;
+	private final ExecutorService indexer=Executors.newSingleThreadExecutor(new ThreadFactory() {
+		@Override
+		public Thread newThread(Runnable r) {
+			Thread t=new Thread(r,"SCXMLSearch-indexer");
+			t.setDaemon(true);
+			return t;
+		}
+	});
+	private final Runnable applyPending=new Runnable() {
+		@Override
+		public void run() {
+			try {
+				applyPendingUpdates();
+			} catch (Exception e) {
+				e.printStackTrace();
+			}
+		}
+	};
+	// a build is running as long as its generation is the current one and ready is false.
+	private final AtomicInteger buildGeneration=new AtomicInteger();
+	private volatile boolean ready=false;
+	// set (on the EDT) when a build has been requested for a new root but not started yet.
+	private boolean buildScheduled=false;
+	private final ArrayList<IndexBuildListener> buildListeners=new ArrayList<IndexBuildListener>();
+
+	// the following are only used on the indexer thread (SearcherManager.maybeRefresh is only called there).
+	// cell ID -> cell, for all cells in the index.
+	private final HashMap<String,mxCell> indexedCells=new HashMap<String, mxCell>();
+	// index segment -> cells of its documents (by document number). Segments are never modified
+	// (but for deletions) so this is computed once per segment.
+	private final WeakHashMap<Object,mxCell[]> segment2cells=new WeakHashMap<Object, mxCell[]>();
+
+	/**
+	 * searcher that maps its document numbers directly to the cells they were built from.
+	 */
+	private static class CellSearcher extends IndexSearcher {
+		private final mxCell[] cells;
+		public CellSearcher(IndexReader r,mxCell[] cells) {
+			super(r);
+			this.cells=cells;
+		}
+		public mxCell getCell(int doc) {
+			return cells[doc];
+		}
+	}
+	private class CellSearcherFactory extends SearcherFactory {
+		@Override
+		public IndexSearcher newSearcher(IndexReader r) throws IOException {
+			IndexReader[] segments=r.getSequentialSubReaders();
+			if (segments==null) segments=new IndexReader[]{r};
+			mxCell[] cells=new mxCell[r.maxDoc()];
+			int base=0;
+			for(IndexReader segment:segments) {
+				mxCell[] segmentCells=segment2cells.get(segment.getCoreCacheKey());
+				if (segmentCells==null) {
+					String[] ids=FieldCache.DEFAULT.getStrings(segment, INDEXID);
+					segmentCells=new mxCell[segment.maxDoc()];
+					for(int i=0;i<segmentCells.length;i++) {
+						if (ids[i]!=null) segmentCells[i]=indexedCells.get(ids[i]);
+					}
+					segment2cells.put(segment.getCoreCacheKey(), segmentCells);
+				}
+				System.arraycopy(segmentCells, 0, cells, base, segmentCells.length);
+				base+=segmentCells.length;
+			}
+			return new CellSearcher(r, cells);
+		}
+	}
+
+	public SCXMLSearch(SCXMLGraphEditor editor,int numResults) throws IOException, ClassNotFoundException, SecurityException, NoSuchMethodException, IllegalArgumentException, InstantiationException, IllegalAccessException, InvocationTargetException {
 		this.editor=editor;
-        this.defaultNumResults=numResults;
+		this.defaultNumResults=numResults;
+
+		Constructor constructor = Class.forName("com.mxgraph.examples.swing.editor.scxml.SCXMLAnalyzer").getConstructor();
+		analyzer=(Analyzer) constructor.newInstance();
+		queryParser=new QueryParser(Version.LUCENE_30,"all",analyzer);
+		writer = new IndexWriter(idx, new IndexWriterConfig(Version.LUCENE_36, analyzer));
+		searcherManager = new SearcherManager(writer, true, new CellSearcherFactory());
 
-        SCXMLGraph graph = editor.getGraphComponent().getGraph();
-		graph.addListener(mxEvent.CELLS_REMOVED, new mxIEventListener() {
+		SCXMLGraph graph = editor.getGraphComponent().getGraph();
+		graph.getModel().addListener(mxEvent.CHANGE, new mxIEventListener() {
 			@Override
 			public void invoke(Object sender, mxEventObject evt) {
-				Object[] arg=(Object[]) evt.getProperty("cells");
-				if (arg!=null) {
-					ArrayList<mxCell> cells=new ArrayList<mxCell>();
-					for (Object o:arg) {
-						if (o instanceof mxCell) {
-							cells.add((mxCell) o);
-						}
-					}
-					try {
-						updateIndex(cells, false);
-					} catch (Exception e) {
-						e.printStackTrace();
-					}
+				// mxGraphModel fires CHANGE with the list of changes of the transaction
+				@SuppressWarnings("unchecked")
+				List<mxUndoableChange> changes=(List<mxUndoableChange>) evt.getProperty("changes");
+				if ((changes!=null) && !changes.isEmpty()) {
+					queueChanges(changes);
 				}
 			}
 		});
-		graph.addListener(mxEvent.CELLS_ADDED, new mxIEventListener() {
+	}
+
+	public void addIndexBuildListener(IndexBuildListener l) {
+		buildListeners.add(l);
+	}
+	public boolean isIndexReady() {
+		return ready;
+	}
+
+	/**
+	 * starts the rebuild of the whole index from the current content of the graph in the
+	 * background. The build currently running, if any, is cancelled.
+	 */
+	public void buildIndex() {
+		final int generation=cancelIndexBuild();
+		buildScheduled=false;
+		synchronized (pending) {
+			// the new build will see the current state of these cells.
+			pending.clear();
+		}
+		// the texts of the cells are copied on the EDT, the build turns them into documents.
+		SCXMLGraph graph = editor.getGraphComponent().getGraph();
+		ArrayList<mxCell> cells=new ArrayList<mxCell>();
+		collectCells((mxCell) graph.getModel().getRoot(), cells);
+		final ArrayList<Update> docs=new ArrayList<Update>(cells.size());
+		for(mxCell c:cells) docs.add(createUpdate(c, true));
+		fireBuildProgress(0, docs.size());
+		indexer.execute(new Runnable() {
 			@Override
-			public void invoke(Object sender, mxEventObject evt) {
-				Object[] arg=(Object[]) evt.getProperty("cells");
-				if (arg!=null) {
-					ArrayList<mxCell> cells=new ArrayList<mxCell>();
-					for (Object o:arg) {
-						if (o instanceof mxCell) {
-							cells.add((mxCell) o);
-						}
-					}
-					try {
-						updateIndex(cells, true);
-					} catch (Exception e) {
-						e.printStackTrace();
-					}
+			public void run() {
+				try {
+					buildIndex(generation, docs);
+				} catch (Exception e) {
+					e.printStackTrace();
 				}
 			}
 		});
 	}
-	
-	public void buildIndex() throws CorruptIndexException, LockObtainFailedException, IOException, ClassNotFoundException, SecurityException, NoSuchMethodException, IllegalArgumentException, InstantiationException, IllegalAccessException, InvocationTargetException {
-		SCXMLGraph graph = editor.getGraphComponent().getGraph();
-		analyzer=Class.forName("com.mxgraph.examples.swing.editor.scxml.SCXMLAnalyzer");
-		Constructor constructor = analyzer.getConstructor();
-		//IndexWriter writer = new IndexWriter(idx, (Analyzer) constructor.newInstance(), IndexWriter.MaxFieldLength.UNLIMITED);
-		IndexWriter writer = new IndexWriter(idx, new IndexWriterConfig(Version.LUCENE_36, (Analyzer) constructor.newInstance()));
-        writer.deleteAll();
-        writer.commit();
-        
-		mxIGraphModel model = graph.getModel();
-		mxCell root=(mxCell) model.getRoot();
-		root.getChildCount();
-
-		addCellsToIndex(root,writer,true);
-        //writer.optimize();
-        writer.close();
-
-        searcher = new IndexSearcher(IndexReader.open(idx));
+	/**
+	 * stops the index build currently running (if any). The index stays not ready until the next build.
+	 * @return the generation to be used by the next build.
+	 */
+	public int cancelIndexBuild() {
+		ready=false;
+		return buildGeneration.incrementAndGet();
 	}
-	
-	HashSet<String> cellsAlreadySeen=new HashSet<String>();
-	HashMap<String,mxCell> doc2mxCell=new HashMap<String, mxCell>();
-	private void addCellsToIndex(mxCell c,IndexWriter writer,boolean isRoot) throws CorruptIndexException, IOException {
-		if (isRoot) {
-			cellsAlreadySeen.clear();
-			doc2mxCell.clear();
-		}
+	private void collectCells(mxCell c,ArrayList<mxCell> cells) {
 		if (c!=null) {
-			String cName=c.getId();
-			if (!cellsAlreadySeen.contains(cName)) {
-				cellsAlreadySeen.add(cName);
-				if (c.getValue()!=null) {
-					Document doc=createDocumentForCell(c);
-					writer.addDocument(doc);
-					doc2mxCell.put(doc.get(INDEXID), c);
+			if ((c.getId()!=null) && (c.getValue()!=null)) cells.add(c);
+			int numChildren=c.getChildCount();
+			for(int i=0;i<numChildren;i++) {
+				collectCells((mxCell) c.getChildAt(i), cells);
+			}
+		}
+	}
+	// runs on the indexer thread.
+	private void buildIndex(final int generation,ArrayList<Update> docs) throws CorruptIndexException, IOException {
+		final int total=docs.size();
+		int step=Math.max(1, total/100),done=0;
+		writer.deleteAll();
+		indexedCells.clear();
+		for(Update u:docs) {
+			if (buildGeneration.get()!=generation) return;
+			writer.addDocument(createDocument(u));
+			indexedCells.put(u.id, u.cell);
+			if (((++done%step)==0) && (done<total)) fireBuildProgressLater(generation, done, total);
+		}
+		searcherManager.maybeRefresh();
+		SwingUtilities.invokeLater(new Runnable() {
+			@Override
+			public void run() {
+				if (buildGeneration.get()==generation) {
+					ready=true;
+					fireBuildProgress(total, total);
 				}
-				int numChildren=c.getChildCount();
-				for(int i=0;i<numChildren;i++) {
-					mxCell child=(mxCell) c.getChildAt(i);
-					addCellsToIndex(child,writer,false);
+			}
+		});
+	}
+	private void fireBuildProgressLater(final int generation,final int done,final int total) {
+		SwingUtilities.invokeLater(new Runnable() {
+			@Override
+			public void run() {
+				if (buildGeneration.get()==generation) fireBuildProgress(done, total);
+			}
+		});
+	}
+	private void fireBuildProgress(int done,int total) {
+		for(IndexBuildListener l:buildListeners) l.indexBuildProgress(done, total);
+	}
+
+	// one call per transaction.
+	private void queueChanges(List<mxUndoableChange> changes) {
+		mxIGraphModel model = editor.getGraphComponent().getGraph().getModel();
+		// the final state of each touched cell is what matters, not the order of the changes.
+		HashSet<mxCell> touched=new HashSet<mxCell>();
+		for(mxUndoableChange change:changes) {
+			if (change instanceof mxChildChange) {
+				Object c=((mxChildChange)change).getChild();
+				if (c instanceof mxCell) touched.add((mxCell) c);
+			} else if (change instanceof mxValueChange) {
+				Object c=((mxValueChange)change).getCell();
+				if (c instanceof mxCell) touched.add((mxCell) c);
+			} else if (change instanceof mxRootChange) {
+				scheduleBuild();
+			}
+		}
+		// while a build is scheduled the changes will be seen by the build itself.
+		if (!buildScheduled && !touched.isEmpty()) queueCells(model, touched);
+	}
+	// a new root is usually filled by the same event that set it (e.g. opening a file), so the build is started after that.
+	private void scheduleBuild() {
+		cancelIndexBuild();
+		if (!buildScheduled) {
+			buildScheduled=true;
+			SwingUtilities.invokeLater(new Runnable() {
+				@Override
+				public void run() {
+					if (buildScheduled) buildIndex();
 				}
+			});
+		}
+	}
+
+	// cells (and their descendants) are indexed if they are still in the model, removed from the index otherwise.
+	private void queueCells(mxIGraphModel model,Collection<mxCell> cells) {
+		LinkedHashMap<String,Update> removed=new LinkedHashMap<String, Update>();
+		LinkedHashMap<String,Update> added=new LinkedHashMap<String, Update>();
+		HashSet<mxCell> seen=new HashSet<mxCell>();
+		for(mxCell c:cells) {
+			boolean inModel=model.contains(c);
+			collectDocuments(c, inModel?added:removed, inModel, seen);
+		}
+		// a cell removed and added back in the same transaction ends up added.
+		for(String id:added.keySet()) removed.remove(id);
+		removed.putAll(added);
+		queue(removed);
+	}
+	private void queue(LinkedHashMap<String,Update> updates) {
+		synchronized (pending) {
+			// re-inserted to keep the queue in the order of the last update of each cell
+			for(String id:updates.keySet()) pending.remove(id);
+			pending.putAll(updates);
+			if (!indexerScheduled) {
+				indexerScheduled=true;
+				indexer.execute(applyPending);
 			}
 		}
 	}
-	private Document createDocumentForSCXMLEdge(SCXMLEdge v,String cellID) {
-        Document doc = new Document();
-        doc.add(new Field(INDEXID, cellID,Field.Store.YES,Field.Index.ANALYZED));
-        doc.add(new Field("source", new StringReader(v.getSCXMLSource().toLowerCase())));
-        doc.add(new Field("target", new StringReader(v.getSCXMLTargets().toString().toLowerCase())));
-        doc.add(new Field("eve", new StringReader(v.getEvent().toLowerCase())));
-        doc.add(new Field("cnd", new StringReader(v.getCondition().toLowerCase())));
-        doc.add(new Field("eexe", new StringReader(v.getExe().toLowerCase())));
-        doc.add(new Field("com", new StringReader(v.getComments().toLowerCase())));
-        doc.add(new Field("all", new StringReader((v.getSCXMLSource()+" "+v.getSCXMLTargets().toString()+" "+v.getEvent()+" "+v.getCondition()+" "+v.getExe()+" "+v.getComments()).toLowerCase())));
-        return doc;
-	}
-	private Document createDocumentForSCXMLNode(SCXMLNode v,String cellID) {
-        Document doc = new Document();
-        doc.add(new Field(INDEXID, cellID,Field.Store.YES,Field.Index.ANALYZED));
-        doc.add(new Field("id", new StringReader(v.getID().toLowerCase())));
-        doc.add(new Field("inc", new StringReader(v.getOutsourcedLocation().toLowerCase())));
-        doc.add(new Field("dm", new StringReader(v.getDatamodel().toLowerCase())));
-        doc.add(new Field("ns", new StringReader(v.getNamespace().toLowerCase())));
-        doc.add(new Field("entry", new StringReader(v.getOnEntry().toLowerCase())));
-        doc.add(new Field("exit", new StringReader(v.getOnExit().toLowerCase())));
-        doc.add(new Field("init", new StringReader(v.getOnInitialEntry().toLowerCase())));
-        doc.add(new Field("dd", new StringReader(v.getDoneData().toLowerCase())));
-        doc.add(new Field("com", new StringReader(v.getComments().toLowerCase())));
-        doc.add(new Field("all", new StringReader((v.getID()+" "+v.getOutsourcedLocation()+" "+v.getDatamodel()+" "+v.getNamespace()+" "+v.getOnEntry()+" "+v.getOnExit()+" "+v.getOnInitialEntry()+" "+v.getDoneData()+" "+v.getComments()).toLowerCase())));
-		return doc;
+	private void collectDocuments(mxCell c,Map<String,Update> into,boolean add,HashSet<mxCell> seen) {
+		if ((c!=null) && seen.add(c)) {
+			String id=c.getId();
+			if ((id!=null) && (c.getValue()!=null)) {
+				into.put(id, createUpdate(c, add));
+			}
+			int numChildren=c.getChildCount();
+			for(int i=0;i<numChildren;i++) {
+				collectDocuments((mxCell) c.getChildAt(i), into, add, seen);
+			}
+		}
 	}
-	
-	private Document createDocumentForCell(mxCell c) {
-		String cellID=c.getId();
+
+	// runs on the indexer thread.
+	private void applyPendingUpdates() throws CorruptIndexException, IOException {
+		while (true) {
+			ArrayList<Update> updates;
+			synchronized (pending) {
+				if (pending.isEmpty()) {
+					indexerScheduled=false;
+					return;
+				}
+				updates=new ArrayList<Update>(pending.values());
+				pending.clear();
+			}
+			for(Update u:updates) {
+				String id=u.id;
+				Term t=new Term(INDEXID, id);
+				if (u.values==null) {
+					writer.deleteDocuments(t);
+					if (indexedCells.get(id)==u.cell) indexedCells.remove(id);
+				} else {
+					writer.updateDocument(t, createDocument(u));
+					indexedCells.put(id, u.cell);
+				}
+			}
+			searcherManager.maybeRefresh();
+		}
+	}
+
+	// runs on the EDT: copies what is indexed of c.
+	private static String[] getFieldValues(mxCell c) {
 		Object v=c.getValue();
-		Document doc=(c.isVertex())?createDocumentForSCXMLNode((SCXMLNode)v,cellID):createDocumentForSCXMLEdge((SCXMLEdge)v,cellID);
+		if (c.isVertex()) {
+			SCXMLNode n=(SCXMLNode) v;
+			return new String[]{n.getID(),n.getOutsourcedLocation(),n.getDatamodel(),n.getNamespace(),n.getOnEntry(),n.getOnExit(),n.getOnInitialEntry(),n.getDoneData(),n.getComments()};
+		} else {
+			SCXMLEdge e=(SCXMLEdge) v;
+			return new String[]{e.getSCXMLSource(),e.getSCXMLTargets().toString(),e.getEvent(),e.getCondition(),e.getExe(),e.getComments()};
+		}
+	}
+	private static String getAllText(String[] values) {
+		StringBuilder ret=new StringBuilder();
+		for(int i=0;i<values.length;i++) {
+			if (i>0) ret.append(' ');
+			ret.append(values[i]);
+		}
+		return ret.toString().toLowerCase();
+	}
+	// runs on the EDT.
+	private static Update createUpdate(mxCell c,boolean add) {
+		String[] fields=(c.isVertex())?NODEFIELDS:EDGEFIELDS;
+		return new Update(c.getId(),c,fields,(add)?getFieldValues(c):null);
+	}
+	// runs on the indexer thread.
+	private static Document createDocument(Update u) {
+		Document doc = new Document();
+		doc.add(new Field(INDEXID, u.id,Field.Store.YES,Field.Index.NOT_ANALYZED));
+		for(int i=0;i<u.fields.length;i++) {
+			doc.add(new Field(u.fields[i], u.values[i].toLowerCase(),Field.Store.NO,Field.Index.ANALYZED));
+		}
+		doc.add(new Field("all", getAllText(u.values),Field.Store.NO,Field.Index.ANALYZED));
 		return doc;
 	}
-	public void updateIndex(Collection<mxCell> cs,boolean add) throws CorruptIndexException, IOException, ParseException, IllegalArgumentException, SecurityException, InstantiationException, IllegalAccessException, InvocationTargetException, NoSuchMethodException {
-		Constructor constructor = analyzer.getConstructor();
-		IndexWriter writer = new IndexWriter(idx, (Analyzer) constructor.newInstance(), IndexWriter.MaxFieldLength.UNLIMITED);
-		try {
-			for(mxCell c:cs) {
-				Query q=getQueryForGettingDocumentOfCell(c);
-				//System.out.println("query: "+q.getClass()+" "+q);
-				writer.deleteDocuments(q);
-
-				TopDocs result = searcher.search(q, this.defaultNumResults);
-				//printResult(result);
-	        	int numHits=result.totalHits;
-
-	        	for(int i=0;i<numHits;i++) {
-	        		int docPos=result.scoreDocs[i].doc;
-	        		Document doc = searcher.doc(docPos);
-	        		doc2mxCell.remove(doc.get(INDEXID));
-	        	}
-
-	        	writer.commit();
-				if (add) {
-					Document doc=createDocumentForCell(c);
-					doc2mxCell.put(doc.get(INDEXID), c);
-					writer.addDocument(doc);
-				}
+	/**
+	 * queues the given cells (not their descendants) to be added/updated in or removed from the index.
+	 */
+	public void updateIndex(Collection<mxCell> cs,boolean add) {
+		LinkedHashMap<String,Update> updates=new LinkedHashMap<String, Update>();
+		for(mxCell c:cs) {
+			String id=c.getId();
+			if ((id!=null) && (c.getValue()!=null)) {
+				updates.put(id, createUpdate(c, add));
 			}
-			//writer.optimize();
-		} catch (Exception e) {
-			e.printStackTrace();
 		}
-        writer.close();        
-        searcher.close();
-        searcher = new IndexSearcher(idx);
-    }
-	
+		queue(updates);
+	}
+
 	public Query getQueryForGettingDocumentOfCell(mxCell c) throws ParseException, IllegalArgumentException, InstantiationException, IllegalAccessException, InvocationTargetException, SecurityException, NoSuchMethodException {
 		String cellID=c.getId();
         Query q=new TermQuery(new Term(INDEXID, cellID));
         return q;
 	}
 	
-	public ArrayList<mxCell> find(String query) throws IOException, IllegalArgumentException, InstantiationException, IllegalAccessException, InvocationTargetException, SecurityException, NoSuchMethodException {
-		Constructor constructor = analyzer.getConstructor();
-        QueryParser queryParser = new QueryParser(Version.LUCENE_30,"all",(Analyzer) constructor.newInstance());
+	public ArrayList<mxCell> find(String query) throws IOException {
+		return find(query, defaultNumResults);
+	}
+	/**
+	 * @return the best numResults cells matching query (in Lucene syntax), null if query can not be parsed.
+	 */
+	public ArrayList<mxCell> find(String query,int numResults) throws IOException {
+		if (!ready) return findByLinearScan(query,numResults);
         try {
         	Query q = queryParser.parse(query);
 			//System.out.println("query: "+q.getClass()+" "+q);
-        	TopDocs result = searcher.search(q, this.defaultNumResults);
-        	int numHits=result.totalHits;
-
-        	ArrayList<mxCell>ret=new ArrayList<mxCell>();
-        	for(int i=0;i<numHits;i++) {
-        		int docPos=result.scoreDocs[i].doc;
-        		Document doc = searcher.doc(docPos);
-        		mxCell matchingCell=doc2mxCell.get(doc.get(INDEXID));
-        		if (matchingCell!=null) {
-        			ret.add(matchingCell);
+        	CellSearcher searcher = (CellSearcher) searcherManager.acquire();
+        	try {
+        		TopDocs result = searcher.search(q, numResults);
+        		int numHits=result.scoreDocs.length;
+
+        		mxIGraphModel model = editor.getGraphComponent().getGraph().getModel();
+        		ArrayList<mxCell>ret=new ArrayList<mxCell>();
+        		for(int i=0;i<numHits;i++) {
+        			mxCell matchingCell=searcher.getCell(result.scoreDocs[i].doc);
+        			// the removal of the cell may not have reached the index yet.
+        			if ((matchingCell!=null) && model.contains(matchingCell)) {
+        				ret.add(matchingCell);
+        			}
         		}
+        		return ret;
+        	} finally {
+        		searcherManager.release(searcher);
         	}
-        	return ret;
         } catch (ParseException e) {
         }
 		return null;
 	}
 
+	// used while the index is being built: approximates the query by requiring each of its words
+	// (field names, boolean operators and syntax removed) to appear in the text of a cell.
+	private ArrayList<mxCell> findByLinearScan(String query,int numResults) {
+		ArrayList<String> words=new ArrayList<String>();
+		for (String w:query.replaceAll("\\w+:", " ").split("\\s+")) {
+			if (!w.equals("AND") && !w.equals("OR") && !w.equals("NOT")) {
+				for (String t:w.toLowerCase().split("[^a-z0-9]+")) {
+					if (t.length()>0) words.add(t);
+				}
+			}
+		}
+		ArrayList<mxCell> ret=new ArrayList<mxCell>();
+		if (words.isEmpty()) return ret;
+		ArrayList<mxCell> cells=new ArrayList<mxCell>();
+		collectCells((mxCell) editor.getGraphComponent().getGraph().getModel().getRoot(), cells);
+		for(mxCell c:cells) {
+			String text=getAllText(getFieldValues(c));
+			boolean matches=true;
+			for(String w:words) {
+				if (!text.contains(w)) {
+					matches=false;
+					break;
+				}
+			}
+			if (matches) {
+				ret.add(c);
+				if (ret.size()>=numResults) break;
+			}
+		}
+		return ret;
+	}
+
 	public void printResult(TopDocs result) throws CorruptIndexException, IOException {
-		int numHits=result.totalHits;
+		int numHits=result.scoreDocs.length;
 
-		for(int i=0;i<numHits;i++) {
-			int docPos=result.scoreDocs[i].doc;
-			Document doc = searcher.doc(docPos);
-			mxCell matchingCell=doc2mxCell.get(doc.get(INDEXID));
-			if (matchingCell!=null) {
-				System.out.println(" search result: "+matchingCell.getValue());
+		CellSearcher searcher = (CellSearcher) searcherManager.acquire();
+		try {
+			for(int i=0;i<numHits;i++) {
+				mxCell matchingCell=searcher.getCell(result.scoreDocs[i].doc);
+				if (matchingCell!=null) {
+					System.out.println(" search result: "+matchingCell.getValue());
+				}
 			}
+		} finally {
+			searcherManager.release(searcher);
 		}
 	}
 	
+	/**
+	 * drops the references to the cells currently indexed (e.g. before loading another document).
+	 */
 	public void clearDoc2mxCell() {
-		doc2mxCell.clear();
+		cancelIndexBuild();
+		indexer.execute(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					writer.deleteAll();
+					indexedCells.clear();
+					segment2cells.clear();
+					searcherManager.maybeRefresh();
+				} catch (IOException e) {
+					e.printStackTrace();
+				}
+			}
+		});
 	}
 }
@@ -22,10 +22,13 @@ import javax.swing.JFrame;
 import javax.swing.JLabel;
 import javax.swing.JList;
 import javax.swing.JPanel;
+import javax.swing.JProgressBar;
 import javax.swing.JScrollPane;
 import javax.swing.JTextField;
 import javax.swing.ListCellRenderer;
 import javax.swing.ListSelectionModel;
+import javax.swing.SwingUtilities;
+import javax.swing.Timer;
 import javax.swing.event.DocumentEvent;
 import javax.swing.event.DocumentListener;
 import javax.swing.event.ListSelectionEvent;
@@ -46,12 +49,20 @@ import com.mxgraph.model.mxCell;
 import com.mxgraph.model.mxIGraphModel;
 import com.mxgraph.util.mxResources;
 
-public class SCXMLSearchTool extends JDialog implements ListSelectionListener, WindowListener, ActionListener, DocumentListener {
+public class SCXMLSearchTool extends JDialog implements ListSelectionListener, WindowListener, ActionListener, DocumentListener, SCXMLSearch.IndexBuildListener {
 
 	private static final int defaultNumResults = 1000;
+	// delay after the last key typed before the search is done.
+	private static final int searchDelay = 150;
+	// results are added to the list in chunks of this size, one chunk per event dispatch.
+	private static final int resultsPerChunk = 100;
+	private Timer searchTimer;
+	// incremented by each search, stops the streaming of the results of the previous one.
+	private int searchGeneration=0;
 	private SCXMLSearch search;
 	private SCXMLGraphEditor editor;
 	private JTextField searchBox;
+	private JProgressBar indexProgress;
 	private JList list;
 	private DefaultListModel listModel;
 	private mxIGraphModel model;
@@ -61,8 +72,6 @@ public class SCXMLSearchTool extends JDialog implements ListSelectionListener, W
 	public SCXMLSearchTool(JFrame parent, SCXMLGraphEditor editor) throws CorruptIndexException, LockObtainFailedException, IOException, SecurityException, IllegalArgumentException, ClassNotFoundException, NoSuchMethodException, InstantiationException, IllegalAccessException, InvocationTargetException {
 		super(parent,"Find");
 		search = new SCXMLSearch(editor,defaultNumResults);
-
-		buildIndex();
 		
 		this.editor=editor;
 		this.gc=editor.getGraphComponent();
@@ -71,6 +80,9 @@ public class SCXMLSearchTool extends JDialog implements ListSelectionListener, W
 		addWindowListener(this);
 		JPanel contentPane = new JPanel();
 		populateGUI(contentPane);
+		search.addIndexBuildListener(this);
+
+		buildIndex();
 		contentPane.setOpaque(true); //content panes must be opaque
 		
 		listSelectorHandler=new ListCellSelector(list, gc);
@@ -84,9 +96,33 @@ public class SCXMLSearchTool extends JDialog implements ListSelectionListener, W
 		setVisible(false);
 	}
 	
-	public void buildIndex() throws CorruptIndexException, LockObtainFailedException, IOException, SecurityException, IllegalArgumentException, ClassNotFoundException, NoSuchMethodException, InstantiationException, IllegalAccessException, InvocationTargetException {
+	/**
+	 * starts building the index in the background, progress is shown in this dialog.
+	 */
+	public void buildIndex() {
 		search.buildIndex();
 	}
+	public void cancelIndexBuild() {
+		search.cancelIndexBuild();
+		indexProgress.setVisible(false);
+	}
+	@Override
+	public void indexBuildProgress(int done, int total) {
+		if (done<total) {
+			indexProgress.setMaximum(total);
+			indexProgress.setValue(done);
+			indexProgress.setString(mxResources.get("indexingProgress")+" "+done+"/"+total);
+			if (!indexProgress.isVisible()) {
+				indexProgress.setVisible(true);
+				validate();
+			}
+		} else {
+			indexProgress.setVisible(false);
+			validate();
+			// replace the results of the linear scan with those of the index.
+			if (searchBox.getDocument().getLength()>0) findAndUpdateList(searchBox.getDocument());
+		}
+	}
 	public void updateCellInIndex(mxCell c,boolean add) throws CorruptIndexException, IOException, ParseException, IllegalArgumentException, SecurityException, InstantiationException, IllegalAccessException, InvocationTargetException, NoSuchMethodException {
 		ArrayList<mxCell> l = new ArrayList<mxCell>();
 		l.add(c);
@@ -100,6 +136,13 @@ public class SCXMLSearchTool extends JDialog implements ListSelectionListener, W
 		searchBox = new JTextField();
 		searchBox.addActionListener(this);
 		searchBox.getDocument().addDocumentListener(this);
+		searchTimer = new Timer(searchDelay, new ActionListener() {
+			@Override
+			public void actionPerformed(ActionEvent e) {
+				findAndUpdateList(searchBox.getDocument());
+			}
+		});
+		searchTimer.setRepeats(false);
 
 		JButton helpButton = new JButton(mxResources.get("help"));
 		helpButton.setActionCommand("help");
@@ -110,6 +153,11 @@ public class SCXMLSearchTool extends JDialog implements ListSelectionListener, W
 		searchAndHelp.add(searchBox);
 		searchAndHelp.add(helpButton);
 		searchAndHelp.setBorder(BorderFactory.createEmptyBorder(5,5,5,5));
+
+		// shown while the index is built, in the meantime results come from a slower and approximate linear scan.
+		indexProgress = new JProgressBar();
+		indexProgress.setStringPainted(true);
+		indexProgress.setVisible(false);
 		
 		//Create the list and put it in a scroll pane.
 		listModel = new DefaultListModel();
@@ -128,6 +176,7 @@ public class SCXMLSearchTool extends JDialog implements ListSelectionListener, W
         c.gridwidth = GridBagConstraints.REMAINDER;
         c.fill = GridBagConstraints.HORIZONTAL;
         contentPane.add(searchAndHelp, c);
+        contentPane.add(indexProgress, c);
 
         c=new GridBagConstraints();
         c.fill = GridBagConstraints.BOTH;
@@ -250,36 +299,48 @@ public class SCXMLSearchTool extends JDialog implements ListSelectionListener, W
 	}
 
 	public ArrayList<mxCell> findAndUpdateList(Document searchBox) {
+		searchTimer.stop();
+		final int generation=++searchGeneration;
 		try {
 			String query=searchBox.getText(0, searchBox.getLength());
-			ArrayList<mxCell> result = search.find(query);
+			final ArrayList<mxCell> result = search.find(query);
 			listModel.clear();
-			if (result!=null) {
-				for(mxCell c:result) {
-					listModel.addElement(c);
-				}
-			}
+			if (result!=null) addResultsToList(result, 0, generation);
 			return result;
 		} catch (Exception e) {
 			e.printStackTrace();
 		}
 		return null;
 	}
+	// adds one chunk of results and schedules the next, so that the list shows the best results first and the EDT is never blocked by a long list.
+	private void addResultsToList(final ArrayList<mxCell> result,final int from,final int generation) {
+		if (generation!=searchGeneration) return;
+		int to=Math.min(result.size(), from+resultsPerChunk);
+		for(int i=from;i<to;i++) {
+			listModel.addElement(result.get(i));
+		}
+		if (to<result.size()) {
+			final int next=to;
+			SwingUtilities.invokeLater(new Runnable() {
+				@Override
+				public void run() {
+					addResultsToList(result, next, generation);
+				}
+			});
+		}
+	}
 	
 	@Override
 	public void changedUpdate(DocumentEvent e) {
-		Document doc = e.getDocument();
-		findAndUpdateList(doc);
+		searchTimer.restart();
 	}
 	@Override
 	public void insertUpdate(DocumentEvent e) {
-		Document doc = e.getDocument();
-		findAndUpdateList(doc);
+		searchTimer.restart();
 	}
 	@Override
 	public void removeUpdate(DocumentEvent e) {
-		Document doc = e.getDocument();
-		findAndUpdateList(doc);
+		searchTimer.restart();
 	}
 
 	@Override
@@ -289,6 +350,7 @@ public class SCXMLSearchTool extends JDialog implements ListSelectionListener, W
 	
 	public void clearSCXMLSearchMXCells(){
 		search.clearDoc2mxCell();
+		indexProgress.setVisible(false);
 		editor.getIOPicker().clearFileIO();
 	}
 }
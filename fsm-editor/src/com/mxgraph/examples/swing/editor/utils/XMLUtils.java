@@ -1,14 +1,20 @@
 package com.mxgraph.examples.swing.editor.utils;
 
 
+import java.io.StringReader;
 import java.text.CharacterIterator;
 import java.text.StringCharacterIterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
 
 import org.w3c.dom.Document;
 import org.w3c.dom.NamedNodeMap;
 import org.w3c.dom.Node;
 import org.w3c.dom.NodeList;
-import org.xml.sax.SAXParseException;
 
 import com.mxgraph.util.mxUtils;
 
@@ -79,7 +85,9 @@ public class XMLUtils {
 			ret+="</" + name + ">";
 			break;
 
+		// CDATA sections are written as text, as SCXMLStreamReader does
 		case Node.TEXT_NODE:
+		case Node.CDATA_SECTION_NODE:
 			ret+=(escapeStrings)?escapeStringForXML(node.getNodeValue()):node.getNodeValue();
 			break;
 		case Node.COMMENT_NODE:
@@ -137,6 +145,7 @@ public class XMLUtils {
 			break;
 
 		case Node.TEXT_NODE:
+		case Node.CDATA_SECTION_NODE:
 			ret+=(escapeStrings)?escapeStringForXML(node.getNodeValue()):node.getNodeValue();
 			break;
 			
@@ -174,14 +183,61 @@ public class XMLUtils {
 		}
     }
 
+	// factories are not guaranteed to be thread safe and validation runs in its own thread.
+	private static final ThreadLocal<XMLInputFactory> wellFormednessFactory=new ThreadLocal<XMLInputFactory>() {
+		@Override
+		protected XMLInputFactory initialValue() {
+			XMLInputFactory f=XMLInputFactory.newInstance();
+			// like the DOM parser used before: prefixes need not be declared.
+			f.setProperty(XMLInputFactory.IS_NAMESPACE_AWARE, false);
+			f.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+			return f;
+		}
+	};
+	private static final int MAXPARSABLECACHESIZE=4096;
+	// compared by reference, any message (even empty) is an error.
+	private static final String PARSABLE=new String();
+	// xml fragment -> error message (PARSABLE if well formed), least recently used first.
+	private static final LinkedHashMap<String,String> parsableCache=new LinkedHashMap<String, String>(16,0.75f,true) {
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<String,String> eldest) {
+			return size()>MAXPARSABLECACHESIZE;
+		}
+	};
+	/**
+	 * checks that the given fragment is well formed when wrapped in a single element.
+	 * The fragment is streamed through a StAX reader (no DOM is built) and the result is cached
+	 * by content, so fragments that did not change are not parsed again.
+	 * @return null if the fragment is well formed, the parser error message otherwise.
+	 */
 	public static String isParsableXMLString(String xml) {
+		if (xml==null) return null;
+		String ret;
+		synchronized (parsableCache) {
+			ret=parsableCache.get(xml);
+		}
+		if (ret==null) {
+			ret=checkWellFormedness(xml);
+			synchronized (parsableCache) {
+				parsableCache.put(xml, ret);
+			}
+		}
+		return (ret==PARSABLE)?null:ret;
+	}
+	private static String checkWellFormedness(String xml) {
+		XMLStreamReader r=null;
 		try {
-			xml="<xml>"+xml+"</xml>";
-			mxUtils.parseXMLString(xml,false,false);
-		} catch (SAXParseException e) {
-			return e.getMessage();
+			r=wellFormednessFactory.get().createXMLStreamReader(new StringReader("<xml>"+xml+"</xml>"));
+			while (r.hasNext()) r.next();
+			return PARSABLE;
 		} catch (Exception e) {
+			String message=e.getMessage();
+			if (message==null) return e.toString();
+			// drops the location prefix added by the reader ("ParseError at [row,col]:[..]\nMessage: ").
+			int pos=message.indexOf("Message: ");
+			return (pos>=0)?message.substring(pos+9):message;
+		} finally {
+			if (r!=null) try {r.close();} catch (XMLStreamException e) {}
 		}
-		return null;
 	}
 }
@@ -35,6 +35,7 @@ import javax.swing.text.StyledDocument;
 import com.mxgraph.util.mxConstants;
 import com.mxgraph.util.mxLighweightLabel;
 import com.mxgraph.util.mxLighweightTextPane;
+import com.mxgraph.util.mxMetricsCache;
 import com.mxgraph.util.mxPoint;
 import com.mxgraph.util.mxUtils;
 
@@ -49,12 +50,66 @@ public class mxGraphics2DCanvas extends mxBasicCanvas
 	 */
 	protected Hashtable<String, Image> imageCache = new Hashtable<String, Image>();
 
+	/**
+	 * Caches the lines of plain text labels and their widths by text and
+	 * font metrics. The metrics identify the scaled font and the rendering
+	 * context, so the widths are exact for the current scale.
+	 */
+	protected static mxMetricsCache<TextLines> textLines = new mxMetricsCache<TextLines>(
+			4096);
+
+	/**
+	 * Lines of a plain text label and their widths.
+	 */
+	protected static class TextLines
+	{
+
+		protected String[] lines;
+
+		protected int[] widths;
+
+		public TextLines(String text, FontMetrics fm)
+		{
+			lines = text.split("\n");
+			widths = new int[lines.length];
+
+			for (int i = 0; i < lines.length; i++)
+			{
+				widths[i] = fm.stringWidth(lines[i]);
+			}
+		}
+
+	}
+
 	/**
 	 * Specifies if linefeeds should be replaced with breaks in HTML markup.
 	 * Default is true.
 	 */
 	protected boolean replaceHtmlLinefeeds = true;
 
+	/**
+	 * Scale below which labels are not drawn. Default is 0.
+	 */
+	protected double hideLabelScale = 0;
+
+	/**
+	 * Scale below which labels are drawn as greeked bars. Default is 0.
+	 */
+	protected double greekLabelScale = 0;
+
+	/**
+	 * Scale below which shapes are drawn without shadows, gradients, rounded
+	 * corners and images, and edges are drawn as plain polylines without
+	 * markers. Default is 0.
+	 */
+	protected double simpleShapeScale = 0;
+
+	/**
+	 * Scale below which vertices with children are drawn as filled boxes
+	 * without their children, see drawClusterBox. Default is 0.
+	 */
+	protected double clusterBoxScale = 0;
+
 	/**
 	 * Optional renderer pane to be used for HTML label rendering.
 	 */
@@ -107,6 +162,88 @@ public class mxGraphics2DCanvas extends mxBasicCanvas
 		replaceHtmlLinefeeds = value;
 	}
 
+	/**
+	 * Returns the scale below which labels are not drawn.
+	 */
+	public double getHideLabelScale()
+	{
+		return hideLabelScale;
+	}
+
+	/**
+	 * Sets the scale below which labels are not drawn.
+	 */
+	public void setHideLabelScale(double value)
+	{
+		hideLabelScale = value;
+	}
+
+	/**
+	 * Returns the scale below which labels are drawn as greeked bars.
+	 */
+	public double getGreekLabelScale()
+	{
+		return greekLabelScale;
+	}
+
+	/**
+	 * Sets the scale below which labels are drawn as greeked bars.
+	 */
+	public void setGreekLabelScale(double value)
+	{
+		greekLabelScale = value;
+	}
+
+	/**
+	 * Returns the scale below which shapes and edges are simplified.
+	 */
+	public double getSimpleShapeScale()
+	{
+		return simpleShapeScale;
+	}
+
+	/**
+	 * Sets the scale below which shapes and edges are simplified.
+	 */
+	public void setSimpleShapeScale(double value)
+	{
+		simpleShapeScale = value;
+	}
+
+	/**
+	 * Returns the scale below which clusters are drawn as filled boxes.
+	 */
+	public double getClusterBoxScale()
+	{
+		return clusterBoxScale;
+	}
+
+	/**
+	 * Sets the scale below which clusters are drawn as filled boxes.
+	 */
+	public void setClusterBoxScale(double value)
+	{
+		clusterBoxScale = value;
+	}
+
+	/**
+	 * Returns true if shapes and edges are simplified at the current scale.
+	 */
+	public boolean isDrawSimpleShapes()
+	{
+		return scale < simpleShapeScale;
+	}
+
+	/**
+	 * Returns true if clusters should be drawn as filled boxes at the current
+	 * scale. The canvas does not know the structure of the graph, so this is
+	 * checked by the caller before drawing a cell and its children.
+	 */
+	public boolean isDrawClusterBoxes()
+	{
+		return scale < clusterBoxScale;
+	}
+
 	/**
 	 * Returns the graphics object for this canvas.
 	 */
@@ -279,7 +416,7 @@ public class mxGraphics2DCanvas extends mxBasicCanvas
 	public Object drawLabel(String label, int x, int y, int w, int h,
 			Map<String, Object> style, boolean isHtml)
 	{
-		if (g != null && drawLabels)
+		if (g != null && drawLabels && scale >= hideLabelScale)
 		{
 			x += translate.x;
 			y += translate.y;
@@ -317,7 +454,11 @@ public class mxGraphics2DCanvas extends mxBasicCanvas
 					g.drawRect(x, y, w, h);
 				}
 
-				if (isHtml)
+				if (scale < greekLabelScale)
+				{
+					drawGreekedText((isHtml) ? "" : label, x, y, w, h, style);
+				}
+				else if (isHtml)
 				{
 					drawHtmlText(mxUtils.getBodyMarkup(label,
 							isReplaceHtmlLinefeeds()), x, y, w, h, style);
@@ -362,11 +503,12 @@ public class mxGraphics2DCanvas extends mxBasicCanvas
 		if (g.hitClip(x - pw, y - pw, w + 2 * pw, h + 2 * pw))
 		{
 			// Prepares the background
-			boolean shadow = mxUtils.isTrue(style, mxConstants.STYLE_SHADOW,
-					false);
+			boolean simple = isDrawSimpleShapes();
+			boolean shadow = !simple
+					&& mxUtils.isTrue(style, mxConstants.STYLE_SHADOW, false);
 			Color fillColor = mxUtils.getStyleFillColor(style);
-			Paint fillPaint = getFillPaint(new Rectangle(x, y, w, h),
-					fillColor, style);
+			Paint fillPaint = (simple) ? null : getFillPaint(new Rectangle(x,
+					y, w, h), fillColor, style);
 
 			if (penWidth > 0)
 			{
@@ -377,7 +519,11 @@ public class mxGraphics2DCanvas extends mxBasicCanvas
 			String shape = mxUtils
 					.getString(style, mxConstants.STYLE_SHAPE, "");
 
-			if (shape.equals(mxConstants.SHAPE_IMAGE))
+			if (simple && shape.equals(mxConstants.SHAPE_IMAGE))
+			{
+				drawRect(x, y, w, h, fillColor, null, penColor, false, false);
+			}
+			else if (shape.equals(mxConstants.SHAPE_IMAGE))
 			{
 				String img = getImageForStyle(style);
 
@@ -416,6 +562,11 @@ public class mxGraphics2DCanvas extends mxBasicCanvas
 			{
 				drawOval(x, y, w, h, fillColor, fillPaint, penColor, shadow);
 
+				if (simple)
+				{
+					return;
+				}
+
 				int inset = (int) ((3 + penWidth) * scale);
 				x += inset;
 				y += inset;
@@ -456,10 +607,12 @@ public class mxGraphics2DCanvas extends mxBasicCanvas
 			else
 			{
 				drawRect(x, y, w, h, fillColor, fillPaint, penColor, shadow,
-						mxUtils.isTrue(style, mxConstants.STYLE_ROUNDED));
+						!simple
+								&& mxUtils.isTrue(style,
+										mxConstants.STYLE_ROUNDED));
 
 				// Draws the image inside the label shape
-				if (shape.equals(mxConstants.SHAPE_LABEL))
+				if (!simple && shape.equals(mxConstants.SHAPE_LABEL))
 				{
 					String img = getImageForStyle(style);
 
@@ -1313,7 +1466,11 @@ public class mxGraphics2DCanvas extends mxBasicCanvas
 			String shape = mxUtils
 					.getString(style, mxConstants.STYLE_SHAPE, "");
 
-			if (shape.equals(mxConstants.SHAPE_ARROW))
+			if (isDrawSimpleShapes())
+			{
+				drawPolyline(pts, penColor);
+			}
+			else if (shape.equals(mxConstants.SHAPE_ARROW))
 			{
 				setStroke(penWidth, style);
 
@@ -1350,6 +1507,29 @@ public class mxGraphics2DCanvas extends mxBasicCanvas
 		}
 	}
 
+	/**
+	 * Draws the given points as a plain polyline with a one pixel pen.
+	 * 
+	 * @param pts List of points that define the line.
+	 * @param penColor Color of the line.
+	 */
+	protected void drawPolyline(List<mxPoint> pts, Color penColor)
+	{
+		int[] xs = new int[pts.size()];
+		int[] ys = new int[pts.size()];
+
+		for (int i = 0; i < xs.length; i++)
+		{
+			mxPoint pt = pts.get(i);
+			xs[i] = (int) Math.round(pt.getX());
+			ys[i] = (int) Math.round(pt.getY());
+		}
+
+		g.setColor(penColor);
+		g.setStroke(new BasicStroke(1));
+		g.drawPolyline(xs, ys, xs.length);
+	}
+
 	/**
 	 * Draws the given lines as segments between all points of the given list
 	 * of mxPoints.
@@ -1504,6 +1684,109 @@ public class mxGraphics2DCanvas extends mxBasicCanvas
 		return offset;
 	}
 
+	/**
+	 * Draws a cluster as a box filled with its fill color, or its stroke color
+	 * if it has no fill color.
+	 * 
+	 * @param x X-coordinate of the cluster.
+	 * @param y Y-coordinate of the cluster.
+	 * @param w Width of the cluster.
+	 * @param h Height of the cluster.
+	 * @param style Style of the cluster.
+	 */
+	public void drawClusterBox(int x, int y, int w, int h,
+			Map<String, Object> style)
+	{
+		x += translate.x;
+		y += translate.y;
+
+		if (g != null && g.hitClip(x, y, w + 1, h + 1))
+		{
+			Color color = mxUtils.getStyleFillColor(style);
+
+			if (color == null)
+			{
+				color = mxUtils.getStyleStrokeColor(style, Color.gray);
+			}
+
+			g.setColor(color);
+			g.fillRect(x, y, Math.max(1, w), Math.max(1, h));
+		}
+	}
+
+	/**
+	 * Draws the lines of the given text as bars in the font color. An empty
+	 * text is drawn as a single bar.
+	 * 
+	 * @param text Text to be painted.
+	 * @param x X-coordinate of the text.
+	 * @param y Y-coordinate of the text.
+	 * @param w Width of the text.
+	 * @param h Height of the text.
+	 * @param style Style to be used for painting the text.
+	 */
+	protected void drawGreekedText(String text, int x, int y, int w, int h,
+			Map<String, Object> style)
+	{
+		if (g.hitClip(x, y, w, h))
+		{
+			boolean horizontal = mxUtils.isTrue(style,
+					mxConstants.STYLE_HORIZONTAL, true);
+			int inset = (int) (mxConstants.LABEL_INSET * scale);
+
+			if (!horizontal)
+			{
+				int tmp = w;
+				w = h;
+				h = tmp;
+			}
+
+			String[] lines = text.split("\n");
+			int maxLength = 1;
+
+			for (int i = 0; i < lines.length; i++)
+			{
+				maxLength = Math.max(maxLength, lines[i].length());
+			}
+
+			Object align = mxUtils.getString(style, mxConstants.STYLE_ALIGN,
+					mxConstants.ALIGN_CENTER);
+			double lineHeight = (double) (h - 2 * inset) / lines.length;
+			int barHeight = (int) Math.max(1, lineHeight / 2);
+			g.setColor(mxUtils.getStyleFontColor(style, Color.black));
+
+			for (int i = 0; i < lines.length; i++)
+			{
+				int length = (lines[i].length() > 0) ? lines[i].length()
+						: maxLength;
+				int bw = (int) Math.max(1, (double) (w - 2 * inset) * length
+						/ maxLength);
+				int dx = inset;
+
+				if (align.equals(mxConstants.ALIGN_CENTER))
+				{
+					dx = (w - bw) / 2;
+				}
+				else if (align.equals(mxConstants.ALIGN_RIGHT))
+				{
+					dx = w - inset - bw;
+				}
+
+				int dy = (int) (inset + i * lineHeight + (lineHeight - barHeight) / 2);
+
+				if (horizontal)
+				{
+					g.fillRect(x + dx, y + dy, bw, barHeight);
+				}
+				else
+				{
+					// Rotated by 90 degrees counterclockwise
+					g.fillRect(x + dy, y + w - dx - bw, barHeight, bw);
+				}
+			}
+		}
+	}
+
 	/**
 	 * Draws the specified HTML markup.
 	 * 
@@ -1538,13 +1821,20 @@ public class mxGraphics2DCanvas extends mxBasicCanvas
 					h = tmp;
 				}
 
-				// Renders the scaled text
-				textRenderer.setText(mxUtils.createHtmlDocument(style, text));
+				// Renders the scaled text. The renderer is shared with
+				// canvases that paint on other threads.
 				g.scale(scale, scale);
-				rendererPane.paintComponent(g, textRenderer, rendererPane,
-						(int) (x / scale) + mxConstants.LABEL_INSET,
-						(int) (y / scale) + mxConstants.LABEL_INSET,
-						(int) (w / scale), (int) (h / scale), true);
+
+				synchronized (textRenderer)
+				{
+					textRenderer.setText(mxUtils
+							.createHtmlDocument(style, text));
+					rendererPane.paintComponent(g, textRenderer,
+							rendererPane, (int) (x / scale)
+									+ mxConstants.LABEL_INSET, (int) (y / scale)
+									+ mxConstants.LABEL_INSET,
+							(int) (w / scale), (int) (h / scale), true);
+				}
 
 				// Restores the previous transformation
 				g.setTransform(at);
@@ -1576,31 +1866,34 @@ public class mxGraphics2DCanvas extends mxBasicCanvas
 					"nowrap").equals("wrap")
 					&& textRenderer != null && rendererPane != null)
 			{
-				textRenderer.setText(text);
-
-				// Sets the font style, alignment and color via the styled document
-				SimpleAttributeSet sas = new SimpleAttributeSet();
-				Object align = mxUtils.getString(style,
-						mxConstants.STYLE_ALIGN, mxConstants.ALIGN_CENTER);
-				int scAlign = (align.equals(mxConstants.ALIGN_LEFT)) ? StyleConstants.ALIGN_LEFT
-						: (align.equals(mxConstants.ALIGN_RIGHT)) ? StyleConstants.ALIGN_RIGHT
-								: StyleConstants.ALIGN_CENTER;
-				StyleConstants.setAlignment(sas, scAlign);
-				StyleConstants.setForeground(sas, mxUtils.getStyleFontColor(style,Color.black));
-
-				Font font = g.getFont();
-				StyleConstants.setFontFamily(sas, font.getFamily());
-				StyleConstants.setFontSize(sas, font.getSize());
-				StyleConstants.setItalic(sas, font.isItalic());
-				StyleConstants.setBold(sas, font.isBold());
-				((StyledDocument) textRenderer.getDocument())
-						.setParagraphAttributes(0, textRenderer.getDocument()
-								.getLength(), sas, true);
-
-				// FIXME: For large scales there is a vertical offset
-				rendererPane.paintComponent(g, textRenderer, rendererPane, x,
-						(int) (y + mxConstants.LABEL_INSET * scale), w, h,
-						false);
+				synchronized (textRenderer)
+				{
+					textRenderer.setText(text);
+
+					// Sets the font style, alignment and color via the styled document
+					SimpleAttributeSet sas = new SimpleAttributeSet();
+					Object align = mxUtils.getString(style,
+							mxConstants.STYLE_ALIGN, mxConstants.ALIGN_CENTER);
+					int scAlign = (align.equals(mxConstants.ALIGN_LEFT)) ? StyleConstants.ALIGN_LEFT
+							: (align.equals(mxConstants.ALIGN_RIGHT)) ? StyleConstants.ALIGN_RIGHT
+									: StyleConstants.ALIGN_CENTER;
+					StyleConstants.setAlignment(sas, scAlign);
+					StyleConstants.setForeground(sas, mxUtils.getStyleFontColor(style,Color.black));
+
+					Font font = g.getFont();
+					StyleConstants.setFontFamily(sas, font.getFamily());
+					StyleConstants.setFontSize(sas, font.getSize());
+					StyleConstants.setItalic(sas, font.isItalic());
+					StyleConstants.setBold(sas, font.isBold());
+					((StyledDocument) textRenderer.getDocument())
+							.setParagraphAttributes(0, textRenderer.getDocument()
+									.getLength(), sas, true);
+
+					// FIXME: For large scales there is a vertical offset
+					rendererPane.paintComponent(g, textRenderer, rendererPane, x,
+							(int) (y + mxConstants.LABEL_INSET * scale), w, h,
+							false);
+				}
 			}
 			else
 			{
@@ -1641,7 +1934,8 @@ public class mxGraphics2DCanvas extends mxBasicCanvas
 				g.setColor(fontColor);
 
 				// Draws the text line by line
-				String[] lines = text.split("\n");
+				TextLines tl = getTextLines(text, fm);
+				String[] lines = tl.lines;
 
 				for (int i = 0; i < lines.length; i++)
 				{
@@ -1649,7 +1943,7 @@ public class mxGraphics2DCanvas extends mxBasicCanvas
 
 					if (align.equals(mxConstants.ALIGN_CENTER))
 					{
-						int sw = fm.stringWidth(lines[i]);
+						int sw = tl.widths[i];
 
 						if (horizontal)
 						{
@@ -1662,7 +1956,7 @@ public class mxGraphics2DCanvas extends mxBasicCanvas
 					}
 					else if (align.equals(mxConstants.ALIGN_RIGHT))
 					{
-						int sw = fm.stringWidth(lines[i]);
+						int sw = tl.widths[i];
 						dx = ((horizontal) ? w : h) - sw;
 					}
 
@@ -1675,4 +1969,21 @@ public class mxGraphics2DCanvas extends mxBasicCanvas
 			}
 		}
 	}
+	/**
+	 * Returns the lines of the given plain text and their widths for the
+	 * given font metrics.
+	 */
+	protected TextLines getTextLines(String text, FontMetrics fm)
+	{
+		TextLines result = textLines.get(text, fm, 0);
+
+		if (result == null)
+		{
+			result = new TextLines(text, fm);
+			textLines.put(text, fm, 0, result);
+		}
+
+		return result;
+	}
+
 }
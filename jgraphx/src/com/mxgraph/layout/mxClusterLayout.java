@@ -1,16 +1,48 @@
 package com.mxgraph.layout;
 
+import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
 
 import com.mxgraph.layout.hierarchical.mxHierarchicalLayout;
 import com.mxgraph.model.mxCell;
+import com.mxgraph.model.mxGeometry;
+import com.mxgraph.model.mxGraphModel;
+import com.mxgraph.model.mxIGraphModel;
+import com.mxgraph.util.mxPoint;
+import com.mxgraph.util.mxRectangle;
 import com.mxgraph.view.mxGraph;
 
 public class mxClusterLayout extends mxGraphLayout {
 
-	HashSet<String>internalClusterID2DoneLayout; // clsters already layed-out
+	HashSet<String>internalClusterID2DoneLayout; // clsters already layed-out in the current run
+	/**
+	 * Maps from the IDs of the clusters laid out by this instance to the signature returned
+	 * by <getLayoutSignature> at the end of the run in which they were last laid out.
+	 * Clusters whose signature is unchanged are not laid out again, see <isLayoutRequired>.
+	 * The map is kept between runs as long as the root of the model is <layoutCacheRoot>,
+	 * see <pruneLayoutCache>.
+	 */
+	protected HashMap<String,String> clusterID2LayoutSignature=new HashMap<String, String>();
+	/**
+	 * Root of the model for which <clusterID2LayoutSignature> has been filled.
+	 */
+	protected Object layoutCacheRoot;
 	mxIGraphLayout clusterLayout; // layout to apply to each cluster
 	mxGraph graph;
+	/**
+	 * Specifies if sibling clusters should be laid out concurrently. Each cluster is then
+	 * laid out on a detached copy of its subtree and all results are applied to the model
+	 * in a single update. Only used if <isParallelSupported> returns true. Default is false.
+	 */
+	protected boolean parallel=false;
 
 	public mxClusterLayout(mxIGraphLayout cl,mxGraph g) {
 		super(g);
@@ -47,16 +79,26 @@ public class mxClusterLayout extends mxGraphLayout {
 	}
 	public void execute(Object parent, int depth) {
 		System.out.println("Starting cluster layout");
+		internalClusterID2DoneLayout.clear();
+		pruneLayoutCache();
 		mxCell root=(mxCell) parent;
 		// first run the layout on the clusters
 		HashSet<mxCell> clusters = findAllClustersRootedAt(graph, root,depth);
-		for (mxCell cluster:clusters) {
-			handleLayoutInThisCluster(cluster,clusters,depth);
+		if (isParallel() && isParallelSupported()) {
+			executeInParallel(clusters,depth);
+		} else {
+			// the signatures are stored once all clusters are done as the layout of a
+			// cluster also changes the edges in the clusters it contains
+			List<mxCell> laidOut=new ArrayList<mxCell>();
+			for (mxCell cluster:clusters) {
+				handleLayoutInThisCluster(cluster,clusters,depth,laidOut);
+			}
+			for (mxCell cluster:laidOut) storeLayoutSignature(cluster);
 		}
 		System.out.println("Done cluster layout");
 	}
 	
-	private void handleLayoutInThisCluster(mxCell cluster, HashSet<mxCell> clusters, int depth) {
+	private void handleLayoutInThisCluster(mxCell cluster, HashSet<mxCell> clusters, int depth, List<mxCell> laidOut) {
 		String id=cluster.getId();
 		//System.out.println("considering cluster: "+cluster.getValue());
 		if (!internalClusterID2DoneLayout.contains(id)) {
@@ -66,7 +108,7 @@ public class mxClusterLayout extends mxGraphLayout {
 				//System.out.println("  "+c.getValue());
 				if (clusters.contains(c)) {
 					System.out.println("internal starting layout for cluster: "+c.getValue());
-					handleLayoutInThisCluster(c,clusters,depth);
+					handleLayoutInThisCluster(c,clusters,depth,laidOut);
 				}
 			}
 			//System.out.println("doing cluster: "+cluster.getValue());
@@ -75,7 +117,7 @@ public class mxClusterLayout extends mxGraphLayout {
 			// apply layout
 			// exit cluster
 			// resize the cluster container
-			if (!cluster.isCollapsed()) {
+			if (!cluster.isCollapsed() && isLayoutRequired(cluster,null)) {
 				clusterLayout.execute(cluster);
 				// after run the graph layout (for edges and labels)
 				mxParallelEdgeLayout l1 = new mxParallelEdgeLayout(graph);
@@ -83,7 +125,387 @@ public class mxClusterLayout extends mxGraphLayout {
 				mxEdgeLabelLayout l2 = new mxEdgeLabelLayout(graph);
 				l2.execute(cluster);
 				graph.updateGroupBounds(new Object[]{cluster},2 * graph.getGridSize(),false);
+				laidOut.add(cluster);
 			}
 		}
 	}
+
+	/**
+	 * Lays out the given clusters using the ForkJoinPool returned by getPool. Every
+	 * cluster waits for the clusters it contains, so clusters that do not contain each
+	 * other run concurrently. The live model is only read while the tasks are running.
+	 */
+	protected void executeInParallel(HashSet<mxCell> clusters, int depth) {
+		HashMap<mxCell,ClusterTask> tasks=new HashMap<mxCell, ClusterTask>();
+		Map<Object,mxCell> results=new ConcurrentHashMap<Object, mxCell>();
+		for (mxCell cluster:clusters) {
+			// same bookkeeping as the serial layout, done before any task is started
+			boolean done=!internalClusterID2DoneLayout.add(cluster.getId());
+			tasks.put(cluster,new ClusterTask((done || cluster.isCollapsed())?null:cluster,depth,results));
+		}
+		ClusterTask root=new ClusterTask(null,depth,results);
+		for (mxCell cluster:clusters) {
+			mxCell container=getContainingCluster(cluster,clusters);
+			((container!=null)?tasks.get(container):root).children.add(tasks.get(cluster));
+		}
+		getPool().invoke(root);
+
+		List<mxCell> laidOut=new ArrayList<mxCell>();
+		root.getClusters(laidOut);
+		if (laidOut.isEmpty()) return;
+		mxIGraphModel model=graph.getModel();
+		model.beginUpdate();
+		try {
+			for (Map.Entry<Object,mxCell> entry:results.entrySet()) {
+				Object cell=entry.getKey();
+				mxCell copy=entry.getValue();
+				if (!isSameGeometry(model.getGeometry(cell),copy.getGeometry())) {
+					model.setGeometry(cell,copy.getGeometry());
+				}
+				String style=copy.getStyle();
+				if ((style==null)?model.getStyle(cell)!=null:!style.equals(model.getStyle(cell))) {
+					model.setStyle(cell,style);
+				}
+			}
+			for (mxCell cluster:laidOut) storeLayoutSignature(cluster);
+		} finally {
+			model.endUpdate();
+		}
+	}
+
+	/**
+	 * Returns the innermost cluster in clusters that contains the given cell or null.
+	 */
+	protected mxCell getContainingCluster(mxCell cell, HashSet<mxCell> clusters) {
+		mxCell parent=(mxCell) cell.getParent();
+		while (parent!=null && !clusters.contains(parent)) parent=(mxCell) parent.getParent();
+		return parent;
+	}
+
+	/**
+	 * Lays out a copy of the subtree of the given cluster. The copy uses the results
+	 * of the clusters inside of it instead of the live geometries and styles, and its
+	 * final state is stored in results for every copied cell.
+	 */
+	protected void layoutSnapshot(mxCell cluster, int depth, Map<Object,mxCell> results) {
+		IdentityHashMap<Object,Object> originals=new IdentityHashMap<Object, Object>();
+		IdentityHashMap<Object,mxCell> copies=new IdentityHashMap<Object, mxCell>();
+		List<mxCell> terminals=new ArrayList<mxCell>();
+		mxCell copy=copySubtree(cluster,originals,copies,terminals,results);
+		// connects the edges in the order of the original terminals, the layouts depend on it
+		for (mxCell terminal:terminals) {
+			mxCell terminalCopy=copies.get(terminal);
+			int numEdges=terminal.getEdgeCount();
+			for(int i=0;i<numEdges;i++) {
+				mxCell edge=(mxCell) terminal.getEdgeAt(i);
+				if (copies.containsKey(edge.getTerminal(true)) && copies.containsKey(edge.getTerminal(false))) {
+					mxCell edgeCopy=copies.get(edge);
+					if (edgeCopy==null) {
+						// edges outside of the subtree still count for the layout but are not
+						// part of the results as their geometries are relative to another parent
+						edgeCopy=copyCell(edge,results);
+						copies.put(edge,edgeCopy);
+						copy.insert(edgeCopy);
+					}
+					if (edge.getTerminal(true)==terminal) terminalCopy.insertEdge(edgeCopy,true);
+					if (edge.getTerminal(false)==terminal) terminalCopy.insertEdge(edgeCopy,false);
+				}
+			}
+		}
+		mxCell root=new mxCell();
+		mxCell layer=new mxCell();
+		root.insert(layer);
+		layer.insert(copy);
+		mxGraph snapshot=createSnapshotGraph(new mxGraphModel(root),originals);
+
+		// same steps as in handleLayoutInThisCluster, the group bounds include the labels
+		snapshot.getView().revalidate();
+		createClusterLayout(snapshot).execute(copy);
+		// after run the graph layout (for edges and labels)
+		snapshot.getView().revalidate();
+		mxParallelEdgeLayout l1 = new mxParallelEdgeLayout(snapshot);
+		l1.execute(copy,depth);
+		mxEdgeLabelLayout l2 = new mxEdgeLabelLayout(snapshot);
+		l2.execute(copy);
+		snapshot.updateGroupBounds(new Object[]{copy},2 * snapshot.getGridSize(),false);
+
+		for (Map.Entry<Object,Object> entry:originals.entrySet()) {
+			results.put(entry.getValue(),(mxCell) entry.getKey());
+		}
+	}
+
+	private mxCell copySubtree(mxCell cell, Map<Object,Object> originals, Map<Object,mxCell> copies, List<mxCell> terminals, Map<Object,mxCell> results) {
+		mxCell copy=copyCell(cell,results);
+		originals.put(copy,cell);
+		copies.put(cell,copy);
+		if (cell.getEdgeCount()>0) terminals.add(cell);
+		int numChildren=cell.getChildCount();
+		for(int i=0;i<numChildren;i++) {
+			copy.insert(copySubtree((mxCell) cell.getChildAt(i),originals,copies,terminals,results));
+		}
+		return copy;
+	}
+
+	/**
+	 * Returns a new cell with the value, geometry and style of the given cell, or of
+	 * its last layout result, without the children. The value is shared, not cloned.
+	 */
+	protected mxCell copyCell(mxCell cell, Map<Object,mxCell> results) {
+		mxCell state=results.get(cell);
+		if (state==null) state=cell;
+		mxGeometry geo=state.getGeometry();
+		mxCell copy=new mxCell(cell.getValue(),(geo!=null)?(mxGeometry) geo.clone():null,state.getStyle());
+		copy.setVertex(cell.isVertex());
+		copy.setEdge(cell.isEdge());
+		copy.setConnectable(cell.isConnectable());
+		copy.setVisible(cell.isVisible());
+		copy.setCollapsed(cell.isCollapsed());
+		return copy;
+	}
+
+	/**
+	 * Returns the graph used to lay out the given copy of a cluster. It shares the
+	 * stylesheet, grid size and scale with the live graph and asks the live graph for
+	 * the labels of the originals of the cells and if they are movable or should be a
+	 * root. Subclasses should delegate other checks of their graph class here if a
+	 * layout depends on them.
+	 */
+	protected mxGraph createSnapshotGraph(mxIGraphModel model, final Map<Object,Object> originals) {
+		mxGraph snapshot=new mxGraph(model,graph.getStylesheet()) {
+			public String getLabel(Object cell) {
+				Object original=originals.get(cell);
+				return (original!=null)?graph.getLabel(original):super.getLabel(cell);
+			}
+			public boolean isHtmlLabel(Object cell) {
+				Object original=originals.get(cell);
+				return (original!=null)?graph.isHtmlLabel(original):super.isHtmlLabel(cell);
+			}
+			public boolean isCellMovable(Object cell) {
+				Object original=originals.get(cell);
+				return (original!=null)?graph.isCellMovable(original):super.isCellMovable(cell);
+			}
+			public RootStrength vertexShouldBeRoot(Object cell, Object parent, boolean invert) {
+				Object original=originals.get(cell);
+				Object originalParent=originals.get(parent);
+				return (original!=null && originalParent!=null)?graph.vertexShouldBeRoot(original,originalParent,invert):super.vertexShouldBeRoot(cell,parent,invert);
+			}
+		};
+		snapshot.setGridSize(graph.getGridSize());
+		snapshot.getView().setScale(graph.getView().getScale());
+		return snapshot;
+	}
+
+	/**
+	 * Returns true if <createClusterLayout> can create the cluster layout for another
+	 * graph. This is the case for mxHierarchicalLayout.
+	 */
+	protected boolean isParallelSupported() {
+		return clusterLayout instanceof mxHierarchicalLayout;
+	}
+
+	/**
+	 * Returns a layout for the given snapshot graph with the settings of the cluster
+	 * layout. Subclasses that use other cluster layouts must override this together
+	 * with <isParallelSupported>.
+	 */
+	protected mxIGraphLayout createClusterLayout(mxGraph snapshot) {
+		mxHierarchicalLayout template=(mxHierarchicalLayout) clusterLayout;
+		mxHierarchicalLayout layout=new mxHierarchicalLayout(snapshot,template.getOrientation());
+		layout.setResizeParent(template.isResizeParent());
+		layout.setMoveParent(template.isMoveParent());
+		layout.setParentBorder(template.getParentBorder());
+		layout.setIntraCellSpacing(template.getIntraCellSpacing());
+		layout.setInterRankCellSpacing(template.getInterRankCellSpacing());
+		layout.setInterHierarchySpacing(template.getInterHierarchySpacing());
+		layout.setParallelEdgeSpacing(template.getParallelEdgeSpacing());
+		layout.setFineTuning(template.isFineTuning());
+		layout.setDisableEdgeStyle(template.isDisableEdgeStyle());
+		layout.setDeterministic(template.isDeterministic());
+		layout.setFixRoots(template.isFixRoots());
+		layout.setLayoutFromSinks(template.isLayoutFromSinks());
+		return layout;
+	}
+
+	/**
+	 * Returns true if both geometries have the same bounds, points and offset.
+	 */
+	protected boolean isSameGeometry(mxGeometry a, mxGeometry b) {
+		if (a==null || b==null) return a==b;
+		return new mxRectangle(a).equals(b) && a.isRelative()==b.isRelative()
+				&& equals(a.getPoints(),b.getPoints())
+				&& equals(a.getSourcePoint(),b.getSourcePoint())
+				&& equals(a.getTargetPoint(),b.getTargetPoint())
+				&& equals(a.getOffset(),b.getOffset());
+	}
+
+	private static boolean equals(Object a, Object b) {
+		return (a==null)?b==null:a.equals(b);
+	}
+
+	/**
+	 * Returns true if the given cluster has never been laid out by this instance or if
+	 * its signature has changed since. As the signature contains the sizes of the child
+	 * clusters, which are laid out first, size changes are propagated up to the outer
+	 * clusters.
+	 *
+	 * @param results Layout results that have not been applied yet or null.
+	 */
+	protected boolean isLayoutRequired(mxCell cluster, Map<Object,mxCell> results) {
+		String id=cluster.getId();
+		String signature=(id!=null)?clusterID2LayoutSignature.get(id):null;
+		return signature==null || !signature.equals(getLayoutSignature(cluster,results));
+	}
+
+	/**
+	 * Stores the current signature of the given laid out cluster.
+	 */
+	protected void storeLayoutSignature(mxCell cluster) {
+		String id=cluster.getId();
+		if (id!=null) clusterID2LayoutSignature.put(id,getLayoutSignature(cluster,null));
+	}
+
+	/**
+	 * Forgets all stored signatures so that the next run lays out all clusters again.
+	 */
+	public void clearLayoutCache() {
+		clusterID2LayoutSignature.clear();
+	}
+
+	/**
+	 * Clears the stored signatures if the root of the model has changed since they were
+	 * stored (e.g. a new document), otherwise removes those of the clusters that are no
+	 * longer in the model. Called at the start of every run.
+	 */
+	protected void pruneLayoutCache() {
+		mxIGraphModel model=graph.getModel();
+		Object root=model.getRoot();
+		if (root!=layoutCacheRoot || !(model instanceof mxGraphModel)) {
+			clearLayoutCache();
+			layoutCacheRoot=root;
+		} else {
+			Iterator<String> it=clusterID2LayoutSignature.keySet().iterator();
+			while (it.hasNext()) {
+				if (((mxGraphModel) model).getCell(it.next())==null) it.remove();
+			}
+		}
+	}
+
+	/**
+	 * Returns the signature of the given cluster: its size, the IDs, styles and flags of
+	 * its children, the bounds of the child vertices and the terminals, labels and points
+	 * of the child edges. The layout of nested clusters is only included via their bounds.
+	 * As the signature is stored at the end of the layout, resizing the cluster or moving
+	 * any of its children or edge points afterwards changes it, so that the next run lays
+	 * out the cluster again. Two clusters have the same signature only if all of the above
+	 * are equal.
+	 *
+	 * @param results Layout results to use instead of the state of the model or null.
+	 */
+	protected String getLayoutSignature(mxCell cluster, Map<Object,mxCell> results) {
+		StringBuilder signature=new StringBuilder();
+		mxCell own=(results!=null)?results.get(cluster):null;
+		mxGeometry clusterGeo=((own!=null)?own:cluster).getGeometry();
+		if (clusterGeo!=null) signature.append(clusterGeo.getWidth()).append(',').append(clusterGeo.getHeight());
+		signature.append(';');
+		int numChildren=cluster.getChildCount();
+		for(int i=0;i<numChildren;i++) {
+			mxCell c=(mxCell) cluster.getChildAt(i);
+			mxCell state=(results!=null)?results.get(c):null;
+			if (state==null) state=c;
+			append(signature,c.getId());
+			append(signature,state.getStyle());
+			signature.append((c.isVertex()?1:0)+(c.isEdge()?2:0)+(c.isCollapsed()?4:0)+(c.isVisible()?8:0)).append(';');
+			mxGeometry geo=state.getGeometry();
+			if (c.isEdge()) {
+				mxCell source=(mxCell) c.getTerminal(true);
+				mxCell target=(mxCell) c.getTerminal(false);
+				append(signature,(source!=null)?source.getId():null);
+				append(signature,(target!=null)?target.getId():null);
+				append(signature,graph.convertValueToString(c));
+				if (geo!=null) {
+					List<mxPoint> points=geo.getPoints();
+					if (points!=null) {
+						for (mxPoint p:points) append(signature,p);
+					}
+					signature.append('|');
+					append(signature,geo.getSourcePoint());
+					append(signature,geo.getTargetPoint());
+					append(signature,geo.getOffset());
+				}
+				signature.append(';');
+			} else {
+				if (geo!=null) {
+					signature.append(geo.getX()).append(',').append(geo.getY()).append(',');
+					signature.append(geo.getWidth()).append(',').append(geo.getHeight());
+				}
+				signature.append(';');
+			}
+		}
+		return signature.toString();
+	}
+
+	private static void append(StringBuilder signature, mxPoint p) {
+		if (p==null) signature.append('-');
+		else signature.append(p.getX()).append(',').append(p.getY());
+		signature.append(' ');
+	}
+
+	// strings are prefixed with their length so that the signature can not be ambiguous
+	private static void append(StringBuilder signature, String s) {
+		if (s==null) signature.append('-');
+		else signature.append(s.length()).append(':').append(s);
+	}
+
+	/**
+	 * Returns the pool used in parallel mode. This implementation returns the common
+	 * pool.
+	 */
+	protected ForkJoinPool getPool() {
+		return ForkJoinPool.commonPool();
+	}
+
+	public boolean isParallel() {
+		return parallel;
+	}
+
+	public void setParallel(boolean parallel) {
+		this.parallel=parallel;
+	}
+
+	/**
+	 * Lays out one cluster after the clusters it contains if it has changed. The cluster
+	 * is null for clusters that are collapsed or have been laid out before in this run.
+	 */
+	protected class ClusterTask extends RecursiveAction {
+
+		private static final long serialVersionUID = 1L;
+
+		protected mxCell cluster;
+		protected int depth;
+		protected Map<Object,mxCell> results;
+		protected List<ClusterTask> children=new ArrayList<ClusterTask>();
+		protected boolean laidOut=false;
+
+		public ClusterTask(mxCell cluster, int depth, Map<Object,mxCell> results) {
+			this.cluster=cluster;
+			this.depth=depth;
+			this.results=results;
+		}
+
+		protected void compute() {
+			invokeAll(children);
+			if (cluster!=null && isLayoutRequired(cluster,results)) {
+				layoutSnapshot(cluster,depth,results);
+				laidOut=true;
+			}
+		}
+
+		/**
+		 * Adds the laid out clusters of this task, innermost first.
+		 */
+		protected void getClusters(List<mxCell> result) {
+			for (ClusterTask child:children) child.getClusters(result);
+			if (laidOut) result.add(cluster);
+		}
+	}
 }
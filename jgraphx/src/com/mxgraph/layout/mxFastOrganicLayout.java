@@ -5,8 +5,11 @@
 package com.mxgraph.layout;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Hashtable;
 import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
 
 import com.mxgraph.model.mxGeometry;
 import com.mxgraph.model.mxIGraphModel;
@@ -48,6 +51,47 @@ public class mxFastOrganicLayout extends mxGraphLayout
 	 */
 	protected double forceConstantSquared = 0;
 
+	/**
+	 * Specifies if the repulsive forces should be approximated using a
+	 * Barnes-Hut quadtree. This reduces the cost of an iteration from
+	 * quadratic to n log n in the number of vertices. Default is false.
+	 */
+	protected boolean approximateRepulsion = false;
+
+	/**
+	 * Opening criterion for the Barnes-Hut approximation. Groups of vertices
+	 * whose quadtree cell size divided by their distance is smaller than
+	 * theta are treated as a single vertex. Smaller values are more exact,
+	 * 0 computes all pairwise forces. Default is 0.7.
+	 */
+	protected double theta = 0.7;
+
+	/**
+	 * Quadtree of the vertex locations used to approximate the repulsive
+	 * forces. This is rebuilt in each iteration.
+	 */
+	protected QuadTree quadTree;
+
+	/**
+	 * Specifies if the forces should be computed by multiple threads. The
+	 * vertices are split into ranges and each task computes the complete
+	 * displacement of the vertices in its range, so that no two threads
+	 * write to the same element of <dispX> and <dispY>. The result does not
+	 * depend on the number of threads. Default is false.
+	 */
+	protected boolean parallel = false;
+
+	/**
+	 * Minimum number of vertices per task in parallel mode. Default is 32.
+	 */
+	protected int minTaskSize = 32;
+
+	/**
+	 * Seed for the offsets that separate vertices at the same location. The
+	 * layout is reproducible for a given seed. Default is 0.
+	 */
+	protected long seed = 0;
+
 	/**
 	 * Minimal distance limit. Default is 2. Prevents of
 	 * dividing by zero.
@@ -119,6 +163,12 @@ public class mxFastOrganicLayout extends mxGraphLayout
 	 */
 	protected int[][] neighbours;
 
+	/**
+	 * Factor of the attractive force between each vertex and each of its
+	 * neighbours, see <getAttractionWeight>.
+	 */
+	protected double[][] attractionWeights;
+
 	/**
 	 * Boolean flag that specifies if the layout is allowed to run. If this is
 	 * set to false, then the layout exits in the following iteration.
@@ -151,6 +201,19 @@ public class mxFastOrganicLayout extends mxGraphLayout
 				|| graph.getConnections(vertex).length == 0;
 	}
 
+	/**
+	 * Returns the factor of the attractive force between the given vertex and
+	 * its given neighbour. This implementation returns 1.
+	 * 
+	 * @param vertex Vertex to be laid out.
+	 * @param neighbour Vertex connected to the given vertex.
+	 * @return Returns the factor of the attractive force.
+	 */
+	public double getAttractionWeight(Object vertex, Object neighbour)
+	{
+		return 1;
+	}
+
 	/**
 	 *
 	 */
@@ -236,6 +299,74 @@ public class mxFastOrganicLayout extends mxGraphLayout
 		forceConstant = value;
 	}
 
+	/**
+	 * 
+	 */
+	public boolean isApproximateRepulsion()
+	{
+		return approximateRepulsion;
+	}
+
+	/**
+	 * 
+	 * @param value
+	 */
+	public void setApproximateRepulsion(boolean value)
+	{
+		approximateRepulsion = value;
+	}
+
+	/**
+	 * 
+	 */
+	public double getTheta()
+	{
+		return theta;
+	}
+
+	/**
+	 * 
+	 * @param value
+	 */
+	public void setTheta(double value)
+	{
+		theta = value;
+	}
+
+	/**
+	 * 
+	 */
+	public boolean isParallel()
+	{
+		return parallel;
+	}
+
+	/**
+	 * 
+	 * @param value
+	 */
+	public void setParallel(boolean value)
+	{
+		parallel = value;
+	}
+
+	/**
+	 * 
+	 */
+	public long getSeed()
+	{
+		return seed;
+	}
+
+	/**
+	 * 
+	 * @param value
+	 */
+	public void setSeed(long value)
+	{
+		seed = value;
+	}
+
 	/**
 	 * 
 	 */
@@ -317,6 +448,7 @@ public class mxFastOrganicLayout extends mxGraphLayout
 		cellLocation = new double[n][];
 		isMoveable = new boolean[n];
 		neighbours = new int[n][];
+		attractionWeights = new double[n][];
 		radius = new double[n];
 		radiusSquared = new double[n];
 
@@ -389,6 +521,7 @@ public class mxFastOrganicLayout extends mxGraphLayout
 				Object[] cells = graph.getOpposites(edges, vertexArray[i]);
 
 				neighbours[i] = new int[cells.length];
+				attractionWeights[i] = new double[cells.length];
 
 				for (int j = 0; j < cells.length; j++)
 				{
@@ -399,6 +532,8 @@ public class mxFastOrganicLayout extends mxGraphLayout
 					if (index != null)
 					{
 						neighbours[i][j] = index.intValue();
+						attractionWeights[i][j] = getAttractionWeight(
+								vertexArray[i], cells[j]);
 					}
 
 					// Else if index of the other cell doesn't correspond to
@@ -428,11 +563,25 @@ public class mxFastOrganicLayout extends mxGraphLayout
 					return;
 				}
 
-				// Calculate repulsive forces on all vertices
-				calcRepulsion();
+				if (isParallel())
+				{
+					calcParallelForces();
+				}
+				else
+				{
+					// Calculate repulsive forces on all vertices
+					if (isApproximateRepulsion())
+					{
+						calcApproximateRepulsion();
+					}
+					else
+					{
+						calcRepulsion();
+					}
 
-				// Calculate attractive forces through edges
-				calcAttraction();
+					// Calculate attractive forces through edges
+					calcAttraction();
+				}
 
 				calcPositions();
 				reduceTemperature();
@@ -565,7 +714,8 @@ public class mxFastOrganicLayout extends mxGraphLayout
 					}
 
 					double deltaLength = Math.sqrt(deltaLengthSquared);
-					double force = (deltaLengthSquared) / forceConstant;
+					double force = attractionWeights[i][k]
+							* deltaLengthSquared / forceConstant;
 
 					double displacementX = (xDelta / deltaLength) * force;
 					double displacementY = (yDelta / deltaLength) * force;
@@ -610,12 +760,12 @@ public class mxFastOrganicLayout extends mxGraphLayout
 
 					if (xDelta == 0)
 					{
-						xDelta = 0.01 + Math.random();
+						xDelta = getJitter(i, j, 0);
 					}
 
 					if (yDelta == 0)
 					{
-						yDelta = 0.01 + Math.random();
+						yDelta = getJitter(i, j, 1);
 					}
 
 					// Distance between nodes
@@ -651,4 +801,626 @@ public class mxFastOrganicLayout extends mxGraphLayout
 		}
 	}
 
+	/**
+	 * Calculates the repulsive forces of all other nodes on the given node.
+	 * Unlike <calcRepulsion> this only changes the displacement of the given
+	 * node, so that it can be called for different nodes at the same time.
+	 */
+	protected void calcRepulsion(int i)
+	{
+		int vertexCount = vertexArray.length;
+
+		for (int j = 0; j < vertexCount; j++)
+		{
+			if (j != i)
+			{
+				repulse(i, j, cellLocation[j][0], cellLocation[j][1],
+						radius[j], 1);
+			}
+		}
+	}
+
+	/**
+	 * Calculates the attractive forces of the edges connected to the given
+	 * node. Unlike <calcAttraction> this only changes the displacement of the
+	 * given node. Since <calcAttraction> adds the force of each edge once per
+	 * end, the force is doubled here.
+	 */
+	protected void calcAttraction(int i)
+	{
+		for (int k = 0; k < neighbours[i].length; k++)
+		{
+			int j = neighbours[i][k];
+
+			// Do not proceed self-loops
+			if (i != j)
+			{
+				double xDelta = cellLocation[i][0] - cellLocation[j][0];
+				double yDelta = cellLocation[i][1] - cellLocation[j][1];
+
+				// The distance between the nodes
+				double deltaLengthSquared = xDelta * xDelta + yDelta * yDelta
+						- radiusSquared[i] - radiusSquared[j];
+
+				if (deltaLengthSquared < minDistanceLimitSquared)
+				{
+					deltaLengthSquared = minDistanceLimitSquared;
+				}
+
+				double deltaLength = Math.sqrt(deltaLengthSquared);
+				double force = 2 * attractionWeights[i][k] * deltaLengthSquared
+						/ forceConstant;
+
+				dispX[i] -= (xDelta / deltaLength) * force;
+				dispY[i] -= (yDelta / deltaLength) * force;
+			}
+		}
+	}
+
+	/**
+	 * Calculates the repulsive and attractive forces on all laid out nodes
+	 * using the ForkJoinPool returned by <getPool>.
+	 */
+	protected void calcParallelForces()
+	{
+		int vertexCount = vertexArray.length;
+
+		if (isApproximateRepulsion())
+		{
+			if (quadTree == null)
+			{
+				quadTree = new QuadTree();
+			}
+
+			quadTree.build(cellLocation, radius, vertexCount, Math.max(
+					minDistanceLimit, 0.01));
+		}
+
+		ForkJoinPool pool = getPool();
+		int size = Math.max(minTaskSize, vertexCount
+				/ (8 * pool.getParallelism()));
+		pool.invoke(new ForceTask(0, vertexCount, size));
+	}
+
+	/**
+	 * Calculates the repulsive and attractive forces on the nodes in the
+	 * given range of indices.
+	 */
+	protected void calcForces(int from, int to)
+	{
+		int[] stack = (isApproximateRepulsion()) ? quadTree.createStack()
+				: null;
+
+		for (int i = from; i < to; i++)
+		{
+			// Exits if the layout is no longer allowed to run
+			if (!allowedToRun)
+			{
+				return;
+			}
+
+			if (isMoveable[i])
+			{
+				if (stack != null)
+				{
+					calcApproximateRepulsion(i, stack);
+				}
+				else
+				{
+					calcRepulsion(i);
+				}
+
+				calcAttraction(i);
+			}
+		}
+	}
+
+	/**
+	 * Returns the pool that runs the tasks in parallel mode. This
+	 * implementation returns the common pool.
+	 */
+	protected ForkJoinPool getPool()
+	{
+		return ForkJoinPool.commonPool();
+	}
+
+	/**
+	 * Returns a number between 0.01 and 1.01 that is used as the distance
+	 * between two nodes on the given axis if their locations are equal. The
+	 * number depends only on the seed, the iteration and the arguments.
+	 * 
+	 * @param i Smaller index of the two nodes.
+	 * @param j Larger index of the two nodes.
+	 * @param axis 0 for the x-axis and 1 for the y-axis.
+	 */
+	protected double getJitter(int i, int j, int axis)
+	{
+		long h = seed;
+		h = 31 * h + iteration;
+		h = 31 * h + i;
+		h = 31 * h + j;
+		h = 2 * h + axis;
+
+		// Mixes the bits of the hash (finalizer of MurmurHash3)
+		h ^= h >>> 33;
+		h *= 0xff51afd7ed558ccdL;
+		h ^= h >>> 33;
+		h *= 0xc4ceb9fe1a85ec53L;
+		h ^= h >>> 33;
+
+		return 0.01 + (h >>> 11) * 0x1.0p-53;
+	}
+
+	/**
+	 * Task that calculates the forces on a range of nodes and splits ranges
+	 * that are larger than the given size.
+	 */
+	protected class ForceTask extends RecursiveAction
+	{
+
+		private static final long serialVersionUID = 1L;
+
+		protected int from, to, size;
+
+		public ForceTask(int from, int to, int size)
+		{
+			this.from = from;
+			this.to = to;
+			this.size = size;
+		}
+
+		protected void compute()
+		{
+			if (to - from > size)
+			{
+				int mid = (from + to) >>> 1;
+				invokeAll(new ForceTask(from, mid, size), new ForceTask(mid,
+						to, size));
+			}
+			else
+			{
+				calcForces(from, to);
+			}
+		}
+
+	}
+
+	/**
+	 * Calculates the repulsive forces on all laid out nodes using a quadtree
+	 * of the node locations. Forces of distant groups of nodes are computed
+	 * from their number and center of mass, see <theta>.
+	 */
+	protected void calcApproximateRepulsion()
+	{
+		int vertexCount = vertexArray.length;
+
+		if (quadTree == null)
+		{
+			quadTree = new QuadTree();
+		}
+
+		quadTree.build(cellLocation, radius, vertexCount, Math.max(
+				minDistanceLimit, 0.01));
+		int[] stack = quadTree.createStack();
+
+		for (int i = 0; i < vertexCount; i++)
+		{
+			// Exits if the layout is no longer allowed to run
+			if (!allowedToRun)
+			{
+				return;
+			}
+
+			if (isMoveable[i])
+			{
+				calcApproximateRepulsion(i, stack);
+			}
+		}
+	}
+
+	/**
+	 * Adds the approximate repulsive force of all other nodes to the
+	 * displacement of the given node. The tree nodes that contain the node
+	 * are always opened, so that the node is never part of a group that
+	 * repulses it, whatever the value of <theta>.
+	 * 
+	 * @param i Index of the node.
+	 * @param stack Traversal stack returned by QuadTree.createStack.
+	 */
+	protected void calcApproximateRepulsion(int i, int[] stack)
+	{
+		QuadTree tree = quadTree;
+		double x = cellLocation[i][0];
+		double y = cellLocation[i][1];
+		int node = 0;
+
+		while (tree.first[node] == QuadTree.INTERNAL)
+		{
+			int child = tree.findChild(node, x, y);
+
+			for (int k = 0; k < 4; k++)
+			{
+				int sibling = tree.children[4 * node + k];
+
+				if (sibling >= 0 && sibling != child)
+				{
+					calcApproximateRepulsion(i, sibling, stack);
+				}
+			}
+
+			node = child;
+		}
+
+		// Computes the exact forces of the other nodes in the leaf
+		calcApproximateRepulsion(i, node, stack);
+	}
+
+	/**
+	 * Adds the approximate repulsive force of the nodes in the given subtree
+	 * to the displacement of the given node.
+	 * 
+	 * @param i Index of the node.
+	 * @param root Index of the tree node.
+	 * @param stack Traversal stack returned by QuadTree.createStack.
+	 */
+	protected void calcApproximateRepulsion(int i, int root, int[] stack)
+	{
+		QuadTree tree = quadTree;
+		int n = vertexArray.length;
+		double x = cellLocation[i][0];
+		double y = cellLocation[i][1];
+		double thetaSquared = theta * theta;
+		int top = 0;
+		stack[top++] = root;
+
+		while (top > 0)
+		{
+			int node = stack[--top];
+			int body = tree.first[node];
+
+			if (body >= 0)
+			{
+				// Computes the exact forces of the nodes in a leaf
+				while (body >= 0)
+				{
+					if (body != i)
+					{
+						repulse(i, body, cellLocation[body][0],
+								cellLocation[body][1], radius[body], 1);
+					}
+
+					body = tree.next[body];
+				}
+			}
+			else if (body == QuadTree.INTERNAL)
+			{
+				double mass = tree.mass[node];
+				double xDelta = x - tree.sumX[node] / mass;
+				double yDelta = y - tree.sumY[node] / mass;
+				double size = tree.size[node];
+
+				if (size * size < thetaSquared
+						* (xDelta * xDelta + yDelta * yDelta))
+				{
+					repulse(i, n + node, tree.sumX[node] / mass,
+							tree.sumY[node] / mass, tree.sumRadius[node] / mass,
+							mass);
+				}
+				else
+				{
+					for (int k = 0; k < 4; k++)
+					{
+						int child = tree.children[4 * node + k];
+
+						if (child >= 0)
+						{
+							stack[top++] = child;
+						}
+					}
+				}
+			}
+		}
+	}
+
+	/**
+	 * Adds the repulsive force of the given number of nodes at the given
+	 * location with the given average radius to the displacement of the node
+	 * at the given index. This uses the same force as <calcRepulsion>.
+	 * 
+	 * @param i Index of the node to be displaced.
+	 * @param j Index of the other node, or a number greater than all node
+	 * indices for groups of nodes. This is used for <getJitter>.
+	 */
+	protected void repulse(int i, int j, double x, double y, double r,
+			double count)
+	{
+		double xDelta = cellLocation[i][0] - x;
+		double yDelta = cellLocation[i][1] - y;
+
+		if (xDelta == 0)
+		{
+			xDelta = (i < j) ? getJitter(i, j, 0) : -getJitter(j, i, 0);
+		}
+
+		if (yDelta == 0)
+		{
+			yDelta = (i < j) ? getJitter(i, j, 1) : -getJitter(j, i, 1);
+		}
+
+		// Distance between nodes
+		double deltaLength = Math.sqrt((xDelta * xDelta) + (yDelta * yDelta));
+		double deltaLengthWithRadius = deltaLength - radius[i] - r;
+
+		if (deltaLengthWithRadius < minDistanceLimit)
+		{
+			deltaLengthWithRadius = minDistanceLimit;
+		}
+
+		double force = count * forceConstantSquared / deltaLengthWithRadius;
+
+		dispX[i] += (xDelta / deltaLength) * force;
+		dispY[i] += (yDelta / deltaLength) * force;
+	}
+
+	/**
+	 * Region quadtree over the node locations. Each tree node stores the
+	 * number of nodes, the sum of their locations and radii and either the
+	 * first node of a linked list of nodes (leaves) or up to four children.
+	 * Nodes closer than the minimum size share a leaf. The arrays are reused
+	 * when the tree is rebuilt.
+	 */
+	protected static class QuadTree
+	{
+
+		/**
+		 * Value of first for tree nodes without nodes and children.
+		 */
+		protected static final int EMPTY = -1;
+
+		/**
+		 * Value of first for tree nodes with children.
+		 */
+		protected static final int INTERNAL = -2;
+
+		/**
+		 * Number of tree nodes.
+		 */
+		protected int count;
+
+		/**
+		 * Indices of the four children of each tree node or -1.
+		 */
+		protected int[] children = new int[0];
+
+		/**
+		 * First node in each leaf, EMPTY or INTERNAL.
+		 */
+		protected int[] first = new int[0];
+
+		/**
+		 * Next node in the same leaf for each node or -1.
+		 */
+		protected int[] next = new int[0];
+
+		/**
+		 * Maximum depth of a leaf.
+		 */
+		protected int depth;
+
+		protected double[] mass = new double[0];
+
+		protected double[] sumX = new double[0];
+
+		protected double[] sumY = new double[0];
+
+		protected double[] sumRadius = new double[0];
+
+		/**
+		 * Top, left corner and side length of each tree node.
+		 */
+		protected double[] minX = new double[0];
+
+		protected double[] minY = new double[0];
+
+		protected double[] size = new double[0];
+
+		/**
+		 * Rebuilds the tree for the first n given locations.
+		 * 
+		 * @param location Center of each node.
+		 * @param radius Radius of each node.
+		 * @param n Number of nodes.
+		 * @param minSize Size below which tree nodes are not split.
+		 */
+		public void build(double[][] location, double[] radius, int n,
+				double minSize)
+		{
+			count = 0;
+
+			if (next.length < n)
+			{
+				next = new int[n];
+			}
+
+			double x0 = Double.MAX_VALUE;
+			double y0 = Double.MAX_VALUE;
+			double x1 = -Double.MAX_VALUE;
+			double y1 = -Double.MAX_VALUE;
+
+			for (int i = 0; i < n; i++)
+			{
+				x0 = Math.min(x0, location[i][0]);
+				y0 = Math.min(y0, location[i][1]);
+				x1 = Math.max(x1, location[i][0]);
+				y1 = Math.max(y1, location[i][1]);
+			}
+
+			createNode(x0, y0, Math.max(Math.max(x1 - x0, y1 - y0), minSize));
+			depth = 0;
+
+			for (int i = 0; i < n; i++)
+			{
+				depth = Math.max(depth, insert(i, location, radius, minSize));
+			}
+		}
+
+		/**
+		 * Returns a new stack that is large enough for any traversal of the
+		 * tree. Each thread that traverses the tree needs its own stack.
+		 */
+		public int[] createStack()
+		{
+			// Each level adds at most three siblings to the stack
+			return new int[3 * depth + 4];
+		}
+
+		/**
+		 * Inserts the given node into the tree and returns the depth of the
+		 * leaf it was added to.
+		 */
+		protected int insert(int body, double[][] location, double[] radius,
+				double minSize)
+		{
+			double x = location[body][0];
+			double y = location[body][1];
+			int node = 0;
+			int depth = 0;
+
+			while (true)
+			{
+				add(node, x, y, radius[body]);
+				int f = first[node];
+
+				if (f == EMPTY)
+				{
+					first[node] = body;
+					next[body] = -1;
+
+					return depth;
+				}
+				else if (f >= 0)
+				{
+					if (size[node] <= minSize)
+					{
+						next[body] = f;
+						first[node] = body;
+
+						return depth;
+					}
+
+					// Moves the single node of the leaf into a child
+					first[node] = INTERNAL;
+					int child = getChild(node, location[f][0], location[f][1]);
+					add(child, location[f][0], location[f][1], radius[f]);
+					first[child] = f;
+				}
+
+				node = getChild(node, x, y);
+				depth++;
+			}
+		}
+
+		/**
+		 * Adds a node with the given location and radius to the sums of the
+		 * given tree node.
+		 */
+		protected void add(int node, double x, double y, double r)
+		{
+			mass[node]++;
+			sumX[node] += x;
+			sumY[node] += y;
+			sumRadius[node] += r;
+		}
+
+		/**
+		 * Returns the child of the given tree node that contains the given
+		 * location or -1 if it does not exist.
+		 */
+		public int findChild(int node, double x, double y)
+		{
+			double half = size[node] / 2;
+			int k = 0;
+
+			if (x >= minX[node] + half)
+			{
+				k += 1;
+			}
+
+			if (y >= minY[node] + half)
+			{
+				k += 2;
+			}
+
+			return children[4 * node + k];
+		}
+
+		/**
+		 * Returns the child of the given tree node that contains the given
+		 * location, creating it if it does not exist.
+		 */
+		protected int getChild(int node, double x, double y)
+		{
+			double half = size[node] / 2;
+			int k = 0;
+			double cx = minX[node];
+			double cy = minY[node];
+
+			if (x >= cx + half)
+			{
+				k += 1;
+				cx += half;
+			}
+
+			if (y >= cy + half)
+			{
+				k += 2;
+				cy += half;
+			}
+
+			int child = children[4 * node + k];
+
+			if (child < 0)
+			{
+				child = createNode(cx, cy, half);
+				children[4 * node + k] = child;
+			}
+
+			return child;
+		}
+
+		/**
+		 * Creates a new tree node with the given bounds and returns its index.
+		 */
+		protected int createNode(double x, double y, double s)
+		{
+			if (count == first.length)
+			{
+				int capacity = Math.max(16, 2 * count);
+				children = Arrays.copyOf(children, 4 * capacity);
+				first = Arrays.copyOf(first, capacity);
+				mass = Arrays.copyOf(mass, capacity);
+				sumX = Arrays.copyOf(sumX, capacity);
+				sumY = Arrays.copyOf(sumY, capacity);
+				sumRadius = Arrays.copyOf(sumRadius, capacity);
+				minX = Arrays.copyOf(minX, capacity);
+				minY = Arrays.copyOf(minY, capacity);
+				size = Arrays.copyOf(size, capacity);
+			}
+
+			int node = count++;
+			Arrays.fill(children, 4 * node, 4 * node + 4, -1);
+			first[node] = EMPTY;
+			mass[node] = 0;
+			sumX[node] = 0;
+			sumY[node] = 0;
+			sumRadius[node] = 0;
+			minX[node] = x;
+			minY[node] = y;
+			size[node] = s;
+
+			return node;
+		}
+
+	}
+
 }
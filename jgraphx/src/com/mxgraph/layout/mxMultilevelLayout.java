@@ -0,0 +1,927 @@
+package com.mxgraph.layout;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.Hashtable;
+import java.util.List;
+import java.util.Set;
+
+import com.mxgraph.model.mxCell;
+import com.mxgraph.model.mxGeometry;
+import com.mxgraph.model.mxGraphModel;
+import com.mxgraph.model.mxICell;
+import com.mxgraph.model.mxIGraphModel;
+import com.mxgraph.util.mxRectangle;
+import com.mxgraph.view.mxGraph;
+
+/**
+ * Multilevel force-directed layout. The graph is coarsened by repeatedly
+ * merging the end points of a matching of its edges, until the graph has at
+ * most <minLevelSize> vertices or a matching no longer makes it much smaller.
+ * The coarsest graph is laid out with an mxFastOrganicLayout starting from
+ * the average locations of the merged vertices. Each finer graph then starts
+ * from the locations of the vertices it was merged into and is refined with
+ * a few iterations of mxFastOrganicLayout. A merged vertex is as large as the
+ * vertices it contains together, and the attraction along a merged edge is
+ * multiplied by the number of edges it contains. Since the overall shape is found
+ * on the small graphs, large and loosely connected graphs need much fewer
+ * iterations on the full graph than with mxFastOrganicLayout alone.
+ *
+ * The levels are laid out in separate graph models, so that the model of the
+ * graph is changed only once at the end. Like in mxFastOrganicLayout,
+ * vertices without connections are ignored. Vertices that are not movable
+ * are never merged and keep their location.
+ */
+public class mxMultilevelLayout extends mxGraphLayout
+{
+
+	/**
+	 * Specifies if the top left corner of the input cells should be the origin
+	 * of the layout result. Default is true.
+	 */
+	protected boolean useInputOrigin = true;
+
+	/**
+	 * Specifies if all edge points of traversed edges should be removed.
+	 * Default is true.
+	 */
+	protected boolean resetEdges = true;
+
+	/**
+	 * Specifies if the STYLE_NOEDGESTYLE flag should be set on edges that are
+	 * modified by the result. Default is true.
+	 */
+	protected boolean disableEdgeStyle = true;
+
+	/**
+	 * Force constant of the mxFastOrganicLayout of each level. Default is 50.
+	 */
+	protected double forceConstant = 50;
+
+	/**
+	 * Number of vertices below which the graph is not coarsened any further.
+	 * Default is 50.
+	 */
+	protected int minLevelSize = 50;
+
+	/**
+	 * Maximum ratio between the number of vertices of a coarse level and its
+	 * finer level. Coarsening stops if a matching does not reduce the number
+	 * of vertices below this ratio, eg. in star-shaped graphs. Default is 0.9.
+	 */
+	protected double maxLevelRatio = 0.9;
+
+	/**
+	 * Maximum number of levels, including the graph itself. Default is 30.
+	 */
+	protected int maxLevels = 30;
+
+	/**
+	 * Number of iterations for the coarsest level. Default is 0, which uses
+	 * the default of mxFastOrganicLayout.
+	 */
+	protected int coarsestIterations = 0;
+
+	/**
+	 * Number of iterations for refining each finer level. Default is 30.
+	 */
+	protected int refineIterations = 30;
+
+	/**
+	 * Specifies if the layout of each level should use the Barnes-Hut
+	 * approximation. See mxFastOrganicLayout.setApproximateRepulsion. Default
+	 * is false.
+	 */
+	protected boolean approximateRepulsion = false;
+
+	/**
+	 * Specifies if the layout of each level should compute the forces in
+	 * parallel. See mxFastOrganicLayout.setParallel. Default is false.
+	 */
+	protected boolean parallel = false;
+
+	/**
+	 * Constructs a new multilevel layout for the specified graph.
+	 */
+	public mxMultilevelLayout(mxGraph graph)
+	{
+		super(graph);
+	}
+
+	/**
+	 * Returns true if the given vertex is ignored by the layout. This returns
+	 * true if the vertex has no connections.
+	 *
+	 * @param vertex Object that represents the vertex to be tested.
+	 * @return Returns true if the vertex should be ignored.
+	 */
+	public boolean isVertexIgnored(Object vertex)
+	{
+		return super.isVertexIgnored(vertex)
+				|| graph.getConnections(vertex).length == 0;
+	}
+
+	/**
+	 *
+	 */
+	public boolean isUseInputOrigin()
+	{
+		return useInputOrigin;
+	}
+
+	/**
+	 *
+	 * @param value
+	 */
+	public void setUseInputOrigin(boolean value)
+	{
+		useInputOrigin = value;
+	}
+
+	/**
+	 *
+	 */
+	public boolean isResetEdges()
+	{
+		return resetEdges;
+	}
+
+	/**
+	 *
+	 * @param value
+	 */
+	public void setResetEdges(boolean value)
+	{
+		resetEdges = value;
+	}
+
+	/**
+	 *
+	 */
+	public boolean isDisableEdgeStyle()
+	{
+		return disableEdgeStyle;
+	}
+
+	/**
+	 *
+	 * @param value
+	 */
+	public void setDisableEdgeStyle(boolean value)
+	{
+		disableEdgeStyle = value;
+	}
+
+	/**
+	 *
+	 */
+	public double getForceConstant()
+	{
+		return forceConstant;
+	}
+
+	/**
+	 *
+	 * @param value
+	 */
+	public void setForceConstant(double value)
+	{
+		forceConstant = value;
+	}
+
+	/**
+	 *
+	 */
+	public int getMinLevelSize()
+	{
+		return minLevelSize;
+	}
+
+	/**
+	 *
+	 * @param value
+	 */
+	public void setMinLevelSize(int value)
+	{
+		minLevelSize = value;
+	}
+
+	/**
+	 *
+	 */
+	public double getMaxLevelRatio()
+	{
+		return maxLevelRatio;
+	}
+
+	/**
+	 *
+	 * @param value
+	 */
+	public void setMaxLevelRatio(double value)
+	{
+		maxLevelRatio = value;
+	}
+
+	/**
+	 *
+	 */
+	public int getMaxLevels()
+	{
+		return maxLevels;
+	}
+
+	/**
+	 *
+	 * @param value
+	 */
+	public void setMaxLevels(int value)
+	{
+		maxLevels = value;
+	}
+
+	/**
+	 *
+	 */
+	public int getCoarsestIterations()
+	{
+		return coarsestIterations;
+	}
+
+	/**
+	 *
+	 * @param value
+	 */
+	public void setCoarsestIterations(int value)
+	{
+		coarsestIterations = value;
+	}
+
+	/**
+	 *
+	 */
+	public int getRefineIterations()
+	{
+		return refineIterations;
+	}
+
+	/**
+	 *
+	 * @param value
+	 */
+	public void setRefineIterations(int value)
+	{
+		refineIterations = value;
+	}
+
+	/**
+	 *
+	 */
+	public boolean isApproximateRepulsion()
+	{
+		return approximateRepulsion;
+	}
+
+	/**
+	 *
+	 * @param value
+	 */
+	public void setApproximateRepulsion(boolean value)
+	{
+		approximateRepulsion = value;
+	}
+
+	/**
+	 *
+	 */
+	public boolean isParallel()
+	{
+		return parallel;
+	}
+
+	/**
+	 *
+	 * @param value
+	 */
+	public void setParallel(boolean value)
+	{
+		parallel = value;
+	}
+
+	/* (non-Javadoc)
+	 * @see com.mxgraph.layout.mxIGraphLayout#execute(java.lang.Object)
+	 */
+	public void execute(Object parent)
+	{
+		mxIGraphModel model = graph.getModel();
+
+		// Finds the relevant vertices for the layout
+		Object[] vertices = graph.getChildVertices(parent);
+		List<Object> tmp = new ArrayList<Object>(vertices.length);
+
+		for (int i = 0; i < vertices.length; i++)
+		{
+			if (!isVertexIgnored(vertices[i]))
+			{
+				tmp.add(vertices[i]);
+			}
+		}
+
+		Object[] vertexArray = tmp.toArray();
+
+		if (vertexArray.length == 0)
+		{
+			return;
+		}
+
+		mxRectangle initialBounds = (useInputOrigin) ? graph.getBoundsForCells(
+				vertexArray, false, false, true) : null;
+		Level level = createLevel(parent, vertexArray);
+		List<Level> levels = new ArrayList<Level>();
+		levels.add(level);
+
+		// Coarsens the graph
+		while (level.size > minLevelSize && levels.size() < maxLevels)
+		{
+			level = coarsen(level);
+
+			if (level == null)
+			{
+				break;
+			}
+
+			levels.add(level);
+		}
+
+		// Lays out the coarsest level and refines the finer levels
+		int last = levels.size() - 1;
+		layoutLevel(levels.get(last), coarsestIterations, 0);
+
+		for (int i = last - 1; i >= 0; i--)
+		{
+			interpolate(levels.get(i + 1), levels.get(i));
+			layoutLevel(levels.get(i), refineIterations, forceConstant);
+		}
+
+		level = levels.get(0);
+
+		// Moves the result to the top, left corner of the input cells
+		// unless vertices that are not movable define the location
+		double dx = 0;
+		double dy = 0;
+
+		if (initialBounds != null && !level.hasFixed())
+		{
+			double minx = Double.MAX_VALUE;
+			double miny = Double.MAX_VALUE;
+
+			for (int i = 0; i < level.size; i++)
+			{
+				minx = Math.min(minx, level.x[i] - level.width[i] / 2);
+				miny = Math.min(miny, level.y[i] - level.height[i] / 2);
+			}
+
+			dx = initialBounds.getX() - minx;
+			dy = initialBounds.getY() - miny;
+		}
+
+		model.beginUpdate();
+		try
+		{
+			for (int i = 0; i < vertexArray.length; i++)
+			{
+				Object[] edges = graph.getConnections(vertexArray[i], parent);
+
+				for (int k = 0; k < edges.length; k++)
+				{
+					if (isResetEdges())
+					{
+						graph.resetEdge(edges[k]);
+					}
+
+					if (isDisableEdgeStyle())
+					{
+						setEdgeStyleEnabled(edges[k], false);
+					}
+				}
+
+				mxGeometry geo = model.getGeometry(vertexArray[i]);
+
+				if (geo != null && !level.fixed[i])
+				{
+					setVertexLocation(vertexArray[i], graph.snap(level.x[i]
+							+ dx - geo.getWidth() / 2.0), graph.snap(level.y[i]
+							+ dy - geo.getHeight() / 2.0));
+				}
+			}
+		}
+		finally
+		{
+			model.endUpdate();
+		}
+	}
+
+	/**
+	 * Returns the finest level for the given vertices, which are the
+	 * children of the given parent.
+	 */
+	protected Level createLevel(Object parent, Object[] vertexArray)
+	{
+		int n = vertexArray.length;
+		Level level = new Level(n);
+		Hashtable<Object, Integer> indices = new Hashtable<Object, Integer>();
+
+		for (int i = 0; i < n; i++)
+		{
+			indices.put(vertexArray[i], Integer.valueOf(i));
+			mxRectangle bounds = getVertexBounds(vertexArray[i]);
+
+			level.x[i] = bounds.getCenterX();
+			level.y[i] = bounds.getCenterY();
+			level.width[i] = bounds.getWidth();
+			level.height[i] = bounds.getHeight();
+			level.area[i] = Math.max(1, bounds.getWidth() * bounds.getHeight());
+			level.weight[i] = 1;
+			level.fixed[i] = !isVertexMovable(vertexArray[i]);
+		}
+
+		int[] nodes = new int[n];
+		double[] weights = new double[n];
+		int[] slots = new int[n];
+		Arrays.fill(slots, -1);
+
+		for (int i = 0; i < n; i++)
+		{
+			Object[] edges = graph.getConnections(vertexArray[i], parent);
+			Object[] cells = graph.getOpposites(edges, vertexArray[i]);
+			int count = 0;
+
+			for (int j = 0; j < cells.length; j++)
+			{
+				Integer index = indices.get(cells[j]);
+
+				if (index != null)
+				{
+					count = level.addNeighbour(i, index.intValue(), 1, nodes,
+							weights, count, slots);
+				}
+			}
+
+			level.setNeighbours(i, nodes, weights, count, slots);
+		}
+
+		return level;
+	}
+
+	/**
+	 * Returns the next coarser level of the given level or null if the
+	 * matching does not reduce the number of vertices enough. This merges
+	 * each vertex with the unmatched neighbour that has the heaviest edge,
+	 * visiting light vertices first so that the weights stay balanced.
+	 */
+	protected Level coarsen(final Level fine)
+	{
+		int n = fine.size;
+		Integer[] order = new Integer[n];
+
+		for (int i = 0; i < n; i++)
+		{
+			order[i] = Integer.valueOf(i);
+		}
+
+		Arrays.sort(order, new Comparator<Integer>()
+		{
+			public int compare(Integer a, Integer b)
+			{
+				int result = Double.compare(fine.weight[a.intValue()],
+						fine.weight[b.intValue()]);
+
+				return (result != 0) ? result : a.compareTo(b);
+			}
+		});
+
+		int[] partner = new int[n];
+		Arrays.fill(partner, -1);
+
+		for (int k = 0; k < n; k++)
+		{
+			int u = order[k].intValue();
+
+			if (partner[u] < 0)
+			{
+				int best = u;
+				double bestWeight = 0;
+
+				if (!fine.fixed[u])
+				{
+					for (int m = 0; m < fine.neighbours[u].length; m++)
+					{
+						int v = fine.neighbours[u][m];
+						double w = fine.edgeWeights[u][m];
+
+						// Prefers heavy edges and then light vertices
+						if (partner[v] < 0
+								&& !fine.fixed[v]
+								&& (best == u || w > bestWeight || (w == bestWeight && fine.weight[v] < fine.weight[best])))
+						{
+							best = v;
+							bestWeight = w;
+						}
+					}
+				}
+
+				partner[u] = best;
+				partner[best] = u;
+			}
+		}
+
+		// Assigns the indices of the coarse vertices
+		int[] parents = new int[n];
+		int count = 0;
+
+		for (int i = 0; i < n; i++)
+		{
+			if (i <= partner[i])
+			{
+				parents[i] = count;
+				parents[partner[i]] = count;
+				count++;
+			}
+		}
+
+		if (count > n * maxLevelRatio)
+		{
+			return null;
+		}
+
+		fine.partner = partner;
+		fine.parent = parents;
+		Level coarse = new Level(count);
+
+		for (int i = 0; i < n; i++)
+		{
+			int p = parents[i];
+			coarse.x[p] += fine.x[i] * fine.weight[i];
+			coarse.y[p] += fine.y[i] * fine.weight[i];
+			coarse.weight[p] += fine.weight[i];
+			coarse.area[p] += fine.area[i];
+			coarse.fixed[p] = fine.fixed[i];
+		}
+
+		for (int p = 0; p < count; p++)
+		{
+			coarse.x[p] /= coarse.weight[p];
+			coarse.y[p] /= coarse.weight[p];
+			coarse.width[p] = Math.sqrt(coarse.area[p]);
+			coarse.height[p] = coarse.width[p];
+		}
+
+		// Merges the neighbours of the matched vertices
+		int[] nodes = new int[count];
+		double[] weights = new double[count];
+		int[] slots = new int[count];
+		Arrays.fill(slots, -1);
+
+		for (int i = 0; i < n; i++)
+		{
+			if (i <= partner[i])
+			{
+				int p = parents[i];
+				int size = mergeNeighbours(fine, coarse, i, nodes, weights, 0,
+						slots);
+
+				if (partner[i] != i)
+				{
+					size = mergeNeighbours(fine, coarse, partner[i], nodes,
+							weights, size, slots);
+				}
+
+				coarse.setNeighbours(p, nodes, weights, size, slots);
+			}
+		}
+
+		return coarse;
+	}
+
+	/**
+	 * Adds the coarse vertices of the neighbours of the given fine vertex to
+	 * the neighbours of its coarse vertex and returns the new count. See
+	 * Level.addNeighbour.
+	 */
+	protected int mergeNeighbours(Level fine, Level coarse, int u, int[] nodes,
+			double[] weights, int count, int[] slots)
+	{
+		int p = fine.parent[u];
+
+		for (int m = 0; m < fine.neighbours[u].length; m++)
+		{
+			count = coarse.addNeighbour(p, fine.parent[fine.neighbours[u][m]],
+					fine.edgeWeights[u][m], nodes, weights, count, slots);
+		}
+
+		return count;
+	}
+
+	/**
+	 * Sets the initial locations of the vertices of the given fine level to
+	 * the locations of the vertices of the coarse level they were merged
+	 * into. Two merged vertices are moved apart along the line between their
+	 * previous locations.
+	 */
+	protected void interpolate(Level coarse, Level fine)
+	{
+		int n = fine.size;
+		double[] x = new double[n];
+		double[] y = new double[n];
+
+		for (int i = 0; i < n; i++)
+		{
+			int p = fine.parent[i];
+			int j = fine.partner[i];
+			x[i] = coarse.x[p];
+			y[i] = coarse.y[p];
+
+			if (j != i)
+			{
+				double dx = fine.x[i] - fine.x[j];
+				double dy = fine.y[i] - fine.y[j];
+				double length = Math.sqrt(dx * dx + dy * dy);
+
+				// Uses a fixed direction if the vertices are at the same place
+				if (length == 0)
+				{
+					dx = (i < j) ? 1 : -1;
+					dy = 0;
+					length = 1;
+				}
+
+				double offset = coarse.width[p] / 4;
+				x[i] += dx / length * offset;
+				y[i] += dy / length * offset;
+			}
+		}
+
+		for (int i = 0; i < n; i++)
+		{
+			if (!fine.fixed[i])
+			{
+				fine.x[i] = x[i];
+				fine.y[i] = y[i];
+			}
+		}
+	}
+
+	/**
+	 * Lays out the given level with the layout returned by
+	 * <createLevelLayout> in a new graph and stores the resulting locations
+	 * in the level.
+	 *
+	 * @param level Level to be laid out.
+	 * @param iterations Number of iterations or 0 for the default.
+	 * @param temperature Initial temperature or 0 for the default.
+	 */
+	protected void layoutLevel(Level level, int iterations, double temperature)
+	{
+		int n = level.size;
+		mxGraphModel model = new mxGraphModel();
+		mxICell layer = ((mxICell) model.getRoot()).getChildAt(0);
+		mxCell[] cells = new mxCell[n];
+		final Set<Object> fixedCells = new HashSet<Object>();
+
+		for (int i = 0; i < n; i++)
+		{
+			cells[i] = new mxCell(null, new mxGeometry(level.x[i]
+					- level.width[i] / 2, level.y[i] - level.height[i] / 2,
+					level.width[i], level.height[i]), null);
+			cells[i].setVertex(true);
+			layer.insert(cells[i]);
+
+			if (level.fixed[i])
+			{
+				fixedCells.add(cells[i]);
+			}
+		}
+
+		for (int i = 0; i < n; i++)
+		{
+			for (int k = 0; k < level.neighbours[i].length; k++)
+			{
+				int j = level.neighbours[i][k];
+
+				if (i < j)
+				{
+					mxGeometry geo = new mxGeometry();
+					geo.setRelative(true);
+
+					// The weight is used as the attraction of the edge
+					mxCell edge = new mxCell(Double
+							.valueOf(level.edgeWeights[i][k]), geo, null);
+					edge.setEdge(true);
+					cells[i].insertEdge(edge, true);
+					cells[j].insertEdge(edge, false);
+					layer.insert(edge);
+				}
+			}
+		}
+
+		mxGraph levelGraph = new mxGraph(model)
+		{
+			public boolean isCellMovable(Object cell)
+			{
+				return !fixedCells.contains(cell);
+			}
+		};
+		mxFastOrganicLayout layout = createLevelLayout(levelGraph);
+		layout.setMaxIterations(iterations);
+
+		if (temperature > 0)
+		{
+			layout.setInitialTemp(temperature);
+		}
+
+		layout.execute(layer);
+
+		// Keeps the vertices that are not movable in place
+		double dx = 0;
+		double dy = 0;
+
+		for (int i = 0; i < n; i++)
+		{
+			if (level.fixed[i])
+			{
+				dx = level.x[i] - cells[i].getGeometry().getCenterX();
+				dy = level.y[i] - cells[i].getGeometry().getCenterY();
+
+				break;
+			}
+		}
+
+		for (int i = 0; i < n; i++)
+		{
+			level.x[i] = cells[i].getGeometry().getCenterX() + dx;
+			level.y[i] = cells[i].getGeometry().getCenterY() + dy;
+		}
+	}
+
+	/**
+	 * Returns the layout for the given graph of a level. The level graph is
+	 * discarded after the layout, so the layout should not change edges. The
+	 * value of each edge in the level graph is its weight, which this
+	 * implementation uses as the attraction between its terminals.
+	 */
+	protected mxFastOrganicLayout createLevelLayout(mxGraph levelGraph)
+	{
+		mxFastOrganicLayout layout = new mxFastOrganicLayout(levelGraph)
+		{
+			public double getAttractionWeight(Object vertex, Object neighbour)
+			{
+				Object[] edges = mxGraphModel.getEdgesBetween(graph
+						.getModel(), vertex, neighbour);
+				double weight = 0;
+
+				for (int i = 0; i < edges.length; i++)
+				{
+					Object value = graph.getModel().getValue(edges[i]);
+					weight += (value instanceof Double) ? ((Double) value)
+							.doubleValue() : 1;
+				}
+
+				return (weight > 0) ? weight : 1;
+			}
+		};
+
+		layout.setForceConstant(forceConstant);
+		layout.setApproximateRepulsion(approximateRepulsion);
+		layout.setParallel(parallel);
+		layout.setUseInputOrigin(false);
+		layout.setResetEdges(false);
+		layout.setDisableEdgeStyle(false);
+		layout.setUseBoundingBox(false);
+
+		return layout;
+	}
+
+	/**
+	 * Returns <code>Multilevel</code>, the name of this algorithm.
+	 */
+	public String toString()
+	{
+		return "Multilevel";
+	}
+
+	/**
+	 * Vertices and weighted edges of one level. The weight of a vertex is the
+	 * number of vertices of the graph it contains, the weight of an edge is
+	 * the number of edges of the graph it contains.
+	 */
+	protected static class Level
+	{
+
+		protected int size;
+
+		/**
+		 * Center, size, area and weight of each vertex.
+		 */
+		protected double[] x, y, width, height, area, weight;
+
+		/**
+		 * Specifies for each vertex if it must keep its location.
+		 */
+		protected boolean[] fixed;
+
+		/**
+		 * Indices of the neighbours of each vertex and the weights of the
+		 * edges to them.
+		 */
+		protected int[][] neighbours;
+
+		protected double[][] edgeWeights;
+
+		/**
+		 * Index of the vertex each vertex was matched with (itself if it was
+		 * not matched) and of the vertex in the next coarser level. These are
+		 * null for the coarsest level.
+		 */
+		protected int[] partner, parent;
+
+		public Level(int size)
+		{
+			this.size = size;
+			x = new double[size];
+			y = new double[size];
+			width = new double[size];
+			height = new double[size];
+			area = new double[size];
+			weight = new double[size];
+			fixed = new boolean[size];
+			neighbours = new int[size][];
+			edgeWeights = new double[size][];
+		}
+
+		/**
+		 * Returns true if any vertex must keep its location.
+		 */
+		public boolean hasFixed()
+		{
+			for (int i = 0; i < size; i++)
+			{
+				if (fixed[i])
+				{
+					return true;
+				}
+			}
+
+			return false;
+		}
+
+		/**
+		 * Adds the given neighbour to the first count entries of nodes and
+		 * weights, or adds the weight if the neighbour is already there, and
+		 * returns the new count. Slots maps from neighbours to their entries
+		 * and must be -1 for all other vertices.
+		 */
+		protected int addNeighbour(int i, int neighbour, double weight,
+				int[] nodes, double[] weights, int count, int[] slots)
+		{
+			if (neighbour == i)
+			{
+				return count;
+			}
+
+			int slot = slots[neighbour];
+
+			if (slot >= 0)
+			{
+				weights[slot] += weight;
+
+				return count;
+			}
+
+			slots[neighbour] = count;
+			nodes[count] = neighbour;
+			weights[count] = weight;
+
+			return count + 1;
+		}
+
+		/**
+		 * Stores the first count neighbours for the given vertex and resets
+		 * their slots.
+		 */
+		protected void setNeighbours(int i, int[] nodes, double[] weights,
+				int count, int[] slots)
+		{
+			neighbours[i] = Arrays.copyOf(nodes, count);
+			edgeWeights[i] = Arrays.copyOf(weights, count);
+
+			for (int k = 0; k < count; k++)
+			{
+				slots[nodes[k]] = -1;
+			}
+		}
+
+	}
+
+}
@@ -12,6 +12,8 @@ import java.util.ArrayList;
 import java.util.Hashtable;
 import java.util.Iterator;
 import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
 
 import com.mxgraph.model.mxIGraphModel;
 import com.mxgraph.util.mxRectangle;
@@ -293,6 +295,33 @@ public class mxOrganicLayout extends mxGraphLayout
 	 */
 	protected boolean approxNodeDimensions = true;
 
+	/**
+	 * Specifies if the energy sums over all nodes or edges should be computed
+	 * by multiple threads. The nodes and edges are split into ranges of
+	 * <code>chunkSize</code> elements whose sums are added in a fixed order,
+	 * so that the result does not depend on the number of threads. Default is
+	 * false.
+	 */
+	protected boolean parallel = false;
+
+	/**
+	 * Number of nodes or edges that are summed by a single task in parallel
+	 * mode. Sums over fewer elements are computed by the calling thread.
+	 * Default is 512.
+	 */
+	protected int chunkSize = 512;
+
+	/**
+	 * Kinds of energy sums for <code>getEnergy</code>.
+	 */
+	protected static final int NODE_DISTRIBUTION = 0;
+
+	protected static final int EDGE_CROSSING = 1;
+
+	protected static final int EDGE_DISTANCE_FROM_NODE = 2;
+
+	protected static final int EDGE_DISTANCE_FROM_EDGE = 3;
+
 	/**
 	 * Internal models collection of nodes ( vertices ) to be laid out
 	 */
@@ -720,58 +749,77 @@ public class mxOrganicLayout extends mxGraphLayout
 	{
 		double energy = 0.0;
 
+		if (isOptimizeNodeDistribution == true)
+		{
+			energy = getEnergy(NODE_DISTRIBUTION, i, v.length);
+		}
+
+		return energy;
+	}
+
+	/**
+	 * Calculates the energy cost of the specified node relative to the nodes
+	 * in the given range of indices.
+	 * 
+	 * @param i the index of the node in the array <code>v</code>
+	 * @param from the first index of the range in the array <code>v</code>
+	 * @param to the index after the last index of the range
+	 * @return the node distribution energy of the specified node 
+	 */
+	protected double getNodeDistribution(int i, int from, int to)
+	{
+		double energy = 0.0;
+
 		// This check is placed outside of the inner loop for speed, even
 		// though the code then has to be duplicated
-		if (isOptimizeNodeDistribution == true)
+		if (approxNodeDimensions)
 		{
-			if (approxNodeDimensions)
+			for (int j = from; j < to; j++)
 			{
-				for (int j = 0; j < v.length; j++)
+				if (i != j)
 				{
-					if (i != j)
+					double vx = v[i].x - v[j].x;
+					double vy = v[i].y - v[j].y;
+					double distanceSquared = vx * vx + vy * vy;
+					distanceSquared -= v[i].radiusSquared;
+					distanceSquared -= v[j].radiusSquared;
+
+					// prevents from dividing with Zero.
+					if (distanceSquared < minDistanceLimitSquared)
 					{
-						double vx = v[i].x - v[j].x;
-						double vy = v[i].y - v[j].y;
-						double distanceSquared = vx * vx + vy * vy;
-						distanceSquared -= v[i].radiusSquared;
-						distanceSquared -= v[j].radiusSquared;
-
-						// prevents from dividing with Zero.
-						if (distanceSquared < minDistanceLimitSquared)
-						{
-							distanceSquared = minDistanceLimitSquared;
-						}
-
-						energy += nodeDistributionCostFactor / distanceSquared;
+						distanceSquared = minDistanceLimitSquared;
 					}
+
+					energy += nodeDistributionCostFactor / distanceSquared;
 				}
 			}
-			else
+		}
+		else
+		{
+			for (int j = from; j < to; j++)
 			{
-				for (int j = 0; j < v.length; j++)
+				if (i != j)
 				{
-					if (i != j)
+					double vx = v[i].x - v[j].x;
+					double vy = v[i].y - v[j].y;
+					double distanceSquared = vx * vx + vy * vy;
+					distanceSquared -= v[i].radiusSquared;
+					distanceSquared -= v[j].radiusSquared;
+					// If the height separation indicates overlap, subtract
+					// the widths from the distance. Same for width overlap
+					// TODO						if ()
+
+					// prevents from dividing with Zero.
+					if (distanceSquared < minDistanceLimitSquared)
 					{
-						double vx = v[i].x - v[j].x;
-						double vy = v[i].y - v[j].y;
-						double distanceSquared = vx * vx + vy * vy;
-						distanceSquared -= v[i].radiusSquared;
-						distanceSquared -= v[j].radiusSquared;
-						// If the height separation indicates overlap, subtract
-						// the widths from the distance. Same for width overlap
-						// TODO						if ()
-
-						// prevents from dividing with Zero.
-						if (distanceSquared < minDistanceLimitSquared)
-						{
-							distanceSquared = minDistanceLimitSquared;
-						}
-
-						energy += nodeDistributionCostFactor / distanceSquared;
+						distanceSquared = minDistanceLimitSquared;
 					}
+
+					energy += nodeDistributionCostFactor / distanceSquared;
 				}
 			}
 		}
+
 		return energy;
 	}
 
@@ -880,6 +928,27 @@ public class mxOrganicLayout extends mxGraphLayout
 	 * @return the total edge crossing energy of the specified edge 
 	 */
 	protected double getEdgeCrossing(int i)
+	{
+		double energy = 0.0;
+
+		if (isOptimizeEdgeCrossing)
+		{
+			energy = getEnergy(EDGE_CROSSING, i, e.length);
+		}
+
+		return energy;
+	}
+
+	/**
+	 * This method calculates the energy of the specified edge crossing the
+	 * edges in the given range of indices.
+	 * 
+	 * @param i the index of the edge in the array <code>e</code>
+	 * @param from the first index of the range in the array <code>e</code>
+	 * @param to the index after the last index of the range
+	 * @return the edge crossing energy of the specified edge 
+	 */
+	protected double getEdgeCrossing(int i, int from, int to)
 	{
 		// TODO Could have a cost function per edge
 		int n = 0; // counts energy of edgecrossings through edge i
@@ -888,105 +957,102 @@ public class mxOrganicLayout extends mxGraphLayout
 		// checks
 		double minjX, minjY, miniX, miniY, maxjX, maxjY, maxiX, maxiY;
 
-		if (isOptimizeEdgeCrossing)
-		{
-			double iP1X = v[e[i].source].x;
-			double iP1Y = v[e[i].source].y;
-			double iP2X = v[e[i].target].x;
-			double iP2Y = v[e[i].target].y;
+		double iP1X = v[e[i].source].x;
+		double iP1Y = v[e[i].source].y;
+		double iP2X = v[e[i].target].x;
+		double iP2Y = v[e[i].target].y;
 
-			for (int j = 0; j < e.length; j++)
+		for (int j = from; j < to; j++)
+		{
+			double jP1X = v[e[j].source].x;
+			double jP1Y = v[e[j].source].y;
+			double jP2X = v[e[j].target].x;
+			double jP2Y = v[e[j].target].y;
+			if (j != i)
 			{
-				double jP1X = v[e[j].source].x;
-				double jP1Y = v[e[j].source].y;
-				double jP2X = v[e[j].target].x;
-				double jP2Y = v[e[j].target].y;
-				if (j != i)
+				// First check is to see if the minimum bounding rectangles
+				// of the edges overlap at all. Since the layout tries
+				// to separate nodes and shorten edges, the majority do not
+				// overlap and this is a cheap way to avoid most of the
+				// processing
+				// Some long code to avoid a Math.max call...
+				if (iP1X < iP2X)
 				{
-					// First check is to see if the minimum bounding rectangles
-					// of the edges overlap at all. Since the layout tries
-					// to separate nodes and shorten edges, the majority do not
-					// overlap and this is a cheap way to avoid most of the
-					// processing
-					// Some long code to avoid a Math.max call...
-					if (iP1X < iP2X)
-					{
-						miniX = iP1X;
-						maxiX = iP2X;
-					}
-					else
-					{
-						miniX = iP2X;
-						maxiX = iP1X;
-					}
-					if (jP1X < jP2X)
-					{
-						minjX = jP1X;
-						maxjX = jP2X;
-					}
-					else
-					{
-						minjX = jP2X;
-						maxjX = jP1X;
-					}
-					if (maxiX < minjX || miniX > maxjX)
-					{
-						continue;
-					}
+					miniX = iP1X;
+					maxiX = iP2X;
+				}
+				else
+				{
+					miniX = iP2X;
+					maxiX = iP1X;
+				}
+				if (jP1X < jP2X)
+				{
+					minjX = jP1X;
+					maxjX = jP2X;
+				}
+				else
+				{
+					minjX = jP2X;
+					maxjX = jP1X;
+				}
+				if (maxiX < minjX || miniX > maxjX)
+				{
+					continue;
+				}
 
-					if (iP1Y < iP2Y)
-					{
-						miniY = iP1Y;
-						maxiY = iP2Y;
-					}
-					else
-					{
-						miniY = iP2Y;
-						maxiY = iP1Y;
-					}
-					if (jP1Y < jP2Y)
-					{
-						minjY = jP1Y;
-						maxjY = jP2Y;
-					}
-					else
-					{
-						minjY = jP2Y;
-						maxjY = jP1Y;
-					}
-					if (maxiY < minjY || miniY > maxjY)
-					{
-						continue;
-					}
+				if (iP1Y < iP2Y)
+				{
+					miniY = iP1Y;
+					maxiY = iP2Y;
+				}
+				else
+				{
+					miniY = iP2Y;
+					maxiY = iP1Y;
+				}
+				if (jP1Y < jP2Y)
+				{
+					minjY = jP1Y;
+					maxjY = jP2Y;
+				}
+				else
+				{
+					minjY = jP2Y;
+					maxjY = jP1Y;
+				}
+				if (maxiY < minjY || miniY > maxjY)
+				{
+					continue;
+				}
 
-					// Ignore if any end points are coincident
-					if (((iP1X != jP1X) && (iP1Y != jP1Y))
-							&& ((iP1X != jP2X) && (iP1Y != jP2Y))
-							&& ((iP2X != jP1X) && (iP2Y != jP1Y))
-							&& ((iP2X != jP2X) && (iP2Y != jP2Y)))
+				// Ignore if any end points are coincident
+				if (((iP1X != jP1X) && (iP1Y != jP1Y))
+						&& ((iP1X != jP2X) && (iP1Y != jP2Y))
+						&& ((iP2X != jP1X) && (iP2Y != jP1Y))
+						&& ((iP2X != jP2X) && (iP2Y != jP2Y)))
+				{
+					// Values of zero returned from Line2D.relativeCCW are
+					// ignored because the point being exactly on the line
+					// is very rare for double and we've already checked if
+					// any end point share the same vertex. Should zero
+					// ever be returned, it would be the vertex connected
+					// to the edge that's actually on the edge and this is
+					// dealt with by the node to edge distance cost
+					// function. The worst case is that the vertex is
+					// pushed off the edge faster than it would be
+					// otherwise. Because of ignoring the zero this code
+					// below can behave like only a 1 or -1 will be
+					// returned. See Lines2D.linesIntersects().
+					boolean intersects = ((Line2D.relativeCCW(iP1X, iP1Y,
+							iP2X, iP2Y, jP1X, jP1Y) != Line2D.relativeCCW(
+							iP1X, iP1Y, iP2X, iP2Y, jP2X, jP2Y)) && (Line2D
+							.relativeCCW(jP1X, jP1Y, jP2X, jP2Y, iP1X, iP1Y) != Line2D
+							.relativeCCW(jP1X, jP1Y, jP2X, jP2Y, iP2X, iP2Y)));
+
+					if (intersects)
 					{
-						// Values of zero returned from Line2D.relativeCCW are
-						// ignored because the point being exactly on the line
-						// is very rare for double and we've already checked if
-						// any end point share the same vertex. Should zero
-						// ever be returned, it would be the vertex connected
-						// to the edge that's actually on the edge and this is
-						// dealt with by the node to edge distance cost
-						// function. The worst case is that the vertex is
-						// pushed off the edge faster than it would be
-						// otherwise. Because of ignoring the zero this code
-						// below can behave like only a 1 or -1 will be
-						// returned. See Lines2D.linesIntersects().
-						boolean intersects = ((Line2D.relativeCCW(iP1X, iP1Y,
-								iP2X, iP2Y, jP1X, jP1Y) != Line2D.relativeCCW(
-								iP1X, iP1Y, iP2X, iP2Y, jP2X, jP2Y)) && (Line2D
-								.relativeCCW(jP1X, jP1Y, jP2X, jP2Y, iP1X, iP1Y) != Line2D
-								.relativeCCW(jP1X, jP1Y, jP2X, jP2Y, iP2X, iP2Y)));
-
-						if (intersects)
-						{
-							n++;
-						}
+						n++;
 					}
 				}
 			}
@@ -1009,29 +1075,46 @@ public class mxOrganicLayout extends mxGraphLayout
 		// This function is only performed during fine tuning for performance
 		if (isOptimizeEdgeDistance && isFineTuning)
 		{
-			int[] edges = v[i].relevantEdges;
-			for (int j = 0; j < edges.length; j++)
-			{
-				// Note that the distance value is squared
-				double distSquare = Line2D.ptSegDistSq(v[e[edges[j]].source].x,
-						v[e[edges[j]].source].y, v[e[edges[j]].target].x,
-						v[e[edges[j]].target].y, v[i].x, v[i].y);
+			energy = getEnergy(EDGE_DISTANCE_FROM_NODE, i,
+					v[i].relevantEdges.length);
+		}
+		return energy;
+	}
 
-				distSquare -= v[i].radiusSquared;
+	/**
+	 * This method calculates the energy of the distance from the specified
+	 * node to the relevant edges of the node in the given range of indices.
+	 * 
+	 * @param i the index of the node in the array <code>v</code>
+	 * @param from the first index of the range in the relevant edges
+	 * @param to the index after the last index of the range
+	 * @return the edge distance energy of the node
+	 */
+	protected double getEdgeDistanceFromNode(int i, int from, int to)
+	{
+		double energy = 0.0;
+		int[] edges = v[i].relevantEdges;
+		for (int j = from; j < to; j++)
+		{
+			// Note that the distance value is squared
+			double distSquare = Line2D.ptSegDistSq(v[e[edges[j]].source].x,
+					v[e[edges[j]].source].y, v[e[edges[j]].target].x,
+					v[e[edges[j]].target].y, v[i].x, v[i].y);
 
-				// prevents from dividing with Zero. No Math.abs() call
-				// for performance
-				if (distSquare < minDistanceLimitSquared)
-				{
-					distSquare = minDistanceLimitSquared;
-				}
+			distSquare -= v[i].radiusSquared;
 
-				// Only bother with the divide if the node and edge are
-				// fairly close together
-				if (distSquare < maxDistanceLimitSquared)
-				{
-					energy += edgeDistanceCostFactor / distSquare;
-				}
+			// prevents from dividing with Zero. No Math.abs() call
+			// for performance
+			if (distSquare < minDistanceLimitSquared)
+			{
+				distSquare = minDistanceLimitSquared;
+			}
+
+			// Only bother with the divide if the node and edge are
+			// fairly close together
+			if (distSquare < maxDistanceLimitSquared)
+			{
+				energy += edgeDistanceCostFactor / distSquare;
 			}
 		}
 		return energy;
@@ -1072,34 +1155,112 @@ public class mxOrganicLayout extends mxGraphLayout
 		// This function is only performed during fine tuning for performance
 		if (isOptimizeEdgeDistance && isFineTuning)
 		{
-			for (int j = 0; j < v.length; j++)
+			energy = getEnergy(EDGE_DISTANCE_FROM_EDGE, i, v.length);
+		}
+		return energy;
+	}
+
+	/**
+	 * This method calculates the energy of the distance from the specified
+	 * edge to the unconnected nodes in the given range of indices.
+	 * 
+	 * @param i the index of the edge in the array <code>e</code>
+	 * @param from the first index of the range in the array <code>v</code>
+	 * @param to the index after the last index of the range
+	 * @return the edge distance energy of the edge
+	 */
+	protected double getEdgeDistanceFromEdge(int i, int from, int to)
+	{
+		double energy = 0.0;
+		for (int j = from; j < to; j++)
+		{
+			// Don't calculate for connected nodes
+			if (e[i].source != j && e[i].target != j)
 			{
-				// Don't calculate for connected nodes
-				if (e[i].source != j && e[i].target != j)
-				{
-					double distSquare = Line2D.ptSegDistSq(v[e[i].source].x,
-							v[e[i].source].y, v[e[i].target].x,
-							v[e[i].target].y, v[j].x, v[j].y);
+				double distSquare = Line2D.ptSegDistSq(v[e[i].source].x,
+						v[e[i].source].y, v[e[i].target].x, v[e[i].target].y,
+						v[j].x, v[j].y);
 
-					distSquare -= v[j].radiusSquared;
+				distSquare -= v[j].radiusSquared;
 
-					// prevents from dividing with Zero. No Math.abs() call
-					// for performance
-					if (distSquare < minDistanceLimitSquared)
-						distSquare = minDistanceLimitSquared;
+				// prevents from dividing with Zero. No Math.abs() call
+				// for performance
+				if (distSquare < minDistanceLimitSquared)
+					distSquare = minDistanceLimitSquared;
 
-					// Only bother with the divide if the node and edge are
-					// fairly close together
-					if (distSquare < maxDistanceLimitSquared)
-					{
-						energy += edgeDistanceCostFactor / distSquare;
-					}
+				// Only bother with the divide if the node and edge are
+				// fairly close together
+				if (distSquare < maxDistanceLimitSquared)
+				{
+					energy += edgeDistanceCostFactor / distSquare;
 				}
 			}
 		}
 		return energy;
 	}
 
+	/**
+	 * Returns the energy sum of the given kind for the specified node or edge
+	 * over count nodes or edges. In parallel mode, sums over more than
+	 * <code>chunkSize</code> elements are split into chunks that are computed
+	 * by the pool returned by <code>getPool</code>.
+	 * 
+	 * @param kind the kind of the sum, eg. <code>NODE_DISTRIBUTION</code>
+	 * @param i the index of the node or edge
+	 * @param count the number of elements to sum over
+	 * @return the total energy
+	 */
+	protected double getEnergy(int kind, int i, int count)
+	{
+		if (!parallel || count <= chunkSize)
+		{
+			return getEnergy(kind, i, 0, count);
+		}
+
+		double[] sums = new double[(count + chunkSize - 1) / chunkSize];
+		getPool().invoke(new EnergyTask(kind, i, count, sums, 0, sums.length));
+
+		// Adds the sums of the chunks in a fixed order
+		double energy = 0.0;
+
+		for (int k = 0; k < sums.length; k++)
+		{
+			energy += sums[k];
+		}
+
+		return energy;
+	}
+
+	/**
+	 * Returns the energy sum of the given kind for the specified node or edge
+	 * over the given range of nodes or edges.
+	 */
+	protected double getEnergy(int kind, int i, int from, int to)
+	{
+		switch (kind)
+		{
+			case NODE_DISTRIBUTION:
+				return getNodeDistribution(i, from, to);
+			case EDGE_CROSSING:
+				return getEdgeCrossing(i, from, to);
+			case EDGE_DISTANCE_FROM_NODE:
+				return getEdgeDistanceFromNode(i, from, to);
+			case EDGE_DISTANCE_FROM_EDGE:
+				return getEdgeDistanceFromEdge(i, from, to);
+		}
+
+		return 0.0;
+	}
+
+	/**
+	 * Returns the pool that runs the tasks in parallel mode. This
+	 * implementation returns the common pool.
+	 */
+	protected ForkJoinPool getPool()
+	{
+		return ForkJoinPool.commonPool();
+	}
+
 	/**
 	 * Hook method to adding additional energy factors into the layout.
 	 * Calculates the energy just for the specified node.
@@ -1190,6 +1351,48 @@ public class mxOrganicLayout extends mxGraphLayout
 		return "Organic";
 	}
 
+	/**
+	 * Task that computes the energy sums of a range of chunks and stores them
+	 * in the given array, splitting ranges of more than one chunk.
+	 */
+	protected class EnergyTask extends RecursiveAction
+	{
+
+		private static final long serialVersionUID = 1L;
+
+		protected int kind, index, count, first, last;
+
+		protected double[] sums;
+
+		public EnergyTask(int kind, int index, int count, double[] sums,
+				int first, int last)
+		{
+			this.kind = kind;
+			this.index = index;
+			this.count = count;
+			this.sums = sums;
+			this.first = first;
+			this.last = last;
+		}
+
+		protected void compute()
+		{
+			if (last - first > 1)
+			{
+				int mid = (first + last) >>> 1;
+				invokeAll(new EnergyTask(kind, index, count, sums, first, mid),
+						new EnergyTask(kind, index, count, sums, mid, last));
+			}
+			else
+			{
+				int from = first * chunkSize;
+				sums[first] = getEnergy(kind, index, from, Math.min(count,
+						from + chunkSize));
+			}
+		}
+
+	}
+
 	/**
 	 * Internal representation of a node or edge that holds cached information
 	 * to enable the layout to perform more quickly and to simplify the code
@@ -1745,4 +1948,36 @@ public class mxOrganicLayout extends mxGraphLayout
 	{
 		this.approxNodeDimensions = approxNodeDimensions;
 	}
+
+	/**
+	 * @return the parallel
+	 */
+	public boolean isParallel()
+	{
+		return parallel;
+	}
+
+	/**
+	 * @param parallel the parallel to set
+	 */
+	public void setParallel(boolean parallel)
+	{
+		this.parallel = parallel;
+	}
+
+	/**
+	 * @return the chunkSize
+	 */
+	public int getChunkSize()
+	{
+		return chunkSize;
+	}
+
+	/**
+	 * @param chunkSize the chunkSize to set
+	 */
+	public void setChunkSize(int chunkSize)
+	{
+		this.chunkSize = chunkSize;
+	}
 }
@@ -12,6 +12,8 @@ import com.mxgraph.model.mxIGraphModel;
 import com.mxgraph.swing.handler.*;
 import com.mxgraph.swing.util.mxCellOverlay;
 import com.mxgraph.swing.util.mxICellOverlay;
+import com.mxgraph.swing.util.mxGraphSnapshot;
+import com.mxgraph.swing.util.mxTileCache;
 import com.mxgraph.swing.view.mxCellEditor;
 import com.mxgraph.swing.view.mxICellEditor;
 import com.mxgraph.swing.view.mxInteractiveCanvas;
@@ -24,7 +26,6 @@ import com.mxgraph.view.mxEdgeStyle.mxEdgeStyleFunction;
 import javax.swing.*;
 import java.awt.*;
 import java.awt.event.*;
-import java.awt.image.BufferedImage;
 import java.awt.print.PageFormat;
 import java.awt.print.Printable;
 import java.beans.PropertyChangeEvent;
@@ -201,14 +202,10 @@ public class mxGraphComponent extends JScrollPane implements Printable
 	protected mxInteractiveCanvas canvas;
 
 	/**
-	 * 
-	 */
-	protected BufferedImage tripleBuffer;
-
-	/**
-	 * 
+	 * Renders the graph into cached tiles on worker threads if tripleBuffered
+	 * is true.
 	 */
-	protected Graphics2D tripleBufferGraphics;
+	protected mxTileCache tileCache;
 
 	/**
 	 * Defines the scaling for the background page metrics. Default is
@@ -395,11 +392,36 @@ public class mxGraphComponent extends JScrollPane implements Printable
 	protected boolean centerZoom = true;
 
 	/**
-	 * Specifies if an image buffer should be used for painting the
-	 * component. Default is false.
+	 * Specifies if the graph should be painted from tiles that are rendered
+	 * off-screen on worker threads, see mxTileCache. Default is false.
 	 */
 	protected boolean tripleBuffered = false;
 
+	/**
+	 * Level of detail: scale below which labels are not painted. Default is
+	 * 0.
+	 */
+	protected double hideLabelScale = 0;
+
+	/**
+	 * Level of detail: scale below which labels are painted as greeked bars.
+	 * Default is 0.
+	 */
+	protected double greekLabelScale = 0;
+
+	/**
+	 * Level of detail: scale below which shapes are painted without
+	 * shadows, gradients and rounded corners and edges are painted as plain
+	 * polylines without markers. Default is 0.
+	 */
+	protected double simpleShapeScale = 0;
+
+	/**
+	 * Level of detail: scale below which vertices with children are painted
+	 * as filled boxes without their children. Default is 0.
+	 */
+	protected double clusterBoxScale = 0;
+
 	/**
 	 * Used for debugging the dirty region.
 	 */
@@ -638,7 +660,15 @@ public class mxGraphComponent extends JScrollPane implements Printable
 
 		});
 
-		setValidator(new Validator(this));
+		setValidator(createValidator());
+	}
+
+	/**
+	 * 
+	 */
+	protected Validator createValidator()
+	{
+		return new Validator(this);
 	}
 
 	public void setValidator(Validator v) {
@@ -1779,12 +1809,18 @@ public class mxGraphComponent extends JScrollPane implements Printable
 	}
 	/**
 	 * Returns the bottom-most cell that intersects the given point (x, y) in
-	 * the cell hierarchy starting at the given parent.
+	 * the cell hierarchy starting at the given parent. The candidates are
+	 * obtained from the spatial index of the view, and the result is the
+	 * first hit in the order of a traversal that visits the children in
+	 * reverse order and each cell after its descendants.
 	 * 
 	 * @param x X-coordinate of the location to be checked.
 	 * @param y Y-coordinate of the location to be checked.
 	 * @param parent  <mxCell> that should be used as the root of the recursion.
 	 * Default is <defaultParent>.
+	 * @param avoidThis Cell that is ignored together with its descendants.
+	 * @param onlyNodes If true only vertices whose ancestors up to parent
+	 * are vertices are returned.
 	 * @return Returns the child at the given location.
 	 */
 	public Object getCellAt(int x, int y, boolean hitSwimlaneContent,Object parent,Object avoidThis,boolean onlyNodes)
@@ -1798,48 +1834,103 @@ public class mxGraphComponent extends JScrollPane implements Printable
 
 		if (parent != null && (parent!=avoidThis) && (!onlyNodes || model.isVertex(parent)))
 		{
-			Point previousTranslate = canvas.getTranslate();
-			double previousScale = canvas.getScale();
-
-			try
-			{
-				canvas.setScale(graph.getView().getScale());
-				canvas.setTranslate(0, 0);
-
-				mxGraphView view = graph.getView();
+			// The hit-detection only uses the cell states, not the state of the
+			// canvas, so that it can run in other threads (e.g. validation)
+			mxGraphView view = graph.getView();
 
-				Rectangle hit = new Rectangle(x, y, 1, 1);				
-				int childCount = model.getChildCount(parent);
+			Rectangle hit = new Rectangle(x, y, 1, 1);
+			List<Object> candidates = view.getSpatialIndex().getCells(x, y, getTolerance() + 1);
+			Object result = null;
+			int[] resultPath = null;
 
-				for (int i = childCount - 1; i >= 0; i--)
+			for (Object cell : candidates)
+			{
+				if (cell != parent)
 				{
-					Object cell = model.getChildAt(parent, i);
-					if (!onlyNodes || model.isVertex(cell)) {
-						Object result = getCellAt(x, y, hitSwimlaneContent, cell,avoidThis,onlyNodes);
+					int[] path = getHitPath(model, parent, cell, avoidThis, onlyNodes);
 
-						if ((result != null) && (avoidThis!=result))
-						{
-							return result;
-						}
-						else if ((avoidThis!=cell) && doesThisRectangleIntersectThisCell(hit, cell, hitSwimlaneContent, view)) {
-							return cell;
-						}
+					if (path != null && (resultPath == null || isBeforeInHitOrder(path, resultPath))
+							&& doesThisRectangleIntersectThisCell(hit, cell, hitSwimlaneContent, view))
+					{
+						result = cell;
+						resultPath = path;
 					}
 				}
-				if (doesThisRectangleIntersectThisCell(hit, parent, hitSwimlaneContent, view)) {
-					return parent;
-				}
 			}
-			finally
-			{
-				canvas.setScale(previousScale);
-				canvas.setTranslate(previousTranslate.x, previousTranslate.y);
+
+			if (result == null && doesThisRectangleIntersectThisCell(hit, parent, hitSwimlaneContent, view)) {
+				result = parent;
 			}
+
+			return result;
 		}
 
 		return null;
 	}
 
+	/**
+	 * Returns the child indices from parent down to cell, or null if cell
+	 * is not a descendant of parent, avoidThis is on the path or, if
+	 * onlyNodes is true, there is a cell on the path that is not a vertex.
+	 */
+	protected int[] getHitPath(mxIGraphModel model, Object parent, Object cell, Object avoidThis, boolean onlyNodes)
+	{
+		int depth = 0;
+		Object current = cell;
+
+		while (current != parent)
+		{
+			if (current == null || current == avoidThis || (onlyNodes && !model.isVertex(current)))
+			{
+				return null;
+			}
+
+			current = model.getParent(current);
+			depth++;
+		}
+
+		int[] path = new int[depth];
+		current = cell;
+
+		while (depth > 0)
+		{
+			Object p = model.getParent(current);
+			path[--depth] = getChildIndex(model, p, current);
+			current = p;
+		}
+
+		return path;
+	}
+
+	/**
+	 * Returns the index of child in parent using the child indices cached by
+	 * the view.
+	 */
+	protected int getChildIndex(mxIGraphModel model, Object parent, Object child)
+	{
+		return graph.getView().getChildIndex(parent, child);
+	}
+
+	/**
+	 * Returns true if the cell with the given path is visited before the
+	 * cell with the other path when the children are visited in reverse
+	 * order and each cell after its descendants.
+	 */
+	protected boolean isBeforeInHitOrder(int[] path, int[] other)
+	{
+		int n = Math.min(path.length, other.length);
+
+		for (int i = 0; i < n; i++)
+		{
+			if (path[i] != other[i])
+			{
+				return path[i] > other[i];
+			}
+		}
+
+		return path.length > other.length;
+	}
+
 	/**returns the list of siblings of the given cell including the given cell. By default each cell has no siblings.
 	 * @param c
 	 * @return
@@ -2325,6 +2416,101 @@ public class mxGraphComponent extends JScrollPane implements Printable
 		firePropertyChange("tripleBuffered", oldValue, tripleBuffered);
 	}
 
+	/**
+	 * Returns the scale below which labels are not painted.
+	 */
+	public double getHideLabelScale()
+	{
+		return hideLabelScale;
+	}
+
+	/**
+	 * Sets the scale below which labels are not painted and fires a property
+	 * change event for <code>hideLabelScale</code>.
+	 */
+	public void setHideLabelScale(double value)
+	{
+		double oldValue = hideLabelScale;
+		hideLabelScale = value;
+		repaintTripleBuffer(null);
+
+		firePropertyChange("hideLabelScale", oldValue, value);
+	}
+
+	/**
+	 * Returns the scale below which labels are painted as greeked bars.
+	 */
+	public double getGreekLabelScale()
+	{
+		return greekLabelScale;
+	}
+
+	/**
+	 * Sets the scale below which labels are painted as greeked bars and
+	 * fires a property change event for <code>greekLabelScale</code>.
+	 */
+	public void setGreekLabelScale(double value)
+	{
+		double oldValue = greekLabelScale;
+		greekLabelScale = value;
+		repaintTripleBuffer(null);
+
+		firePropertyChange("greekLabelScale", oldValue, value);
+	}
+
+	/**
+	 * Returns the scale below which shapes and edges are simplified.
+	 */
+	public double getSimpleShapeScale()
+	{
+		return simpleShapeScale;
+	}
+
+	/**
+	 * Sets the scale below which shapes and edges are simplified and fires a
+	 * property change event for <code>simpleShapeScale</code>.
+	 */
+	public void setSimpleShapeScale(double value)
+	{
+		double oldValue = simpleShapeScale;
+		simpleShapeScale = value;
+		repaintTripleBuffer(null);
+
+		firePropertyChange("simpleShapeScale", oldValue, value);
+	}
+
+	/**
+	 * Returns the scale below which clusters are painted as filled boxes.
+	 */
+	public double getClusterBoxScale()
+	{
+		return clusterBoxScale;
+	}
+
+	/**
+	 * Sets the scale below which clusters are painted as filled boxes and
+	 * fires a property change event for <code>clusterBoxScale</code>.
+	 */
+	public void setClusterBoxScale(double value)
+	{
+		double oldValue = clusterBoxScale;
+		clusterBoxScale = value;
+		repaintTripleBuffer(null);
+
+		firePropertyChange("clusterBoxScale", oldValue, value);
+	}
+
+	/**
+	 * Copies the level of detail thresholds to the given canvas.
+	 */
+	public void configureLevelOfDetail(mxGraphics2DCanvas canvas)
+	{
+		canvas.setHideLabelScale(hideLabelScale);
+		canvas.setGreekLabelScale(greekLabelScale);
+		canvas.setSimpleShapeScale(simpleShapeScale);
+		canvas.setClusterBoxScale(clusterBoxScale);
+	}
+
 	/**
 	 * @return the gridColor
 	 */
@@ -2673,11 +2859,12 @@ public class mxGraphComponent extends JScrollPane implements Printable
 	}
 
 	/**
-	 * 
+	 * Returns the tile cache that is used if tripleBuffered is true or null
+	 * if no tile cache exists.
 	 */
-	public BufferedImage getTripleBuffer()
+	public mxTileCache getTileCache()
 	{
-		return tripleBuffer;
+		return tileCache;
 	}
 
 	/**
@@ -3561,94 +3748,49 @@ public class mxGraphComponent extends JScrollPane implements Printable
 	}
 
 	/**
-	 * Checks if the triple buffer exists and creates a new one if
-	 * it does not. Also compares the size of the buffer with the
-	 * size of the graph and drops the buffer if it has a
-	 * different size.
+	 * Creates the tile cache if it does not exist.
 	 */
 	public void checkTripleBuffer()
 	{
-		mxRectangle bounds = graph.getGraphBounds();
-		int width = (int) (bounds.getWidth() + 2);
-		int height = (int) (bounds.getHeight() + 2);
-
-		if (tripleBuffer != null)
-		{
-			if (tripleBuffer.getWidth() != width
-					|| tripleBuffer.getHeight() != height)
-			{
-				// Resizes the buffer (destroys existing and creates new)
-				destroyTripleBuffer();
-			}
-		}
-
-		if (tripleBuffer == null)
+		if (tileCache == null)
 		{
-			createTripleBuffer(width, height);
+			tileCache = createTileCache();
 		}
 	}
 
 	/**
-	 * Creates the tripleBufferGraphics and tripleBuffer for the given
-	 * dimension and draws the complete graph onto the triplebuffer.
-	 * 
-	 * @param width
-	 * @param height
+	 * Hook for subclassers to replace the tile cache that renders the graph
+	 * if tripleBuffered is true.
 	 */
-	protected void createTripleBuffer(int width, int height)
+	protected mxTileCache createTileCache()
 	{
-		try
-		{
-			tripleBuffer = mxUtils.createBufferedImage(width, height, null);
-			tripleBufferGraphics = tripleBuffer.createGraphics();
-			mxUtils
-					.setAntiAlias(tripleBufferGraphics, antiAlias,
-							textAntiAlias);
-
-			// Repaints the complete buffer
-			repaintTripleBuffer(null);
-		}
-		catch (OutOfMemoryError error)
-		{
-			// ignore
-		}
+		return new mxTileCache(this);
 	}
 
 	/**
-	 * Destroys the tripleBuffer and tripleBufferGraphics objects.
+	 * Destroys the tile cache and its worker threads.
 	 */
 	public void destroyTripleBuffer()
 	{
-		if (tripleBuffer != null)
+		if (tileCache != null)
 		{
-			tripleBuffer = null;
-			tripleBufferGraphics.dispose();
-			tripleBufferGraphics = null;
+			tileCache.destroy();
+			tileCache = null;
 		}
 	}
 
 	/**
-	 * Clears and repaints the triple buffer at the given rectangle or repaints
-	 * the complete buffer if no rectangle is specified.
+	 * Invalidates the tiles at the given rectangle or all tiles if no
+	 * rectangle is specified. The tiles are rendered again when they are
+	 * painted.
 	 * 
 	 * @param dirty
 	 */
 	public void repaintTripleBuffer(Rectangle dirty)
 	{
-		if (tripleBuffered && tripleBufferGraphics != null)
+		if (tripleBuffered && tileCache != null)
 		{
-			if (dirty == null)
-			{
-				dirty = new Rectangle(tripleBuffer.getWidth(), tripleBuffer
-						.getHeight());
-			}
-
-			// Clears and repaints the dirty rectangle using the
-			// graphics canvas as a renderer
-			mxUtils.clearRect(tripleBufferGraphics, dirty, null);
-			tripleBufferGraphics.setClip(dirty);
-			paintGraph(tripleBufferGraphics, true);
-			tripleBufferGraphics.setClip(null);
+			tileCache.invalidate(dirty);
 		}
 	}
 
@@ -3849,20 +3991,20 @@ public class mxGraphComponent extends JScrollPane implements Printable
 				// Draws the background
 				paintBackground(g);
 
-				// Creates or destroys the triple buffer as needed
+				// Creates or destroys the tile cache as needed
 				if (tripleBuffered)
 				{
 					checkTripleBuffer();
 				}
-				else if (tripleBuffer != null)
+				else if (tileCache != null)
 				{
 					destroyTripleBuffer();
 				}
 
-				// Paints the buffer in the canvas onto the dirty region
-				if (tripleBuffer != null)
+				// Paints the finished tiles onto the dirty region
+				if (tileCache != null)
 				{
-					mxUtils.drawImageClip(g, tripleBuffer, this);
+					tileCache.paint((Graphics2D) g);
 				}
 
 				// Paints the graph directly onto the graphics
@@ -3893,9 +4035,145 @@ public class mxGraphComponent extends JScrollPane implements Printable
 		 */
 		public void draw(mxICanvas canvas)
 		{
+			if (canvas instanceof mxGraphics2DCanvas)
+			{
+				configureLevelOfDetail((mxGraphics2DCanvas) canvas);
+			}
+
 			drawCell(canvas, graph.getModel().getRoot());
 		}
 
+		/**
+		 * Returns a copy of what draw paints onto the given canvas in the
+		 * given region for the current state of the graph. The snapshot can
+		 * be painted from any thread, see mxTileCache. This must be called on
+		 * the thread that changes the graph. Subclassers that override
+		 * drawCell or cellDrawn should override snapshotCell and
+		 * snapshotCellDrawn accordingly.
+		 * 
+		 * @param canvas Canvas whose scale and level of detail are used.
+		 * @param region Region to be painted or null for the whole graph.
+		 */
+		public mxGraphSnapshot createSnapshot(mxGraphics2DCanvas canvas,
+				Rectangle region)
+		{
+			mxGraphView view = graph.getView();
+			mxPoint tr = view.getTranslate();
+			mxGraphSnapshot snapshot = new mxGraphSnapshot(view.getScale(), tr
+					.getX(), tr.getY(), region);
+			configureLevelOfDetail(canvas);
+			snapshotCell(canvas, graph.getModel().getRoot(), snapshot);
+
+			return snapshot;
+		}
+
+		/**
+		 * Adds the given cell and its descendants to the given snapshot in the
+		 * same way as drawCell paints them.
+		 */
+		protected void snapshotCell(mxGraphics2DCanvas canvas, Object cell,
+				mxGraphSnapshot snapshot)
+		{
+			mxGraphView view = graph.getView();
+			mxIGraphModel model = graph.getModel();
+			mxCellState state = view.getState(cell);
+
+			// The bounds of the subtree are only used if they are up to date
+			mxRectangle bounds = (state != null && !view.isDirty(cell)) ? state
+					.getSubtreeBounds() : null;
+
+			// Leaves out subtrees that cannot be painted in the region
+			if (!snapshot.isInRegion(bounds))
+			{
+				return;
+			}
+
+			if (state != null && isClusterBox(canvas, cell))
+			{
+				snapshot.addClusterBox(state);
+				snapshotCellDrawn(state, snapshot);
+
+				return;
+			}
+			boolean draw = isCellDisplayable(cell) && state != null
+					&& cell != view.getCurrentRoot() && cell != model.getRoot();
+			int index = snapshot.addCell(state,
+					(draw) ? getDisplayLabelForCell(cell) : null, model
+							.isVertex(cell), model.isEdge(cell), draw
+							&& graph.isHtmlLabel(cell), draw
+							&& graph.isLabelClipped(cell), draw, bounds);
+
+			boolean edgesFirst = graph.isKeepEdgesInBackground();
+			boolean edgesLast = graph.isKeepEdgesInForeground();
+
+			if (edgesFirst)
+			{
+				snapshotChildren(canvas, cell, true, false, snapshot);
+			}
+
+			snapshotChildren(canvas, cell, !edgesFirst && !edgesLast, true,
+					snapshot);
+
+			if (edgesLast)
+			{
+				snapshotChildren(canvas, cell, true, false, snapshot);
+			}
+
+			if (state != null)
+			{
+				snapshotCellDrawn(state, snapshot);
+			}
+
+			snapshot.endCell(index);
+		}
+
+		/**
+		 * Adds the child edges and/or all other children in the given cell to
+		 * the given snapshot depending on the boolean arguments.
+		 */
+		protected void snapshotChildren(mxGraphics2DCanvas canvas,
+				Object cell, boolean edges, boolean others,
+				mxGraphSnapshot snapshot)
+		{
+			mxIGraphModel model = graph.getModel();
+			int childCount = model.getChildCount(cell);
+
+			for (int i = 0; i < childCount; i++)
+			{
+				Object child = model.getChildAt(cell, i);
+				boolean isEdge = model.isEdge(child);
+
+				if ((others && !isEdge) || (edges && isEdge))
+				{
+					snapshotCell(canvas, child, snapshot);
+				}
+			}
+		}
+
+		/**
+		 * Adds what cellDrawn paints for the given state to the given
+		 * snapshot.
+		 */
+		protected void snapshotCellDrawn(mxCellState state,
+				mxGraphSnapshot snapshot)
+		{
+			mxIGraphModel model = graph.getModel();
+			boolean isEdge = model.isEdge(state.getCell());
+
+			if (isFoldingEnabled()
+					&& state.getCell() != graph.getCurrentRoot()
+					&& (model.isVertex(state.getCell()) || isEdge))
+			{
+				ImageIcon icon = getFoldingIcon(state);
+
+				if (icon != null)
+				{
+					snapshot.addImage(icon.getImage(), getFoldingIconBounds(
+							state, icon));
+				}
+			}
+		}
+
 		/**
 		 * Returns the label of the cell in the graph if the cell is not
 		 * being edited. This can be overridden to modify labels in the
@@ -3931,6 +4209,24 @@ public class mxGraphComponent extends JScrollPane implements Printable
 		{
 			mxCellState state = graph.getView().getState(cell);
 
+			// Skips the cell and all its descendants if nothing of the
+			// subtree can be painted inside the clip
+			if (state != null && !hitsClip(canvas, state))
+			{
+				return;
+			}
+
+			if (state != null && isClusterBox(canvas, cell))
+			{
+				((mxGraphics2DCanvas) canvas).drawClusterBox(
+						(int) state.getX(), (int) state.getY(), (int) state
+								.getWidth(), (int) state.getHeight(), state
+								.getStyle());
+				cellDrawn(canvas, state);
+
+				return;
+			}
+
 			if (isCellDisplayable(cell))
 			{
 				String label = getDisplayLabelForCell(cell);
@@ -3944,14 +4240,14 @@ public class mxGraphComponent extends JScrollPane implements Printable
 
 			if (edgesFirst)
 			{
-				drawChildren(cell, true, false);
+				drawChildren(canvas, cell, true, false);
 			}
 
-			drawChildren(cell, !edgesFirst && !edgesLast, true);
+			drawChildren(canvas, cell, !edgesFirst && !edgesLast, true);
 
 			if (edgesLast)
 			{
-				drawChildren(cell, true, false);
+				drawChildren(canvas, cell, true, false);
 			}
 
 			if (state != null)
@@ -3960,11 +4256,77 @@ public class mxGraphComponent extends JScrollPane implements Printable
 			}
 		}
 
+		/**
+		 * Returns true if the cached bounds of the subtree of the given state
+		 * intersect the clip of the given canvas. Returns true if the canvas
+		 * has no clip or the bounds of the subtree are not known or out of
+		 * date, that is, if the subtree contains states to be validated.
+		 */
+		protected boolean hitsClip(mxICanvas canvas, mxCellState state)
+		{
+			if (graph.getView().isDirty(state.getCell()))
+			{
+				return true;
+			}
+
+			mxRectangle bounds = state.getSubtreeBounds();
+
+			if (bounds != null && canvas instanceof mxGraphics2DCanvas)
+			{
+				mxGraphics2DCanvas g2c = (mxGraphics2DCanvas) canvas;
+				Graphics2D g = g2c.getGraphics();
+				Rectangle clip = (g != null) ? g.getClipBounds() : null;
+
+				if (clip != null)
+				{
+					// Adds a pixel for antialiasing and the canvas translate
+					// which is added to all coordinates when painting
+					Point tr = g2c.getTranslate();
+					double x = bounds.getX() + tr.x - 1;
+					double y = bounds.getY() + tr.y - 1;
+
+					return x <= clip.x + clip.width
+							&& y <= clip.y + clip.height
+							&& clip.x <= x + bounds.getWidth() + 2
+							&& clip.y <= y + bounds.getHeight() + 2;
+				}
+			}
+
+			return true;
+		}
+
+		/**
+		 * Returns true if the given cell is a displayable vertex with children
+		 * that should be drawn as a filled box at the scale of the canvas.
+		 * The top-level cells in the default parent are never drawn as boxes
+		 * since a single box would then hide the whole graph.
+		 */
+		protected boolean isClusterBox(mxICanvas canvas, Object cell)
+		{
+			mxIGraphModel model = graph.getModel();
+
+			return canvas instanceof mxGraphics2DCanvas
+					&& ((mxGraphics2DCanvas) canvas).isDrawClusterBoxes()
+					&& model.isVertex(cell) && model.getChildCount(cell) > 0
+					&& model.getParent(cell) != graph.getDefaultParent()
+					&& isCellDisplayable(cell);
+		}
+
 		/**
 		 * Draws the child edges and/or all other children in the given cell
 		 * depending on the boolean arguments.
 		 */
 		protected void drawChildren(Object cell, boolean edges, boolean others)
+		{
+			drawChildren(canvas, cell, edges, others);
+		}
+
+		/**
+		 * Draws the child edges and/or all other children in the given cell
+		 * onto the specified canvas depending on the boolean arguments.
+		 */
+		protected void drawChildren(mxICanvas canvas, Object cell,
+				boolean edges, boolean others)
 		{
 			mxIGraphModel model = graph.getModel();
 			int childCount = model.getChildCount(cell);
@@ -0,0 +1,359 @@
+package com.mxgraph.swing.util;
+
+import java.awt.Graphics2D;
+import java.awt.Image;
+import java.awt.Point;
+import java.awt.Rectangle;
+import java.awt.Shape;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.mxgraph.canvas.mxGraphics2DCanvas;
+import com.mxgraph.util.mxRectangle;
+import com.mxgraph.view.mxCellState;
+
+/**
+ * Copy of everything the graph control paints in a region for one scale and
+ * translate of the view, in paint order. A snapshot is created on the thread
+ * that changes the graph, see mxGraphControl.createSnapshot, and it never
+ * refers to the graph, its model or its view, so that it can be painted from
+ * any thread while the graph is being changed, see mxTileCache.
+ */
+public class mxGraphSnapshot
+{
+
+	/**
+	 * Item that paints the shape and label of a cell.
+	 */
+	protected static final int CELL = 0;
+
+	/**
+	 * Item that paints a cluster as a filled box.
+	 */
+	protected static final int CLUSTER_BOX = 1;
+
+	/**
+	 * Item that paints an image, for example a folding icon.
+	 */
+	protected static final int IMAGE = 2;
+
+	/**
+	 * One step of painting.
+	 */
+	protected static class Item
+	{
+
+		protected int type;
+
+		/**
+		 * Copy of the state to be painted. Null for cells that only group
+		 * their descendants.
+		 */
+		protected mxCellState state;
+
+		protected String label;
+
+		protected boolean vertex, edge, html, labelClipped;
+
+		/**
+		 * Bounds of the cell and its descendants or null if they are not
+		 * known, in which case the subtree is never skipped.
+		 */
+		protected mxRectangle subtreeBounds;
+
+		/**
+		 * Index of the first item after the descendants of this item.
+		 */
+		protected int end;
+
+		protected Image image;
+
+		protected Rectangle imageBounds;
+
+	}
+
+	/**
+	 * Scale and translate of the view when the snapshot was created.
+	 */
+	protected final double scale, dx, dy;
+
+	/**
+	 * Region that is painted correctly by this snapshot or null for the
+	 * whole graph. Subtrees outside of the region may be left out.
+	 */
+	protected final Rectangle region;
+
+	/**
+	 * Items in paint order. The descendants of a cell follow its item.
+	 */
+	protected List<Item> items = new ArrayList<Item>();
+
+	/**
+	 * Constructs an empty snapshot for the given scale, translate and region.
+	 */
+	public mxGraphSnapshot(double scale, double dx, double dy,
+			Rectangle region)
+	{
+		this.scale = scale;
+		this.dx = dx;
+		this.dy = dy;
+		this.region = (region != null) ? new Rectangle(region) : null;
+	}
+
+	/**
+	 * Returns true if the snapshot was created for the given scale and
+	 * translate.
+	 */
+	public boolean isSnapshotOf(double scale, double dx, double dy)
+	{
+		return this.scale == scale && this.dx == dx && this.dy == dy;
+	}
+
+	/**
+	 * Returns the region painted by this snapshot or null for the whole
+	 * graph.
+	 */
+	public Rectangle getRegion()
+	{
+		return (region != null) ? new Rectangle(region) : null;
+	}
+
+	/**
+	 * Returns true if this snapshot paints the given rectangle correctly.
+	 */
+	public boolean covers(Rectangle rect)
+	{
+		return region == null || region.contains(rect);
+	}
+
+	/**
+	 * Returns true if a subtree with the given bounds may be painted in the
+	 * region of this snapshot, that is, if it must be added.
+	 */
+	public boolean isInRegion(mxRectangle bounds)
+	{
+		return hitsClip(new Point(), region, bounds);
+	}
+
+	/**
+	 * Returns the number of items.
+	 */
+	public int getItemCount()
+	{
+		return items.size();
+	}
+
+	/**
+	 * Adds a cell and returns its index, which must be passed to endCell after
+	 * its descendants have been added.
+	 *
+	 * @param state State of the cell or null.
+	 * @param label Label to be painted or null.
+	 * @param vertex Whether the cell is a vertex, only then its shape is
+	 * painted as a vertex.
+	 * @param edge Whether the cell is an edge.
+	 * @param html Whether the label is HTML.
+	 * @param labelClipped Whether the label is clipped to the cell.
+	 * @param draw Whether the cell itself is painted or only its descendants.
+	 * @param subtreeBounds Up to date bounds of the subtree or null.
+	 */
+	public int addCell(mxCellState state, String label, boolean vertex,
+			boolean edge, boolean html, boolean labelClipped, boolean draw,
+			mxRectangle subtreeBounds)
+	{
+		Item item = new Item();
+		item.type = CELL;
+		item.state = (draw && state != null) ? copyState(state) : null;
+		item.label = label;
+		item.vertex = vertex;
+		item.edge = edge;
+		item.html = html;
+		item.labelClipped = labelClipped;
+		item.subtreeBounds = (subtreeBounds != null) ? (mxRectangle) subtreeBounds
+				.clone() : null;
+		items.add(item);
+		item.end = items.size();
+
+		return items.size() - 1;
+	}
+
+	/**
+	 * Marks the end of the descendants of the cell at the given index.
+	 */
+	public void endCell(int index)
+	{
+		items.get(index).end = items.size();
+	}
+
+	/**
+	 * Adds a cluster that is painted as a filled box instead of its shape and
+	 * descendants.
+	 */
+	public void addClusterBox(mxCellState state)
+	{
+		Item item = new Item();
+		item.type = CLUSTER_BOX;
+		item.state = copyState(state);
+		item.subtreeBounds = (state.getSubtreeBounds() != null) ? (mxRectangle) state
+				.getSubtreeBounds().clone()
+				: null;
+		items.add(item);
+		item.end = items.size();
+	}
+
+	/**
+	 * Adds an image that is painted with the given bounds.
+	 */
+	public void addImage(Image image, Rectangle bounds)
+	{
+		Item item = new Item();
+		item.type = IMAGE;
+		item.image = image;
+		item.imageBounds = new Rectangle(bounds);
+		items.add(item);
+		item.end = items.size();
+	}
+
+	/**
+	 * Returns a copy of the given state that shares nothing that the view
+	 * changes.
+	 */
+	protected mxCellState copyState(mxCellState state)
+	{
+		mxCellState copy = (mxCellState) state.clone();
+		Map<String, Object> style = state.getStyle();
+
+		if (style != null)
+		{
+			copy.setStyle(new HashMap<String, Object>(style));
+		}
+
+		if (state.getLabelBounds() != null)
+		{
+			copy.setLabelBounds((mxRectangle) state.getLabelBounds().clone());
+		}
+
+		return copy;
+	}
+
+	/**
+	 * Paints the items onto the given canvas. Subtrees whose bounds do not
+	 * intersect the clip of the canvas are skipped.
+	 */
+	public void paint(mxGraphics2DCanvas canvas)
+	{
+		Graphics2D g = canvas.getGraphics();
+		Rectangle clip = (g != null) ? g.getClipBounds() : null;
+		int count = items.size();
+		int i = 0;
+
+		while (i < count)
+		{
+			Item item = items.get(i);
+
+			if (!hitsClip(canvas.getTranslate(), clip, item.subtreeBounds))
+			{
+				i = item.end;
+
+				continue;
+			}
+
+			if (item.type == CLUSTER_BOX)
+			{
+				mxCellState state = item.state;
+				canvas.drawClusterBox((int) state.getX(), (int) state.getY(),
+						(int) state.getWidth(), (int) state.getHeight(), state
+								.getStyle());
+			}
+			else if (item.type == IMAGE)
+			{
+				if (g != null)
+				{
+					Rectangle bounds = item.imageBounds;
+					g.drawImage(item.image, bounds.x, bounds.y, bounds.width,
+							bounds.height, null);
+				}
+			}
+			else if (item.state != null)
+			{
+				paintCell(canvas, item);
+			}
+
+			i++;
+		}
+	}
+
+	/**
+	 * Paints the shape and label of the given cell item the same way as
+	 * mxGraph.drawStateWithLabel.
+	 */
+	protected void paintCell(mxGraphics2DCanvas canvas, Item item)
+	{
+		mxCellState state = item.state;
+		int x = (int) Math.round(state.getX());
+		int y = (int) Math.round(state.getY());
+		int w = (int) Math.round(state.getWidth() - x + state.getX());
+		int h = (int) Math.round(state.getHeight() - y + state.getY());
+
+		if (item.vertex)
+		{
+			canvas.drawVertex(x, y, w, h, state.getStyle());
+		}
+		else if (item.edge)
+		{
+			canvas.drawEdge(state.getAbsolutePoints(), state.getStyle());
+		}
+
+		// Holds the current clipping region in case the label will be clipped
+		Graphics2D g = canvas.getGraphics();
+		Shape clip = null;
+
+		if (item.labelClipped && g != null)
+		{
+			clip = g.getClip();
+			g.setClip(state.getRectangle());
+		}
+
+		mxRectangle bounds = state.getLabelBounds();
+
+		if (item.label != null && bounds != null)
+		{
+			x = (int) Math.round(bounds.getX());
+			y = (int) Math.round(bounds.getY());
+			w = (int) Math.round(bounds.getWidth() - x + bounds.getX());
+			h = (int) Math.round(bounds.getHeight() - y + bounds.getY());
+
+			canvas.drawLabel(item.label, x, y, w, h, state.getStyle(),
+					item.html);
+		}
+
+		if (item.labelClipped && g != null)
+		{
+			g.setClip(clip);
+		}
+	}
+
+	/**
+	 * Returns true if the given bounds are null or intersect the given clip,
+	 * with the same tolerance as mxGraphControl.hitsClip.
+	 */
+	protected boolean hitsClip(Point tr, Rectangle clip, mxRectangle bounds)
+	{
+		if (bounds == null || clip == null)
+		{
+			return true;
+		}
+
+		// Adds a pixel for antialiasing and the canvas translate which is
+		// added to all coordinates when painting
+		double x = bounds.getX() + tr.x - 1;
+		double y = bounds.getY() + tr.y - 1;
+
+		return x <= clip.x + clip.width && y <= clip.y + clip.height
+				&& clip.x <= x + bounds.getWidth() + 2
+				&& clip.y <= y + bounds.getHeight() + 2;
+	}
+
+}
@@ -0,0 +1,744 @@
+package com.mxgraph.swing.util;
+
+import java.awt.Graphics2D;
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.logging.Logger;
+
+import javax.swing.SwingUtilities;
+
+import com.mxgraph.canvas.mxGraphics2DCanvas;
+import com.mxgraph.swing.mxGraphComponent;
+import com.mxgraph.util.mxEvent;
+import com.mxgraph.util.mxEventObject;
+import com.mxgraph.util.mxEventSource.mxIEventListener;
+import com.mxgraph.util.mxPoint;
+import com.mxgraph.util.mxUtils;
+import com.mxgraph.view.mxGraphView;
+
+/**
+ * Renders the graph of a graph component into fixed-size tiles on a pool of
+ * worker threads. Each tile is painted with its own canvas. The tiles are
+ * cached per zoom level, that is, per scale and translate of the view, so
+ * that panning and returning to a previous zoom level only blits images.
+ *
+ * The paint method is called on the event dispatch thread and never paints
+ * the graph itself: tiles that are not rendered yet are scheduled and, until
+ * they are ready, the matching part of another zoom level is stretched into
+ * their place. Invalid tiles keep showing their previous image until the new
+ * one is ready. The component is repainted when a tile is finished.
+ *
+ * The workers never read the graph. They paint an mxGraphSnapshot that is
+ * created on the event dispatch thread when a tile must be rendered and the
+ * graph or the view have changed since the last snapshot, so the event
+ * dispatch thread never waits for the workers and the graph can be changed
+ * while tiles are rendered. A tile that fails to render is logged and
+ * rendered again the next time it is painted.
+ */
+public class mxTileCache
+{
+
+	/**
+	 * Default width and height of a tile in pixels.
+	 */
+	public static final int DEFAULT_TILESIZE = 256;
+
+	/**
+	 * Graph component whose graph is rendered.
+	 */
+	protected mxGraphComponent graphComponent;
+
+	/**
+	 * Width and height of the tiles.
+	 */
+	protected int tileSize;
+
+	/**
+	 * Maximum number of tiles that are kept in all zoom levels. Default is
+	 * 256, which takes 64 MB with the default tile size.
+	 */
+	protected int maxTiles = 256;
+
+	/**
+	 * Maximum number of zoom levels that are kept. Default is 4.
+	 */
+	protected int maxLevels = 4;
+
+	/**
+	 * Pool of worker threads that render the tiles.
+	 */
+	protected ExecutorService executor;
+
+	/**
+	 * Cached zoom levels, the most recently painted first.
+	 */
+	protected LinkedList<Level> levels = new LinkedList<Level>();
+
+	/**
+	 * Counts the calls to paint.
+	 */
+	protected long paintCount = 0;
+
+	/**
+	 * Snapshot that the tiles of the current level are rendered from or
+	 * null. Only used on the event dispatch thread.
+	 */
+	protected mxGraphSnapshot snapshot;
+
+	/**
+	 * Incremented when tiles are invalidated and when the view is scaled or
+	 * translated. The snapshot is created again if this has changed.
+	 */
+	protected int changeCount = 0;
+
+	/**
+	 * Value of changeCount when the snapshot was created.
+	 */
+	protected int snapshotChangeCount = -1;
+
+	private static Logger logger = Logger.getLogger(mxTileCache.class
+			.getName());
+
+	/**
+	 * Counts the changes of the scale and translate of the view.
+	 */
+	protected mxIEventListener viewHandler = new mxIEventListener()
+	{
+		public void invoke(Object sender, mxEventObject evt)
+		{
+			changeCount++;
+		}
+	};
+
+	/**
+	 * Tiles of one scale and translate of the view.
+	 */
+	protected static class Level
+	{
+
+		protected final double scale, dx, dy;
+
+		protected final Map<Long, Tile> tiles = new HashMap<Long, Tile>();
+
+		public Level(double scale, double dx, double dy)
+		{
+			this.scale = scale;
+			this.dx = dx;
+			this.dy = dy;
+		}
+
+		public boolean isLevel(double scale, double dx, double dy)
+		{
+			return this.scale == scale && this.dx == dx && this.dy == dy;
+		}
+
+	}
+
+	/**
+	 * Tile of a level. The fields other than col, row and lastUsed are
+	 * accessed by the workers and guarded by the tile.
+	 */
+	protected static class Tile
+	{
+
+		protected final int col, row;
+
+		protected BufferedImage image;
+
+		/**
+		 * Incremented when the tile is invalidated.
+		 */
+		protected int version = 0;
+
+		/**
+		 * Version of the last rendering, -1 if none.
+		 */
+		protected int renderedVersion = -1;
+
+		protected boolean pending = false;
+
+		protected long lastUsed;
+
+		public Tile(int col, int row)
+		{
+			this.col = col;
+			this.row = row;
+		}
+
+	}
+
+	/**
+	 * Constructs a new tile cache for the given graph component with the
+	 * default tile size.
+	 */
+	public mxTileCache(mxGraphComponent graphComponent)
+	{
+		this(graphComponent, DEFAULT_TILESIZE);
+	}
+
+	/**
+	 * Constructs a new tile cache for the given graph component and tile
+	 * size.
+	 */
+	public mxTileCache(mxGraphComponent graphComponent, int tileSize)
+	{
+		this.graphComponent = graphComponent;
+		this.tileSize = tileSize;
+
+		mxGraphView view = graphComponent.getGraph().getView();
+		view.addListener(mxEvent.SCALE, viewHandler);
+		view.addListener(mxEvent.TRANSLATE, viewHandler);
+		view.addListener(mxEvent.SCALE_AND_TRANSLATE, viewHandler);
+	}
+
+	/**
+	 * Returns the size of the tiles.
+	 */
+	public int getTileSize()
+	{
+		return tileSize;
+	}
+
+	/**
+	 * Returns the maximum number of cached tiles.
+	 */
+	public int getMaxTiles()
+	{
+		return maxTiles;
+	}
+
+	/**
+	 * Sets the maximum number of cached tiles.
+	 */
+	public void setMaxTiles(int value)
+	{
+		maxTiles = value;
+	}
+
+	/**
+	 * Returns the maximum number of cached zoom levels.
+	 */
+	public int getMaxLevels()
+	{
+		return maxLevels;
+	}
+
+	/**
+	 * Sets the maximum number of cached zoom levels.
+	 */
+	public void setMaxLevels(int value)
+	{
+		maxLevels = value;
+	}
+
+	/**
+	 * Creates the pool of worker threads. This implementation uses one
+	 * daemon thread less than there are processors.
+	 */
+	protected ExecutorService createExecutor()
+	{
+		int threads = Math.max(1,
+				Runtime.getRuntime().availableProcessors() - 1);
+
+		return Executors.newFixedThreadPool(threads, new ThreadFactory()
+		{
+			public Thread newThread(Runnable r)
+			{
+				Thread thread = new Thread(r, "mxTileCache");
+				thread.setDaemon(true);
+				thread.setPriority(Thread.NORM_PRIORITY - 1);
+
+				return thread;
+			}
+		});
+	}
+
+	/**
+	 * Paints the tiles of the current zoom level that intersect the clip of
+	 * the given graphics and schedules the tiles that must be rendered.
+	 */
+	public void paint(Graphics2D g)
+	{
+		Rectangle clip = g.getClipBounds();
+
+		if (clip == null)
+		{
+			clip = new Rectangle(graphComponent.getGraphControl().getSize());
+		}
+
+		Level level = getLevel();
+		paintCount++;
+
+		int minCol = getTileIndex(clip.x);
+		int maxCol = getTileIndex(clip.x + clip.width - 1);
+		int minRow = getTileIndex(clip.y);
+		int maxRow = getTileIndex(clip.y + clip.height - 1);
+		List<Tile> scheduled = new ArrayList<Tile>();
+		List<Integer> versions = new ArrayList<Integer>();
+
+		for (int row = minRow; row <= maxRow; row++)
+		{
+			for (int col = minCol; col <= maxCol; col++)
+			{
+				Long key = getKey(col, row);
+				Tile tile = level.tiles.get(key);
+
+				if (tile == null)
+				{
+					tile = new Tile(col, row);
+					level.tiles.put(key, tile);
+				}
+
+				tile.lastUsed = paintCount;
+				BufferedImage image;
+				int version = -1;
+
+				synchronized (tile)
+				{
+					image = tile.image;
+
+					if (!tile.pending && tile.renderedVersion != tile.version)
+					{
+						tile.pending = true;
+						version = tile.version;
+					}
+				}
+
+				if (image != null)
+				{
+					g.drawImage(image, col * tileSize, row * tileSize, null);
+				}
+				else
+				{
+					paintPlaceholder(g, level, tile);
+				}
+
+				if (version >= 0)
+				{
+					scheduled.add(tile);
+					versions.add(Integer.valueOf(version));
+				}
+			}
+		}
+
+		if (!scheduled.isEmpty())
+		{
+			Rectangle region = null;
+
+			for (Tile tile : scheduled)
+			{
+				Rectangle bounds = new Rectangle(tile.col * tileSize, tile.row
+						* tileSize, tileSize, tileSize);
+				region = (region != null) ? region.union(bounds) : bounds;
+			}
+
+			mxGraphSnapshot snapshot = getSnapshot(level, region);
+
+			for (int i = 0; i < scheduled.size(); i++)
+			{
+				schedule(level, scheduled.get(i), versions.get(i).intValue(),
+						snapshot);
+			}
+		}
+
+		evict();
+	}
+
+	/**
+	 * Invalidates the tiles of all zoom levels that intersect the given
+	 * rectangle of the current zoom level. If the rectangle is null then all
+	 * tiles are invalidated.
+	 */
+	public void invalidate(Rectangle dirty)
+	{
+		changeCount++;
+		Level current = (dirty != null) ? getLevel() : null;
+
+		for (Level level : levels)
+		{
+			if (dirty == null)
+			{
+				for (Tile tile : level.tiles.values())
+				{
+					invalidate(tile);
+				}
+			}
+			else
+			{
+				Rectangle rect = convert(dirty, current, level);
+				int maxCol = getTileIndex(rect.x + rect.width);
+				int maxRow = getTileIndex(rect.y + rect.height);
+
+				for (int row = getTileIndex(rect.y); row <= maxRow; row++)
+				{
+					for (int col = getTileIndex(rect.x); col <= maxCol; col++)
+					{
+						Tile tile = level.tiles.get(getKey(col, row));
+
+						if (tile != null)
+						{
+							invalidate(tile);
+						}
+					}
+				}
+			}
+		}
+	}
+
+	/**
+	 * Marks the given tile as invalid.
+	 */
+	protected void invalidate(Tile tile)
+	{
+		synchronized (tile)
+		{
+			tile.version++;
+		}
+	}
+
+	/**
+	 * Drops all tiles and stops the worker threads.
+	 */
+	public void destroy()
+	{
+		levels.clear();
+		snapshot = null;
+		graphComponent.getGraph().getView().removeListener(viewHandler);
+
+		if (executor != null)
+		{
+			executor.shutdownNow();
+			executor = null;
+		}
+	}
+
+	/**
+	 * Returns a snapshot of the graph for the given level that covers the
+	 * given region, creating it if the graph or the view have changed since
+	 * the last snapshot or if the last snapshot does not cover the region.
+	 */
+	protected mxGraphSnapshot getSnapshot(Level level, Rectangle region)
+	{
+		boolean changed = snapshot == null
+				|| snapshotChangeCount != changeCount
+				|| !snapshot.isSnapshotOf(level.scale, level.dx, level.dy);
+
+		if (changed || !snapshot.covers(region))
+		{
+			// Keeps covering the previous region for the tiles scheduled
+			// with the previous snapshot
+			if (!changed)
+			{
+				region = region.union(snapshot.getRegion());
+			}
+
+			mxGraphics2DCanvas canvas = graphComponent.createCanvas();
+			canvas.setScale(level.scale);
+			snapshot = graphComponent.getGraphControl().createSnapshot(
+					canvas, region);
+			snapshotChangeCount = changeCount;
+		}
+
+		return snapshot;
+	}
+
+	/**
+	 * Returns the level for the current scale and translate of the view and
+	 * moves it to the front of the levels.
+	 */
+	protected Level getLevel()
+	{
+		mxGraphView view = graphComponent.getGraph().getView();
+		double scale = view.getScale();
+		mxPoint translate = view.getTranslate();
+		double dx = translate.getX();
+		double dy = translate.getY();
+
+		if (!levels.isEmpty() && levels.getFirst().isLevel(scale, dx, dy))
+		{
+			return levels.getFirst();
+		}
+
+		Iterator<Level> it = levels.iterator();
+		Level level = null;
+
+		while (it.hasNext())
+		{
+			Level tmp = it.next();
+
+			if (tmp.isLevel(scale, dx, dy))
+			{
+				it.remove();
+				level = tmp;
+				break;
+			}
+		}
+
+		if (level == null)
+		{
+			level = new Level(scale, dx, dy);
+		}
+
+		levels.addFirst(level);
+
+		while (levels.size() > maxLevels)
+		{
+			levels.removeLast();
+		}
+
+		return level;
+	}
+
+	/**
+	 * Stretches the matching part of the most recent other level that has
+	 * images into the place of the given tile.
+	 */
+	protected void paintPlaceholder(Graphics2D g, Level level, Tile tile)
+	{
+		Rectangle bounds = new Rectangle(tile.col * tileSize, tile.row
+				* tileSize, tileSize, tileSize);
+
+		for (Level other : levels)
+		{
+			if (other != level)
+			{
+				Rectangle rect = convert(bounds, level, other);
+				int maxCol = getTileIndex(rect.x + rect.width - 1);
+				int maxRow = getTileIndex(rect.y + rect.height - 1);
+				boolean painted = false;
+
+				for (int row = getTileIndex(rect.y); row <= maxRow; row++)
+				{
+					for (int col = getTileIndex(rect.x); col <= maxCol; col++)
+					{
+						Tile src = other.tiles.get(getKey(col, row));
+						BufferedImage image = null;
+
+						if (src != null)
+						{
+							synchronized (src)
+							{
+								image = src.image;
+							}
+						}
+
+						if (image != null)
+						{
+							Rectangle part = rect.intersection(new Rectangle(
+									col * tileSize, row * tileSize, tileSize,
+									tileSize));
+							Rectangle dst = convert(part, other, level);
+							g.drawImage(image, dst.x, dst.y, dst.x + dst.width,
+									dst.y + dst.height, part.x - col
+											* tileSize, part.y - row
+											* tileSize, part.x - col
+											* tileSize + part.width, part.y
+											- row * tileSize + part.height,
+									null);
+							painted = true;
+						}
+					}
+				}
+
+				if (painted)
+				{
+					return;
+				}
+			}
+		}
+	}
+
+	/**
+	 * Renders the given tile from the given snapshot on a worker thread.
+	 */
+	protected void schedule(final Level level, final Tile tile,
+			final int version, final mxGraphSnapshot snapshot)
+	{
+		if (executor == null)
+		{
+			executor = createExecutor();
+		}
+
+		executor.execute(new Runnable()
+		{
+			public void run()
+			{
+				render(level, tile, version, snapshot);
+			}
+		});
+	}
+
+	/**
+	 * Paints the given snapshot into a new image for the given tile, stores
+	 * the image in the tile and repaints the tile on the event dispatch
+	 * thread. The image is discarded if painting failed, in which case the
+	 * tile stays invalid.
+	 */
+	protected void render(Level level, Tile tile, int version,
+			mxGraphSnapshot snapshot)
+	{
+		BufferedImage image = null;
+		boolean failed = false;
+
+		try
+		{
+			image = mxUtils.createBufferedImage(tileSize, tileSize, null);
+			Graphics2D g = image.createGraphics();
+
+			try
+			{
+				mxUtils.setAntiAlias(g, graphComponent.isAntiAlias(),
+						graphComponent.isTextAntiAlias());
+				g.translate(-tile.col * tileSize, -tile.row * tileSize);
+				g.clipRect(tile.col * tileSize, tile.row * tileSize,
+						tileSize, tileSize);
+
+				mxGraphics2DCanvas canvas = graphComponent.createCanvas();
+				canvas.setScale(level.scale);
+				canvas.setGraphics(g);
+				graphComponent.configureLevelOfDetail(canvas);
+				snapshot.paint(canvas);
+			}
+			finally
+			{
+				g.dispose();
+			}
+		}
+		catch (RuntimeException e)
+		{
+			logger.log(java.util.logging.Level.WARNING, "Cannot render tile "
+					+ tile.col + "," + tile.row, e);
+			failed = true;
+		}
+
+		synchronized (tile)
+		{
+			tile.pending = false;
+
+			if (!failed)
+			{
+				tile.image = image;
+				tile.renderedVersion = version;
+			}
+		}
+
+		// Does not retry failed tiles until the next repaint of their region
+		if (failed)
+		{
+			return;
+		}
+
+		final Rectangle rect = new Rectangle(tile.col * tileSize, tile.row
+				* tileSize, tileSize, tileSize);
+
+		SwingUtilities.invokeLater(new Runnable()
+		{
+			public void run()
+			{
+				graphComponent.getGraphControl().repaint(rect);
+			}
+		});
+	}
+
+	/**
+	 * Drops the least recently painted tiles if there are more than
+	 * maxTiles.
+	 */
+	protected void evict()
+	{
+		int count = 0;
+
+		for (Level level : levels)
+		{
+			count += level.tiles.size();
+		}
+
+		if (count > maxTiles)
+		{
+			List<Tile> tiles = new ArrayList<Tile>(count);
+
+			for (Level level : levels)
+			{
+				tiles.addAll(level.tiles.values());
+			}
+
+			Collections.sort(tiles, new Comparator<Tile>()
+			{
+				public int compare(Tile t1, Tile t2)
+				{
+					return (t1.lastUsed < t2.lastUsed) ? -1
+							: (t1.lastUsed > t2.lastUsed) ? 1 : 0;
+				}
+			});
+
+			for (int i = 0; i < count - maxTiles; i++)
+			{
+				Tile tile = tiles.get(i);
+
+				for (Level level : levels)
+				{
+					if (level.tiles.remove(getKey(tile.col, tile.row)) == tile)
+					{
+						break;
+					}
+				}
+			}
+
+			// Removes levels without tiles
+			Iterator<Level> it = levels.iterator();
+
+			while (it.hasNext())
+			{
+				if (it.next().tiles.isEmpty())
+				{
+					it.remove();
+				}
+			}
+		}
+	}
+
+	/**
+	 * Converts the given rectangle from the coordinates of one level to the
+	 * coordinates of another level, rounding outwards.
+	 */
+	protected Rectangle convert(Rectangle rect, Level from, Level to)
+	{
+		double f = to.scale / from.scale;
+		double x1 = (rect.x / from.scale - from.dx + to.dx) * to.scale;
+		double y1 = (rect.y / from.scale - from.dy + to.dy) * to.scale;
+		int x = (int) Math.floor(x1);
+		int y = (int) Math.floor(y1);
+
+		return new Rectangle(x, y, (int) Math.ceil(x1 + rect.width * f) - x,
+				(int) Math.ceil(y1 + rect.height * f) - y);
+	}
+
+	/**
+	 * Returns the column or row of the tile that contains the given
+	 * coordinate.
+	 */
+	protected int getTileIndex(int coord)
+	{
+		return (int) Math.floor((double) coord / tileSize);
+	}
+
+	/**
+	 * Returns the key of the given tile.
+	 */
+	protected static Long getKey(int col, int row)
+	{
+		return Long.valueOf(((long) col << 32) | (row & 0xffffffffL));
+	}
+
+}
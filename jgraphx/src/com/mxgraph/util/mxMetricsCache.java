@@ -0,0 +1,124 @@
+package com.mxgraph.util;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Bounded cache for fonts and text metrics. The keys are made of two objects
+ * (such as a text and a font) and an int (such as a wrap width). The least
+ * recently used entries are dropped when the cache is full. The methods are
+ * synchronized so that the cache can be shared between threads.
+ */
+public class mxMetricsCache<V>
+{
+
+	/**
+	 * Maximum number of entries.
+	 */
+	protected int maxSize;
+
+	/**
+	 * Maps from keys to values in access order.
+	 */
+	protected Map<Key, V> entries;
+
+	/**
+	 * Key of an entry.
+	 */
+	protected static class Key
+	{
+
+		protected final Object first, second;
+
+		protected final int value;
+
+		protected final int hash;
+
+		public Key(Object first, Object second, int value)
+		{
+			this.first = first;
+			this.second = second;
+			this.value = value;
+
+			int h = (first != null) ? first.hashCode() : 0;
+			h = 31 * h + ((second != null) ? second.hashCode() : 0);
+			hash = 31 * h + value;
+		}
+
+		public int hashCode()
+		{
+			return hash;
+		}
+
+		public boolean equals(Object o)
+		{
+			if (o instanceof Key)
+			{
+				Key k = (Key) o;
+
+				return k.hash == hash
+						&& k.value == value
+						&& ((first == null) ? k.first == null : first
+								.equals(k.first))
+						&& ((second == null) ? k.second == null : second
+								.equals(k.second));
+			}
+
+			return false;
+		}
+
+	}
+
+	/**
+	 * Constructs a new cache for the given number of entries.
+	 */
+	public mxMetricsCache(int maxSize)
+	{
+		this.maxSize = maxSize;
+		entries = new LinkedHashMap<Key, V>(16, 0.75f, true)
+		{
+
+			private static final long serialVersionUID = 1L;
+
+			protected boolean removeEldestEntry(Map.Entry<Key, V> eldest)
+			{
+				return size() > mxMetricsCache.this.maxSize;
+			}
+
+		};
+	}
+
+	/**
+	 * Returns the value for the given key or null if no value is cached.
+	 */
+	public synchronized V get(Object first, Object second, int value)
+	{
+		return entries.get(new Key(first, second, value));
+	}
+
+	/**
+	 * Stores the value for the given key.
+	 */
+	public synchronized void put(Object first, Object second, int value,
+			V result)
+	{
+		entries.put(new Key(first, second, value), result);
+	}
+
+	/**
+	 * Removes all entries.
+	 */
+	public synchronized void clear()
+	{
+		entries.clear();
+	}
+
+	/**
+	 * Returns the number of entries.
+	 */
+	public synchronized int size()
+	{
+		return entries.size();
+	}
+
+}
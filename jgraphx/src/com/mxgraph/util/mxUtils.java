@@ -41,7 +41,6 @@ import java.util.Arrays;
 import java.util.Collection;
 import java.util.Comparator;
 import java.util.Formatter;
-import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
@@ -77,6 +76,7 @@ import com.mxgraph.model.mxCellPath;
 import com.mxgraph.model.mxICell;
 import com.mxgraph.model.mxIGraphModel;
 import com.mxgraph.view.mxCellState;
+import com.mxgraph.view.mxCellStyle;
 
 /**
  * Contains various helper methods for use with mxGraph.
@@ -308,39 +308,78 @@ public class mxUtils
 		return new mxRectangle(x, y, width, height);
 	}
 
-	private static final HashMap<Font,Rectangle2D> maxLetterSize=new HashMap<Font, Rectangle2D>();
-	private static final HashMap<String,mxRectangle> labelSize=new HashMap<String, mxRectangle>();
+	/**
+	 * Caches the fonts returned by getFont by family, style and size.
+	 */
+	protected static mxMetricsCache<Font> fonts = new mxMetricsCache<Font>(
+			256);
+
+	/**
+	 * Caches the size of a letter by font.
+	 */
+	protected static mxMetricsCache<Rectangle2D> letterSizes = new mxMetricsCache<Rectangle2D>(
+			256);
+
+	/**
+	 * Caches the label sizes by text, font (or style for HTML labels) and
+	 * wrap width. The sizes are computed for unscaled fonts, so they are
+	 * reused for all scales of the view.
+	 */
+	protected static mxMetricsCache<mxRectangle> labelSizes = new mxMetricsCache<mxRectangle>(
+			8192);
+
 	/**
 	 * Returns an <mxRectangle> with the size (width and height in pixels) of
-	 * the given string.
+	 * the given string. The returned rectangle is shared and must not be
+	 * changed.
 	 * 
 	 * @param text String whose size should be returned.
 	 * @param font Font to be used for the computation.
 	 */
 	public static mxRectangle getSizeForString(String text, Font font, int width)
 	{
-		if (width > 0 && textArea != null)
+		if (width <= 0 || textArea == null)
 		{
-			// FIXME: Initial preferred width is wrong in GraphEditor example
-			textArea.setFont(font);
-			textArea.setText(text);
-			textArea.setSize(width, 1);
-			Dimension pSize = textArea.getPreferredSize();
+			width = 0;
+		}
 
-			return new mxRectangle(0, 0, pSize.getWidth(), pSize.getHeight());
-		} else {
-			mxRectangle result=labelSize.get(text);
-			if (result==null) {
-				Rectangle2D oneLetterSize=maxLetterSize.get(font);
-				if (oneLetterSize==null) maxLetterSize.put(font, oneLetterSize=getOneLetterSize(font));
-				int[] textSize=getTextSize(text);
-				textSize[0]*=oneLetterSize.getWidth();
-				textSize[1]*=oneLetterSize.getHeight()*1.27;
-				result=new mxRectangle(0, 0, textSize[0], textSize[1]);
-				labelSize.put(text, result);
+		mxRectangle result = labelSizes.get(text, font, width);
+
+		if (result == null)
+		{
+			if (width > 0)
+			{
+				// FIXME: Initial preferred width is wrong in GraphEditor example
+				synchronized (textArea)
+				{
+					textArea.setFont(font);
+					textArea.setText(text);
+					textArea.setSize(width, 1);
+					Dimension pSize = textArea.getPreferredSize();
+					result = new mxRectangle(0, 0, pSize.getWidth(), pSize
+							.getHeight());
+				}
 			}
-			return result;
+			else
+			{
+				Rectangle2D oneLetterSize = letterSizes.get(font, null, 0);
+
+				if (oneLetterSize == null)
+				{
+					oneLetterSize = getOneLetterSize(font);
+					letterSizes.put(font, null, 0, oneLetterSize);
+				}
+
+				int[] textSize = getTextSize(text);
+				textSize[0] *= oneLetterSize.getWidth();
+				textSize[1] *= oneLetterSize.getHeight() * 1.27;
+				result = new mxRectangle(0, 0, textSize[0], textSize[1]);
+			}
+
+			labelSizes.put(text, font, width, result);
 		}
+
+		return result;
 	}
 	
 	public static Rectangle2D getOneLetterSize(Font font) {
@@ -363,7 +402,8 @@ public class mxUtils
 
 	/**
 	 * Returns an mxRectangle with the size (width and height in pixels) of
-	 * the given HTML markup.
+	 * the given HTML markup. The returned rectangle is shared and must not be
+	 * changed.
 	 * 
 	 * @param markup HTML markup whose size should be returned.
 	 */
@@ -374,10 +414,39 @@ public class mxUtils
 
 		if (textRenderer != null)
 		{
-			textRenderer.setText(createHtmlDocument(style, markup));
-			Dimension size = textRenderer.getPreferredSize();
+			// Resolved styles are immutable and can be used as keys, other
+			// styles are represented by the resulting document
+			String document = null;
+			Object text = markup;
+			Object key = style;
+
+			if (!(style instanceof mxCellStyle))
+			{
+				document = createHtmlDocument(style, markup);
+				text = document;
+				key = null;
+			}
+
+			mxRectangle result = labelSizes.get(text, key, -1);
 
-			return new mxRectangle(0, 0, size.width, size.height);
+			if (result == null)
+			{
+				if (document == null)
+				{
+					document = createHtmlDocument(style, markup);
+				}
+
+				synchronized (textRenderer)
+				{
+					textRenderer.setText(document);
+					Dimension size = textRenderer.getPreferredSize();
+					result = new mxRectangle(0, 0, size.width, size.height);
+				}
+
+				labelSizes.put(text, key, -1, result);
+			}
+
+			return result;
 		}
 		else
 		{
@@ -1090,6 +1159,11 @@ public class mxUtils
 	public static boolean isTrue(Map<String, Object> dict, String key,
 			boolean defaultValue)
 	{
+		if (dict instanceof mxCellStyle)
+		{
+			return ((mxCellStyle) dict).isTrue(key, defaultValue);
+		}
+
 		Object value = dict.get(key);
 
 		if (value == null)
@@ -1128,6 +1202,11 @@ public class mxUtils
 	public static int getInt(Map<String, Object> dict, String key,
 			int defaultValue)
 	{
+		if (dict instanceof mxCellStyle)
+		{
+			return ((mxCellStyle) dict).getInt(key, defaultValue);
+		}
+
 		Object value = dict.get(key);
 
 		if (value == null)
@@ -1166,6 +1245,11 @@ public class mxUtils
 	public static float getFloat(Map<String, Object> dict, String key,
 			float defaultValue)
 	{
+		if (dict instanceof mxCellStyle)
+		{
+			return ((mxCellStyle) dict).getFloat(key, defaultValue);
+		}
+
 		Object value = dict.get(key);
 
 		if (value == null)
@@ -1203,6 +1287,11 @@ public class mxUtils
 	public static double getDouble(Map<String, Object> dict, String key,
 			double defaultValue)
 	{
+		if (dict instanceof mxCellStyle)
+		{
+			return ((mxCellStyle) dict).getDouble(key, defaultValue);
+		}
+
 		Object value = dict.get(key);
 
 		if (value == null)
@@ -1310,6 +1399,11 @@ public class mxUtils
 	public static Color getColor(Map<String, Object> dict, String key,
 			Color defaultValue)
 	{
+		if (dict instanceof mxCellStyle)
+		{
+			return ((mxCellStyle) dict).getColor(key, defaultValue);
+		}
+
 		Object value = dict.get(key);
 
 		if (value == null)
@@ -1347,10 +1441,28 @@ public class mxUtils
 		swingFontStyle += ((fontStyle & mxConstants.FONT_ITALIC) == mxConstants.FONT_ITALIC) ? Font.ITALIC
 				: Font.PLAIN;
 
-		return new Font(fontFamily, swingFontStyle, (int) Math.round(fontSize
+		return getFont(fontFamily, swingFontStyle, (int) Math.round(fontSize
 				* scale));
 	}
 
+	/**
+	 * Returns the font for the given family, Swing font style and size. The
+	 * fonts are cached and shared.
+	 */
+	public static Font getFont(String fontFamily, int fontStyle, int fontSize)
+	{
+		Integer style = Integer.valueOf(fontStyle);
+		Font font = fonts.get(fontFamily, style, fontSize);
+
+		if (font == null)
+		{
+			font = new Font(fontFamily, fontStyle, fontSize);
+			fonts.put(fontFamily, style, fontSize, font);
+		}
+
+		return font;
+	}
+
 	/**
 	 * 
 	 */
@@ -1,11 +1,33 @@
 package com.mxgraph.validation;
 
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Hashtable;
 import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RecursiveAction;
 
-import com.mxgraph.model.mxCell;
+import javax.swing.SwingUtilities;
+
+import com.mxgraph.model.mxGeometry;
 import com.mxgraph.model.mxGraphModel;
+import com.mxgraph.model.mxGraphModel.mxChildChange;
+import com.mxgraph.model.mxGraphModel.mxCollapseChange;
+import com.mxgraph.model.mxGraphModel.mxGeometryChange;
+import com.mxgraph.model.mxGraphModel.mxRootChange;
+import com.mxgraph.model.mxGraphModel.mxStyleChange;
+import com.mxgraph.model.mxGraphModel.mxTerminalChange;
+import com.mxgraph.model.mxGraphModel.mxValueChange;
+import com.mxgraph.model.mxGraphModel.mxVisibleChange;
 import com.mxgraph.model.mxIGraphModel;
 import com.mxgraph.swing.mxGraphComponent;
 import com.mxgraph.util.StringUtils;
@@ -14,138 +36,382 @@ import com.mxgraph.util.mxEventObject;
 import com.mxgraph.util.mxEventSource.mxIEventListener;
 import com.mxgraph.util.mxResources;
 import com.mxgraph.view.mxGraph;
-import com.mxgraph.view.mxGraphView;
 
+/**
+ * Validates the cells of a graph in a background thread.
+ * A REQUEST_VALIDATION event (or requestFullValidation) validates all descendants of the given
+ * root. validateChanges validates only the cells touched by a list of model changes plus the
+ * cells whose validation depends on them (see addDependents).
+ * Requests are put in a blocking queue, the thread waits on it and validates together all
+ * the requests queued while it was busy.
+ * A full validation works on a copy of the structure of the subtree taken when it is requested
+ * and validates sibling subtrees in parallel in a ForkJoinPool: first all the vertices (whose
+ * validation may update their edges) and then all the edges.
+ * The warnings of all validated cells are kept, so that every run can fire VALIDATION_DONE
+ * with the warnings of the complete graph. Warning overlays are updated on the EDT once per run.
+ */
 public class Validator extends Thread {
-	
-	private mxGraph graph;
-	private mxGraphComponent graphComponent;
-	private mxGraphModel model;
 
-	private LinkedHashSet<mxCell> requests=null;
-	Hashtable<Object, Object> context=null;
-	HashMap<Object,String> warnings=null;
+	protected mxGraph graph;
+	protected mxGraphComponent graphComponent;
+	protected mxGraphModel model;
+
+	// either cells to validate or FullValidation requests.
+	private final LinkedBlockingQueue<Object> requests=new LinkedBlockingQueue<Object>();
+	// warnings produced by the validation of each cell (without the ones added for collapsed cells).
+	private final Map<Object,String> cellWarnings=new ConcurrentHashMap<Object, String>();
+	// warnings displayed for each cell.
+	private final HashMap<Object,String> warnings=new HashMap<Object, String>();
+
+	// subtrees with fewer cells are validated by the task of their parent.
+	private static final int MINFORKSIZE=32;
+	private final ForkJoinPool pool=new ForkJoinPool();
+
+	volatile boolean keepGoing=true;
+
+	private static class FullValidation {
+		private final Object root;
+		private final Subtree tree;
+		public FullValidation(Object root,Subtree tree) {
+			this.root=root;
+			this.tree=tree;
+		}
+	}
+
+	/**
+	 * read-only copy of the structure of a subtree of the model.
+	 */
+	private static class Subtree {
+		private static final Subtree[] NOCHILDREN=new Subtree[0];
+		private final Object cell;
+		private final boolean edge;
+		private final Subtree[] children;
+		// context for the children of a valid root, null if they share the context of cell.
+		private final Hashtable<Object, Object> childContext;
+		private final int size;
+		public Subtree(mxGraph graph,Object cell) {
+			mxIGraphModel model=graph.getModel();
+			this.cell=cell;
+			edge=model.isEdge(cell);
+			childContext=graph.isValidRoot(cell)?new Hashtable<Object, Object>():null;
+			int childCount=model.getChildCount(cell);
+			children=(childCount>0)?new Subtree[childCount]:NOCHILDREN;
+			int size=1;
+			for (int i=0;i<childCount;i++) size+=(children[i]=new Subtree(graph, model.getChildAt(cell, i))).size;
+			this.size=size;
+		}
+	}
+
+	/**
+	 * validates the cells of a subtree (children before their parent) that are edges or not
+	 * depending on edges, forking a task for each large child subtree.
+	 */
+	private class ValidationTask extends RecursiveAction {
+		private static final long serialVersionUID = 1L;
+		private final Subtree tree;
+		private final Hashtable<Object, Object> context;
+		private final boolean edges;
+		private final Set<Object> changed;
+		public ValidationTask(Subtree tree,Hashtable<Object, Object> context,boolean edges,Set<Object> changed) {
+			this.tree=tree;
+			this.context=context;
+			this.edges=edges;
+			this.changed=changed;
+		}
+		@Override
+		protected void compute() {
+			validateSubtree(tree, context, true);
+		}
+		private void validateSubtree(Subtree t,Hashtable<Object, Object> ctx,boolean fork) {
+			Hashtable<Object, Object> childCtx=(t.childContext!=null)?t.childContext:ctx;
+			ArrayList<ValidationTask> forked=null;
+			for (Subtree c:t.children) {
+				if (fork && (c.size>=MINFORKSIZE)) {
+					if (forked==null) forked=new ArrayList<ValidationTask>();
+					ValidationTask task=new ValidationTask(c, childCtx, edges, changed);
+					task.fork();
+					forked.add(task);
+				} else validateSubtree(c, childCtx, false);
+			}
+			if (forked!=null) for (ValidationTask task:forked) task.join();
+			if (t.edge==edges) validate(t.cell, ctx, changed);
+		}
+	}
 
-	boolean keepGoing=true;
-	
 	public Validator(mxGraphComponent gc) {
 		setName("Validator");
+		setDaemon(true);
 		graphComponent=gc;
 		graph=gc.getGraph();
 		model = (mxGraphModel) graph.getModel();
-		requests=new LinkedHashSet<mxCell>();
-		context=new Hashtable<Object, Object>();
-		warnings=new HashMap<Object, String>();
-		
+
 		graph.getModel().addListener(mxEvent.REQUEST_VALIDATION, new mxIEventListener()
 		{
 			public void invoke(Object sender, mxEventObject evt)
 			{
-				mxCell rootCell=(mxCell) evt.getProperty("root");
-				if (!requests.contains(rootCell)) {
-					System.out.println("Graph validation requested starting from cell: "+rootCell);
-					requests.add(rootCell);
-				}
+				requestFullValidation(evt.getProperty("root"));
 			}
 		});
 		start();
 	}
-	
-	public void kill() {keepGoing=false;}
-	
-	@Override
-	public void run() {
-		while(keepGoing) {
-			try {
-				Thread.sleep(1000);
-				processOldestRequest();
-			} catch (Exception e) {}
-		}
-	}
-	
-	private void processOldestRequest() {
-		if (!requests.isEmpty()) {
-			mxCell cell = requests.iterator().next();
-			requests.remove(cell);
-			context.clear();
-			warnings.clear();
 
-			model.fireEvent(new mxEventObject(mxEvent.VALIDATION_PRE_START));
+	public void kill() {
+		keepGoing=false;
+		interrupt();
+		pool.shutdownNow();
+	}
 
-			validateGraph(cell, context, warnings);
+	/**
+	 * queues the validation of all descendants of root. To be called in the thread that changes
+	 * the model, as the structure of the subtree is copied here.
+	 */
+	public void requestFullValidation(Object root) {
+		if ((root!=null) && keepGoing) requests.add(new FullValidation(root,new Subtree(graph, root)));
+	}
 
-			model.fireEvent(new mxEventObject(mxEvent.VALIDATION_DONE,"warnings",warnings));
+	/**
+	 * queues the validation of the cells affected by the given changes (as found in the "changes"
+	 * property of a model CHANGE event). To be called in the thread that changed the model.
+	 */
+	public void validateChanges(List<?> changes) {
+		if ((changes==null) || !keepGoing) return;
+		LinkedHashSet<Object> touched=new LinkedHashSet<Object>();
+		for (Object change:changes) {
+			if (change instanceof mxRootChange) {
+				requestFullValidation(((mxRootChange) change).getRoot());
+				return;
+			} else if (change instanceof mxChildChange) {
+				mxChildChange c=(mxChildChange) change;
+				touched.add(c.getChild());
+				if (c.getParent()==null) {
+					// removed: its descendants go away with it.
+					touched.addAll(mxGraphModel.getDescendants(model, c.getChild()));
+				}
+				if (c.getParent()!=null) touched.add(c.getParent());
+				if (c.getPrevious()!=null) touched.add(c.getPrevious());
+			} else if (change instanceof mxTerminalChange) {
+				mxTerminalChange c=(mxTerminalChange) change;
+				touched.add(c.getCell());
+				if (c.getTerminal()!=null) touched.add(c.getTerminal());
+				if (c.getPrevious()!=null) touched.add(c.getPrevious());
+			} else if (change instanceof mxValueChange) {
+				touched.add(((mxValueChange) change).getCell());
+			} else if (change instanceof mxGeometryChange) {
+				touched.add(((mxGeometryChange) change).getCell());
+			} else if (change instanceof mxStyleChange) {
+				touched.add(((mxStyleChange) change).getCell());
+			} else if (change instanceof mxCollapseChange) {
+				touched.add(((mxCollapseChange) change).getCell());
+			} else if (change instanceof mxVisibleChange) {
+				touched.add(((mxVisibleChange) change).getCell());
+			}
 		}
+		LinkedHashSet<Object> cells=new LinkedHashSet<Object>();
+		for (Object cell:touched) {
+			if (cell!=null) {
+				cells.add(cell);
+				addDependents(cell, cells);
+			}
+		}
+		requests.addAll(cells);
 	}
 
 	/**
-	 * Validates the graph by validating each descendant of the given cell or
-	 * the root of the model. Context is an object that contains the validation
-	 * state for the complete validation run. The validation errors are
-	 * attached to their cells using <setWarning>. This function returns true
-	 * if no validation errors exist in the graph.
-	 * 
-	 * @param cell Cell to start the validation recursion.
-	 * @param context Object that represents the global validation state.
+	 * adds to cells the cells whose validation may change when cell changes: its parent (that
+	 * checks its children), its child vertices and the sibling vertices that may be in the same
+	 * place (graphical containment), its edges and, for an edge, its terminals.
+	 * Called in the thread that changed the model.
 	 */
-	public boolean validateGraph(Object cell, Hashtable<Object, Object> context,HashMap<Object,String> totalWarnings)
-	{
-		mxIGraphModel model = graph.getModel();
-		mxGraphView view = graph.getView();
-		boolean isValid = true;
-		int childCount = model.getChildCount(cell);
-
-		for (int i = 0; i < childCount; i++)
-		{
-			Object tmp = model.getChildAt(cell, i);
-			Hashtable<Object, Object> ctx = context;
-
-			if (graph.isValidRoot(tmp))
-			{
-				ctx = new Hashtable<Object, Object>();
+	protected void addDependents(Object cell,Set<Object> cells) {
+		Object parent=model.getParent(cell);
+		if (parent!=null) cells.add(parent);
+		int childCount=model.getChildCount(cell);
+		for (int i=0;i<childCount;i++) {
+			Object child=model.getChildAt(cell, i);
+			if (model.isVertex(child)) cells.add(child);
+		}
+		if (model.isVertex(cell)) {
+			mxGeometry g=model.getGeometry(cell);
+			if ((parent!=null) && (g!=null)) {
+				int siblings=model.getChildCount(parent);
+				for (int i=0;i<siblings;i++) {
+					Object s=model.getChildAt(parent, i);
+					if ((s!=cell) && model.isVertex(s)) {
+						mxGeometry sg=model.getGeometry(s);
+						if (cellWarnings.containsKey(s) || ((sg!=null) && g.contains(sg.getCenterX(), sg.getCenterY()))) cells.add(s);
+					}
+				}
 			}
+			int edgeCount=model.getEdgeCount(cell);
+			for (int i=0;i<edgeCount;i++) cells.add(model.getEdgeAt(cell, i));
+		} else if (model.isEdge(cell)) {
+			Object source=model.getTerminal(cell, true),target=model.getTerminal(cell, false);
+			if (source!=null) cells.add(source);
+			if (target!=null) cells.add(target);
+		}
+	}
 
-			boolean isThisCellValid=validateGraph(tmp, ctx,totalWarnings);
-			isValid = isValid && isThisCellValid;
+	@Override
+	public void run() {
+		while(keepGoing) {
+			try {
+				ArrayList<Object> batch=new ArrayList<Object>();
+				batch.add(requests.take());
+				requests.drainTo(batch);
+				processRequests(batch);
+			} catch (InterruptedException e) {
+			} catch (Exception e) {
+				e.printStackTrace();
+			}
+		}
+	}
 
-			String warn=totalWarnings.get(tmp);
-			if (warn != null)
-			{
-				String html = warn.replaceAll("\n", "<br>");
-				int len = html.length();
-				graphComponent.setCellWarning(tmp, html.substring(0, Math.max(0, len - 4)));
+	private void processRequests(List<Object> batch) {
+		int last=-1;
+		for (int i=0;i<batch.size();i++) if (batch.get(i) instanceof FullValidation) last=i;
+		FullValidation full=(last>=0)?(FullValidation) batch.get(last):null;
+		Set<Object> changed;
+		if (full!=null) {
+			model.fireEvent(new mxEventObject(mxEvent.VALIDATION_PRE_START));
+			changed=Collections.newSetFromMap(new ConcurrentHashMap<Object, Boolean>());
+			Hashtable<Object, Object> rootContext=getContext(full.root, new HashMap<Object, Hashtable<Object,Object>>());
+			pool.invoke(new ValidationTask(full.tree, rootContext, false, changed));
+			pool.invoke(new ValidationTask(full.tree, rootContext, true, changed));
+			// drops the cells of a previous root.
+			for (Object c:new ArrayList<Object>(cellWarnings.keySet())) {
+				if (!model.contains(c)) cellWarnings.remove(c);
 			}
-			else
-			{
-				graphComponent.setCellWarning(tmp, null);
+			// the copied structure does not include the cells changed after it was taken, nor the removed ones.
+			LinkedHashSet<Object> others=new LinkedHashSet<Object>();
+			for (int i=0;i<batch.size();i++) {
+				Object r=batch.get(i);
+				if (!(r instanceof FullValidation) && ((i>last) || !model.contains(r))) others.add(r);
 			}
+			validateCells(others, changed);
+		} else {
+			changed=new HashSet<Object>();
+			validateCells(new LinkedHashSet<Object>(batch), changed);
 		}
+		// collapsed ancestors show if their descendants have warnings.
+		HashSet<Object> collapsed=new HashSet<Object>();
+		for (Object cell:changed) {
+			for (Object a=model.getParent(cell);a!=null;a=model.getParent(a)) {
+				if (graph.isCellCollapsed(a)) collapsed.add(a);
+			}
+		}
+		final HashMap<Object,String> update=new HashMap<Object, String>();
+		synchronized (warnings) {
+			for (Object cell:changed) update.put(cell, getDisplayedWarning(cell, collapsed.remove(cell)));
+			for (Object cell:collapsed) update.put(cell, getDisplayedWarning(cell, true));
+			for (Entry<Object,String> e:update.entrySet()) {
+				if (e.getValue()!=null) warnings.put(e.getKey(), e.getValue());
+				else warnings.remove(e.getKey());
+			}
+			if (full!=null) {
+				for (Object c:new ArrayList<Object>(warnings.keySet())) {
+					if (!model.contains(c)) warnings.remove(c);
+				}
+			}
+		}
+		SwingUtilities.invokeLater(new Runnable() {
+			@Override
+			public void run() {
+				for (Entry<Object,String> e:update.entrySet()) {
+					String warn=e.getValue();
+					graphComponent.setCellWarning(e.getKey(), (warn!=null)?toHTML(warn):null);
+				}
+				// Updates the display with the warning icons before any potential
+				// alerts are displayed
+				graph.getView().validate();
+				model.fireEvent(new mxEventObject(mxEvent.VALIDATION_DONE,"warnings",getWarnings()));
+			}
+		});
+	}
 
-		String warningsForCell=totalWarnings.get(cell);
-		if (warningsForCell==null) warningsForCell="";
-		
-		// Adds error for invalid children if collapsed (children invisible)
-		if (graph.isCellCollapsed(cell) && !isValid)
-			warningsForCell+=mxResources.get("containsValidationErrors","Contains Validation Errors")+"\n";
+	private void validateCells(Collection<Object> cells,Set<Object> changed) {
+		// the valid roots of the graph have a context each.
+		HashMap<Object,Hashtable<Object, Object>> contexts=new HashMap<Object, Hashtable<Object,Object>>();
+		for (Object cell:cells) validate(cell, getContext(cell, contexts), changed);
+	}
+	// called concurrently for different cells.
+	private void validate(Object cell,Hashtable<Object, Object> context,Set<Object> changed) {
+		String w=null;
+		if (model.contains(cell)) w=validateCell(cell, context);
+		else cellRemoved(cell);
+		String old=(w!=null)?cellWarnings.put(cell, w):cellWarnings.remove(cell);
+		if ((w==null)?(old!=null):!w.equals(old)) changed.add(cell);
+	}
 
+	/**
+	 * @return a copy of the warnings currently displayed for each cell.
+	 */
+	public HashMap<Object,String> getWarnings() {
+		synchronized (warnings) {
+			return new HashMap<Object, String>(warnings);
+		}
+	}
+
+	/**
+	 * @return the warnings for cell (with a trailing new line) or null if there are none.
+	 */
+	protected String validateCell(Object cell,Hashtable<Object, Object> context) {
+		StringBuilder warningsForCell=new StringBuilder();
 		// Checks edges and cells using the defined multiplicities
 		String tmp=null;
 		if (model.isEdge(cell)) tmp = graph.getEdgeValidationError(cell, model.getTerminal(cell, true), model.getTerminal(cell, false));
 		else tmp = graph.getCellValidationError(cell);
-		if (tmp != null) warningsForCell+=tmp+"\n";
+		if (tmp != null) warningsForCell.append(tmp).append('\n');
 
 		// Checks custom validation rules
 		tmp = graph.validateCell(cell, context);
-		if (tmp != null) warningsForCell+=tmp+"\n";
+		if (tmp != null) warningsForCell.append(tmp).append('\n');
+
+		if (warningsForCell.length()==0) return null;
+		String w=StringUtils.cleanupSpaces(warningsForCell.toString());
+		return StringUtils.isEmptyString(w)?null:w;
+	}
 
-		warningsForCell=StringUtils.cleanupSpaces(warningsForCell);
-		if (!StringUtils.isEmptyString(warningsForCell)) totalWarnings.put(cell, warningsForCell);
-		
-		// Updates the display with the warning icons before any potential
-		// alerts are displayed
-		if (model.getParent(cell) == null) view.validate();
-		
-		return (warningsForCell.isEmpty() && isValid);
+	/**
+	 * called in the validation thread for the cells to validate that are no longer in the model.
+	 */
+	protected void cellRemoved(Object cell) {
 	}
 
+	// new lines become <br>, the last line break is dropped.
+	private static String toHTML(String warn) {
+		int len=warn.length();
+		StringBuilder html=new StringBuilder(len+32);
+		for (int i=0;i<len;i++) {
+			char c=warn.charAt(i);
+			if (c=='\n') html.append("<br>");
+			else html.append(c);
+		}
+		html.setLength(Math.max(0, html.length()-4));
+		return html.toString();
+	}
+	private String getDisplayedWarning(Object cell,boolean collapsed) {
+		if (!model.contains(cell)) return null;
+		String w=cellWarnings.get(cell);
+		// Adds error for invalid children if collapsed (children invisible)
+		if (collapsed && hasInvalidDescendant(cell)) w=mxResources.get("containsValidationErrors","Contains Validation Errors")+"\n"+((w!=null)?w:"");
+		return w;
+	}
+	private boolean hasInvalidDescendant(Object cell) {
+		for (Object c:cellWarnings.keySet()) {
+			if ((c!=cell) && model.isAncestor(cell, c)) return true;
+		}
+		return false;
+	}
+	private Hashtable<Object, Object> getContext(Object cell,HashMap<Object,Hashtable<Object, Object>> contexts) {
+		Object root=null;
+		for (Object p=model.getParent(cell);p!=null;p=model.getParent(p)) {
+			if (graph.isValidRoot(p)) {
+				root=p;
+				break;
+			}
+		}
+		Hashtable<Object, Object> ctx=contexts.get(root);
+		if (ctx==null) contexts.put(root, ctx=new Hashtable<Object, Object>());
+		return ctx;
+	}
 }
@@ -77,6 +77,13 @@ public class mxCellState extends mxRectangle
 	 */
 	protected mxRectangle boundingBox;
 
+	/**
+	 * Holds the bounds of the states of the cell and its descendants as
+	 * returned by mxGraphView.validatePoints, used to skip the validation of
+	 * unchanged subtrees.
+	 */
+	protected mxRectangle subtreeBounds;
+
 	/**
 	 * Specifies if the state is invalid. Default is true.
 	 */
@@ -371,6 +378,26 @@ public class mxCellState extends mxRectangle
 		this.boundingBox = boundingBox;
 	}
 
+	/**
+	 * Returns the bounds of the subtree.
+	 * 
+	 * @return Returns the cached bounds of this state and its descendants.
+	 */
+	public mxRectangle getSubtreeBounds()
+	{
+		return subtreeBounds;
+	}
+
+	/**
+	 * Sets the bounds of the subtree.
+	 * 
+	 * @param subtreeBounds
+	 */
+	public void setSubtreeBounds(mxRectangle subtreeBounds)
+	{
+		this.subtreeBounds = subtreeBounds;
+	}
+
 	/**
 	 * Returns the rectangle that should be used as the perimeter of the cell.
 	 * This implementation adds the perimeter spacing to the rectangle
@@ -479,6 +506,11 @@ public class mxCellState extends mxRectangle
 			clone.boundingBox = (mxRectangle) boundingBox.clone();
 		}
 
+		if (subtreeBounds != null)
+		{
+			clone.subtreeBounds = (mxRectangle) subtreeBounds.clone();
+		}
+
 		clone.terminalDistance = terminalDistance;
 		clone.segments = segments;
 		clone.length = length;
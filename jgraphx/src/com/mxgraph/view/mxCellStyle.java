@@ -0,0 +1,235 @@
+package com.mxgraph.view;
+
+import java.awt.Color;
+import java.util.AbstractMap;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import com.mxgraph.util.mxUtils;
+
+/**
+ * Immutable resolved cell style as returned by mxStylesheet. The typed
+ * accessors parse each value at most once, so that painting the same style
+ * over and over does not parse the same strings again. The mxUtils style
+ * getters use these accessors when they are given an instance of this class.
+ *
+ * Instances must not be modified. To change the appearance of cells, change
+ * the style strings of the cells or the styles in the stylesheet.
+ */
+public class mxCellStyle extends AbstractMap<String, Object>
+{
+
+	/**
+	 * Marks keys whose value is not a color.
+	 */
+	protected static final Object NO_COLOR = new Object();
+
+	/**
+	 * Holds the key, value pairs of the style.
+	 */
+	protected final Map<String, Object> values;
+
+	/**
+	 * Hash code of the key, value pairs.
+	 */
+	protected final int hash;
+
+	/**
+	 * Maps from keys to the parsed values of the typed accessors.
+	 */
+	protected final Map<String, Float> floats = new ConcurrentHashMap<String, Float>();
+
+	protected final Map<String, Double> doubles = new ConcurrentHashMap<String, Double>();
+
+	protected final Map<String, Boolean> booleans = new ConcurrentHashMap<String, Boolean>();
+
+	protected final Map<String, Object> colors = new ConcurrentHashMap<String, Object>();
+
+	/**
+	 * Constructs a new style that contains a copy of the given key, value
+	 * pairs.
+	 *
+	 * @param style Key, value pairs of the style.
+	 */
+	public mxCellStyle(Map<String, Object> style)
+	{
+		values = Collections.unmodifiableMap(new HashMap<String, Object>(
+				style));
+		hash = values.hashCode();
+	}
+
+	/**
+	 * Returns the value for the given key.
+	 */
+	public Object get(Object key)
+	{
+		return values.get(key);
+	}
+
+	/**
+	 * Returns true if a value is defined for the given key.
+	 */
+	public boolean containsKey(Object key)
+	{
+		return values.containsKey(key);
+	}
+
+	/**
+	 * Returns the number of key, value pairs.
+	 */
+	public int size()
+	{
+		return values.size();
+	}
+
+	/**
+	 * Returns an unmodifiable view of the key, value pairs.
+	 */
+	public Set<Map.Entry<String, Object>> entrySet()
+	{
+		return values.entrySet();
+	}
+
+	/**
+	 * Returns the cached hash code of the key, value pairs.
+	 */
+	public int hashCode()
+	{
+		return hash;
+	}
+
+	/**
+	 * Returns true if the given object is a map with the same key, value
+	 * pairs.
+	 */
+	public boolean equals(Object o)
+	{
+		if (o == this)
+		{
+			return true;
+		}
+		else if (o instanceof mxCellStyle && ((mxCellStyle) o).hash != hash)
+		{
+			return false;
+		}
+
+		return super.equals(o);
+	}
+
+	/**
+	 * Returns the value for key as a boolean or defaultValue if no value is
+	 * defined. See mxUtils.isTrue.
+	 */
+	public boolean isTrue(String key, boolean defaultValue)
+	{
+		Object value = values.get(key);
+
+		if (value == null)
+		{
+			return defaultValue;
+		}
+
+		Boolean result = booleans.get(key);
+
+		if (result == null)
+		{
+			result = Boolean.valueOf(value.equals("1")
+					|| value.toString().toLowerCase().equals("true"));
+			booleans.put(key, result);
+		}
+
+		return result.booleanValue();
+	}
+
+	/**
+	 * Returns the value for key as an int or defaultValue if no value is
+	 * defined. See mxUtils.getInt.
+	 */
+	public int getInt(String key, int defaultValue)
+	{
+		if (values.get(key) == null)
+		{
+			return defaultValue;
+		}
+
+		// Handles commas by casting them to an int
+		return (int) getFloat(key, 0);
+	}
+
+	/**
+	 * Returns the value for key as a float or defaultValue if no value is
+	 * defined. See mxUtils.getFloat.
+	 */
+	public float getFloat(String key, float defaultValue)
+	{
+		Object value = values.get(key);
+
+		if (value == null)
+		{
+			return defaultValue;
+		}
+
+		Float result = floats.get(key);
+
+		if (result == null)
+		{
+			result = Float.valueOf(Float.parseFloat(value.toString()));
+			floats.put(key, result);
+		}
+
+		return result.floatValue();
+	}
+
+	/**
+	 * Returns the value for key as a double or defaultValue if no value is
+	 * defined. See mxUtils.getDouble.
+	 */
+	public double getDouble(String key, double defaultValue)
+	{
+		Object value = values.get(key);
+
+		if (value == null)
+		{
+			return defaultValue;
+		}
+
+		Double result = doubles.get(key);
+
+		if (result == null)
+		{
+			result = Double.valueOf(Double.parseDouble(value.toString()));
+			doubles.put(key, result);
+		}
+
+		return result.doubleValue();
+	}
+
+	/**
+	 * Returns the value for key as a color or defaultValue if no value is
+	 * defined. See mxUtils.getColor.
+	 */
+	public Color getColor(String key, Color defaultValue)
+	{
+		Object value = values.get(key);
+
+		if (value == null)
+		{
+			return defaultValue;
+		}
+
+		Object result = colors.get(key);
+
+		if (result == null)
+		{
+			Color color = mxUtils.parseColor(value.toString());
+			result = (color != null) ? color : NO_COLOR;
+			colors.put(key, result);
+		}
+
+		return (result != NO_COLOR) ? (Color) result : null;
+	}
+
+}
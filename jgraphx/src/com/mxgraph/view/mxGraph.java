@@ -922,6 +922,7 @@ public class mxGraph extends mxEventSource
 			if (invalidate)
 			{
 				clearSelection();
+				view.clearChildIndices();
 				removeStateForCell(cell=((mxRootChange) change).getPrevious());
 				if (changedCells!=null) changedCells.add(cell);
 
@@ -988,11 +989,26 @@ public class mxGraph extends mxEventSource
 				if (cc.getParent() != null)
 				{
 					view.clear(cell=cc.getChild(), false, true);
+
+					// Edges connected to the subtree follow it
+					view.invalidate(cell);
 				}
 				else
 				{
 					removeStateForCell(cell=cc.getChild());
 				}
+
+				// The previous parent loses the bounds of the child
+				view.markDirty(cc.getPrevious());
+
+				// The indices of the children have changed
+				view.clearChildIndex(cc.getParent());
+				view.clearChildIndex(cc.getPrevious());
+
+				if (cc.getParent() == null)
+				{
+					view.clearChildIndex(cell);
+				}
 				if (changedCells!=null) changedCells.add(cell);
 			}
 		}
@@ -1133,12 +1149,9 @@ public class mxGraph extends mxEventSource
 		Map<String, Object> style = (model.isEdge(cell)) ? stylesheet
 				.getDefaultEdgeStyle() : stylesheet.getDefaultVertexStyle();
 
-		String name = model.getStyle(cell);
-
-		if (name != null)
-		{
-			style = stylesheet.getCellStyle(name, style);
-		}
+		// Also resolves cells without a style string so that all cells share
+		// the immutable, cached styles of the stylesheet
+		style = stylesheet.getCellStyle(model.getStyle(cell), style);
 
 		if (style == null)
 		{
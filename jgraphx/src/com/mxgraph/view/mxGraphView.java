@@ -6,9 +6,13 @@ package com.mxgraph.view;
 
 import java.awt.geom.Line2D;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Hashtable;
+import java.util.IdentityHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 
 import com.mxgraph.model.mxGeometry;
 import com.mxgraph.model.mxGraphModel;
@@ -33,6 +37,12 @@ import com.mxgraph.view.mxPerimeter.mxPerimeterFunction;
  * state (translate, scale) changes. The scale and translate are honoured in
  * the bounds.
  * 
+ * Validation is incremental: the cells whose states were invalidated,
+ * created or removed are marked as dirty together with their ancestors,
+ * and validate only visits the dirty subtrees. The bounds of the other
+ * subtrees, and thus the graph bounds, are taken from the cached subtree
+ * bounds of their states.
+ * 
  * This class fires the following events:
  * 
  * mxEvent.UNDO fires after the root was changed in setCurrentRoot. The
@@ -97,6 +107,28 @@ public class mxGraphView extends mxEventSource
 	 */
 	protected Hashtable<Object, mxCellState> states = new Hashtable<Object, mxCellState>();
 
+	/**
+	 * Spatial index over the bounding boxes of the vertex and edge states,
+	 * updated in validatePoints and used for hit-detection.
+	 */
+	protected mxSpatialIndex spatialIndex = new mxSpatialIndex();
+
+	/**
+	 * Maps from parents to the indices of their children. Used together with
+	 * the spatial index to order hits without searching the children. The
+	 * stored indices are checked against the model in getChildIndex.
+	 */
+	protected Map<Object, Map<Object, Integer>> childIndices = new ConcurrentHashMap<Object, Map<Object, Integer>>();
+
+	/**
+	 * Cells whose subtree contains states to be validated. The ancestors of
+	 * a dirty cell are dirty. This is a concurrent set since isDirty is
+	 * called while painting, which may happen outside of the thread that
+	 * changes the graph.
+	 */
+	protected Set<Object> dirty = Collections
+			.newSetFromMap(new ConcurrentHashMap<Object, Boolean>());
+
 	/**
 	 * Constructs a new view for the given graph.
 	 * 
@@ -131,6 +163,120 @@ public class mxGraphView extends mxEventSource
 	public void setStates(Hashtable<Object, mxCellState> states)
 	{
 		this.states = states;
+		spatialIndex.clear();
+
+		// The dirty cells were tracked for the previous states
+		for (mxCellState state : states.values())
+		{
+			updateSpatialIndex(state);
+			markDirty(state.getCell());
+		}
+	}
+
+	/**
+	 * Marks the given cell and its ancestors as containing states to be
+	 * validated.
+	 * 
+	 * @param cell Cell whose subtree has changed.
+	 */
+	public void markDirty(Object cell)
+	{
+		mxIGraphModel model = graph.getModel();
+
+		while (cell != null && dirty.add(cell))
+		{
+			cell = model.getParent(cell);
+		}
+	}
+
+	/**
+	 * Returns true if the subtree of the given cell contains states to be
+	 * validated.
+	 */
+	public boolean isDirty(Object cell)
+	{
+		return cell != null && dirty.contains(cell);
+	}
+
+	/**
+	 * Returns the spatial index of the cell states.
+	 */
+	public mxSpatialIndex getSpatialIndex()
+	{
+		return spatialIndex;
+	}
+
+	/**
+	 * Returns the index of the given child in parent or -1 if it is not a
+	 * child of parent. The indices of all children of parent are cached, and
+	 * the cache is rebuilt if the index stored for the child is out of date.
+	 * This may be called from a thread other than the one updating the view.
+	 */
+	public int getChildIndex(Object parent, Object child)
+	{
+		mxIGraphModel model = graph.getModel();
+		Map<Object, Integer> indices = childIndices.get(parent);
+		Integer index = (indices != null) ? indices.get(child) : null;
+
+		if (index == null || index.intValue() >= model.getChildCount(parent)
+				|| model.getChildAt(parent, index.intValue()) != child)
+		{
+			int childCount = model.getChildCount(parent);
+			indices = new IdentityHashMap<Object, Integer>(childCount);
+
+			for (int i = 0; i < childCount; i++)
+			{
+				indices.put(model.getChildAt(parent, i), Integer.valueOf(i));
+			}
+
+			childIndices.put(parent, indices);
+			index = indices.get(child);
+		}
+
+		return (index != null) ? index.intValue() : -1;
+	}
+
+	/**
+	 * Removes the cached child indices of the given parent.
+	 */
+	public void clearChildIndex(Object parent)
+	{
+		if (parent != null)
+		{
+			childIndices.remove(parent);
+		}
+	}
+
+	/**
+	 * Removes the cached child indices of all parents.
+	 */
+	public void clearChildIndices()
+	{
+		childIndices.clear();
+	}
+
+	/**
+	 * Stores the area of the given state where the cell can be hit in the
+	 * spatial index, that is, its bounding box and label bounds.
+	 */
+	protected void updateSpatialIndex(mxCellState state)
+	{
+		mxRectangle bb = state.getBoundingBox();
+
+		if (bb != null)
+		{
+			bb = new mxRectangle(bb);
+
+			if (state.getLabelBounds() != null)
+			{
+				bb.add(state.getLabelBounds());
+			}
+
+			// Covers the integer rounding of the hit-detection
+			bb.grow(1);
+		}
+
+		spatialIndex.put(state.getCell(), bb);
 	}
 
 	/**
@@ -357,6 +503,8 @@ public class mxGraphView extends mxEventSource
 	public void reload()
 	{
 		states.clear();
+		spatialIndex.clear();
+		childIndices.clear();
 		revalidate();
 	}
 
@@ -419,7 +567,11 @@ public class mxGraphView extends mxEventSource
 		{
 			if (state != null)
 			{
+				// Resolved styles are cached by the stylesheet, so this picks
+				// up changes to the stylesheet without parsing the style
+				state.setStyle(graph.getCellStyle(cell));
 				state.setInvalid(true);
+				markDirty(cell);
 			}
 
 			// Recursively invalidates all descendants
@@ -456,6 +608,12 @@ public class mxGraphView extends mxEventSource
 			validateBounds(parentState, cell);
 			mxRectangle gb = validatePoints(parentState, cell);
 			if (setGraphBounds) setGraphBounds(gb);
+
+			// The remaining dirty cells are no longer in the model
+			if (cell == graph.getModel().getRoot())
+			{
+				dirty.clear();
+			}
 		}
 	}
 
@@ -472,6 +630,12 @@ public class mxGraphView extends mxEventSource
 		mxIGraphModel model = graph.getModel();
 		mxCellState state = getState(cell, true);
 
+		// Skips the subtrees without invalid states
+		if (state != null && !state.isInvalid() && !isDirty(cell))
+		{
+			return;
+		}
+
 		if (state != null && state.isInvalid())
 		{
 			if (!graph.isCellVisible(cell))
@@ -596,7 +760,8 @@ public class mxGraphView extends mxEventSource
 	/**
 	 * Validates the points for the state of the given cell recursively if the
 	 * cell is not collapsed and returns the bounding box of all visited states
-	 * as a rectangle.
+	 * as a rectangle. Subtrees that are not dirty are not visited, their
+	 * cached bounds are returned instead.
 	 * 
 	 * @param parentState Object that represents the state of the parent cell.
 	 * @param cell Cell for which the points in the state should be updated.
@@ -606,6 +771,20 @@ public class mxGraphView extends mxEventSource
 	{
 		mxCellState state = getState(cell);
 
+		if (state == null)
+		{
+			if (cell != null)
+			{
+				dirty.remove(cell);
+			}
+		}
+		else if (!state.isInvalid() && state.getSubtreeBounds() != null
+				&& !isDirty(cell))
+		{
+			return new mxRectangle(state.getSubtreeBounds());
+		}
+
+		boolean changed = false;
 		double minX = 0;
 		double minY = 0;
 		double maxX = 0;
@@ -667,12 +846,20 @@ public class mxGraphView extends mxEventSource
 				}
 
 				state.setInvalid(false);
+				changed = true;
 			}
 
 			if (isEdge || model.isVertex(cell))
 			{
-				updateLabelBounds(state);
-				mxRectangle bb = updateBoundingBox(state);
+				mxRectangle bb = state.getBoundingBox();
+
+				// Labels and bounding boxes of valid states are up to date
+				if (changed || bb == null)
+				{
+					updateLabelBounds(state);
+					bb = updateBoundingBox(state);
+					updateSpatialIndex(state);
+				}
 
 				minX = bb.getX();
 				minY = bb.getY();
@@ -699,7 +886,16 @@ public class mxGraphView extends mxEventSource
 			}
 		}
 
-		return new mxRectangle(minX, minY, maxX - minX, maxY - minY);
+		mxRectangle result = new mxRectangle(minX, minY, maxX - minX, maxY
+				- minY);
+
+		if (state != null)
+		{
+			state.setSubtreeBounds(new mxRectangle(result));
+			dirty.remove(cell);
+		}
+
+		return result;
 	}
 
 	/**
@@ -1614,6 +1810,7 @@ public class mxGraphView extends mxEventSource
 			{
 				state = createState(cell);
 				states.put(cell, state);
+				markDirty(cell);
 			}
 		}
 
@@ -1628,7 +1825,17 @@ public class mxGraphView extends mxEventSource
 	 */
 	public mxCellState removeState(Object cell)
 	{
-		return (cell != null) ? (mxCellState) states.remove(cell) : null;
+		if (cell != null)
+		{
+			spatialIndex.remove(cell);
+			// The bounds of the ancestors change, and the state may have to
+			// be created again if the cell was moved
+			markDirty(graph.getModel().getParent(cell));
+
+			return (mxCellState) states.remove(cell);
+		}
+
+		return null;
 	}
 
 	/**
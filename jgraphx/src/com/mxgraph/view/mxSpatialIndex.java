@@ -0,0 +1,383 @@
+package com.mxgraph.view;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.mxgraph.util.mxRectangle;
+
+/**
+ * Uniform grid over the bounds of cells, used to find the cells that may
+ * contain a given point without visiting all cells. The grid is a candidate
+ * filter only: the bounds stored for a cell must contain every point where
+ * the cell can be hit, and callers must check the returned cells exactly.
+ * Cells that cover more than maxBucketsPerCell grid buckets (such as large
+ * containers) are kept in a separate list that is returned by every query.
+ *
+ * The methods are synchronized so that the index can be queried from a
+ * thread other than the one updating the view.
+ */
+public class mxSpatialIndex
+{
+
+	/**
+	 * Default size of a grid bucket in view coordinates.
+	 */
+	public static final double DEFAULT_BUCKETSIZE = 128;
+
+	/**
+	 * Maximum number of buckets a cell is stored in before it is moved to
+	 * the list of oversized cells. Default is 64.
+	 */
+	protected int maxBucketsPerCell = 64;
+
+	/**
+	 * Size of a grid bucket.
+	 */
+	protected double bucketSize;
+
+	/**
+	 * Maps from bucket keys to the cells whose bounds intersect the bucket.
+	 */
+	protected Map<Long, List<Object>> buckets = new HashMap<Long, List<Object>>();
+
+	/**
+	 * Maps from cells to their stored entries.
+	 */
+	protected Map<Object, Entry> entries = new IdentityHashMap<Object, Entry>();
+
+	/**
+	 * Cells that are stored outside of the grid.
+	 */
+	protected List<Object> oversized = new ArrayList<Object>();
+
+	/**
+	 * Bounds and bucket range of a stored cell.
+	 */
+	protected static class Entry
+	{
+
+		double x, y, width, height;
+
+		/**
+		 * Bucket range, minCol > maxCol for oversized cells.
+		 */
+		int minCol, minRow, maxCol, maxRow;
+
+	}
+
+	/**
+	 * Constructs a new index with the default bucket size.
+	 */
+	public mxSpatialIndex()
+	{
+		this(DEFAULT_BUCKETSIZE);
+	}
+
+	/**
+	 * Constructs a new index with the given bucket size.
+	 */
+	public mxSpatialIndex(double bucketSize)
+	{
+		this.bucketSize = bucketSize;
+	}
+
+	/**
+	 * Stores or updates the bounds of the given cell. Nothing is changed if
+	 * the bounds are the same as the stored ones.
+	 *
+	 * @param cell Cell to be stored.
+	 * @param bounds Bounds of the cell. If null the cell is removed.
+	 */
+	public synchronized void put(Object cell, mxRectangle bounds)
+	{
+		if (bounds == null)
+		{
+			remove(cell);
+
+			return;
+		}
+
+		Entry entry = entries.get(cell);
+
+		if (entry != null)
+		{
+			if (entry.x == bounds.getX() && entry.y == bounds.getY()
+					&& entry.width == bounds.getWidth()
+					&& entry.height == bounds.getHeight())
+			{
+				return;
+			}
+
+			removeEntry(cell, entry);
+		}
+		else
+		{
+			entry = new Entry();
+			entries.put(cell, entry);
+		}
+
+		entry.x = bounds.getX();
+		entry.y = bounds.getY();
+		entry.width = bounds.getWidth();
+		entry.height = bounds.getHeight();
+		entry.minCol = getBucket(entry.x);
+		entry.minRow = getBucket(entry.y);
+		entry.maxCol = getBucket(entry.x + entry.width);
+		entry.maxRow = getBucket(entry.y + entry.height);
+
+		if ((long) (entry.maxCol - entry.minCol + 1)
+				* (entry.maxRow - entry.minRow + 1) > maxBucketsPerCell)
+		{
+			entry.minCol = 1;
+			entry.maxCol = 0;
+			oversized.add(cell);
+		}
+		else
+		{
+			for (int col = entry.minCol; col <= entry.maxCol; col++)
+			{
+				for (int row = entry.minRow; row <= entry.maxRow; row++)
+				{
+					Long key = getKey(col, row);
+					List<Object> bucket = buckets.get(key);
+
+					if (bucket == null)
+					{
+						bucket = new ArrayList<Object>(4);
+						buckets.put(key, bucket);
+					}
+
+					bucket.add(cell);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Removes the given cell from the index.
+	 */
+	public synchronized void remove(Object cell)
+	{
+		Entry entry = entries.remove(cell);
+
+		if (entry != null)
+		{
+			removeEntry(cell, entry);
+		}
+	}
+
+	/**
+	 * Removes all cells from the index.
+	 */
+	public synchronized void clear()
+	{
+		buckets.clear();
+		entries.clear();
+		oversized.clear();
+	}
+
+	/**
+	 * Returns the number of cells in the index.
+	 */
+	public synchronized int size()
+	{
+		return entries.size();
+	}
+
+	/**
+	 * Returns the cells whose stored bounds contain the given point grown by
+	 * the given tolerance.
+	 */
+	public synchronized List<Object> getCells(double x, double y,
+			double tolerance)
+	{
+		List<Object> result = new ArrayList<Object>();
+
+		if (tolerance > 0)
+		{
+			// Collects the neighbouring buckets that the tolerance reaches
+			// without returning the same cell twice
+			Map<Object, Object> seen = new IdentityHashMap<Object, Object>();
+			int minCol = getBucket(x - tolerance);
+			int maxCol = getBucket(x + tolerance);
+			int minRow = getBucket(y - tolerance);
+			int maxRow = getBucket(y + tolerance);
+
+			for (int col = minCol; col <= maxCol; col++)
+			{
+				for (int row = minRow; row <= maxRow; row++)
+				{
+					addCells(buckets.get(getKey(col, row)), x, y, tolerance,
+							seen, result);
+				}
+			}
+		}
+		else
+		{
+			tolerance = 0;
+			addCells(buckets.get(getKey(getBucket(x), getBucket(y))), x, y,
+					tolerance, null, result);
+		}
+
+		addCells(oversized, x, y, tolerance, null, result);
+
+		return result;
+	}
+
+	/**
+	 * Returns the cells whose stored bounds intersect the given rectangle.
+	 */
+	public synchronized List<Object> getCells(mxRectangle rect)
+	{
+		List<Object> result = new ArrayList<Object>();
+		Collection<Object> candidates;
+
+		int minCol = getBucket(rect.getX());
+		int maxCol = getBucket(rect.getX() + rect.getWidth());
+		int minRow = getBucket(rect.getY());
+		int maxRow = getBucket(rect.getY() + rect.getHeight());
+
+		if ((long) (maxCol - minCol + 1) * (maxRow - minRow + 1) > buckets
+				.size())
+		{
+			candidates = entries.keySet();
+		}
+		else
+		{
+			Map<Object, Object> seen = new IdentityHashMap<Object, Object>();
+
+			for (int col = minCol; col <= maxCol; col++)
+			{
+				for (int row = minRow; row <= maxRow; row++)
+				{
+					List<Object> bucket = buckets.get(getKey(col, row));
+
+					if (bucket != null)
+					{
+						for (Object cell : bucket)
+						{
+							seen.put(cell, cell);
+						}
+					}
+				}
+			}
+
+			for (Object cell : oversized)
+			{
+				seen.put(cell, cell);
+			}
+
+			candidates = seen.keySet();
+		}
+
+		for (Object cell : candidates)
+		{
+			Entry e = entries.get(cell);
+
+			if (e.x <= rect.getX() + rect.getWidth()
+					&& rect.getX() <= e.x + e.width
+					&& e.y <= rect.getY() + rect.getHeight()
+					&& rect.getY() <= e.y + e.height)
+			{
+				result.add(cell);
+			}
+		}
+
+		return result;
+	}
+
+	/**
+	 * Adds the cells of the given list whose bounds contain the given point
+	 * grown by tolerance to result.
+	 */
+	protected void addCells(List<Object> cells, double x, double y,
+			double tolerance, Map<Object, Object> seen, List<Object> result)
+	{
+		if (cells != null)
+		{
+			for (Object cell : cells)
+			{
+				Entry e = entries.get(cell);
+
+				if (x >= e.x - tolerance && x <= e.x + e.width + tolerance
+						&& y >= e.y - tolerance
+						&& y <= e.y + e.height + tolerance
+						&& (seen == null || seen.put(cell, cell) == null))
+				{
+					result.add(cell);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Removes the given cell from the buckets of the given entry.
+	 */
+	protected void removeEntry(Object cell, Entry entry)
+	{
+		if (entry.minCol > entry.maxCol)
+		{
+			removeIdentity(oversized, cell);
+		}
+		else
+		{
+			for (int col = entry.minCol; col <= entry.maxCol; col++)
+			{
+				for (int row = entry.minRow; row <= entry.maxRow; row++)
+				{
+					Long key = getKey(col, row);
+					List<Object> bucket = buckets.get(key);
+
+					if (bucket != null)
+					{
+						removeIdentity(bucket, cell);
+
+						if (bucket.isEmpty())
+						{
+							buckets.remove(key);
+						}
+					}
+				}
+			}
+		}
+	}
+
+	/**
+	 * Returns the grid column or row of the given coordinate.
+	 */
+	protected int getBucket(double coord)
+	{
+		return (int) Math.floor(coord / bucketSize);
+	}
+
+	/**
+	 * Returns the key of the given bucket.
+	 */
+	protected static Long getKey(int col, int row)
+	{
+		return Long.valueOf(((long) col << 32) | (row & 0xffffffffL));
+	}
+
+	/**
+	 * Removes the given object from the list comparing references.
+	 */
+	protected static void removeIdentity(List<Object> list, Object cell)
+	{
+		for (int i = list.size() - 1; i >= 0; i--)
+		{
+			if (list.get(i) == cell)
+			{
+				int last = list.size() - 1;
+				list.set(i, list.get(last));
+				list.remove(last);
+
+				return;
+			}
+		}
+	}
+
+}
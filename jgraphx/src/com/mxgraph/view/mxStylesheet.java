@@ -4,7 +4,10 @@
  */
 package com.mxgraph.view;
 
+import java.util.HashMap;
 import java.util.Hashtable;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
 import java.util.Map;
 
 import com.mxgraph.util.mxConstants;
@@ -19,6 +22,12 @@ import com.mxgraph.util.mxConstants;
  * 
  * To change the default font size for all cells, set
  * mxConstants.DEFAULT_FONTSIZE.
+ * 
+ * The styles returned by getCellStyle are immutable instances of mxCellStyle
+ * that are cached by style string and shared between cells with the same
+ * style. The cache is cleared whenever one of the styles in the stylesheet
+ * is changed, for this reason the stylesheet stores copies of the styles
+ * that are passed to putCellStyle and setStyles.
  */
 public class mxStylesheet
 {
@@ -31,7 +40,108 @@ public class mxStylesheet
 	/**
 	 * Maps from names to styles.
 	 */
-	protected Map<String, Map<String, Object>> styles = new Hashtable<String, Map<String, Object>>();
+	protected Map<String, Map<String, Object>> styles = new StyleTable();
+
+	/**
+	 * Maximum number of resolved styles that are cached per default style.
+	 * Default is 4096.
+	 */
+	protected int maxCachedStyles = 4096;
+
+	/**
+	 * Maps from default styles to the resolved styles by style string.
+	 */
+	protected Map<Map<String, Object>, Map<String, mxCellStyle>> resolvedStyles = new IdentityHashMap<Map<String, Object>, Map<String, mxCellStyle>>();
+
+	/**
+	 * Holds the distinct resolved styles so that equal styles are shared.
+	 */
+	protected Map<mxCellStyle, mxCellStyle> internedStyles = new HashMap<mxCellStyle, mxCellStyle>();
+
+	/**
+	 * Table of the styles in the stylesheet. Stores the given styles as
+	 * instances of Style and clears the resolved styles when it is changed.
+	 */
+	protected class StyleTable extends Hashtable<String, Map<String, Object>>
+	{
+
+		private static final long serialVersionUID = 1L;
+
+		public Map<String, Object> put(String key,
+				Map<String, Object> value)
+		{
+			if (!isStoredStyle(value))
+			{
+				value = new Style(value);
+			}
+
+			Map<String, Object> result = super.put(key, value);
+			styleChanged();
+
+			return result;
+		}
+
+		public Map<String, Object> remove(Object key)
+		{
+			Map<String, Object> result = super.remove(key);
+			styleChanged();
+
+			return result;
+		}
+
+		public void clear()
+		{
+			super.clear();
+			styleChanged();
+		}
+
+	}
+
+	/**
+	 * Style stored in the stylesheet. Clears the resolved styles of the
+	 * stylesheet when it is changed.
+	 */
+	protected class Style extends Hashtable<String, Object>
+	{
+
+		private static final long serialVersionUID = 1L;
+
+		public Style(Map<String, Object> style)
+		{
+			if (style != null)
+			{
+				super.putAll(style);
+			}
+		}
+
+		public mxStylesheet getStylesheet()
+		{
+			return mxStylesheet.this;
+		}
+
+		public Object put(String key, Object value)
+		{
+			Object result = super.put(key, value);
+			styleChanged();
+
+			return result;
+		}
+
+		public Object remove(Object key)
+		{
+			Object result = super.remove(key);
+			styleChanged();
+
+			return result;
+		}
+
+		public void clear()
+		{
+			super.clear();
+			styleChanged();
+		}
+
+	}
 
 	/**
 	 * Constructs a new stylesheet and assigns default styles.
@@ -53,11 +163,36 @@ public class mxStylesheet
 	}
 
 	/**
-	 * Sets all styles in the stylesheet.
+	 * Sets all styles in the stylesheet. The styles are copied.
 	 */
 	public void setStyles(Map<String, Map<String, Object>> styles)
 	{
-		this.styles = styles;
+		StyleTable table = new StyleTable();
+		table.putAll(styles);
+		this.styles = table;
+		styleChanged();
+	}
+
+	/**
+	 * Returns true if the given style is stored in this stylesheet, that is,
+	 * if changes to the style clear the resolved styles.
+	 */
+	protected boolean isStoredStyle(Map<String, Object> style)
+	{
+		return style instanceof Style && ((Style) style).getStylesheet() == this;
+	}
+
+	/**
+	 * Clears the resolved styles. This is called whenever a style in the
+	 * stylesheet is changed.
+	 */
+	public void styleChanged()
+	{
+		synchronized (resolvedStyles)
+		{
+			resolvedStyles.clear();
+			internedStyles.clear();
+		}
 	}
 
 	/**
@@ -140,7 +275,8 @@ public class mxStylesheet
 	}
 
 	/**
-	 * Stores the specified style under the given name.
+	 * Stores a copy of the specified style under the given name. The stored
+	 * style is returned by getStyles().get(name) and may be changed in-place.
 	 * 
 	 * @param name Name for the style to be stored.
 	 * @param style Key, value pairs that define the style.
@@ -161,6 +297,80 @@ public class mxStylesheet
 	 */
 	public Map<String, Object> getCellStyle(String name,
 			Map<String, Object> defaultStyle)
+	{
+		// Styles that are not owned by the stylesheet may change without
+		// notice so they are never cached
+		if (!(styles instanceof StyleTable)
+				|| (defaultStyle != null && !isStoredStyle(defaultStyle)))
+		{
+			return resolveCellStyle(name, defaultStyle);
+		}
+
+		String key = (name != null) ? name : "";
+
+		synchronized (resolvedStyles)
+		{
+			Map<String, mxCellStyle> cache = resolvedStyles.get(defaultStyle);
+
+			if (cache == null)
+			{
+				cache = new LinkedHashMap<String, mxCellStyle>(16, 0.75f,
+						true)
+				{
+
+					private static final long serialVersionUID = 1L;
+
+					protected boolean removeEldestEntry(
+							Map.Entry<String, mxCellStyle> eldest)
+					{
+						return size() > maxCachedStyles;
+					}
+
+				};
+				resolvedStyles.put(defaultStyle, cache);
+			}
+
+			mxCellStyle style = cache.get(key);
+
+			if (style == null)
+			{
+				Map<String, Object> tmp = resolveCellStyle(name, defaultStyle);
+
+				if (tmp == null)
+				{
+					return null;
+				}
+
+				style = new mxCellStyle(tmp);
+				mxCellStyle interned = internedStyles.get(style);
+
+				if (interned != null)
+				{
+					style = interned;
+				}
+				else
+				{
+					internedStyles.put(style, style);
+				}
+
+				cache.put(key, style);
+			}
+
+			return style;
+		}
+	}
+
+	/**
+	 * Parses the given style string and returns the resulting key, value
+	 * pairs without using the cache.
+	 * 
+	 * @param name String of the form stylename[;key=value] that represents the
+	 * style.
+	 * @param defaultStyle Default style to be returned if no style can be found.
+	 * @return Returns the style for the given formatted cell style.
+	 */
+	protected Map<String, Object> resolveCellStyle(String name,
+			Map<String, Object> defaultStyle)
 	{
 		Map<String, Object> style = defaultStyle;
 
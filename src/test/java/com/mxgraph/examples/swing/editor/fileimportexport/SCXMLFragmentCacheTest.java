@@ -0,0 +1,159 @@
+package com.mxgraph.examples.swing.editor.fileimportexport;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests of SCXMLFragmentCache.
+ */
+public class SCXMLFragmentCacheTest {
+
+	private File dir,cacheDir;
+	private SCXMLFragmentCache cache;
+
+	@Before
+	public void setUp() throws IOException {
+		dir=File.createTempFile("fragments", "");
+		dir.delete();
+		dir.mkdir();
+		cacheDir=new File(dir,"cache");
+		cache=new SCXMLFragmentCache(cacheDir, SCXMLFragmentCache.DEFAULT_MAX_SIZE);
+	}
+
+	@After
+	public void tearDown() {
+		delete(dir);
+	}
+
+	@Test
+	public void returnsWhatWasStored() throws IOException {
+		File f=write("a.scxml", "<scxml/>", 1000000);
+		assertNull(cache.get(f));
+		cache.put(f, cache.getStamp(f), "parsed a");
+		assertEquals("parsed a", cache.get(f));
+		assertEquals("parsed a", cache.get(f));
+		// a new instance on the same directory sees the entries.
+		assertEquals("parsed a", new SCXMLFragmentCache(cacheDir, SCXMLFragmentCache.DEFAULT_MAX_SIZE).get(f));
+	}
+
+	@Test
+	public void keepsEntriesOfTouchedFiles() throws IOException {
+		File f=write("a.scxml", "<scxml/>", 1000000);
+		cache.put(f, cache.getStamp(f), "parsed a");
+		f.setLastModified(2000000);
+		assertEquals("parsed a", cache.get(f));
+		// the new modification time has been stored, the entry is still used
+		assertEquals("parsed a", cache.get(f));
+		f.setLastModified(3000000);
+		assertEquals("parsed a", cache.get(f));
+	}
+
+	@Test
+	public void dropsEntriesOfChangedFiles() throws IOException {
+		File f=write("a.scxml", "<scxml/>", 1000000);
+		cache.put(f, cache.getStamp(f), "parsed a");
+		// same length, other content
+		write("a.scxml", "<scxmm/>", 2000000);
+		assertNull(cache.get(f));
+		cache.put(f, cache.getStamp(f), "parsed a again");
+		// other length, same modification time
+		write("a.scxml", "<scxml></scxml>", 2000000);
+		assertNull(cache.get(f));
+	}
+
+	@Test
+	public void ignoresFilesChangedWhileParsed() throws IOException {
+		File f=write("a.scxml", "<scxml/>", 1000000);
+		SCXMLFragmentCache.Stamp stamp=cache.getStamp(f);
+		write("a.scxml", "<scxml></scxml>", 2000000);
+		cache.put(f, stamp, "parsed old a");
+		assertNull(cache.get(f));
+		f.delete();
+		assertNull(cache.getStamp(f));
+	}
+
+	@Test
+	public void keepsFilesApart() throws IOException {
+		File a=write("a.scxml", "<scxml/>", 1000000);
+		File b=write("b.scxml", "<scxml/>", 1000000);
+		cache.put(a, cache.getStamp(a), "parsed a");
+		cache.put(b, cache.getStamp(b), "parsed b");
+		assertEquals("parsed a", cache.get(a));
+		assertEquals("parsed b", cache.get(b));
+		cache.invalidate(a);
+		assertNull(cache.get(a));
+		assertEquals("parsed b", cache.get(b));
+		cache.clear();
+		assertNull(cache.get(b));
+	}
+
+	@Test
+	public void evictsLeastRecentlyUsedEntries() throws Exception {
+		File[] files=new File[4];
+		for(int i=0;i<files.length;i++) files[i]=write(i+".scxml", "<scxml/>", 1000000);
+		ArrayList<Integer> content=new ArrayList<Integer>();
+		for(int i=0;i<2000;i++) content.add(i);
+		cache.put(files[0], cache.getStamp(files[0]), content);
+		// room for two entries
+		long entrySize=cacheDir.listFiles()[0].length();
+		cache=new SCXMLFragmentCache(cacheDir, 2*entrySize+entrySize/2);
+		cache.put(files[1], cache.getStamp(files[1]), content);
+		setUsed(files[0], 1000000);
+		setUsed(files[1], 2000000);
+		cache.put(files[2], cache.getStamp(files[2]), content);
+		assertEquals(2, cacheDir.listFiles().length);
+		assertNull(cache.get(files[0]));
+		assertNotNull(cache.get(files[1]));
+		// the hit has made files[1] the most recently used entry
+		setUsed(files[2], System.currentTimeMillis()-100000);
+		cache.put(files[3], cache.getStamp(files[3]), content);
+		assertNull(cache.get(files[2]));
+		assertNotNull(cache.get(files[1]));
+		assertNotNull(cache.get(files[3]));
+		long total=0;
+		for(File entry:cacheDir.listFiles()) total+=entry.length();
+		assertTrue(total<=2*entrySize+entrySize/2);
+	}
+
+	// sets the time of the last use of the entry of file. Entries are named after the SHA-1 of the path of their file.
+	private void setUsed(File file,long time) throws Exception {
+		byte[] hash=MessageDigest.getInstance("SHA-1").digest(file.getAbsolutePath().getBytes("UTF8"));
+		StringBuilder name=new StringBuilder();
+		for (byte b:hash) name.append(Character.forDigit((b>>4)&0xf, 16)).append(Character.forDigit(b&0xf, 16));
+		File entry=new File(cacheDir,name+".bin");
+		assertTrue(entry.exists());
+		entry.setLastModified(time);
+	}
+
+	private File write(String name,String content,long lastModified) throws IOException {
+		File f=new File(dir,name);
+		FileOutputStream out=new FileOutputStream(f);
+		try {
+			out.write(content.getBytes("UTF-8"));
+		} finally {
+			out.close();
+		}
+		f.setLastModified(lastModified);
+		return f;
+	}
+
+	private static void delete(File f) {
+		File[] children=f.listFiles();
+		if (children!=null) {
+			for(File c:children) delete(c);
+		}
+		f.delete();
+	}
+}
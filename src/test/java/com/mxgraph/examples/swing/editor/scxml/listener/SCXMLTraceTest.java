@@ -0,0 +1,195 @@
+package com.mxgraph.examples.swing.editor.scxml.listener;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests of SCXMLTraceWriter and SCXMLTraceReader.
+ */
+public class SCXMLTraceTest {
+
+	private static final long START = 1000000;
+	// spans several checkpoints and ends in the middle of one.
+	private static final int NUMEVENTS = 3*SCXMLTraceWriter.CHECKPOINTINTERVAL+17;
+
+	private File dir,file;
+	private List<SCXMLTraceReader.Record> written;
+
+	@Before
+	public void setUp() throws IOException {
+		dir=File.createTempFile("trace", "");
+		dir.delete();
+		dir.mkdir();
+		file=new File(dir,"test"+SCXMLTraceWriter.EXTENSION);
+		written=writeTrace(file, NUMEVENTS, 1);
+	}
+
+	@After
+	public void tearDown() {
+		for (File f:dir.listFiles()) f.delete();
+		dir.delete();
+	}
+
+	@Test
+	public void replaysAllEvents() throws IOException {
+		SCXMLTraceReader reader=new SCXMLTraceReader(file);
+		try {
+			assertEquals(START, reader.getStartTime());
+			assertEquals(NUMEVENTS, reader.size());
+			for(int i=0;i<NUMEVENTS;i++) assertRecord(i, reader.get(i));
+		} finally {
+			reader.close();
+		}
+	}
+
+	@Test
+	public void seeksBackwardsAndAcrossCheckpoints() throws IOException {
+		SCXMLTraceReader reader=new SCXMLTraceReader(file);
+		try {
+			for(int i=NUMEVENTS-1;i>=0;i-=97) assertRecord(i, reader.get(i));
+			Random random=new Random(2);
+			for(int n=0;n<1000;n++) {
+				int i=random.nextInt(NUMEVENTS);
+				assertRecord(i, reader.get(i));
+			}
+			int c=SCXMLTraceWriter.CHECKPOINTINTERVAL;
+			for(int i:new int[]{c-1,c,c+1,2*c,c-1,0,NUMEVENTS-1}) assertRecord(i, reader.get(i));
+		} finally {
+			reader.close();
+		}
+	}
+
+	@Test
+	public void restoresTheShownNodesAndEdges() throws IOException {
+		SCXMLTraceReader reader=new SCXMLTraceReader(file);
+		try {
+			LinkedHashSet<String> shown=new LinkedHashSet<String>();
+			for(int i=0;i<NUMEVENTS;i++) {
+				SCXMLTraceReader.Record r=written.get(i);
+				String k=r.arg1+"->"+r.arg2;
+				if (SCXMLTraceWriter.isShow(r.command)) shown.add(k);
+				else shown.remove(k);
+				if ((i%501==0) || (i==NUMEVENTS-1)) {
+					LinkedHashSet<String> read=new LinkedHashSet<String>();
+					for(SCXMLTraceReader.Record s:reader.getShownAt(i)) {
+						assertTrue(SCXMLTraceWriter.isShow(s.command));
+						read.add(s.arg1+"->"+s.arg2);
+					}
+					assertEquals("shown after event "+i, shown, read);
+				}
+			}
+		} finally {
+			reader.close();
+		}
+	}
+
+	@Test
+	public void rejectsTruncatedFiles() throws IOException {
+		long length=file.length();
+		for(long keep:new long[]{0,13,length/2,length-1}) {
+			File truncated=new File(dir,"truncated"+keep+SCXMLTraceWriter.EXTENSION);
+			copy(file, truncated, keep);
+			try {
+				new SCXMLTraceReader(truncated).close();
+				fail("a trace truncated to "+keep+" of "+length+" bytes was read");
+			} catch (IOException e) {
+			}
+		}
+	}
+
+	@Test
+	public void rejectsOtherFiles() throws IOException {
+		File other=new File(dir,"other"+SCXMLTraceWriter.EXTENSION);
+		FileOutputStream out=new FileOutputStream(other);
+		try {
+			out.write(new byte[100]);
+		} finally {
+			out.close();
+		}
+		try {
+			new SCXMLTraceReader(other).close();
+			fail("a file that is not a trace was read");
+		} catch (IOException e) {
+		}
+	}
+
+	@Test
+	public void replacesTheFileOnlyWhenClosed() throws IOException {
+		long length=file.length();
+		SCXMLTraceWriter out=new SCXMLTraceWriter(file, START);
+		out.write(SCXMLListener.SCXMLEvent.SHOWNODE, "a", null, START+1);
+		out.abort();
+		assertEquals(length, file.length());
+		assertEquals(1, dir.listFiles().length);
+
+		List<SCXMLTraceReader.Record> shorter=writeTrace(file, 10, 3);
+		SCXMLTraceReader reader=new SCXMLTraceReader(file);
+		try {
+			assertEquals(10, reader.size());
+			for(int i=0;i<10;i++) assertRecord(shorter.get(i), reader.get(i));
+		} finally {
+			reader.close();
+		}
+		assertEquals(1, dir.listFiles().length);
+	}
+
+	// writes numEvents random events for a few nodes and edges.
+	private static List<SCXMLTraceReader.Record> writeTrace(File file,int numEvents,long seed) throws IOException {
+		Random random=new Random(seed);
+		List<SCXMLTraceReader.Record> ret=new ArrayList<SCXMLTraceReader.Record>();
+		SCXMLTraceWriter out=new SCXMLTraceWriter(file, START);
+		long time=START;
+		for(int i=0;i<numEvents;i++) {
+			int command=random.nextInt(4);
+			String arg1="s"+random.nextInt(50);
+			String arg2=SCXMLTraceWriter.isEdge(command)?"t\u00e9"+random.nextInt(50):null;
+			// times are not always increasing
+			time+=random.nextInt(1000)-100;
+			out.write(command, arg1, arg2, time);
+			ret.add(new SCXMLTraceReader.Record(command, arg1, arg2, time));
+		}
+		assertEquals(numEvents, out.getNumberOfEvents());
+		out.close();
+		return ret;
+	}
+
+	private void assertRecord(int index,SCXMLTraceReader.Record r) {
+		assertRecord(written.get(index), r);
+	}
+	private static void assertRecord(SCXMLTraceReader.Record expected,SCXMLTraceReader.Record r) {
+		assertEquals(expected.command, r.command);
+		assertEquals(expected.arg1, r.arg1);
+		assertEquals(expected.arg2, r.arg2);
+		assertEquals(expected.time, r.time);
+	}
+
+	private static void copy(File from,File to,long length) throws IOException {
+		RandomAccessFile in=new RandomAccessFile(from, "r");
+		try {
+			byte[] b=new byte[(int) length];
+			in.readFully(b);
+			FileOutputStream out=new FileOutputStream(to);
+			try {
+				out.write(b);
+			} finally {
+				out.close();
+			}
+		} finally {
+			in.close();
+		}
+	}
+}
@@ -0,0 +1,181 @@
+package com.mxgraph.layout;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+
+import org.junit.Test;
+
+import com.mxgraph.model.mxCell;
+import com.mxgraph.model.mxGeometry;
+import com.mxgraph.model.mxIGraphModel;
+import com.mxgraph.view.mxGraph;
+
+/**
+ * Tests the cache of layout signatures of mxClusterLayout in serial and
+ * parallel mode.
+ */
+public class mxClusterLayoutTest {
+
+	private static final int CLUSTERS=4,SUBCLUSTERS=4,LEAVES=6;
+
+	// lays out the clusters of a graph and records which ones were laid out in the last run.
+	private static class Fixture {
+		final mxGraph graph=createGraph();
+		final Set<String> laidOut=Collections.synchronizedSet(new HashSet<String>());
+		final mxClusterLayout layout;
+		Fixture(boolean parallel) {
+			layout=new mxClusterLayout(graph) {
+				@Override
+				protected boolean isLayoutRequired(mxCell cluster, Map<Object,mxCell> results) {
+					boolean required=super.isLayoutRequired(cluster, results);
+					if (required) laidOut.add(cluster.getId());
+					return required;
+				}
+			};
+			layout.setParallel(parallel);
+		}
+		Set<String> run() {
+			laidOut.clear();
+			layout.execute(graph.getDefaultParent());
+			return new HashSet<String>(laidOut);
+		}
+		mxCell cluster(int i) {
+			return (mxCell) graph.getModel().getChildAt(graph.getDefaultParent(), i);
+		}
+		mxCell subcluster(int i,int j) {
+			return (mxCell) cluster(i).getChildAt(j);
+		}
+		void setSize(Object cell,double width,double height) {
+			mxGeometry geo=(mxGeometry) graph.getModel().getGeometry(cell).clone();
+			geo.setWidth(width);
+			geo.setHeight(height);
+			graph.getModel().setGeometry(cell, geo);
+		}
+	}
+
+	@Test
+	public void doesNotLayOutUnchangedClustersAgain() {
+		for(boolean parallel:new boolean[]{false,true}) {
+			Fixture f=new Fixture(parallel);
+			assertEquals(CLUSTERS*(SUBCLUSTERS+1), f.run().size());
+			Map<Object,String> geometries=getGeometries(f.graph);
+			assertEquals("parallel="+parallel, 0, f.run().size());
+			assertEquals(geometries, getGeometries(f.graph));
+			assertEquals(CLUSTERS*(SUBCLUSTERS+1), f.layout.clusterID2LayoutSignature.size());
+		}
+	}
+
+	@Test
+	public void laysOutClustersWithResizedChildren() {
+		for(boolean parallel:new boolean[]{false,true}) {
+			Fixture f=new Fixture(parallel);
+			f.run();
+			mxCell sub=f.subcluster(2, 1);
+			mxGeometry before=sub.getGeometry();
+			f.setSize(sub.getChildAt(0), 300, 30);
+			Set<String> laidOut=f.run();
+			assertTrue("parallel="+parallel, laidOut.contains(sub.getId()));
+			// the cluster that contains the subcluster is laid out again only if the subcluster has changed its size
+			boolean resized=before.getWidth()!=sub.getGeometry().getWidth() || before.getHeight()!=sub.getGeometry().getHeight();
+			assertEquals(resized, laidOut.contains(f.cluster(2).getId()));
+			assertEquals(resized?2:1, laidOut.size());
+			assertEquals(0, f.run().size());
+		}
+	}
+
+	@Test
+	public void laysOutResizedClusters() {
+		for(boolean parallel:new boolean[]{false,true}) {
+			Fixture f=new Fixture(parallel);
+			f.run();
+			mxCell sub=f.subcluster(1, 3);
+			f.setSize(sub, 900, 900);
+			Set<String> laidOut=f.run();
+			assertTrue("parallel="+parallel, laidOut.contains(sub.getId()));
+			// the layout has fitted the subcluster to its children again
+			assertTrue(sub.getGeometry().getWidth()<900 && sub.getGeometry().getHeight()<900);
+			assertEquals(0, f.run().size());
+		}
+	}
+
+	@Test
+	public void forgetsDeletedClusters() {
+		for(boolean parallel:new boolean[]{false,true}) {
+			Fixture f=new Fixture(parallel);
+			f.run();
+			mxCell removed=f.cluster(3);
+			List<String> ids=new ArrayList<String>();
+			ids.add(removed.getId());
+			for(int j=0;j<SUBCLUSTERS;j++) ids.add(f.subcluster(3, j).getId());
+			f.graph.getModel().remove(removed);
+			assertEquals("parallel="+parallel, 0, f.run().size());
+			assertEquals(CLUSTERS*(SUBCLUSTERS+1)-ids.size(), f.layout.clusterID2LayoutSignature.size());
+			for(String id:ids) assertFalse(f.layout.clusterID2LayoutSignature.containsKey(id));
+		}
+	}
+
+	@Test
+	public void laysOutEverythingForANewRoot() {
+		for(boolean parallel:new boolean[]{false,true}) {
+			Fixture f=new Fixture(parallel);
+			f.run();
+			f.graph.getModel().setRoot(createGraph().getModel().getRoot());
+			assertEquals("parallel="+parallel, CLUSTERS*(SUBCLUSTERS+1), f.run().size());
+			f.layout.clearLayoutCache();
+			assertEquals(CLUSTERS*(SUBCLUSTERS+1), f.run().size());
+		}
+	}
+
+	// clusters of subclusters of connected leaves, with edges between the subclusters.
+	private static mxGraph createGraph() {
+		Random random=new Random(1);
+		mxGraph graph=new mxGraph();
+		Object parent=graph.getDefaultParent();
+		graph.getModel().beginUpdate();
+		try {
+			for(int c=0;c<CLUSTERS;c++) {
+				Object cluster=graph.insertVertex(parent, null, "c"+c, 0, 0, 100, 100, "shape=swimlane");
+				List<Object> subclusters=new ArrayList<Object>();
+				for(int s=0;s<SUBCLUSTERS;s++) {
+					Object sub=graph.insertVertex(cluster, null, "s"+c+"."+s, 0, 0, 100, 100, "shape=swimlane");
+					List<Object> leaves=new ArrayList<Object>();
+					for(int i=0;i<LEAVES;i++) {
+						Object v=graph.insertVertex(sub, null, "v"+i, random.nextInt(300), random.nextInt(300), 60, 30);
+						if (i>0) graph.insertEdge(sub, null, "e", leaves.get(random.nextInt(i)), v);
+						leaves.add(v);
+					}
+					graph.insertEdge(sub, null, "e", leaves.get(0), leaves.get(LEAVES-1));
+					subclusters.add(sub);
+				}
+				for(int s=1;s<SUBCLUSTERS;s++) graph.insertEdge(cluster, null, "x", subclusters.get(random.nextInt(s)), subclusters.get(s));
+			}
+		} finally {
+			graph.getModel().endUpdate();
+		}
+		return graph;
+	}
+
+	private static Map<Object,String> getGeometries(mxGraph graph) {
+		Map<Object,String> ret=new HashMap<Object,String>();
+		addGeometries(graph.getModel(), graph.getDefaultParent(), ret);
+		return ret;
+	}
+	private static void addGeometries(mxIGraphModel model,Object parent,Map<Object,String> result) {
+		for(int i=0;i<model.getChildCount(parent);i++) {
+			Object c=model.getChildAt(parent, i);
+			mxGeometry geo=model.getGeometry(c);
+			if (geo!=null) result.put(c, geo+" "+geo.getPoints());
+			addGeometries(model, c, result);
+		}
+	}
+}
@@ -0,0 +1,208 @@
+package com.mxgraph.swing;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.awt.Rectangle;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import com.mxgraph.model.mxGeometry;
+import com.mxgraph.model.mxIGraphModel;
+import com.mxgraph.util.mxRectangle;
+import com.mxgraph.view.mxCellState;
+import com.mxgraph.view.mxGraph;
+import com.mxgraph.view.mxMultiplicity;
+import com.mxgraph.view.mxSpatialIndex;
+
+/**
+ * Tests the hit-detection of mxGraphComponent.getCellAt, which uses the
+ * spatial index of the view, against a scan of all cells.
+ */
+public class mxGraphComponentHitTest {
+
+	private static final int WIDTH=1200,HEIGHT=900;
+
+	private Random random;
+	private mxGraph graph;
+	private mxGraphComponent component;
+	private List<Object> vertices;
+
+	@Before
+	public void setUp() {
+		random=new Random(1);
+		graph=new mxGraph();
+		graph.setMultiplicities(new mxMultiplicity[0]);
+		vertices=new ArrayList<Object>();
+		Object parent=graph.getDefaultParent();
+		graph.getModel().beginUpdate();
+		try {
+			for(int i=0;i<15;i++) {
+				Object group=graph.insertVertex(parent, null, "g"+i, random.nextInt(WIDTH-300), random.nextInt(HEIGHT-200), 300, 200, (i%3==0)?"swimlane":null);
+				vertices.add(group);
+				for(int j=0;j<8;j++) {
+					Object child=graph.insertVertex(group, null, "c"+i+"."+j, random.nextInt(260), random.nextInt(170), 40, 25);
+					vertices.add(child);
+					if (j%4==0) {
+						for(int k=0;k<3;k++) vertices.add(graph.insertVertex(child, null, "d"+i+"."+j+"."+k, random.nextInt(30), random.nextInt(15), 10, 10));
+					}
+				}
+			}
+			for(int i=0;i<60;i++) {
+				Object source=vertices.get(random.nextInt(vertices.size()));
+				Object target=vertices.get(random.nextInt(vertices.size()));
+				if (source!=target) graph.insertEdge(parent, null, "e"+i, source, target);
+			}
+		} finally {
+			graph.getModel().endUpdate();
+		}
+		component=new mxGraphComponent(graph);
+		component.getGraphControl().setSize(WIDTH, HEIGHT);
+	}
+
+	@Test
+	public void findsTheSameCellsAsAScan() {
+		assertSameHits();
+		Object group=graph.getDefaultParent();
+		Object avoid=vertices.get(0);
+		for(int x=0;x<WIDTH;x+=7) {
+			for(int y=0;y<HEIGHT;y+=7) {
+				assertSame(getCellAtByScan(x, y, false, group, avoid, true), component.getCellAt(x, y, false, group, avoid, true));
+				assertSame(getCellAtByScan(x, y, true, avoid, null, false), component.getCellAt(x, y, true, avoid, null, false));
+			}
+		}
+	}
+
+	@Test
+	public void followsMovedResizedAndRemovedCells() {
+		for(int round=0;round<5;round++) {
+			graph.getModel().beginUpdate();
+			try {
+				for(int i=0;i<20;i++) {
+					Object cell=vertices.get(random.nextInt(vertices.size()));
+					if (graph.getModel().getParent(cell)==null) continue;
+					switch (random.nextInt(4)) {
+					case 0:
+						graph.moveCells(new Object[]{cell}, random.nextInt(201)-100, random.nextInt(201)-100);
+						break;
+					case 1:
+						mxGeometry geo=(mxGeometry) graph.getModel().getGeometry(cell).clone();
+						geo.setWidth(geo.getWidth()*(0.5+random.nextDouble()));
+						geo.setHeight(geo.getHeight()*(0.5+random.nextDouble()));
+						graph.getModel().setGeometry(cell, geo);
+						break;
+					case 2:
+						graph.getModel().setValue(cell, "a much longer label than before "+i);
+						break;
+					default:
+						graph.removeCells(new Object[]{cell});
+					}
+				}
+			} finally {
+				graph.getModel().endUpdate();
+			}
+			assertSameHits();
+		}
+		// the removed cells are no longer in the index
+		mxSpatialIndex index=graph.getView().getSpatialIndex();
+		for(Object cell:index.getCells(new mxRectangle(-10000, -10000, 20000, 20000))) {
+			assertTrue(graph.getModel().contains(cell));
+		}
+	}
+
+	@Test
+	public void followsTheScaleAndTranslate() {
+		graph.getView().scaleAndTranslate(0.7, 40, -30);
+		assertSameHits();
+		graph.getView().setScale(1.5);
+		assertSameHits();
+	}
+
+	@Test
+	public void returnsTheCellsThatContainAPoint() {
+		mxSpatialIndex index=new mxSpatialIndex(50);
+		Map<Object,mxRectangle> bounds=new IdentityHashMap<Object,mxRectangle>();
+		for(int i=0;i<500;i++) {
+			Object cell=new Object();
+			// a few cells span more than the maximum number of buckets
+			double size=(i%50==0)?2000:random.nextInt(200);
+			mxRectangle r=new mxRectangle(random.nextInt(1000)-100, random.nextInt(1000)-100, size, random.nextInt(200));
+			index.put(cell, r);
+			bounds.put(cell, r);
+			if (i%5==0) {
+				// moves the cell to other buckets
+				r=new mxRectangle(random.nextInt(1000), random.nextInt(1000), random.nextInt(100), random.nextInt(100));
+				index.put(cell, r);
+				bounds.put(cell, r);
+			} else if (i%7==0) {
+				index.remove(cell);
+				bounds.remove(cell);
+			}
+		}
+		assertEquals(bounds.size(), index.size());
+		for(int n=0;n<2000;n++) {
+			double x=random.nextDouble()*1200-150,y=random.nextDouble()*1200-150;
+			double tolerance=random.nextInt(3)*random.nextDouble()*20;
+			List<Object> expected=new ArrayList<Object>();
+			for(Map.Entry<Object,mxRectangle> e:bounds.entrySet()) {
+				mxRectangle r=e.getValue();
+				if (r.getX()-tolerance<=x && x<=r.getX()+r.getWidth()+tolerance && r.getY()-tolerance<=y && y<=r.getY()+r.getHeight()+tolerance) expected.add(e.getKey());
+			}
+			List<Object> found=index.getCells(x, y, tolerance);
+			assertEquals(expected.size(), found.size());
+			assertTrue(found.containsAll(expected));
+		}
+		index.clear();
+		assertEquals(0, index.size());
+		assertEquals(0, index.getCells(100, 100, 5).size());
+	}
+
+	// compares getCellAt with the scan on a grid of points and around the cells.
+	private void assertSameHits() {
+		for(int x=-20;x<WIDTH;x+=9) {
+			for(int y=-20;y<HEIGHT;y+=9) {
+				assertHit(x, y);
+			}
+		}
+		for(Object cell:vertices) {
+			mxCellState state=graph.getView().getState(cell);
+			if (state!=null) {
+				Rectangle r=state.getRectangle();
+				assertHit(r.x, r.y);
+				assertHit(r.x+r.width, r.y+r.height);
+				assertHit((int) state.getCenterX(), (int) state.getCenterY());
+			}
+		}
+	}
+
+	private void assertHit(int x,int y) {
+		assertSame("at "+x+","+y, getCellAtByScan(x, y, true, null, null, false), component.getCellAt(x, y, true));
+		assertSame("at "+x+","+y, getCellAtByScan(x, y, false, null, null, false), component.getCellAt(x, y, false));
+	}
+
+	// the recursive scan of all cells that getCellAt did before the spatial index.
+	private Object getCellAtByScan(int x,int y,boolean hitSwimlaneContent,Object parent,Object avoidThis,boolean onlyNodes) {
+		if (parent==null) parent=graph.getDefaultParent();
+		mxIGraphModel model=graph.getModel();
+		if (parent!=null && parent!=avoidThis && (!onlyNodes || model.isVertex(parent))) {
+			Rectangle hit=new Rectangle(x, y, 1, 1);
+			for(int i=model.getChildCount(parent)-1;i>=0;i--) {
+				Object cell=model.getChildAt(parent, i);
+				if (!onlyNodes || model.isVertex(cell)) {
+					Object result=getCellAtByScan(x, y, hitSwimlaneContent, cell, avoidThis, onlyNodes);
+					if (result!=null && result!=avoidThis) return result;
+					else if (cell!=avoidThis && component.doesThisRectangleIntersectThisCell(hit, cell, hitSwimlaneContent, null)) return cell;
+				}
+			}
+			if (component.doesThisRectangleIntersectThisCell(hit, parent, hitSwimlaneContent, null)) return parent;
+		}
+		return null;
+	}
+}